@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import com.butterfill.plsqlcore.ExtractorMain;
+import com.butterfill.plsqlcore.ModuleIndex;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how fast ExtractorMain extracts synthetic jars (see SyntheticJar).
+ * <br/>
+ * Each extract overload is benchmarked. extract() extracts the files of the top level
+ * modules only. The other overloads are passed every module name (including sub-modules)
+ * so they extract every file in the jar.
+ * <br/>
+ * The entries counter reports entries written per unit of time (throughput mode) and time per
+ * entry (average time mode). Run with -prof gc (or use main) to see the allocation rate.
+ * <br/>
+ * Jars and extracted files are written to /dev/shm (a tmpfs on most Linux systems) when it
+ * is available so that the benchmark measures extraction rather than the disk.
+ * Set the system property plsql-core.benchmarks.dir to use another directory.
+ *
+ * @author peter
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractBenchmark {
+
+    /**
+     * The shape of the jar to extract.
+     */
+    @Param({"SMALL_FILES", "LARGE_BODIES", "DEEP_TREES"})
+    public SyntheticJar.Shape shape;
+
+    /**
+     * The compression method of the jar entries.
+     */
+    @Param({"DEFLATED", "STORED"})
+    public String compression;
+
+    /**
+     * Pass true to append a module index to the jar.
+     */
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    /**
+     * The number of threads used to write files.
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    /**
+     * The directory that holds the jar and the extracted files.
+     */
+    private File workDir;
+
+    /**
+     * The extractor being measured.
+     */
+    private ExtractorMain extractor;
+
+    /**
+     * Every module name in the jar.
+     */
+    private List<String> includes;
+
+    /**
+     * Every module name in the jar.
+     */
+    private String[] includeArray;
+
+    /**
+     * A file holding every module name in the jar (one per line).
+     */
+    private File includeFile;
+
+    /**
+     * System.out before it was replaced by a stream that discards everything.
+     */
+    private PrintStream systemOut;
+
+    /**
+     * Counts the entries written by the benchmark methods.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Entries {
+
+        /**
+         * The number of entries written.
+         */
+        public long entries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entries = 0;
+        }
+
+    } // End of class Entries
+
+    /**
+     * Returns the directory to create benchmark files in.
+     */
+    static File getBaseDir() {
+        String dir = System.getProperty("plsql-core.benchmarks.dir");
+
+        if (dir != null) {
+            return new File(dir);
+        }
+
+        File shm = new File("/dev/shm");
+
+        if (shm.isDirectory() && shm.canWrite()) {
+            return shm;
+        }
+
+        return new File(System.getProperty("java.io.tmpdir"));
+
+    }
+
+    /**
+     * Deletes the specified file or directory (and anything in it).
+     */
+    static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = File.createTempFile("plsql-core-bench", "", getBaseDir());
+        workDir.delete();
+        if (!workDir.mkdirs()) {
+            throw new IOException("failed to create " + workDir);
+        }
+
+        SyntheticJar jar = new SyntheticJar(new File(workDir, "bench.jar"), shape,
+                "STORED".equals(compression) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+
+        if (indexed) {
+            ModuleIndex.main(new String[] {jar.getFile().getPath()});
+        }
+
+        includes = jar.getModules();
+        includeArray = includes.toArray(new String[includes.size()]);
+        includeFile = new File(workDir, "plsql-core-include.txt");
+
+        FileWriter writer = new FileWriter(includeFile);
+        try {
+            for (String module : includes) {
+                writer.write(module + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        extractor = ExtractorMain.forJar(jar.getFile());
+        extractor.setOutputDirectoryName(new File(workDir, "out").getPath());
+        extractor.setThreadCount(threads);
+
+        // ExtractorMain reports every file it writes
+        systemOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        }));
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(systemOut);
+        delete(workDir);
+    }
+
+    @Benchmark
+    public int extractAll(final Entries counter) throws Exception {
+        extractor.extract();
+        counter.entries += extractor.getWrittenCount();
+        return extractor.getWrittenCount();
+    }
+
+    @Benchmark
+    public int extractList(final Entries counter) throws Exception {
+        extractor.extract(includes);
+        counter.entries += extractor.getWrittenCount();
+        return extractor.getWrittenCount();
+    }
+
+    @Benchmark
+    public int extractStringArray(final Entries counter) throws Exception {
+        extractor.extract(includeArray);
+        counter.entries += extractor.getWrittenCount();
+        return extractor.getWrittenCount();
+    }
+
+    @Benchmark
+    public int extractFile(final Entries counter) throws Exception {
+        extractor.extract(includeFile);
+        counter.entries += extractor.getWrittenCount();
+        return extractor.getWrittenCount();
+    }
+
+    /**
+     * Runs the benchmarks of this class with the GC profiler (which reports allocation rate).
+     * Arguments are passed to JMH as a regular expression that selects the benchmarks to run.
+     *
+     * @param args
+     *   An optional regular expression (e.g. extractAll).
+     * @throws Exception
+     *   If the benchmarks fail.
+     */
+    public static void main(final String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ExtractBenchmark.class.getSimpleName() +
+                        ((args.length == 0) ? "" : "." + args[0]))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+
+    }
+
+} // End of class ExtractBenchmark
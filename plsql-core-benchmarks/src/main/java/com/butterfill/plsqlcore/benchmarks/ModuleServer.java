@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server that stands in for a module server (see SyntheticModuleTree).
+ * <br/>
+ * Latency and bandwidth limits can be injected so that download strategies can be compared
+ * under network conditions that are closer to a real module server than the loopback
+ * interface. Latency is added before each response. The bandwidth limit applies to each
+ * response, as it would if the limit was the server's (or the client's) own link.
+ * <br/>
+ * The server counts the requests it handles and the bytes it sends.
+ *
+ * @author peter
+ */
+public final class ModuleServer {
+
+    /**
+     * The number of bytes written at a time when the bandwidth is limited.
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    static {
+        // the server writes headers and body separately. without this, Nagle's algorithm and
+        // delayed ACKs add ~40ms to each response, which would swamp the injected latency
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads that handle requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The files served keyed by path (e.g. /m/m_0.sql).
+     */
+    private volatile Map<String, byte[]> files = Collections.emptyMap();
+
+    /**
+     * The delay (in milliseconds) before each response.
+     */
+    private volatile long latency;
+
+    /**
+     * The maximum number of bytes per second sent in each response. 0 for no limit.
+     */
+    private volatile long bandwidth;
+
+    /**
+     * The number of requests handled.
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * The number of bytes sent (not counting headers).
+     */
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * Creates and starts a server on a free port of the loopback interface.
+     *
+     * @throws IOException
+     *   If we fail to start the server.
+     */
+    public ModuleServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // a thread per request so latency does not limit the number of parallel requests
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Sends the file requested by the specified exchange.
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+
+        try {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            byte[] data = files.get(exchange.getRequestURI().getPath());
+
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, data.length);
+            OutputStream out = exchange.getResponseBody();
+            long limit = bandwidth;
+
+            if (limit <= 0) {
+                out.write(data);
+
+            } else {
+                long start = System.nanoTime();
+
+                for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+                    int length = Math.min(CHUNK_SIZE, data.length - offset);
+                    out.write(data, offset, length);
+
+                    // sleep until the time at which these bytes should have been sent
+                    long due = start + (offset + length) * 1000000000L / limit;
+                    long wait = (due - System.nanoTime()) / 1000000L;
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                }
+
+            }
+
+            out.close();
+            byteCount.addAndGet(data.length);
+
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("interrupted while serving " +
+                    exchange.getRequestURI());
+
+        }
+
+    }
+
+    /**
+     * Returns the URL of this server (e.g. http://127.0.0.1:8080) without a trailing slash.
+     *
+     * @return
+     *   The URL of this server.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets the files served by this server.
+     *
+     * @param files
+     *   The content of each file keyed by path (e.g. /m/m_0.sql).
+     */
+    public void setFiles(final Map<String, byte[]> files) {
+        this.files = files;
+    }
+
+    /**
+     * Sets the delay before each response.
+     *
+     * @param latency
+     *   The delay in milliseconds. 0 for no delay.
+     */
+    public void setLatency(final long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the maximum rate at which each response is sent.
+     *
+     * @param bandwidth
+     *   The maximum number of bytes per second. 0 for no limit.
+     */
+    public void setBandwidth(final long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * Returns the number of requests this server has handled.
+     *
+     * @return
+     *   The number of requests.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of bytes this server has sent, not counting headers.
+     *
+     * @return
+     *   The number of bytes sent.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * Stops this server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+} // End of class ModuleServer
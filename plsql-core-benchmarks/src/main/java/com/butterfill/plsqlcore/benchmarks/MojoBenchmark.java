@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import com.butterfill.plsqlcore.maven.Extract;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how long the Extract goal (of plsql-core-maven-tools) takes to resolve and
+ * download synthetic module trees (see SyntheticModuleTree) from a local ModuleServer.
+ * <br/>
+ * Each operation is a clean extract: the module cache, lock file and fingerprint are
+ * disabled and the output directory is deleted before each operation (outside of the
+ * measured time). So every operation reads every descriptor and file from the server.
+ * <br/>
+ * Run with -prof com.butterfill.plsqlcore.benchmarks.TransferProfiler (or use main) to see
+ * the requests and bytes of each operation and the peak heap usage.
+ * <br/>
+ * Output files are written to /dev/shm when it is available (see ExtractBenchmark).
+ *
+ * @author peter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MojoBenchmark {
+
+    /**
+     * The shape of the module tree to extract.
+     */
+    @Param({"WIDE", "DEEP", "MANY_FILES", "LARGE_FILES"})
+    public SyntheticModuleTree.Shape shape;
+
+    /**
+     * Pass true to give each module a bundle.
+     */
+    @Param({"false", "true"})
+    public boolean bundled;
+
+    /**
+     * The delay (in milliseconds) before each response from the server.
+     */
+    @Param({"0", "20"})
+    public long latency;
+
+    /**
+     * The maximum number of bytes per second sent in each response. 0 for no limit.
+     */
+    @Param({"0", "10485760"})
+    public long bandwidth;
+
+    /**
+     * The server that serves the module tree.
+     */
+    private ModuleServer server;
+
+    /**
+     * The directory that holds the includes file and the extracted files.
+     */
+    private File workDir;
+
+    /**
+     * The directory that modules are extracted to.
+     */
+    private File outputDir;
+
+    /**
+     * The mojo being measured.
+     */
+    private Extract extract;
+
+    /**
+     * System.out before it was replaced by a stream that discards everything.
+     */
+    private PrintStream systemOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new ModuleServer();
+        server.setLatency(latency);
+        server.setBandwidth(bandwidth);
+
+        SyntheticModuleTree tree = new SyntheticModuleTree(server.getBaseUrl(), shape, bundled);
+        server.setFiles(tree.getFiles());
+        TransferProfiler.setServer(server);
+
+        workDir = File.createTempFile("plsql-core-bench", "", ExtractBenchmark.getBaseDir());
+        workDir.delete();
+        if (!workDir.mkdirs()) {
+            throw new IOException("failed to create " + workDir);
+        }
+
+        File includesFile = new File(workDir, "plsql-core-includes.xml");
+        OutputStream out = new FileOutputStream(includesFile);
+        try {
+            out.write(("<plsql-core-includes " +
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                    "<plsql-core-module-location>" +
+                    SyntheticModuleTree.getRootLocation(server.getBaseUrl()) +
+                    "</plsql-core-module-location></plsql-core-includes>").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        outputDir = new File(workDir, "out");
+
+        extract = new Extract();
+        extract.setIncludesFile(includesFile);
+        extract.setOutputDirectory(outputDir.getPath());
+        extract.setCacheDirectory(null);
+        extract.setLockFile(null);
+        extract.setFingerprintFile(null);
+        extract.setExecuteIfNoNetwork(true);
+
+        // Extract logs every file it writes
+        systemOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        }));
+
+    }
+
+    /**
+     * Deletes the output of the last operation. Each operation takes milliseconds (at least),
+     * so an invocation level setup does not skew the results.
+     */
+    @Setup(Level.Invocation)
+    public void clean() {
+        ExtractBenchmark.delete(outputDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(systemOut);
+        server.stop();
+        ExtractBenchmark.delete(workDir);
+    }
+
+    @Benchmark
+    public void extract() throws Exception {
+        extract.execute();
+    }
+
+    /**
+     * Runs the benchmarks of this class with the TransferProfiler and GC profiler.
+     * Arguments are passed to JMH as a regular expression that selects the benchmarks to run.
+     *
+     * @param args
+     *   An optional regular expression (e.g. extract).
+     * @throws Exception
+     *   If the benchmarks fail.
+     */
+    public static void main(final String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(MojoBenchmark.class.getSimpleName() +
+                        ((args.length == 0) ? "" : "." + args[0]))
+                .addProfiler(TransferProfiler.class)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+
+    }
+
+} // End of class MojoBenchmark
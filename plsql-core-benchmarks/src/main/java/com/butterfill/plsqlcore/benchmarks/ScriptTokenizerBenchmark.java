@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import com.butterfill.plsqlcore.deploy.ScriptToken;
+import com.butterfill.plsqlcore.deploy.ScriptTokenizer;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how fast ScriptTokenizer splits every script of the SQL modules
+ * (src/main/sql of plsql-core).
+ * <br/>
+ * The scripts are read from the plsql-core jar (from plsql/) unless the system property
+ * plsql-core.benchmarks.sqlDir names a directory to read them from.
+ * <br/>
+ * tokenize reads scripts held in memory. tokenizeFiles reads them from files (in /dev/shm when
+ * it is available, see ExtractBenchmark). regexSplit is the approach ScriptTokenizer replaces:
+ * reading each script into a String and splitting it on terminators using a regular
+ * expression (which does not handle quotes or comments).
+ * <br/>
+ * The tokens counter reports tokens per unit of time (throughput mode) and time per token
+ * (average time mode). Run with -prof gc (or use main) to see the allocation rate.
+ *
+ * @author peter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptTokenizerBenchmark {
+
+    /**
+     * The character set of the scripts.
+     */
+    private static final String CHARSET = "ISO-8859-1";
+
+    /**
+     * Splits a script into statements the way our tools did before ScriptTokenizer.
+     */
+    private static final Pattern TERMINATOR =
+            Pattern.compile("^\\s*/\\s*$|;\\s*$", Pattern.MULTILINE);
+
+    /**
+     * The content of each script keyed by path.
+     */
+    private Map<String, char[]> scripts;
+
+    /**
+     * The directory that holds a copy of every script.
+     */
+    private File workDir;
+
+    /**
+     * The scripts in workDir.
+     */
+    private List<File> files;
+
+    /**
+     * Counts the tokens read by the benchmark methods.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+
+        /**
+         * The number of tokens read.
+         */
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+
+    } // End of class Tokens
+
+    /**
+     * Returns true if the specified file name is the name of a SQL*Plus script.
+     */
+    private static boolean isScript(final String name) {
+        return name.endsWith(".sql") || name.endsWith(".pck") || name.endsWith(".spc") ||
+                name.endsWith(".bdy");
+    }
+
+    /**
+     * Reads the specified stream (and closes it).
+     */
+    private static char[] read(final InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString(CHARSET).toCharArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads every script in the specified directory (and its sub-directories).
+     */
+    private static void readScripts(final File dir, final String path,
+            final Map<String, char[]> result) throws IOException {
+        File[] children = dir.listFiles();
+
+        if (children == null) {
+            throw new IOException("not a directory: " + dir);
+        }
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                readScripts(child, path + child.getName() + "/", result);
+            } else if (isScript(child.getName())) {
+                result.put(path + child.getName(), read(new FileInputStream(child)));
+            }
+        }
+
+    }
+
+    /**
+     * Reads every script of the SQL modules.
+     */
+    private static Map<String, char[]> readScripts() throws IOException {
+        Map<String, char[]> result = new LinkedHashMap<String, char[]>();
+        String sqlDir = System.getProperty("plsql-core.benchmarks.sqlDir");
+
+        if (sqlDir != null) {
+            readScripts(new File(sqlDir), "", result);
+            return result;
+        }
+
+        File source = new File(ScriptTokenizer.class.getProtectionDomain().getCodeSource()
+                .getLocation().getPath());
+
+        if (source.isDirectory()) {
+            readScripts(new File(source, "plsql"), "", result);
+            return result;
+        }
+
+        ZipFile jar = new ZipFile(source);
+
+        try {
+            for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                String name = entry.getName();
+                if (name.startsWith("plsql/") && isScript(name)) {
+                    result.put(name.substring("plsql/".length()),
+                            read(jar.getInputStream(entry)));
+                }
+            }
+        } finally {
+            jar.close();
+        }
+
+        return result;
+
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        scripts = readScripts();
+
+        if (scripts.isEmpty()) {
+            throw new IOException("no scripts found");
+        }
+
+        workDir = File.createTempFile("plsql-core-bench", "", ExtractBenchmark.getBaseDir());
+        workDir.delete();
+        files = new ArrayList<File>();
+
+        for (Map.Entry<String, char[]> entry : scripts.entrySet()) {
+            File file = new File(workDir, entry.getKey());
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new String(entry.getValue()).getBytes(CHARSET));
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ExtractBenchmark.delete(workDir);
+    }
+
+    /**
+     * Reads every token of the specified tokenizer (and closes it).
+     */
+    private static int tokenize(final ScriptTokenizer tokenizer, final Blackhole blackhole)
+            throws IOException {
+        int count = 0;
+
+        try {
+            for (ScriptToken t = tokenizer.next(); t != null; t = tokenizer.next()) {
+                blackhole.consume(t);
+                count++;
+            }
+        } finally {
+            tokenizer.close();
+        }
+
+        return count;
+
+    }
+
+    @Benchmark
+    public int tokenize(final Tokens counter, final Blackhole blackhole) throws Exception {
+        int count = 0;
+        for (char[] script : scripts.values()) {
+            count += tokenize(new ScriptTokenizer(new CharArrayReader(script)), blackhole);
+        }
+        counter.tokens += count;
+        return count;
+    }
+
+    @Benchmark
+    public int tokenizeFiles(final Tokens counter, final Blackhole blackhole)
+            throws Exception {
+        int count = 0;
+        for (File file : files) {
+            count += tokenize(new ScriptTokenizer(
+                    new InputStreamReader(new FileInputStream(file), CHARSET)), blackhole);
+        }
+        counter.tokens += count;
+        return count;
+    }
+
+    @Benchmark
+    public int regexSplit(final Tokens counter, final Blackhole blackhole) throws Exception {
+        int count = 0;
+        for (char[] script : scripts.values()) {
+            for (String statement : TERMINATOR.split(new String(script))) {
+                blackhole.consume(statement);
+                count++;
+            }
+        }
+        counter.tokens += count;
+        return count;
+    }
+
+    /**
+     * Runs the benchmarks of this class with the GC profiler (which reports allocation rate).
+     * Arguments are passed to JMH as a regular expression that selects the benchmarks to run.
+     *
+     * @param args
+     *   An optional regular expression (e.g. tokenize).
+     * @throws Exception
+     *   If the benchmarks fail.
+     */
+    public static void main(final String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ScriptTokenizerBenchmark.class.getSimpleName() +
+                        ((args.length == 0) ? "" : "." + args[0]))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+
+    }
+
+} // End of class ScriptTokenizerBenchmark
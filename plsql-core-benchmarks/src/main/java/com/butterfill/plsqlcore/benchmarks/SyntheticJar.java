@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates jars that are structured like plsql-core (i.e. SQL modules in plsql/[module]/)
+ * for benchmarking.
+ * <br/>
+ * The content of the files is generated from a fixed seed, so the same shape always gives
+ * the same jar.
+ *
+ * @author peter
+ */
+public final class SyntheticJar {
+
+    /**
+     * The shapes of jar that can be created.
+     */
+    public static enum Shape {
+
+        /**
+         * Many modules, each with many small SQL files.
+         */
+        SMALL_FILES(40, 50, 2 * 1024, 0),
+
+        /**
+         * A few modules, each with a few large package bodies.
+         */
+        LARGE_BODIES(4, 3, 2 * 1024 * 1024, 0),
+
+        /**
+         * Modules with sub-modules 3 levels deep (e.g. plsql/m0/s1/s0/s1/).
+         */
+        DEEP_TREES(6, 5, 8 * 1024, 3);
+
+        /**
+         * The number of (top level) modules.
+         */
+        private final int moduleCount;
+
+        /**
+         * The number of files (other than build.sql) in each module and sub-module.
+         */
+        private final int fileCount;
+
+        /**
+         * The approximate size of each file in bytes.
+         */
+        private final int fileSize;
+
+        /**
+         * The depth of the sub-modules of each module. Each level has 2 sub-modules.
+         */
+        private final int depth;
+
+        private Shape(final int moduleCount, final int fileCount, final int fileSize,
+                final int depth) {
+            this.moduleCount = moduleCount;
+            this.fileCount = fileCount;
+            this.fileSize = fileSize;
+            this.depth = depth;
+        }
+
+    } // End of enum Shape
+
+    /**
+     * The jar file.
+     */
+    private final File file;
+
+    /**
+     * The names of all modules in the jar (including sub-modules).
+     */
+    private final List<String> modules = new ArrayList<String>();
+
+    /**
+     * The number of file entries in the jar.
+     */
+    private int fileCount;
+
+    /**
+     * Creates a jar with the specified shape.
+     *
+     * @param file
+     *   The jar file to create.
+     * @param shape
+     *   The shape of the jar.
+     * @param method
+     *   The compression method to use for the entries (ZipEntry.DEFLATED or ZipEntry.STORED).
+     * @throws IOException
+     *   If we fail to write the jar.
+     */
+    public SyntheticJar(final File file, final Shape shape, final int method) throws IOException {
+        this.file = file;
+
+        Random random = new Random(shape.ordinal());
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+
+        try {
+            out.setMethod(method);
+            putEntry(out, "META-INF/", null, method);
+            putEntry(out, "plsql/", null, method);
+
+            for (int i = 0; i < shape.moduleCount; i++) {
+                putModule(out, "m" + i, shape, shape.depth, random, method);
+            }
+
+        } finally {
+            out.close();
+
+        }
+
+    }
+
+    /**
+     * Writes the entries of a module (and its sub-modules).
+     */
+    private void putModule(final ZipOutputStream out, final String module, final Shape shape,
+            final int depth, final Random random, final int method) throws IOException {
+        modules.add(module);
+        putEntry(out, "plsql/" + module + "/", null, method);
+
+        StringBuilder build = new StringBuilder("PROMPT ___ Start of " + module + " ___\n");
+
+        for (int i = 0; i < shape.fileCount; i++) {
+            String name = module.replace('/', '_') + "_" + i +
+                    ((shape == Shape.LARGE_BODIES) ? ".pck" : ".sql");
+            build.append("@@").append(name).append("\n");
+            putEntry(out, "plsql/" + module + "/" + name,
+                    createSql(name, shape.fileSize, random), method);
+        }
+
+        putEntry(out, "plsql/" + module + "/build.sql", build.toString().getBytes("ISO-8859-1"),
+                method);
+
+        if (depth > 0) {
+            putModule(out, module + "/s0", shape, depth - 1, random, method);
+            putModule(out, module + "/s1", shape, depth - 1, random, method);
+        }
+
+    }
+
+    /**
+     * Returns PL/SQL-like text of roughly the specified size.
+     */
+    private static byte[] createSql(final String name, final int size, final Random random)
+            throws IOException {
+        StringBuilder result = new StringBuilder(size + 100);
+        result.append("CREATE OR REPLACE PACKAGE BODY ").append(name).append(" IS\n");
+
+        for (int i = 0; result.length() < size; i++) {
+            result.append("  PROCEDURE p").append(i).append("(p_value IN NUMBER) IS\n")
+                    .append("  BEGIN\n")
+                    .append("    logger.fb('").append(Long.toHexString(random.nextLong()))
+                    .append("', p_value * ").append(random.nextInt(1000)).append(");\n")
+                    .append("  END p").append(i).append(";\n\n");
+        }
+
+        result.append("END;\n/\n");
+        return result.toString().getBytes("ISO-8859-1");
+
+    }
+
+    /**
+     * Writes an entry. Pass null data for a directory entry.
+     */
+    private void putEntry(final ZipOutputStream out, final String name, final byte[] data,
+            final int method) throws IOException {
+        byte[] bytes = (data == null) ? new byte[0] : data;
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setCrc(crc.getValue());
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+        }
+
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+
+        if (data != null) {
+            fileCount++;
+        }
+
+    }
+
+    /**
+     * Returns the jar file.
+     *
+     * @return
+     *   The jar file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the names of all modules in the jar, including sub-modules, in jar order.
+     *
+     * @return
+     *   The names of all modules.
+     */
+    public List<String> getModules() {
+        return Collections.unmodifiableList(modules);
+    }
+
+    /**
+     * Returns the number of file entries in the jar.
+     *
+     * @return
+     *   The number of file entries.
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+} // End of class SyntheticJar
@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates trees of plsql-core modules (plsql-core-module.xml files that depend on each other
+ * and the SQL files they list) in memory, for serving by ModuleServer.
+ * <br/>
+ * The tree has one root module. Each module has breadth dependencies until depth is reached,
+ * so a tree has 1 + breadth + breadth^2 + ... + breadth^depth modules.
+ * Module names are unique (m, m-0, m-0-1 etc.) as Extract writes each module to a directory
+ * named after the last part of its location.
+ * <br/>
+ * The content of the files is generated from a fixed seed, so the same shape always gives
+ * the same tree.
+ *
+ * @author peter
+ */
+public final class SyntheticModuleTree {
+
+    /**
+     * The shapes of tree that can be created.
+     */
+    public static enum Shape {
+
+        /**
+         * A root module with many direct dependencies, each with a few small files.
+         */
+        WIDE(12, 1, 10, 2 * 1024),
+
+        /**
+         * A long chain of dependencies, which must be resolved one after another.
+         */
+        DEEP(1, 12, 10, 2 * 1024),
+
+        /**
+         * A few modules, each with many small files.
+         */
+        MANY_FILES(3, 1, 250, 1024),
+
+        /**
+         * A few modules, each with a few large package bodies.
+         */
+        LARGE_FILES(3, 1, 3, 1024 * 1024);
+
+        /**
+         * The number of dependencies of each module (other than the leaves).
+         */
+        private final int breadth;
+
+        /**
+         * The number of levels of dependencies below the root module.
+         */
+        private final int depth;
+
+        /**
+         * The number of files in each module.
+         */
+        private final int fileCount;
+
+        /**
+         * The approximate size of each file in bytes.
+         */
+        private final int fileSize;
+
+        private Shape(final int breadth, final int depth, final int fileCount,
+                final int fileSize) {
+            this.breadth = breadth;
+            this.depth = depth;
+            this.fileCount = fileCount;
+            this.fileSize = fileSize;
+        }
+
+    } // End of enum Shape
+
+    /**
+     * The content of every file in the tree keyed by path (e.g. /m/m_0.sql).
+     */
+    private final Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+
+    /**
+     * The number of modules in the tree.
+     */
+    private int moduleCount;
+
+    /**
+     * The number of SQL files in the tree.
+     */
+    private int fileCount;
+
+    /**
+     * The total size of the SQL files in the tree.
+     */
+    private long fileBytes;
+
+    /**
+     * Creates a tree with the specified shape.
+     *
+     * @param baseUrl
+     *   The URL that the tree will be served from (e.g. http://127.0.0.1:8080).
+     *   This is needed as modules name their own location and their dependencies by URL.
+     * @param shape
+     *   The shape of the tree.
+     * @param bundled
+     *   Pass true to give each module a bundle (a zip of all of its files).
+     * @throws IOException
+     *   If we fail to create a bundle.
+     */
+    public SyntheticModuleTree(final String baseUrl, final Shape shape, final boolean bundled)
+            throws IOException {
+        putModule(baseUrl, "m", shape, shape.depth, new Random(shape.ordinal()), bundled);
+    }
+
+    /**
+     * Adds the files of a module (and its dependencies).
+     */
+    private void putModule(final String baseUrl, final String module, final Shape shape,
+            final int depth, final Random random, final boolean bundled) throws IOException {
+        moduleCount++;
+
+        StringBuilder xml = new StringBuilder()
+                .append("<plsql-core-module ")
+                .append("xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>\n")
+                .append("  <location>").append(baseUrl).append("/").append(module)
+                .append("/</location>\n")
+                .append("  <version>1.0</version>\n")
+                .append("  <file-set>\n");
+
+        Map<String, byte[]> moduleFiles = new LinkedHashMap<String, byte[]>();
+
+        for (int i = 0; i < shape.fileCount; i++) {
+            String name = module.replace('-', '_') + "_" + i + ".sql";
+            byte[] data = createSql(name, shape.fileSize, random);
+            xml.append("    <file>").append(name).append("</file>\n");
+            moduleFiles.put(name, data);
+            files.put("/" + module + "/" + name, data);
+            fileCount++;
+            fileBytes += data.length;
+        }
+
+        xml.append("  </file-set>\n");
+
+        if (bundled) {
+            byte[] bundle = createBundle(moduleFiles);
+            files.put("/" + module + "/bundle.zip", bundle);
+            xml.append("  <bundle sha256='").append(sha256(bundle))
+                    .append("'>bundle.zip</bundle>\n");
+        }
+
+        if (depth > 0) {
+            xml.append("  <dependencies>\n");
+            for (int i = 0; i < shape.breadth; i++) {
+                xml.append("    <dependency><location>").append(baseUrl).append("/")
+                        .append(module).append("-").append(i)
+                        .append("/</location></dependency>\n");
+            }
+            xml.append("  </dependencies>\n");
+        }
+
+        xml.append("</plsql-core-module>\n");
+        files.put("/" + module + "/plsql-core-module.xml", xml.toString().getBytes("UTF-8"));
+
+        if (depth > 0) {
+            for (int i = 0; i < shape.breadth; i++) {
+                putModule(baseUrl, module + "-" + i, shape, depth - 1, random, bundled);
+            }
+        }
+
+    }
+
+    /**
+     * Returns PL/SQL-like text of roughly the specified size.
+     */
+    private static byte[] createSql(final String name, final int size, final Random random)
+            throws IOException {
+        StringBuilder result = new StringBuilder(size + 100);
+        result.append("CREATE OR REPLACE PACKAGE BODY ").append(name).append(" IS\n");
+
+        for (int i = 0; result.length() < size; i++) {
+            result.append("  PROCEDURE p").append(i).append("(p_value IN NUMBER) IS\n")
+                    .append("  BEGIN\n")
+                    .append("    logger.fb('").append(Long.toHexString(random.nextLong()))
+                    .append("', p_value * ").append(random.nextInt(1000)).append(");\n")
+                    .append("  END p").append(i).append(";\n\n");
+        }
+
+        result.append("END;\n/\n");
+        return result.toString().getBytes("ISO-8859-1");
+
+    }
+
+    /**
+     * Returns a zip holding the specified files.
+     */
+    private static byte[] createBundle(final Map<String, byte[]> moduleFiles)
+            throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(result);
+
+        try {
+            for (Map.Entry<String, byte[]> entry : moduleFiles.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+
+        } finally {
+            out.close();
+
+        }
+
+        return result.toByteArray();
+
+    }
+
+    /**
+     * Returns the SHA-256 of the specified bytes in hex.
+     */
+    private static String sha256(final byte[] data) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
+
+        } catch (Exception ex) {
+            // SHA-256 is always available
+            throw new RuntimeException(ex);
+
+        }
+
+    }
+
+    /**
+     * Returns the content of every file in the tree keyed by path (e.g. /m/m_0.sql).
+     *
+     * @return
+     *   Every file in the tree.
+     */
+    public Map<String, byte[]> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the location of the root module. This is what an includes file should list.
+     *
+     * @param baseUrl
+     *   The URL that the tree is served from.
+     * @return
+     *   The location of the root module.
+     */
+    public static String getRootLocation(final String baseUrl) {
+        return baseUrl + "/m/";
+    }
+
+    /**
+     * Returns the number of modules in the tree.
+     *
+     * @return
+     *   The number of modules.
+     */
+    public int getModuleCount() {
+        return moduleCount;
+    }
+
+    /**
+     * Returns the number of SQL files in the tree.
+     *
+     * @return
+     *   The number of SQL files.
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Returns the total size of the SQL files in the tree.
+     *
+     * @return
+     *   The size of the SQL files in bytes.
+     */
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+} // End of class SyntheticModuleTree
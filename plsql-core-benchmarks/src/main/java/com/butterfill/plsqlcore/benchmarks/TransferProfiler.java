@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * A JMH profiler that reports the requests and bytes each operation took from the
+ * ModuleServer of the benchmark being run, and the peak heap usage of each iteration.
+ * <br/>
+ * These are reported as secondary results (requests, bytes and peak.heap), so they are
+ * included in JMH result files (e.g. -rf json) alongside the time of each operation.
+ * Pass -prof com.butterfill.plsqlcore.benchmarks.TransferProfiler to use it.
+ *
+ * @author peter
+ */
+public class TransferProfiler implements InternalProfiler {
+
+    /**
+     * The server of the benchmark being run. Set by the benchmark when it starts the server.
+     * This is not cleared when the server stops as the last iteration ends after the trial
+     * level tear down.
+     */
+    private static volatile ModuleServer server;
+
+    /**
+     * The server that was running at the start of the iteration.
+     */
+    private ModuleServer iterationServer;
+
+    /**
+     * The request count of the server at the start of the iteration.
+     */
+    private long requestCount;
+
+    /**
+     * The byte count of the server at the start of the iteration.
+     */
+    private long byteCount;
+
+    /**
+     * Sets the server of the benchmark being run.
+     *
+     * @param moduleServer
+     *   The server.
+     */
+    static void setServer(final ModuleServer moduleServer) {
+        server = moduleServer;
+    }
+
+    public String getDescription() {
+        return "requests and bytes per operation from the ModuleServer and peak heap usage";
+    }
+
+    public void beforeIteration(final BenchmarkParams benchmarkParams,
+            final IterationParams iterationParams) {
+        iterationServer = server;
+        requestCount = (iterationServer == null) ? 0 : iterationServer.getRequestCount();
+        byteCount = (iterationServer == null) ? 0 : iterationServer.getByteCount();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+
+    }
+
+    public Collection<? extends Result> afterIteration(final BenchmarkParams benchmarkParams,
+            final IterationParams iterationParams, final IterationResult result) {
+        List<Result> results = new ArrayList<Result>();
+
+        // the server is started by a trial level setup, which may run after beforeIteration
+        ModuleServer current = server;
+        if (current != iterationServer) {
+            requestCount = 0;
+            byteCount = 0;
+        }
+
+        long ops = Math.max(1, result.getMetadata().getMeasuredOps());
+
+        if (current != null) {
+            results.add(new ScalarResult("\u00b7requests",
+                    (double) (current.getRequestCount() - requestCount) / ops,
+                    "requests/op", AggregationPolicy.AVG));
+            results.add(new ScalarResult("\u00b7bytes",
+                    (double) (current.getByteCount() - byteCount) / ops,
+                    "bytes/op", AggregationPolicy.AVG));
+        }
+
+        // the sum of the peaks of each pool. the pools may not peak at the same time, so this
+        // can be more than the actual peak
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        results.add(new ScalarResult("\u00b7peak.heap", peak / (1024.0 * 1024.0), "MB",
+                AggregationPolicy.MAX));
+
+        return results;
+
+    }
+
+} // End of class TransferProfiler
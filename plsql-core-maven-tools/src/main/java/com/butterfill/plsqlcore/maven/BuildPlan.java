@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order in which a set of modules should be installed, worked out from the dependencies
+ * declared in their plsql-core-module.xml files.
+ * <br/>
+ * Modules are grouped into waves. A module that has no dependencies is in wave 0. Any other
+ * module is in the wave after the last wave of its dependencies. So the modules in a wave do
+ * not depend on each other and can be installed at the same time, once every earlier wave
+ * has been installed.
+ * <br/>
+ * The critical path is the chain of dependencies with the most files. No schedule can
+ * install the modules faster than it takes to install the critical path one module after
+ * another.
+ * <br/>
+ * A plan file is a UTF-8 text file with one record per line:
+ * <pre>
+ * module &lt;wave&gt; &lt;location&gt; &lt;directory&gt;
+ * depends &lt;location&gt; &lt;location of dependency&gt;
+ * critical &lt;location&gt;
+ * </pre>
+ * Module records are in wave order. Critical records are in install order.
+ * Lines that start with # are comments. The directory (to which the module was extracted)
+ * is the rest of the line so it can contain spaces.
+ *
+ * @author peter
+ */
+final class BuildPlan {
+
+    /**
+     * The character set of plan files.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Thrown when the dependencies of a set of modules form a cycle (so there is no order in
+     * which they can be installed).
+     */
+    static final class CycleException extends Exception {
+
+        /**
+         * Version of this class for serialization.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The modules in the cycle.
+         */
+        private final List<String> cycle;
+
+        /**
+         * Creates a new CycleException.
+         *
+         * @param cycle
+         *   The modules in the cycle. The first module is repeated at the end.
+         */
+        CycleException(final List<String> cycle) {
+            super("dependency cycle: " + join(cycle));
+            this.cycle = new ArrayList<String>(cycle);
+        }
+
+        /**
+         * Returns the modules in the cycle.
+         *
+         * @return
+         *   The modules in the cycle. The first module is repeated at the end.
+         */
+        List<String> getCycle() {
+            return Collections.unmodifiableList(cycle);
+        }
+
+    } // End of class CycleException
+
+    /**
+     * The directory of each module keyed by location.
+     */
+    private final Map<String, String> directories = new LinkedHashMap<String, String>();
+
+    /**
+     * The number of files of each module keyed by location.
+     */
+    private final Map<String, Integer> weights = new HashMap<String, Integer>();
+
+    /**
+     * The dependencies of each module keyed by location.
+     */
+    private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+
+    /**
+     * The modules in each wave. Set by plan.
+     */
+    private List<List<String>> waves;
+
+    /**
+     * The modules on the critical path in install order. Set by plan.
+     */
+    private List<String> criticalPath;
+
+    /**
+     * Adds a module to this plan.
+     *
+     * @param location
+     *   The (formatted) location of the module.
+     * @param directory
+     *   The directory to which the module was extracted.
+     * @param fileCount
+     *   The number of files in the module.
+     * @param moduleDependencies
+     *   The (formatted) locations of the modules that this module depends on.
+     */
+    void addModule(final String location, final String directory, final int fileCount,
+            final List<String> moduleDependencies) {
+        directories.put(location, directory);
+        weights.put(location, fileCount);
+        dependencies.put(location, new ArrayList<String>(moduleDependencies));
+        waves = null;
+        criticalPath = null;
+    }
+
+    /**
+     * Works out the waves and critical path of the modules that have been added.
+     *
+     * @throws CycleException
+     *   If the dependencies of the modules form a cycle.
+     * @throws IllegalStateException
+     *   If a module depends on a module that has not been added.
+     */
+    void plan() throws CycleException, IllegalStateException {
+        Map<String, Integer> waveOf = new HashMap<String, Integer>();
+        Map<String, Long> costOf = new HashMap<String, Long>();
+        Map<String, String> previous = new HashMap<String, String>();
+
+        for (String location : directories.keySet()) {
+            visit(location, new ArrayList<String>(), waveOf, costOf, previous);
+        }
+
+        List<List<String>> result = new ArrayList<List<String>>();
+        String last = null;
+
+        for (String location : directories.keySet()) {
+            int wave = waveOf.get(location);
+
+            while (result.size() <= wave) {
+                result.add(new ArrayList<String>());
+            }
+
+            result.get(wave).add(location);
+
+            if (last == null || costOf.get(location) > costOf.get(last)) {
+                last = location;
+            }
+
+        }
+
+        List<String> path = new ArrayList<String>();
+        for (String location = last; location != null; location = previous.get(location)) {
+            path.add(0, location);
+        }
+
+        waves = result;
+        criticalPath = path;
+
+    }
+
+    /**
+     * Works out the wave and the cost of the critical path to (and including) the specified
+     * module, visiting its dependencies first.
+     *
+     * @param location
+     *   The module to visit.
+     * @param stack
+     *   The modules being visited. Used to detect cycles.
+     */
+    private void visit(final String location, final List<String> stack,
+            final Map<String, Integer> waveOf, final Map<String, Long> costOf,
+            final Map<String, String> previous) throws CycleException {
+        if (waveOf.containsKey(location)) {
+            return;
+        }
+
+        int index = stack.indexOf(location);
+
+        if (index != -1) {
+            List<String> cycle = new ArrayList<String>(stack.subList(index, stack.size()));
+            cycle.add(location);
+            throw new CycleException(cycle);
+        }
+
+        stack.add(location);
+
+        int wave = 0;
+        long cost = 0;
+
+        for (String dependency : dependencies.get(location)) {
+            if (!directories.containsKey(dependency)) {
+                throw new IllegalStateException(
+                        location + " depends on " + dependency + " which is not in the plan");
+            }
+
+            visit(dependency, stack, waveOf, costOf, previous);
+
+            wave = Math.max(wave, waveOf.get(dependency) + 1);
+
+            if (!previous.containsKey(location) || costOf.get(dependency) > cost) {
+                cost = costOf.get(dependency);
+                previous.put(location, dependency);
+            }
+
+        }
+
+        stack.remove(stack.size() - 1);
+        waveOf.put(location, wave);
+        costOf.put(location, cost + weights.get(location));
+
+    }
+
+    /**
+     * Returns the modules in each wave. plan must have been called.
+     *
+     * @return
+     *   The locations of the modules in each wave, in the order they were added.
+     */
+    List<List<String>> getWaves() {
+        return Collections.unmodifiableList(waves);
+    }
+
+    /**
+     * Returns the modules on the critical path. plan must have been called.
+     *
+     * @return
+     *   The locations of the modules on the critical path in install order.
+     */
+    List<String> getCriticalPath() {
+        return Collections.unmodifiableList(criticalPath);
+    }
+
+    /**
+     * Writes this plan to the specified file, creating the directory of the file if
+     * needed. plan must have been called.
+     *
+     * @param file
+     *   The file to write.
+     * @throws IOException
+     *   If we fail to write the file.
+     */
+    void write(final File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("failed to create directory: " + dir);
+        }
+
+        File temp = File.createTempFile(".plan", ".part", dir);
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+
+            try {
+                writer.write("# plsql-core build plan. written by the Extract goal\n");
+                writer.write("# modules in the same wave can be installed at the same time\n");
+
+                for (int i = 0; i < waves.size(); i++) {
+                    for (String location : waves.get(i)) {
+                        writer.write("module " + i + " " + location + " " +
+                                directories.get(location) + "\n");
+                    }
+                }
+
+                for (int i = 0; i < waves.size(); i++) {
+                    for (String location : waves.get(i)) {
+                        for (String dependency : dependencies.get(location)) {
+                            writer.write("depends " + location + " " + dependency + "\n");
+                        }
+                    }
+                }
+
+                for (String location : criticalPath) {
+                    writer.write("critical " + location + "\n");
+                }
+
+            } finally {
+                writer.close();
+
+            }
+
+            ModuleCache.rename(temp, file);
+
+        } finally {
+            temp.delete();
+
+        }
+
+    }
+
+    /**
+     * Returns the specified locations separated by arrows.
+     *
+     * @param locations
+     *   The locations to join.
+     * @return
+     *   The locations separated by " -> ".
+     */
+    static String join(final List<String> locations) {
+        StringBuilder result = new StringBuilder();
+
+        for (String location : locations) {
+            if (result.length() > 0) {
+                result.append(" -> ");
+            }
+            result.append(location);
+        }
+
+        return result.toString();
+
+    }
+
+} // End of class BuildPlan
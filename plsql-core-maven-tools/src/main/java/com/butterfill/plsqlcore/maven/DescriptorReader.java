@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import com.butterfill.plsqlcore.maven.xml.PlsqlCoreIncludes;
+import com.butterfill.plsqlcore.maven.xml.PlsqlCoreModule;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads plsql-core-module.xml and plsql-core-includes files using StAX.
+ * <br/>
+ * This fills in the classes generated from the schemas (PlsqlCoreModule and
+ * PlsqlCoreIncludes) directly, so reading a descriptor does not need a JAXB context.
+ * As with JAXB, elements that are not in the schema are ignored and the documents are
+ * not validated.
+ * <br/>
+ * StAX is part of Java 6. On Java 5, an implementation must be on the class path for this
+ * class to be available.
+ *
+ * @author peter
+ */
+final class DescriptorReader {
+
+    /**
+     * The namespace of plsql-core-module.xml files.
+     */
+    static final String MODULE_NAMESPACE =
+            "http://plsql-core.butterfill.com/schema/plsql-core-module";
+
+    /**
+     * The namespace of plsql-core-includes files.
+     */
+    static final String INCLUDES_NAMESPACE =
+            "http://plsql-core.butterfill.com/schema/plsql-core-includes";
+
+    /**
+     * The factory used to create readers or null if StAX is not available.
+     * Factories are thread-safe once they have been configured.
+     */
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * This class is not intended to be instantiated.
+     */
+    private DescriptorReader() {
+    }
+
+    /**
+     * Creates the factory used to create readers.
+     * Returns null if StAX is not available.
+     */
+    private static XMLInputFactory createFactory() {
+        try {
+            XMLInputFactory result = XMLInputFactory.newInstance();
+            result.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            result.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            result.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            return result;
+
+        } catch (Throwable ex) {
+            // no StAX implementation. callers fall back to JAXB
+            return null;
+
+        }
+
+    }
+
+    /**
+     * Returns true if StAX is available (and this class can be used).
+     *
+     * @return
+     *   true if StAX is available.
+     */
+    static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Reads a plsql-core-module.xml file.
+     *
+     * @param in
+     *   The stream to read. This is not closed.
+     * @return
+     *   The module.
+     * @throws XMLStreamException
+     *   If the stream is not well formed XML or the root element is not plsql-core-module.
+     */
+    static PlsqlCoreModule readModule(final InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = createReader(in, MODULE_NAMESPACE, "plsql-core-module");
+
+        try {
+            PlsqlCoreModule result = new PlsqlCoreModule();
+
+            for (String name = nextChild(reader); name != null; name = nextChild(reader)) {
+                if (!MODULE_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    skip(reader);
+
+                } else if ("location".equals(name)) {
+                    result.setLocation(reader.getElementText());
+
+                } else if ("version".equals(name)) {
+                    result.setVersion(reader.getElementText());
+
+                } else if ("file-set".equals(name)) {
+                    result.setFileSet(readFileSet(reader));
+
+                } else if ("dependencies".equals(name)) {
+                    result.setDependencies(readDependencies(reader));
+
+                } else if ("bundle".equals(name)) {
+                    PlsqlCoreModule.Bundle bundle = new PlsqlCoreModule.Bundle();
+                    // attributes must be read before the text
+                    bundle.setSha256(reader.getAttributeValue(null, "sha256"));
+                    bundle.setValue(reader.getElementText());
+                    result.setBundle(bundle);
+
+                } else {
+                    skip(reader);
+
+                }
+
+            }
+
+            return result;
+
+        } finally {
+            reader.close();
+
+        }
+
+    }
+
+    /**
+     * Reads the file-set element of a module. The reader is on the start of the element.
+     */
+    private static PlsqlCoreModule.FileSet readFileSet(final XMLStreamReader reader)
+            throws XMLStreamException {
+        PlsqlCoreModule.FileSet result = new PlsqlCoreModule.FileSet();
+
+        for (String name = nextChild(reader); name != null; name = nextChild(reader)) {
+            if (MODULE_NAMESPACE.equals(reader.getNamespaceURI()) && "file".equals(name)) {
+                result.getFile().add(reader.getElementText());
+            } else {
+                skip(reader);
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Reads the dependencies element of a module. The reader is on the start of the element.
+     */
+    private static PlsqlCoreModule.Dependencies readDependencies(final XMLStreamReader reader)
+            throws XMLStreamException {
+        PlsqlCoreModule.Dependencies result = new PlsqlCoreModule.Dependencies();
+
+        for (String name = nextChild(reader); name != null; name = nextChild(reader)) {
+            if (!MODULE_NAMESPACE.equals(reader.getNamespaceURI()) ||
+                    !"dependency".equals(name)) {
+                skip(reader);
+                continue;
+            }
+
+            PlsqlCoreModule.Dependencies.Dependency dependency =
+                    new PlsqlCoreModule.Dependencies.Dependency();
+
+            for (String child = nextChild(reader); child != null; child = nextChild(reader)) {
+                if (MODULE_NAMESPACE.equals(reader.getNamespaceURI()) &&
+                        "location".equals(child)) {
+                    dependency.setLocation(reader.getElementText());
+                } else {
+                    skip(reader);
+                }
+            }
+
+            result.getDependency().add(dependency);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Reads a plsql-core-includes file.
+     *
+     * @param in
+     *   The stream to read. This is not closed.
+     * @return
+     *   The includes.
+     * @throws XMLStreamException
+     *   If the stream is not well formed XML or the root element is not plsql-core-includes.
+     */
+    static PlsqlCoreIncludes readIncludes(final InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = createReader(in, INCLUDES_NAMESPACE, "plsql-core-includes");
+
+        try {
+            PlsqlCoreIncludes result = new PlsqlCoreIncludes();
+
+            for (String name = nextChild(reader); name != null; name = nextChild(reader)) {
+                if (INCLUDES_NAMESPACE.equals(reader.getNamespaceURI()) &&
+                        "plsql-core-module-location".equals(name)) {
+                    result.getPlsqlCoreModuleLocation().add(reader.getElementText());
+                } else {
+                    skip(reader);
+                }
+            }
+
+            return result;
+
+        } finally {
+            reader.close();
+
+        }
+
+    }
+
+    /**
+     * Creates a reader positioned on the root element of the specified stream.
+     *
+     * @throws XMLStreamException
+     *   If StAX is not available, the stream is not well formed XML or the root element
+     *   is not the specified element.
+     */
+    private static XMLStreamReader createReader(final InputStream in,
+            final String namespace, final String rootName) throws XMLStreamException {
+        if (FACTORY == null) {
+            throw new XMLStreamException("StAX is not available");
+        }
+
+        XMLStreamReader result = FACTORY.createXMLStreamReader(in);
+        result.nextTag();
+
+        if (!namespace.equals(result.getNamespaceURI()) ||
+                !rootName.equals(result.getLocalName())) {
+            String found = "{" + result.getNamespaceURI() + "}" + result.getLocalName();
+            result.close();
+            throw new XMLStreamException(
+                    "unexpected element " + found + ". expected {" + namespace + "}" + rootName);
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Moves to the next child of the current element.
+     * Returns the local name of the child or null at the end of the current element.
+     */
+    private static String nextChild(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return reader.getLocalName();
+            }
+
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return null;
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Skips the current element (and all of its children).
+     * The reader is left on the end of the element.
+     */
+    private static void skip(final XMLStreamReader reader) throws XMLStreamException {
+        for (int depth = 1; depth > 0;) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+
+        }
+
+    }
+
+} // End of class DescriptorReader
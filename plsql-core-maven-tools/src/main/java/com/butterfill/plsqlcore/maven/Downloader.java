@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs transfers (downloads of module files) in parallel.
+ * <br/>
+ * The number of transfers in progress is limited across the whole run and for each host,
+ * so a module server is not flooded with connections. Each host has a queue of transfers
+ * and a transfer is only handed to the threads of the downloader once its host has a free
+ * slot, so a busy host never holds a thread that a transfer for another host could use.
+ * <br/>
+ * A transfer that fails with an IOException is retried after a delay that doubles with each
+ * attempt. The host slot is given up during the delay. A transfer that fails because the file
+ * does not exist (FileNotFoundException) is not retried.
+ * <br/>
+ * Transfers should read each response to the end and close it. The JDK then keeps the
+ * connection alive and reuses it for the next request to the same host (up to
+ * http.maxConnections idle connections per host).
+ *
+ * @author peter
+ */
+final class Downloader {
+
+    /**
+     * The threads that run transfers. The size of this pool is the maximum number of
+     * transfers in progress across the whole run.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The thread that puts transfers back on the queue of their host once the delay before a
+     * retry has passed.
+     */
+    private final ScheduledExecutorService retryTimer;
+
+    /**
+     * The maximum number of transfers in progress for each host.
+     */
+    private final int maxTransfersPerHost;
+
+    /**
+     * The queue of each host, keyed by host and port.
+     */
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+    /**
+     * The transfers that have been submitted and have not finished.
+     */
+    private final Set<Transfer<?>> unfinished = new HashSet<Transfer<?>>();
+
+    /**
+     * The number of times a failed transfer is retried.
+     */
+    private final int retries;
+
+    /**
+     * The delay (in milliseconds) before the first retry of a failed transfer.
+     */
+    private final long backoff;
+
+    /**
+     * The number of transfers that have been retried.
+     */
+    private final AtomicInteger retryCount = new AtomicInteger();
+
+    /**
+     * The transfers waiting for a slot on one host and the number of transfers in progress
+     * for that host.
+     */
+    private final class Host {
+
+        /**
+         * The transfers waiting for a slot (in the order they were submitted).
+         */
+        private final LinkedList<Transfer<?>> pending = new LinkedList<Transfer<?>>();
+
+        /**
+         * The number of transfers in progress for this host.
+         */
+        private int active = 0;
+
+        /**
+         * Adds a transfer to the queue of this host and starts as many transfers as this
+         * host has slots for.
+         *
+         * @param transfer
+         *   The transfer to add.
+         * @param first
+         *   Pass true to put the transfer at the front of the queue (for a retry).
+         */
+        synchronized void add(final Transfer<?> transfer, final boolean first) {
+            if (first) {
+                pending.addFirst(transfer);
+            } else {
+                pending.addLast(transfer);
+            }
+            start();
+        }
+
+        /**
+         * Gives up the slot of a transfer that has finished (or is waiting to retry) and
+         * starts the next transfer.
+         */
+        synchronized void release() {
+            active--;
+            start();
+        }
+
+        /**
+         * Hands transfers to the threads of the downloader while this host has free slots.
+         */
+        private void start() {
+            while (active < maxTransfersPerHost && !pending.isEmpty()) {
+                Transfer<?> transfer = pending.removeFirst();
+
+                try {
+                    executor.execute(transfer);
+                    active++;
+
+                } catch (RejectedExecutionException ex) {
+                    // the downloader has been shut down
+                    transfer.cancel(false);
+
+                }
+
+            }
+
+        }
+
+    } // End of class Host
+
+    /**
+     * A transfer that is run (one attempt at a time) by the threads of the downloader.
+     */
+    private final class Transfer<T> extends FutureTask<T> {
+
+        /**
+         * The host of the URL that the transfer reads.
+         */
+        private final Host host;
+
+        /**
+         * The transfer.
+         */
+        private final Callable<T> callable;
+
+        /**
+         * The number of attempts that have failed.
+         */
+        private int attempt = 0;
+
+        /**
+         * Creates a new transfer.
+         *
+         * @param host
+         *   The host of the URL that the transfer reads.
+         * @param callable
+         *   The transfer.
+         */
+        Transfer(final Host host, final Callable<T> callable) {
+            super(callable);
+            this.host = host;
+            this.callable = callable;
+        }
+
+        /**
+         * Makes one attempt at the transfer. If the attempt fails with an IOException and
+         * there are retries left, the transfer is put back on the queue of its host after a
+         * delay (without holding the host slot).
+         */
+        @Override
+        public void run() {
+            try {
+                if (!isDone()) {
+                    set(callable.call());
+                }
+
+            } catch (FileNotFoundException ex) {
+                // retrying will not help
+                setException(ex);
+
+            } catch (IOException ex) {
+                if (attempt >= retries) {
+                    setException(ex);
+
+                } else {
+                    retryCount.incrementAndGet();
+                    retry(backoff << Math.min(attempt++, 16));
+
+                }
+
+            } catch (Throwable ex) {
+                setException(ex);
+
+            } finally {
+                host.release();
+
+            }
+
+        }
+
+        /**
+         * Forgets this transfer once it has finished (or been cancelled).
+         */
+        @Override
+        protected void done() {
+            synchronized (unfinished) {
+                unfinished.remove(this);
+            }
+        }
+
+        /**
+         * Puts this transfer back on the queue of its host after the specified delay.
+         */
+        private void retry(final long delay) {
+            try {
+                retryTimer.schedule(new Runnable() {
+                    public void run() {
+                        host.add(Transfer.this, true);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+
+            } catch (RejectedExecutionException ex) {
+                // the downloader has been shut down
+                cancel(false);
+
+            }
+
+        }
+
+    } // End of class Transfer
+
+    /**
+     * Creates a new downloader.
+     *
+     * @param maxTransfers
+     *   The maximum number of transfers in progress across the whole run.
+     * @param maxTransfersPerHost
+     *   The maximum number of transfers in progress for each host.
+     * @param retries
+     *   The number of times a failed transfer is retried.
+     * @param backoff
+     *   The delay (in milliseconds) before the first retry of a failed transfer.
+     * @throws IllegalArgumentException
+     *   If maxTransfers or maxTransfersPerHost is less than 1.
+     */
+    Downloader(final int maxTransfers, final int maxTransfersPerHost, final int retries,
+            final long backoff) throws IllegalArgumentException {
+        if (maxTransfers < 1 || maxTransfersPerHost < 1) {
+            throw new IllegalArgumentException("maxTransfers and maxTransfersPerHost " +
+                    "should not be less than 1. found " + maxTransfers + ", " +
+                    maxTransfersPerHost);
+        }
+        this.executor = Executors.newFixedThreadPool(maxTransfers);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor();
+        this.maxTransfersPerHost = maxTransfersPerHost;
+        this.retries = Math.max(0, retries);
+        this.backoff = Math.max(0, backoff);
+    }
+
+    /**
+     * Returns the queue of the host of the specified URL.
+     */
+    private Host getHost(final URL url) {
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+
+        synchronized (hosts) {
+            Host result = hosts.get(key);
+
+            if (result == null) {
+                result = new Host();
+                hosts.put(key, result);
+            }
+
+            return result;
+
+        }
+
+    }
+
+    /**
+     * Submits a transfer from the specified URL.
+     * The transfer is queued until the host of the URL has a free slot.
+     *
+     * @param url
+     *   The URL that the transfer reads. This is used to limit the transfers for each host.
+     * @param transfer
+     *   The transfer.
+     * @return
+     *   The result of the transfer.
+     */
+    <T> Future<T> submit(final URL url, final Callable<T> transfer) {
+        Host host = getHost(url);
+        Transfer<T> result = new Transfer<T>(host, transfer);
+
+        synchronized (unfinished) {
+            unfinished.add(result);
+        }
+
+        host.add(result, false);
+        return result;
+    }
+
+    /**
+     * Returns the number of transfers that have been retried.
+     *
+     * @return
+     *   The number of retries.
+     */
+    int getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Stops the threads of this downloader. Transfers in progress are interrupted and
+     * transfers that have not started are cancelled.
+     */
+    void shutdown() {
+        retryTimer.shutdownNow();
+        executor.shutdownNow();
+
+        List<Transfer<?>> transfers;
+
+        synchronized (unfinished) {
+            transfers = new ArrayList<Transfer<?>>(unfinished);
+        }
+
+        // nothing will run these so anyone waiting for them would wait forever
+        for (Transfer<?> transfer : transfers) {
+            transfer.cancel(false);
+        }
+
+    }
+
+} // End of class Downloader
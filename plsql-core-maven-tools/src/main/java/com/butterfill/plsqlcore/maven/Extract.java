@@ -16,20 +16,41 @@
 
 package com.butterfill.plsqlcore.maven;
 
+import com.butterfill.plsqlcore.Manifest;
+import com.butterfill.plsqlcore.ManifestVerifier;
 import com.butterfill.plsqlcore.maven.xml.PlsqlCoreIncludes;
 import com.butterfill.plsqlcore.maven.xml.PlsqlCoreModule;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.JAXBException;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -42,9 +63,10 @@ import org.apache.maven.plugin.MojoFailureException;
 public class Extract extends AbstractMojo {
     
     /**
-     * The JAXB un-marshaller - used when reading xml input.
+     * The JAXB context - used to read xml input when StAX is not available.
+     * This is created once per class loader, when it is first needed.
      */
-    private final Unmarshaller jaxbUnmarshaller;
+    private static JAXBContext jaxbContext;
     
     /**
      * The plsql-core includes file which can be null.
@@ -69,24 +91,194 @@ public class Extract extends AbstractMojo {
     private boolean execute = true;
     
     /**
-     * Flag to enable/disable execution of this task when no network 
-     * connection can be found.
+     * Flag to make this task fail when modules can't be fetched because there is no network
+     * connection. When this is false (the default) the modules that could not be fetched are 
+     * logged as warnings and the extract is skipped.
      * 
      * @parameter expression="${executeIfNoNetwork}"
      */
     private boolean executeIfNoNetwork = false;
     
+    /**
+     * Flag to use cached module files (no matter how old they are) without going to the 
+     * network. Only modules that are not in the cache are fetched.
+     * 
+     * @parameter expression="${offlineFirst}" default-value="false"
+     */
+    private boolean offlineFirst = false;
+    
+    /**
+     * The maximum number of module files (plsql-core-module.xml) to read at the same time.
+     * 
+     * @parameter expression="${resolverThreads}" default-value="4"
+     */
+    private int resolverThreads = 4;
+    
+    /**
+     * The file that holds the fingerprint of the last extract (the includes file, the 
+     * resolved module versions and the size and last modified time of each extracted file). 
+     * The extract is skipped if nothing has changed since the fingerprint was written.
+     * Up-to-date checks are disabled if this is null. 
+     * The extract is only skipped when the lock file pins the module versions, as without 
+     * a lock file the modules must be resolved to see if a new version has been published.
+     * 
+     * @parameter expression="${fingerprintFile}" default-value="${project.build.directory}/plsql-core.fingerprint"
+     */
+    private File fingerprintFile;
+    
+    /**
+     * The lock file that records the resolved modules and the SHA-256 of each extracted file.
+     * While the includes file does not change, later runs use the lock file instead of 
+     * reading module descriptors and only fetch files that are missing or have changed 
+     * locally. The lock file is not used if this is null.
+     * 
+     * @parameter expression="${lockFile}" default-value="${basedir}/plsql-core.lock"
+     */
+    private File lockFile;
+    
+    /**
+     * The file to which the build plan of the extracted modules is written. The plan groups 
+     * the modules into waves that can be installed at the same time (see BuildPlan).
+     * The plan is not written if this is null.
+     * 
+     * @parameter expression="${planFile}" default-value="${project.build.directory}/plsql-core.plan"
+     */
+    private File planFile;
+    
+    /**
+     * Flag to make this task fail when a file fetched using the lock file does not have the 
+     * SHA-256 recorded in the lock file (i.e. the module has changed on the server). 
+     * When this is false (the default) the change is logged as a warning and the lock file 
+     * is updated.
+     * 
+     * @parameter expression="${failOnLockDrift}" default-value="false"
+     */
+    private boolean failOnLockDrift = false;
+    
+    /**
+     * The maximum number of files to download at the same time.
+     * 
+     * @parameter expression="${downloadThreads}" default-value="4"
+     */
+    private int downloadThreads = 4;
+    
+    /**
+     * The maximum number of files to download from one host at the same time.
+     * 
+     * @parameter expression="${downloadThreadsPerHost}" default-value="2"
+     */
+    private int downloadThreadsPerHost = 2;
+    
+    /**
+     * The number of times a failed download is retried.
+     * 
+     * @parameter expression="${downloadRetries}" default-value="2"
+     */
+    private int downloadRetries = 2;
+    
+    /**
+     * The delay (in milliseconds) before the first retry of a failed download. 
+     * The delay doubles with each retry.
+     * 
+     * @parameter expression="${downloadRetryDelay}" default-value="500"
+     */
+    private long downloadRetryDelay = 500;
+    
+    /**
+     * The directory in which module files are cached. 
+     * Caching is disabled if this is null.
+     * 
+     * @parameter expression="${cacheDirectory}" default-value="${user.home}/.plsql-core/cache"
+     */
+    private File cacheDirectory;
+    
+    /**
+     * The time (in seconds) for which cached module files are used without checking that 
+     * they are up to date. The default is 0 (always check).
+     * 
+     * @parameter expression="${cacheTtl}" default-value="0"
+     */
+    private long cacheTtl = 0;
+    
+    /**
+     * The maximum size (in bytes) of the module file cache. 
+     * The least recently used files are removed when the cache is bigger than this.
+     * 
+     * @parameter expression="${cacheMaxSize}" default-value="104857600"
+     */
+    private long cacheMaxSize = 100L * 1024 * 1024;
+    
+    /**
+     * The line endings to use in extracted files: lf, crlf or native. 
+     * If this is not set (the default), files are extracted byte for byte.
+     * 
+     * @parameter expression="${lineEnding}"
+     */
+    private String lineEnding;
+    
+    /**
+     * The size of buffer to use when copying files.
+     */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The module file cache used by the current execution. 
+     * This is null if caching is disabled.
+     */
+    private ModuleCache cache;
+    
     /** 
-     * Creates a new instance of Extract setting-up the JAXB un-marshaller 
-     * used by this instance.
+     * Creates a new instance of Extract.
+     * <br/>
+     * xml input is read using StAX (see DescriptorReader), so no JAXB context is created
+     * unless StAX is not available.
      * 
      * @throws Exception
-     *   If we fail to set-up the JAXB un-marshaller used by this instance.
+     *   Not thrown. Declared for compatibility.
      */
     public Extract() throws Exception {
-        jaxbUnmarshaller = JAXBContext.newInstance(
-                PlsqlCoreIncludes.class, PlsqlCoreModule.class)
-                .createUnmarshaller();
+        super();
+    }
+    
+    /**
+     * Returns the JAXB context used to read xml input when StAX is not available.
+     * The context is created the first time this is called. 
+     * 
+     * @return
+     *   The JAXB context.
+     * @throws JAXBException
+     *   If we fail to create the context.
+     */
+    static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(PlsqlCoreIncludes.class, PlsqlCoreModule.class);
+        }
+        return jaxbContext;
+    }
+    
+    /**
+     * Reads the specified includes file.
+     * 
+     * @param file
+     *   The includes file to read.
+     * @return
+     *   The includes.
+     * @throws java.lang.Exception
+     *   If we fail to read the file.
+     */
+    private static PlsqlCoreIncludes readIncludes(final File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        
+        try {
+            if (DescriptorReader.isAvailable()) {
+                return DescriptorReader.readIncludes(in);
+            }
+            return (PlsqlCoreIncludes) getJaxbContext().createUnmarshaller().unmarshal(in);
+            
+        } finally {
+            in.close();
+            
+        }
         
     }
 
@@ -171,58 +363,861 @@ public class Extract extends AbstractMojo {
     }
     
     /**
-     * Adds the PlsqlCoreModule identified by moduleLocation 
-     * (and all of it's dependencies) to moduleMap.
-     * If moduleMap already has an entry keyed by moduleLocation, this is a no-op.
+     * Opens a stream to read the specified URL. 
+     * The URL is read via the module file cache if caching is enabled.
+     * 
+     * @param url
+     *   The URL to read.
+     * @param key
+     *   The key of the URL in the module file cache.
+     * @return
+     *   A stream that reads the URL.
+     * @throws java.lang.Exception
+     *   If we fail to open the URL.
+     */
+    private InputStream openStream(final URL url, final String key) throws Exception {
+        if (cache != null) {
+            return new FileInputStream(getCachedFile(url, key));
+        }
+        
+        URLConnection urlConnection = url.openConnection();
+        urlConnection.setUseCaches(false);
+        return urlConnection.getInputStream();
+        
+    }
+    
+    /**
+     * Returns the cached file holding the data of the specified URL.
+     * In offline first mode, a cached file is used without going to the network.
+     * 
+     * @param url
+     *   The URL to read.
+     * @param key
+     *   The key of the URL in the module file cache.
+     * @return
+     *   The cached file.
+     * @throws java.lang.Exception
+     *   If the URL is not cached (or needs revalidating) and we fail to fetch it.
+     */
+    private File getCachedFile(final URL url, final String key) throws Exception {
+        File result = offlineFirst ? cache.get(key) : null;
+        return (result == null) ? cache.fetch(key, url) : result;
+    }
+    
+    /**
+     * Returns true if the specified exception (or one of its causes) shows that we could not
+     * reach a host.
+     * 
+     * @param ex
+     *   The exception to check.
+     * @return
+     *   true if ex is a network failure.
+     */
+    static boolean isNetworkFailure(final Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnknownHostException || 
+                    cause instanceof ConnectException ||
+                    cause instanceof NoRouteToHostException ||
+                    cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the line separator to write in place of each line ending of extracted files or 
+     * null if files should be copied unchanged.
+     * 
+     * @return
+     *   The line separator for the lineEnding parameter.
+     * @throws MojoExecutionException
+     *   If lineEnding is not lf, crlf or native.
+     */
+    private String getLineSeparator() throws MojoExecutionException {
+        if (lineEnding == null || lineEnding.trim().length() == 0) {
+            return null;
+        }
+        
+        if ("lf".equalsIgnoreCase(lineEnding.trim())) {
+            return "\n";
+        }
+        
+        if ("crlf".equalsIgnoreCase(lineEnding.trim())) {
+            return "\r\n";
+        }
+        
+        if ("native".equalsIgnoreCase(lineEnding.trim())) {
+            return System.getProperty("line.separator");
+        }
+        
+        throw new MojoExecutionException(
+                "lineEnding should be lf, crlf or native. found " + lineEnding);
+        
+    }
+    
+    /**
+     * Copies the specified URL to the specified file.
+     * <br/>
+     * Files are copied byte for byte unless lineEnding is set. A cached file is copied using 
+     * FileChannel#transferTo (without copying it into the java heap).
+     * The file is written to a temporary file which is then renamed, so a failed copy never 
+     * leaves a partial file.
+     * 
+     * @param url
+     *   The URL to copy.
+     * @param key
+     *   The key of the URL in the module file cache.
+     * @param file
+     *   The file to copy to.
+     * @throws java.lang.Exception
+     *   If the copy fails.
+     */
+    private void copy(final URL url, final String key, final File file) throws Exception {
+        String lineSeparator = getLineSeparator();
+        
+        if (cache != null && lineSeparator == null) {
+            FileChannel in = new FileInputStream(getCachedFile(url, key)).getChannel();
+            File temp = createTempFile(file);
+            
+            try {
+                FileChannel out = new FileOutputStream(temp).getChannel();
+                
+                try {
+                    long size = in.size();
+                    for (long position = 0; position < size;) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                    
+                } finally {
+                    out.close();
+                    
+                }
+                
+                ModuleCache.rename(temp, file);
+                
+            } finally {
+                in.close();
+                temp.delete();
+                
+            }
+            
+            return;
+            
+        }
+        
+        InputStream in = openStream(url, key);
+        
+        try {
+            write(in, file, lineSeparator);
+            
+        } finally {
+            in.close();
+            
+        }
+        
+    }
+    
+    /**
+     * Creates a temporary file (in the same directory as the specified file) to write before 
+     * renaming it to the specified file.
+     * 
+     * @param file
+     *   The file that will be written.
+     * @return
+     *   The temporary file.
+     * @throws IOException
+     *   If we fail to create the file.
+     */
+    private static File createTempFile(final File file) throws IOException {
+        return File.createTempFile(".extract", ".part", file.getAbsoluteFile().getParentFile());
+    }
+    
+    /**
+     * Writes the rest of the specified stream to the specified file. 
+     * The stream is written to a temporary file which is then renamed.
+     * The stream is not closed.
+     * 
+     * @param in
+     *   The stream to read.
+     * @param file
+     *   The file to write.
+     * @param lineSeparator
+     *   The line separator to write in place of each line ending or null to write the 
+     *   stream byte for byte.
+     * @throws java.lang.Exception
+     *   If we fail to read the stream or write the file.
+     */
+    private static void write(final InputStream in, final File file, 
+            final String lineSeparator) throws Exception {
+        File temp = createTempFile(file);
+        
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            
+            if (lineSeparator != null) {
+                out = new LineEndingOutputStream(out, lineSeparator);
+            }
+            
+            try {
+                byte[] buffer = new byte[IO_BUFFER_SIZE];
+                
+                for (int i = in.read(buffer); i != -1; i = in.read(buffer)) {
+                    out.write(buffer, 0, i);
+                }
+                
+            } finally {
+                out.close();
+                
+            }
+            
+            ModuleCache.rename(temp, file);
+            
+        } finally {
+            temp.delete();
+            
+        }
+        
+    }
+    
+    /**
+     * Extracts the files of a module from the module's bundle (a zip of the files in the 
+     * file-set). The bundle is fetched with one request.
+     * <br/>
+     * Only entries that are in the file-set are extracted. If the bundle has a SHA-256 
+     * checksum, the whole bundle is read (from the module file cache or a temporary file) and 
+     * checked before anything is unpacked. Otherwise the bundle is unpacked as it is read.
+     * 
+     * @param location
+     *   The (formatted) location of the module.
+     * @param module
+     *   The module. This must have a bundle.
+     * @param dir
+     *   The directory to extract to.
+     * @param fileNames
+     *   The names of the files to extract. The names of the files that are extracted are 
+     *   removed from this set.
+     * @throws MojoExecutionException
+     *   If the checksum does not match. 
+     * @throws java.lang.Exception
+     *   If we fail to read the bundle.
+     */
+    private void extractBundle(final String location, final PlsqlCoreModule module, 
+            final File dir, final Set<String> fileNames) 
+            throws MojoExecutionException, Exception {
+        URL url = new URL(new URL(location), module.getBundle().getValue().trim());
+        String key = url + "#" + module.getVersion();
+        String sha256 = module.getBundle().getSha256();
+        
+        getLog().info("Extracting bundle: " + url);
+        
+        File bundle = null;
+        File temp = null;
+        
+        try {
+            if (sha256 != null) {
+                if (cache != null) {
+                    bundle = getCachedFile(url, key);
+                    
+                } else {
+                    temp = File.createTempFile("plsql-core-bundle", ".zip");
+                    bundle = temp;
+                    InputStream in = openStream(url, key);
+                    
+                    try {
+                        write(in, bundle, null);
+                        
+                    } finally {
+                        in.close();
+                        
+                    }
+                    
+                }
+                
+                // the checksum covers the whole bundle (including the zip directory)
+                String actual = ManifestVerifier.sha256(bundle);
+                
+                if (!actual.equalsIgnoreCase(sha256.trim())) {
+                    // not an IOException. downloading the bundle again will not help
+                    throw new MojoExecutionException("checksum mismatch for " + url + 
+                            ". expected " + sha256 + " found " + actual);
+                }
+                
+            }
+            
+            InputStream in = (bundle == null) 
+                    ? openStream(url, key) 
+                    : new FileInputStream(bundle);
+            
+            try {
+                String lineSeparator = getLineSeparator();
+                Set<String> extracted = new HashSet<String>();
+                ZipInputStream zip = new ZipInputStream(in);
+                
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; 
+                        entry = zip.getNextEntry()) {
+                    // nothing outside of the file-set is written
+                    if (!entry.isDirectory() && fileNames.contains(entry.getName())) {
+                        getLog().debug("Extracting: " + entry.getName() + " from " + url);
+                        write(zip, new File(dir, entry.getName()), lineSeparator);
+                        extracted.add(entry.getName());
+                    }
+                    
+                }
+                
+                fileNames.removeAll(extracted);
+                
+            } finally {
+                in.close();
+                
+            }
+            
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+            
+        }
+        
+    }
+    
+    /**
+     * Reads the PlsqlCoreModule (plsql-core-module.xml) from the specified location.
+     * This is called by many threads at the same time.
      * 
      * @param moduleLocation
-     *   The location of the module to add.
-     * @param moduleMap
-     *   The map to which the module should be added.
+     *   The location of the module to read.
+     * @return
+     *   The module.
      * @throws java.lang.Exception
-     *   If we fail to add the module. 
-     *   This could be because we can't read the plsql-core-module.xml file 
+     *   If we fail to read the plsql-core-module.xml file 
      *   (which should be in the specified location).
      */
-    private void addModule(final String moduleLocation, 
-            final Map<String, PlsqlCoreModule> moduleMap) 
+    PlsqlCoreModule readModule(final String moduleLocation) throws Exception {
+        getLog().debug("readModule() moduleLocation: " + moduleLocation);
+        
+        URL baseUrl = new URL(moduleLocation);
+        
+        InputStream in = openStream(
+                new URL(baseUrl, "plsql-core-module.xml"), 
+                moduleLocation + "plsql-core-module.xml");
+        
+        try {
+            if (DescriptorReader.isAvailable()) {
+                return DescriptorReader.readModule(in);
+            }
+            // un-marshallers are not thread-safe so each read gets a new one
+            return (PlsqlCoreModule) getJaxbContext().createUnmarshaller().unmarshal(in);
+            
+        } finally {
+            in.close();
+            
+        }
+        
+    }
+    
+    /**
+     * Returns the PlsqlCoreModules identified by the specified locations and all of their 
+     * dependencies, keyed by location.
+     * <br/>
+     * Modules are resolved a level at a time. All modules at the same depth of the 
+     * dependency graph are read at the same time (using up to resolverThreads threads) and
+     * the dependencies they declare make up the next level.
+     * Each location is read once, no matter how many modules depend on it.
+     * <br/>
+     * A module that can't be read does not stop the other modules being resolved. 
+     * Every module that could not be read is reported by the exception thrown at the end.
+     * 
+     * @param moduleLocations
+     *   The (formatted) locations of the modules to resolve.
+     * @return
+     *   The modules keyed by location.
+     * @throws ModuleFailureException
+     *   If we fail to read any of the modules. 
+     *   This could be because we can't read a plsql-core-module.xml file.
+     * @throws java.lang.Exception
+     *   If resolution is interrupted.
+     */
+    Map<String, PlsqlCoreModule> resolveModules(final List<String> moduleLocations) 
             throws Exception {
+        // keep the order in which modules were resolved
+        Map<String, PlsqlCoreModule> moduleMap = new LinkedHashMap<String, PlsqlCoreModule>();
+        
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        
+        // every location that has been submitted. this stops us reading a location twice
+        Set<String> submitted = new HashSet<String>();
+        
+        List<String> level = new ArrayList<String>();
+        for (String location : moduleLocations) {
+            if (submitted.add(location)) {
+                level.add(location);
+            }
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(resolverThreads);
+        
+        try {
+            for (int depth = 0; !level.isEmpty(); depth++) {
+                getLog().debug("resolving " + level.size() + " module(s) at depth " + depth);
+                
+                List<Future<PlsqlCoreModule>> results = new ArrayList<Future<PlsqlCoreModule>>();
+                
+                for (final String location : level) {
+                    results.add(executor.submit(new Callable<PlsqlCoreModule>() {
+                        public PlsqlCoreModule call() throws Exception {
+                            return readModule(location);
+                        }
+                    }));
+                    
+                }
+                
+                List<String> nextLevel = new ArrayList<String>();
+                
+                for (int i = 0; i < level.size(); i++) {
+                    PlsqlCoreModule plsqlCoreModule;
+                    
+                    try {
+                        plsqlCoreModule = results.get(i).get();
+                        
+                    } catch (ExecutionException ex) {
+                        if (!(ex.getCause() instanceof Exception)) {
+                            throw (Error) ex.getCause();
+                        }
+                        failures.put(level.get(i), (Exception) ex.getCause());
+                        continue;
+                        
+                    }
+                    
+                    moduleMap.put(level.get(i), plsqlCoreModule);
+                    
+                    if (plsqlCoreModule.getDependencies() == null) {
+                        continue;
+                    }
+                    
+                    for (PlsqlCoreModule.Dependencies.Dependency dependency 
+                            : plsqlCoreModule.getDependencies().getDependency()) {
+                        String dependencyLocation = formatLocation(dependency.getLocation());
+                        
+                        if (submitted.add(dependencyLocation)) {
+                            nextLevel.add(dependencyLocation);
+                            
+                        } else {
+                            getLog().debug(
+                                    "not adding duplicate module location: " + dependencyLocation);
+                            
+                        }
+                        
+                    }
+                    
+                }
+                
+                level = nextLevel;
+                
+            }
+            
+        } finally {
+            executor.shutdownNow();
+            
+        }
+        
+        if (!failures.isEmpty()) {
+            throw new ModuleFailureException("failed to read", failures);
+        }
+        
+        return moduleMap;
+        
+    }
+    
+    /**
+     * Returns the inputs of an extract (other than the resolved modules) that go into its 
+     * fingerprint.
+     * 
+     * @param includesSha256
+     *   The SHA-256 of the includes file.
+     * @return
+     *   The inputs.
+     * @throws java.lang.Exception
+     *   If we fail to get the inputs.
+     */
+    private List<String> getFingerprintInputs(final String includesSha256) throws Exception {
+        List<String> result = new ArrayList<String>();
+        result.add("includes " + includesSha256);
+        result.add("outputDirectory " + new File(outputDirectory).getCanonicalPath());
+        result.add("lineEnding " + getLineSeparator());
+        if (lockFile != null) {
+            result.add("lockFile " + lockFile.getPath() + " " + lockFile.length() + " " + 
+                    lockFile.lastModified());
+        }
+        return result;
+    }
+    
+    /**
+     * Returns true if the fingerprint of the last extract matches the current inputs and 
+     * extracted files.
+     * <br/>
+     * This is always false if there is no lock file. The module versions are then only known 
+     * by resolving the modules, which is most of the work of an extract.
+     * 
+     * @param includesSha256
+     *   The SHA-256 of the includes file.
+     * @return
+     *   true if nothing has changed since the last extract.
+     */
+    private boolean isUpToDate(final String includesSha256) {
+        if (lockFile == null || !lockFile.isFile()) {
+            getLog().debug("no lock file pins the module versions. not checking fingerprint");
+            return false;
+        }
         
-        getLog().debug("addModule() moduleLocation: " + moduleLocation);
+        try {
+            Fingerprint fingerprint = Fingerprint.read(fingerprintFile);
+            List<String> inputs = getFingerprintInputs(includesSha256);
+            
+            // the lock file pins the module versions
+            LockFile lock = LockFile.read(lockFile);
+            for (String location : lock.getModules()) {
+                inputs.add("module " + lock.getVersion(location) + " " + location);
+            }
+            
+            return fingerprint.isUpToDate(inputs);
+            
+        } catch (Exception ex) {
+            getLog().debug("failed to check fingerprint " + fingerprintFile, ex);
+            return false;
+            
+        }
         
-        if (moduleMap.containsKey(moduleLocation)) {
-            getLog().debug(
-                    "not adding duplicate module location: " + moduleLocation);
+    }
+    
+    /**
+     * Writes the fingerprint of an extract to the fingerprint file 
+     * (if a fingerprint file has been set).
+     * 
+     * @param includesSha256
+     *   The SHA-256 of the includes file.
+     * @param versions
+     *   The version of each extracted module keyed by location.
+     * @param fileNames
+     *   The names of the files of each extracted module keyed by location.
+     * @throws java.lang.Exception
+     *   If we fail to write the fingerprint.
+     */
+    private void writeFingerprint(final String includesSha256, 
+            final Map<String, String> versions, 
+            final Map<String, Collection<String>> fileNames) throws Exception {
+        if (fingerprintFile == null) {
             return;
         }
         
-        URL baseUrl = new URL(moduleLocation);
+        List<String> inputs = getFingerprintInputs(includesSha256);
+        List<File> files = new ArrayList<File>();
         
-        URLConnection urlConnection = 
-                new URL(baseUrl, "plsql-core-module.xml").openConnection();
+        for (Map.Entry<String, String> entry : versions.entrySet()) {
+            inputs.add("module " + entry.getValue() + " " + entry.getKey());
+            
+            for (String fileName : fileNames.get(entry.getKey())) {
+                files.add(getOutputFile(entry.getKey(), fileName));
+            }
+            
+            files.add(getOutputFile(entry.getKey(), Manifest.FILE_NAME));
+            
+        }
         
-        urlConnection.setUseCaches(false);
-
-        PlsqlCoreModule plsqlCoreModule = (PlsqlCoreModule)
-                jaxbUnmarshaller.unmarshal(urlConnection.getInputStream());
+        if (planFile != null) {
+            files.add(planFile);
+        }
+        
+        new Fingerprint(inputs, files).write(fingerprintFile);
         
-        moduleMap.put(moduleLocation, plsqlCoreModule);
+    }
+    
+    /**
+     * Writes a manifest (see Manifest) to the directory of each extracted module. 
+     * Each manifest lists the SHA-256 and size of the files in the file-set of its module.
+     * The files are hashed using one thread per processor.
+     * 
+     * @param fileNames
+     *   The names of the files of each extracted module keyed by location.
+     * @return
+     *   The manifest of each module keyed by location.
+     * @throws java.lang.Exception
+     *   If we fail to read an extracted file or write a manifest.
+     */
+    private Map<String, Manifest> writeManifests(
+            final Map<String, Collection<String>> fileNames) throws Exception {
+        Map<File, Collection<String>> modules = new LinkedHashMap<File, Collection<String>>();
+        
+        for (Map.Entry<String, Collection<String>> entry : fileNames.entrySet()) {
+            modules.put(getModuleDirectory(entry.getKey()), entry.getValue());
+        }
+        
+        Map<File, Manifest> manifests = new ManifestVerifier().write(modules);
+        Map<String, Manifest> result = new LinkedHashMap<String, Manifest>();
+        
+        for (String location : fileNames.keySet()) {
+            result.put(location, manifests.get(getModuleDirectory(location)));
+        }
+        
+        getLog().info(manifests.size() + " manifest(s) written");
+        return result;
+        
+    }
+    
+    /**
+     * Writes a manifest (see Manifest) to the directory of each module recorded in the 
+     * specified lock. The SHA-256 of each file is taken from the lock - extractLocked has 
+     * checked every file against it - so the files are not read again.
+     * 
+     * @param lock
+     *   The lock the modules were extracted from.
+     * @throws java.lang.Exception
+     *   If we fail to write a manifest.
+     */
+    private void writeManifests(final LockFile lock) throws Exception {
+        for (String location : lock.getModules()) {
+            Manifest manifest = new Manifest();
+            
+            for (Map.Entry<String, String> entry : lock.getFiles(location).entrySet()) {
+                manifest.put(entry.getKey(), entry.getValue(), 
+                        getOutputFile(location, entry.getKey()).length());
+            }
+            
+            manifest.write(new File(getModuleDirectory(location), Manifest.FILE_NAME));
+            
+        }
+        
+        getLog().info(lock.getModules().size() + " manifest(s) written");
+        
+    }
+    
+    /**
+     * Returns the (formatted) locations of the dependencies of the specified module.
+     * 
+     * @param module
+     *   The module.
+     * @return
+     *   The locations of the modules that the module depends on.
+     */
+    private List<String> getDependencies(final PlsqlCoreModule module) {
+        List<String> result = new ArrayList<String>();
+        
+        if (module.getDependencies() != null) {
+            for (PlsqlCoreModule.Dependencies.Dependency dependency 
+                    : module.getDependencies().getDependency()) {
+                result.add(formatLocation(dependency.getLocation()));
+            }
+        }
+        
+        return result;
+        
+    }
+    
+    /**
+     * Works out the build plan of the specified modules.
+     * 
+     * @param dependencies
+     *   The (formatted) locations of the dependencies of each module keyed by location.
+     * @param fileCounts
+     *   The number of files of each module keyed by location.
+     * @return
+     *   The plan.
+     * @throws java.lang.Exception
+     *   If the dependencies of the modules form a cycle.
+     */
+    private BuildPlan createPlan(final Map<String, List<String>> dependencies, 
+            final Map<String, Integer> fileCounts) throws Exception {
+        BuildPlan result = new BuildPlan();
+        
+        for (Map.Entry<String, List<String>> entry : dependencies.entrySet()) {
+            String location = entry.getKey();
+            result.addModule(location, getModuleDirectory(location).getAbsolutePath(), 
+                    fileCounts.get(location), entry.getValue());
+        }
+        
+        try {
+            result.plan();
+            
+        } catch (BuildPlan.CycleException ex) {
+            throw new MojoExecutionException(ex.getMessage(), ex);
+            
+        }
+        
+        getLog().info("build plan: " + dependencies.size() + " module(s) in " + 
+                result.getWaves().size() + " wave(s). critical path: " + 
+                BuildPlan.join(result.getCriticalPath()));
+        
+        return result;
+        
+    }
+    
+    /**
+     * Returns the file to which the specified file of a module is extracted.
+     * 
+     * @param location
+     *   The (formatted) location of the module.
+     * @param fileName
+     *   The name of the file (from the file-set of the module).
+     * @return
+     *   The file in the output directory.
+     */
+    private File getOutputFile(final String location, final String fileName) {
+        return new File(outputDirectory + 
+                File.separator + getModuleName(location) + 
+                File.separator + fileName);
+    }
+    
+    /**
+     * Returns the directory to which the files of the specified module are extracted.
+     * 
+     * @param location
+     *   The (formatted) location of the module.
+     * @return
+     *   The directory in the output directory.
+     */
+    private File getModuleDirectory(final String location) {
+        return new File(outputDirectory + File.separator + getModuleName(location));
+    }
+    
+    /**
+     * Waits for the specified downloads to complete, adding the first failure of each module
+     * to failures.
+     * 
+     * @param downloads
+     *   The downloads of each module keyed by module location.
+     * @param failures
+     *   The failures keyed by module location.
+     * @throws InterruptedException
+     *   If we are interrupted while waiting.
+     */
+    private static void await(final Map<String, List<Future<Object>>> downloads, 
+            final Map<String, Exception> failures) throws InterruptedException {
+        for (Map.Entry<String, List<Future<Object>>> entry : downloads.entrySet()) {
+            for (Future<Object> future : entry.getValue()) {
+                try {
+                    future.get();
+                    
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof Exception)) {
+                        throw (Error) ex.getCause();
+                    }
+                    // carry on with the other modules so that every failure is reported
+                    if (!failures.containsKey(entry.getKey())) {
+                        failures.put(entry.getKey(), (Exception) ex.getCause());
+                    }
+                    
+                }
+                
+            }
+            
+        }
+        
+    }
+    
+    /**
+     * Extracts the modules recorded in the specified lock without reading any module 
+     * descriptors. Files that are already in the output directory with the SHA-256 recorded 
+     * in the lock are not fetched. 
+     * <br/>
+     * A fetched file that does not have the SHA-256 recorded in the lock fails the module 
+     * if failOnLockDrift is set (and the output file is left as it was). Otherwise the lock 
+     * file is updated.
+     * 
+     * @param lock
+     *   The lock.
+     * @throws java.lang.Exception
+     *   If we fail to extract any of the modules.
+     */
+    private void extractLocked(final LockFile lock) throws Exception {
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        Map<String, List<Future<Object>>> downloads = 
+                new LinkedHashMap<String, List<Future<Object>>>();
+        final AtomicInteger drifted = new AtomicInteger();
+        int upToDate = 0;
+        
+        Downloader downloader = new Downloader(downloadThreads, downloadThreadsPerHost, 
+                downloadRetries, downloadRetryDelay);
+        
+        try {
+            for (final String location : lock.getModules()) {
+                mkDir(getModuleName(location));
+                
+                List<Future<Object>> futures = new ArrayList<Future<Object>>();
+                
+                for (Map.Entry<String, String> entry : lock.getFiles(location).entrySet()) {
+                    final String fileName = entry.getKey();
+                    final String sha256 = entry.getValue();
+                    final File file = getOutputFile(location, fileName);
+                    
+                    if (file.isFile() && sha256.equals(ManifestVerifier.sha256(file))) {
+                        upToDate++;
+                        continue;
+                    }
+                    
+                    final URL url = new URL(new URL(location), fileName);
+                    final String key = location + fileName + "#" + lock.getVersion(location);
+                    
+                    futures.add(downloader.submit(url, new Callable<Object>() {
+                        public Object call() throws Exception {
+                            getLog().info("Extracting: " + url);
+                            // the file is checked before it replaces the output file
+                            File temp = createTempFile(file);
+                            
+                            try {
+                                copy(url, key, temp);
+                                
+                                String actual = ManifestVerifier.sha256(temp);
+                                
+                                if (!actual.equals(sha256)) {
+                                    if (failOnLockDrift) {
+                                        throw new MojoExecutionException(url + 
+                                                " has changed since the lock file was " +
+                                                "written. expected " + sha256 + 
+                                                " found " + actual);
+                                    }
+                                    getLog().warn(url + " has changed since the lock file " +
+                                            "was written. updating lock file");
+                                    lock.putFile(location, fileName, actual);
+                                    drifted.incrementAndGet();
+                                }
+                                
+                                ModuleCache.rename(temp, file);
+                                
+                            } finally {
+                                temp.delete();
+                                
+                            }
+                            
+                            return null;
+                        }
+                    }));
+                    
+                }
+                
+                downloads.put(location, futures);
+                
+            }
+            
+            await(downloads, failures);
+            
+        } finally {
+            downloader.shutdown();
+            
+        }
         
-        if (plsqlCoreModule.getDependencies() == null) {
-            getLog().debug("module has no dependencies");
-            return;
+        if (!failures.isEmpty()) {
+            throw new ModuleFailureException("failed to extract", failures);
         }
         
-        List<PlsqlCoreModule.Dependencies.Dependency> dependencies =
-                plsqlCoreModule.getDependencies().getDependency();
+        getLog().info(upToDate + " file(s) up to date");
         
-        for (PlsqlCoreModule.Dependencies.Dependency dependency : dependencies) {
-            String dependencyLocation = formatLocation(dependency.getLocation());
-            if (!moduleMap.containsKey(dependencyLocation)) {
-                addModule(dependencyLocation, moduleMap);
-                
-            }
-            
+        if (drifted.get() > 0) {
+            lock.write(lockFile);
+        }
+        
+        if (cache != null) {
+            cache.evict();
+            getLog().info("module cache " + cacheDirectory + " " + cache);
         }
         
     }
@@ -245,90 +1240,283 @@ public class Extract extends AbstractMojo {
             return;
         }
         
-        if (!executeIfNoNetwork) {
-            try {
-                URLConnection urlConnection = new URL("http://www.sun.com").openConnection();
-                urlConnection.setUseCaches(false);
-                urlConnection.getInputStream().close();
-                // if we can get the input stream, the network connection is ok
-                getLog().debug("Network OK");
-                
-            } catch (Exception ex) {
-                // assume that any exceptions thrown mean we have no network connection
-                getLog().warn("No Network (failed to connect to http://www.sun.com). Not extracting");
-                return;
-                
+        try {
+            cache = (cacheDirectory == null) 
+                    ? null 
+                    : new ModuleCache(cacheDirectory, cacheTtl * 1000, cacheMaxSize);
+            
+            if (offlineFirst && cache == null) {
+                getLog().warn("offlineFirst has no effect as the module cache is disabled");
             }
             
-        }
-        
-        try {
-            // set-up a map to hold all modules that we'll extract.
-            // each module will be keyed by it's location - so we can avoid adding duplicates
-            Map<String, PlsqlCoreModule> moduleMap = new HashMap<String, PlsqlCoreModule>();
+            String includesSha256 = ManifestVerifier.sha256(includesFile);
             
-            // read the includes file via JAXB
-            PlsqlCoreIncludes plsqlCoreIncludes = (PlsqlCoreIncludes) 
-                    jaxbUnmarshaller.unmarshal(includesFile);
+            if (fingerprintFile != null && fingerprintFile.isFile()) {
+                if (isUpToDate(includesSha256)) {
+                    getLog().info("plsql-core modules are up to date. Not extracting");
+                    return;
+                }
+                // the fingerprint is written again if the extract works
+                fingerprintFile.delete();
+            }
             
-            // add each location to be included to the module map.
-            // add module should take care of adding depencies
-            for (String location : plsqlCoreIncludes.getPlsqlCoreModuleLocation()) {
-                addModule(formatLocation(location), moduleMap);
+            if (lockFile != null && lockFile.isFile()) {
+                LockFile lock = LockFile.read(lockFile);
+                
+                if (!includesSha256.equals(lock.getIncludesSha256())) {
+                    getLog().info(includesFile + " has changed. resolving modules");
+                    
+                } else if (planFile != null && lock.getFormat() < 2) {
+                    getLog().info(lockFile + " does not record module dependencies. " + 
+                            "resolving modules");
+                    
+                } else {
+                    getLog().info("using lock file " + lockFile);
+                    
+                    Map<String, List<String>> dependencies = 
+                            new LinkedHashMap<String, List<String>>();
+                    Map<String, Integer> fileCounts = new LinkedHashMap<String, Integer>();
+                    for (String location : lock.getModules()) {
+                        dependencies.put(location, lock.getDependencies(location));
+                        fileCounts.put(location, lock.getFiles(location).size());
+                    }
+                    BuildPlan plan = (planFile == null) 
+                            ? null : createPlan(dependencies, fileCounts);
+                    
+                    extractLocked(lock);
+                    
+                    if (plan != null) {
+                        plan.write(planFile);
+                    }
+                    
+                    Map<String, String> versions = new LinkedHashMap<String, String>();
+                    Map<String, Collection<String>> fileNames = 
+                            new LinkedHashMap<String, Collection<String>>();
+                    for (String location : lock.getModules()) {
+                        versions.put(location, lock.getVersion(location));
+                        fileNames.put(location, lock.getFiles(location).keySet());
+                    }
+                    writeManifests(lock);
+                    writeFingerprint(includesSha256, versions, fileNames);
+                    
+                    return;
+                    
+                }
                 
             }
             
-            // extract each module in the module map
-            for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
-                // get the location from the PlsqlCoreModule
-                String location = formatLocation(entry.getValue().getLocation());
-                
-                // make sure the location from the PlsqlCoreModule matches the
-                // loaction given in the includes file
-                if (!entry.getKey().equals(location)) {
-                    throw new MojoExecutionException(
-                            "[Location Mismatch] " + 
-                            includesFile.getName() + ":\"" + entry.getKey() + 
-                            "\" plsql-core-module.xml:\"" + location + "\"");
+            // read the includes file
+            PlsqlCoreIncludes plsqlCoreIncludes = readIncludes(includesFile);
+            
+            List<String> locations = new ArrayList<String>();
+            for (String location : plsqlCoreIncludes.getPlsqlCoreModuleLocation()) {
+                locations.add(formatLocation(location));
+            }
+            
+            // get all modules that we'll extract (including dependencies).
+            // each module is keyed by it's location - so we avoid adding duplicates
+            Map<String, PlsqlCoreModule> moduleMap = resolveModules(locations);
+            
+            // work out the plan before downloading anything so that a cycle fails fast
+            BuildPlan plan = null;
+            if (planFile != null) {
+                Map<String, List<String>> dependencies = 
+                        new LinkedHashMap<String, List<String>>();
+                Map<String, Integer> fileCounts = new LinkedHashMap<String, Integer>();
+                for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
+                    dependencies.put(entry.getKey(), getDependencies(entry.getValue()));
+                    fileCounts.put(entry.getKey(), 
+                            entry.getValue().getFileSet().getFile().size());
                 }
+                plan = createPlan(dependencies, fileCounts);
+            }
+            
+            Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+            
+            Downloader downloader = new Downloader(downloadThreads, downloadThreadsPerHost, 
+                    downloadRetries, downloadRetryDelay);
+            
+            try {
+                // the bundle of each module (null if the module does not have a bundle) 
+                Map<String, Future<Set<String>>> bundles = 
+                        new LinkedHashMap<String, Future<Set<String>>>();
                 
-                // get the name of the module
-                String moduleName = getModuleName(location);
+                for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
+                    // get the location from the PlsqlCoreModule
+                    final String location = formatLocation(entry.getValue().getLocation());
+                    
+                    // make sure the location from the PlsqlCoreModule matches the
+                    // loaction given in the includes file
+                    if (!entry.getKey().equals(location)) {
+                        throw new MojoExecutionException(
+                                "[Location Mismatch] " + 
+                                includesFile.getName() + ":\"" + entry.getKey() + 
+                                "\" plsql-core-module.xml:\"" + location + "\"");
+                    }
+                    
+                    // setup output dir for this module
+                    mkDir(getModuleName(location));
+                    
+                    final PlsqlCoreModule module = entry.getValue();
+                    
+                    if (module.getBundle() == null) {
+                        bundles.put(location, null);
+                        continue;
+                    }
+                    
+                    // start the bundles first. they hold most of the files
+                    bundles.put(location, downloader.submit(
+                            new URL(new URL(location), module.getBundle().getValue().trim()), 
+                            new Callable<Set<String>>() {
+                        public Set<String> call() throws Exception {
+                            Set<String> fileNames = new LinkedHashSet<String>(
+                                    module.getFileSet().getFile());
+                            extractBundle(location, module, 
+                                    new File(outputDirectory + getModuleName(location)), 
+                                    fileNames);
+                            return fileNames;
+                        }
+                    }));
+                    
+                }
                 
-                // setup output dir for this module
-                mkDir(moduleName);
+                // the downloads of each module
+                Map<String, List<Future<Object>>> downloads = 
+                        new LinkedHashMap<String, List<Future<Object>>>();
                 
-                // extract each file listed in the modules file set
-                for (String fileName : entry.getValue().getFileSet().getFile()) {
-                    getLog().info("Extracting: " + location + fileName);
+                for (Map.Entry<String, Future<Set<String>>> bundle : bundles.entrySet()) {
+                    String location = bundle.getKey();
+                    PlsqlCoreModule module = moduleMap.get(location);
+                    Set<String> fileNames = 
+                            new LinkedHashSet<String>(module.getFileSet().getFile());
                     
-                    URL baseUrl = new URL(location);
+                    if (bundle.getValue() != null) {
+                        try {
+                            fileNames = bundle.getValue().get();
+                            
+                            if (!fileNames.isEmpty()) {
+                                getLog().info(fileNames.size() + " file(s) of " + location + 
+                                        " not in bundle");
+                            }
+                            
+                        } catch (ExecutionException ex) {
+                            if (!(ex.getCause() instanceof Exception)) {
+                                throw (Error) ex.getCause();
+                            }
+                            
+                            if (ex.getCause() instanceof MojoExecutionException) {
+                                // the bundle does not match it's checksum. 
+                                // nothing has been unpacked
+                                failures.put(location, (Exception) ex.getCause());
+                                continue;
+                            }
+                            
+                            // fall back to downloading each file
+                            getLog().warn("failed to extract bundle of " + location + 
+                                    ". downloading each file: " + ex.getCause());
+                            
+                        }
+                        
+                    }
                     
-                    URLConnection urlConnection = new URL(baseUrl, fileName).openConnection();
+                    List<Future<Object>> futures = new ArrayList<Future<Object>>();
                     
-                    urlConnection.setUseCaches(false);
+                    // extract each file listed in the modules file set
+                    for (String fileName : fileNames) {
+                        final URL url = new URL(new URL(location), fileName);
+                        // files are cached by module version
+                        final String key = location + fileName + "#" + module.getVersion();
+                        final File file = getOutputFile(location, fileName);
+                        
+                        futures.add(downloader.submit(url, new Callable<Object>() {
+                            public Object call() throws Exception {
+                                getLog().info("Extracting: " + url);
+                                copy(url, key, file);
+                                return null;
+                            }
+                        }));
+                        
+                    }
                     
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(
-                            urlConnection.getInputStream()));
+                    downloads.put(location, futures);
                     
-                    BufferedWriter writer = new BufferedWriter(new FileWriter(
-                            outputDirectory + 
-                            File.separator + moduleName + 
-                            File.separator + fileName));
+                }
+                
+                await(downloads, failures);
+                
+                if (downloader.getRetryCount() > 0) {
+                    getLog().info(downloader.getRetryCount() + " download(s) retried");
+                }
+                
+            } finally {
+                downloader.shutdown();
+                
+            }
+            
+            if (!failures.isEmpty()) {
+                throw new ModuleFailureException("failed to extract", failures);
+            }
+            
+            Map<String, String> versions = new LinkedHashMap<String, String>();
+            Map<String, Collection<String>> fileNames = 
+                    new LinkedHashMap<String, Collection<String>>();
+            for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
+                versions.put(entry.getKey(), entry.getValue().getVersion());
+                fileNames.put(entry.getKey(), entry.getValue().getFileSet().getFile());
+            }
+            
+            Map<String, Manifest> manifests = writeManifests(fileNames);
+            
+            if (lockFile != null) {
+                LockFile lock = new LockFile();
+                lock.setIncludesSha256(includesSha256);
+                
+                for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
+                    lock.addModule(entry.getKey(), entry.getValue().getVersion());
                     
-                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-                        writer.write(line);
-                        writer.newLine();
-                        
+                    for (String dependency : getDependencies(entry.getValue())) {
+                        lock.addDependency(entry.getKey(), dependency);
                     }
                     
-                    writer.close();
-                    reader.close();
+                    // the manifests hold the SHA-256 of every extracted file
+                    for (String fileName : entry.getValue().getFileSet().getFile()) {
+                        lock.putFile(entry.getKey(), fileName, 
+                                manifests.get(entry.getKey()).get(fileName).getSha256());
+                    }
                     
                 }
                 
+                lock.write(lockFile);
+                getLog().info("lock file written: " + lockFile);
+                
+            }
+            
+            if (plan != null) {
+                plan.write(planFile);
+                getLog().info("build plan written: " + planFile);
+            }
+            
+            writeFingerprint(includesSha256, versions, fileNames);
+            
+            if (cache != null) {
+                cache.evict();
+                getLog().info("module cache " + cacheDirectory + " " + cache);
+            }
+            
+        } catch (ModuleFailureException ex) {
+            for (Map.Entry<String, Exception> failure : ex.getFailures().entrySet()) {
+                getLog().warn(ex.getMessage() + " module " + failure.getKey() + ": " + 
+                        failure.getValue());
+            }
+            
+            if (!executeIfNoNetwork && ex.isNetworkFailure()) {
+                getLog().warn("No Network (failed to fetch " + ex.getFailures().size() + 
+                        " module(s)). Not extracting");
+                return;
             }
             
+            throw new MojoExecutionException("extract failed. " + ex.getMessage(), ex);
+            
         } catch (Exception ex) {
             // log a warning if the extract failed
             getLog().warn("extract failed", ex);
@@ -413,26 +1601,393 @@ public class Extract extends AbstractMojo {
     }
 
     /**
-     * Returns true if this goal should attempt to execute even when we have
+     * Returns true if this goal should fail when modules can't be fetched because we have
      * no network connection, false (the default) otherwise.
      * @return
-     *   true if this goal should attempt to execute even when we have no 
-     *   netowrk connection.
+     *   true if this goal should fail when we have no network connection.
      */
     public boolean isExecuteIfNoNetwork() {
         return executeIfNoNetwork;
     }
 
     /**
-     * Set to true to make this goal attempt to execute even when we have
+     * Set to true to make this goal fail when modules can't be fetched because we have
      * no network connection.
      * 
      * @param executeIfNoNetwork
-     *   Pass true to make this goal attempt to execute even when we have
-     *   no network connection.
+     *   Pass true to make this goal fail when we have no network connection.
      */
     public void setExecuteIfNoNetwork(final boolean executeIfNoNetwork) {
         this.executeIfNoNetwork = executeIfNoNetwork;
     }
 
+    /**
+     * Returns true if cached module files are used without going to the network.
+     * 
+     * @return
+     *   true if offline first mode is enabled.
+     */
+    public boolean isOfflineFirst() {
+        return offlineFirst;
+    }
+
+    /**
+     * Set to true to use cached module files (no matter how old they are) without going to
+     * the network. Only modules that are not in the cache are fetched.
+     * 
+     * @param offlineFirst
+     *   Pass true to enable offline first mode.
+     */
+    public void setOfflineFirst(final boolean offlineFirst) {
+        this.offlineFirst = offlineFirst;
+    }
+
+    /**
+     * Returns the fingerprint file or null if up-to-date checks are disabled.
+     * 
+     * @return
+     *   The fingerprint file.
+     */
+    public File getFingerprintFile() {
+        return fingerprintFile;
+    }
+
+    /**
+     * Sets the fingerprint file.
+     * 
+     * @param fingerprintFile
+     *   The fingerprint file. Pass null to disable up-to-date checks.
+     */
+    public void setFingerprintFile(final File fingerprintFile) {
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    /**
+     * Returns the lock file or null if a lock file is not used.
+     * 
+     * @return
+     *   The lock file.
+     */
+    public File getLockFile() {
+        return lockFile;
+    }
+
+    /**
+     * Sets the lock file.
+     * 
+     * @param lockFile
+     *   The lock file. Pass null to resolve modules every time without writing a lock file.
+     */
+    public void setLockFile(final File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * Returns the plan file or null if a build plan is not written.
+     * 
+     * @return
+     *   The plan file.
+     */
+    public File getPlanFile() {
+        return planFile;
+    }
+
+    /**
+     * Sets the plan file.
+     * 
+     * @param planFile
+     *   The plan file. Pass null to extract without writing a build plan.
+     */
+    public void setPlanFile(final File planFile) {
+        this.planFile = planFile;
+    }
+
+    /**
+     * Returns true if this goal should fail when a file fetched using the lock file has 
+     * changed on the server, false (the default) otherwise.
+     * 
+     * @return
+     *   true if this goal should fail when a module has drifted from the lock file.
+     */
+    public boolean isFailOnLockDrift() {
+        return failOnLockDrift;
+    }
+
+    /**
+     * Set to true to make this goal fail when a file fetched using the lock file has 
+     * changed on the server.
+     * 
+     * @param failOnLockDrift
+     *   Pass true to fail when a module has drifted from the lock file.
+     */
+    public void setFailOnLockDrift(final boolean failOnLockDrift) {
+        this.failOnLockDrift = failOnLockDrift;
+    }
+
+    /**
+     * Returns the maximum number of files that will be downloaded at the same time.
+     * The default is 4.
+     * 
+     * @return
+     *   The maximum number of files that will be downloaded at the same time.
+     */
+    public int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    /**
+     * Sets the maximum number of files that will be downloaded at the same time.
+     * 
+     * @param downloadThreads
+     *   The maximum number of files that will be downloaded at the same time.
+     * @throws IllegalArgumentException
+     *   If downloadThreads is less than 1.
+     */
+    public void setDownloadThreads(final int downloadThreads) throws IllegalArgumentException {
+        if (downloadThreads < 1) {
+            throw new IllegalArgumentException(
+                    "downloadThreads should not be less than 1. found " + downloadThreads);
+        }
+        this.downloadThreads = downloadThreads;
+    }
+
+    /**
+     * Returns the maximum number of files that will be downloaded from one host at the same 
+     * time. The default is 2.
+     * 
+     * @return
+     *   The maximum number of files that will be downloaded from one host at the same time.
+     */
+    public int getDownloadThreadsPerHost() {
+        return downloadThreadsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of files that will be downloaded from one host at the same 
+     * time.
+     * 
+     * @param downloadThreadsPerHost
+     *   The maximum number of files that will be downloaded from one host at the same time.
+     * @throws IllegalArgumentException
+     *   If downloadThreadsPerHost is less than 1.
+     */
+    public void setDownloadThreadsPerHost(final int downloadThreadsPerHost) 
+            throws IllegalArgumentException {
+        if (downloadThreadsPerHost < 1) {
+            throw new IllegalArgumentException(
+                    "downloadThreadsPerHost should not be less than 1. found " + 
+                    downloadThreadsPerHost);
+        }
+        this.downloadThreadsPerHost = downloadThreadsPerHost;
+    }
+
+    /**
+     * Returns the number of times a failed download is retried. The default is 2.
+     * 
+     * @return
+     *   The number of times a failed download is retried.
+     */
+    public int getDownloadRetries() {
+        return downloadRetries;
+    }
+
+    /**
+     * Sets the number of times a failed download is retried.
+     * 
+     * @param downloadRetries
+     *   The number of times a failed download is retried. Pass 0 to disable retries.
+     */
+    public void setDownloadRetries(final int downloadRetries) {
+        this.downloadRetries = downloadRetries;
+    }
+
+    /**
+     * Returns the delay (in milliseconds) before the first retry of a failed download.
+     * 
+     * @return
+     *   The delay before the first retry of a failed download.
+     */
+    public long getDownloadRetryDelay() {
+        return downloadRetryDelay;
+    }
+
+    /**
+     * Sets the delay (in milliseconds) before the first retry of a failed download.
+     * The delay doubles with each retry.
+     * 
+     * @param downloadRetryDelay
+     *   The delay before the first retry of a failed download.
+     */
+    public void setDownloadRetryDelay(final long downloadRetryDelay) {
+        this.downloadRetryDelay = downloadRetryDelay;
+    }
+
+    /**
+     * Returns the directory in which module files are cached or null if caching is disabled.
+     * 
+     * @return
+     *   The directory in which module files are cached.
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Sets the directory in which module files are cached. 
+     * 
+     * @param cacheDirectory
+     *   The directory in which module files are cached. Pass null to disable caching.
+     */
+    public void setCacheDirectory(final File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the time (in seconds) for which cached module files are used without checking 
+     * that they are up to date.
+     * 
+     * @return
+     *   The time to live of cached module files in seconds.
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Sets the time (in seconds) for which cached module files are used without checking 
+     * that they are up to date.
+     * 
+     * @param cacheTtl
+     *   The time to live of cached module files in seconds. 
+     *   Pass 0 to check every file every time.
+     */
+    public void setCacheTtl(final long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * Returns the maximum size (in bytes) of the module file cache.
+     * 
+     * @return
+     *   The maximum size of the module file cache.
+     */
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * Sets the maximum size (in bytes) of the module file cache.
+     * 
+     * @param cacheMaxSize
+     *   The maximum size of the module file cache.
+     */
+    public void setCacheMaxSize(final long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * Returns the line endings to use in extracted files or null if files are extracted
+     * byte for byte.
+     * 
+     * @return
+     *   lf, crlf, native or null.
+     */
+    public String getLineEnding() {
+        return lineEnding;
+    }
+
+    /**
+     * Sets the line endings to use in extracted files.
+     * 
+     * @param lineEnding
+     *   lf, crlf or native. Pass null to extract files byte for byte.
+     */
+    public void setLineEnding(final String lineEnding) {
+        this.lineEnding = lineEnding;
+    }
+
+    /**
+     * Returns the maximum number of module files that will be read at the same time.
+     * The default is 4.
+     * 
+     * @return
+     *   The maximum number of module files that will be read at the same time.
+     */
+    public int getResolverThreads() {
+        return resolverThreads;
+    }
+
+    /**
+     * Sets the maximum number of module files that will be read at the same time.
+     * 
+     * @param resolverThreads
+     *   The maximum number of module files that will be read at the same time.
+     * @throws IllegalArgumentException
+     *   If resolverThreads is less than 1.
+     */
+    public void setResolverThreads(final int resolverThreads) throws IllegalArgumentException {
+        if (resolverThreads < 1) {
+            throw new IllegalArgumentException(
+                    "resolverThreads should not be less than 1. found " + resolverThreads);
+        }
+        this.resolverThreads = resolverThreads;
+    }
+
+    /**
+     * Thrown when one or more modules can't be read or extracted.
+     * Holds the failure of each module.
+     */
+    static final class ModuleFailureException extends MojoExecutionException {
+        
+        /**
+         * Version of this class for serialization.
+         */
+        private static final long serialVersionUID = 1L;
+        
+        /**
+         * The failures keyed by module location.
+         */
+        private final Map<String, Exception> failures;
+        
+        /**
+         * Creates a new exception for the specified failures.
+         * 
+         * @param action
+         *   What we failed to do (e.g. failed to read).
+         * @param failures
+         *   The failures keyed by module location.
+         */
+        ModuleFailureException(final String action, final Map<String, Exception> failures) {
+            super(action + " " + failures.size() + " module(s): " + failures.keySet(), 
+                    failures.values().iterator().next());
+            this.failures = failures;
+        }
+        
+        /**
+         * Returns the failures keyed by module location.
+         * 
+         * @return
+         *   The failures keyed by module location.
+         */
+        Map<String, Exception> getFailures() {
+            return failures;
+        }
+        
+        /**
+         * Returns true if every failure is a network failure.
+         * 
+         * @return
+         *   true if every module failed because we could not reach a host.
+         */
+        boolean isNetworkFailure() {
+            for (Exception failure : failures.values()) {
+                if (!Extract.isNetworkFailure(failure)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+    } // End of class ModuleFailureException
+
 } // End of class Extract
\ No newline at end of file
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fingerprint of an extract: its inputs (e.g. the SHA-256 of the includes file and the
+ * resolved module versions) and the size and last modified time of each extracted file.
+ * <br/>
+ * If the fingerprint of the last extract still matches, nothing has changed and the extract
+ * can be skipped. Checking a fingerprint only reads the file system metadata of the
+ * extracted files, never their contents.
+ * <br/>
+ * A fingerprint file is a UTF-8 text file with one record per line:
+ * <pre>
+ * fingerprint &lt;sha256&gt;
+ * input &lt;input&gt;
+ * file &lt;path&gt;
+ * </pre>
+ *
+ * @author peter
+ */
+final class Fingerprint {
+
+    /**
+     * The character set of fingerprint files.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * The inputs of the extract.
+     */
+    private final List<String> inputs;
+
+    /**
+     * The extracted files.
+     */
+    private final List<File> files;
+
+    /**
+     * The SHA-256 of the inputs and the extracted files.
+     */
+    private final String value;
+
+    /**
+     * Creates the fingerprint of the specified inputs and files as they are now.
+     *
+     * @param inputs
+     *   The inputs of the extract.
+     * @param files
+     *   The extracted files.
+     */
+    Fingerprint(final List<String> inputs, final List<File> files) {
+        this(inputs, files, compute(inputs, files));
+    }
+
+    /**
+     * Creates a fingerprint with the specified value.
+     */
+    private Fingerprint(final List<String> inputs, final List<File> files, final String value) {
+        this.inputs = new ArrayList<String>(inputs);
+        this.files = new ArrayList<File>(files);
+        this.value = value;
+    }
+
+    /**
+     * Returns the SHA-256 of the specified inputs and the metadata of the specified files.
+     */
+    private static String compute(final List<String> inputs, final List<File> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for (String input : inputs) {
+                digest.update((input + "\n").getBytes(CHARSET));
+            }
+
+            for (File file : files) {
+                // a missing file has a length and last modified time of 0
+                digest.update((file.getPath() + " " + file.isFile() + " " + file.length() +
+                        " " + file.lastModified() + "\n").getBytes(CHARSET));
+            }
+
+            return ModuleCache.toHex(digest.digest());
+
+        } catch (Exception ex) {
+            // SHA-256 and UTF-8 are always available
+            throw new RuntimeException(ex);
+
+        }
+
+    }
+
+    /**
+     * Returns the SHA-256 of the inputs and extracted files of this fingerprint.
+     *
+     * @return
+     *   The value of this fingerprint in hex.
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the inputs of this fingerprint.
+     *
+     * @return
+     *   A copy of the inputs.
+     */
+    List<String> getInputs() {
+        return new ArrayList<String>(inputs);
+    }
+
+    /**
+     * Returns true if this fingerprint matches the specified inputs and the current state of
+     * the extracted files.
+     *
+     * @param currentInputs
+     *   The inputs of the extract as they are now.
+     * @return
+     *   true if nothing has changed since this fingerprint was taken.
+     */
+    boolean isUpToDate(final List<String> currentInputs) {
+        return value.equals(compute(currentInputs, files));
+    }
+
+    /**
+     * Reads the specified fingerprint file.
+     *
+     * @param file
+     *   The file to read.
+     * @return
+     *   The fingerprint.
+     * @throws IOException
+     *   If we fail to read the file or it is not a valid fingerprint file.
+     */
+    static Fingerprint read(final File file) throws IOException {
+        String value = null;
+        List<String> inputs = new ArrayList<String>();
+        List<File> files = new ArrayList<File>();
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), CHARSET));
+
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith("fingerprint ")) {
+                    value = line.substring("fingerprint ".length());
+
+                } else if (line.startsWith("input ")) {
+                    inputs.add(line.substring("input ".length()));
+
+                } else if (line.startsWith("file ")) {
+                    files.add(new File(line.substring("file ".length())));
+
+                } else if (line.length() != 0 && !line.startsWith("#")) {
+                    throw new IOException("invalid fingerprint file " + file + ": " + line);
+
+                }
+
+            }
+
+        } finally {
+            reader.close();
+
+        }
+
+        if (value == null) {
+            throw new IOException("invalid fingerprint file " + file + ": no fingerprint");
+        }
+
+        return new Fingerprint(inputs, files, value);
+
+    }
+
+    /**
+     * Writes this fingerprint to the specified file, creating the directory of the file if
+     * needed.
+     *
+     * @param file
+     *   The file to write.
+     * @throws IOException
+     *   If we fail to write the file.
+     */
+    void write(final File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("failed to create directory: " + dir);
+        }
+
+        File temp = File.createTempFile(".fingerprint", ".part", dir);
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+
+            try {
+                writer.write("# plsql-core extract fingerprint. written by the Extract goal\n");
+                writer.write("fingerprint " + value + "\n");
+
+                for (String input : inputs) {
+                    writer.write("input " + input + "\n");
+                }
+
+                for (File extracted : files) {
+                    writer.write("file " + extracted.getPath() + "\n");
+                }
+
+            } finally {
+                writer.close();
+
+            }
+
+            ModuleCache.rename(temp, file);
+
+        } finally {
+            temp.delete();
+
+        }
+
+    }
+
+} // End of class Fingerprint
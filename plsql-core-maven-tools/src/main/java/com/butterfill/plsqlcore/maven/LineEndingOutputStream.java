@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that replaces every line ending (\r\n, \n or \r) with the specified line
+ * separator. All other bytes are written unchanged, so this works for any character set in
+ * which \r and \n are single bytes (e.g. windows-1252, ISO-8859-1 and UTF-8).
+ * <br/>
+ * Runs of bytes that do not contain a line ending are written with a single call to the
+ * underlying stream.
+ *
+ * @author peter
+ */
+class LineEndingOutputStream extends FilterOutputStream {
+
+    /**
+     * The line separator to write in place of each line ending.
+     */
+    private final byte[] lineSeparator;
+
+    /**
+     * Flag to indicate that the last byte written was \r.
+     * A \n that follows is part of the same line ending.
+     */
+    private boolean afterCarriageReturn = false;
+
+    /**
+     * Creates a new stream that writes to the specified stream.
+     *
+     * @param out
+     *   The stream to write to.
+     * @param lineSeparator
+     *   The line separator to write in place of each line ending (e.g. "\n" or "\r\n").
+     */
+    LineEndingOutputStream(final OutputStream out, final String lineSeparator) {
+        super(out);
+        this.lineSeparator = new byte[lineSeparator.length()];
+        for (int i = 0; i < this.lineSeparator.length; i++) {
+            this.lineSeparator[i] = (byte) lineSeparator.charAt(i);
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int start = off;
+        int end = off + len;
+
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+
+            if (c == '\n' && afterCarriageReturn) {
+                // the line separator was written for the \r
+                start = i + 1;
+                afterCarriageReturn = false;
+
+            } else if (c == '\n' || c == '\r') {
+                out.write(b, start, i - start);
+                out.write(lineSeparator);
+                start = i + 1;
+                afterCarriageReturn = (c == '\r');
+
+            } else {
+                afterCarriageReturn = false;
+
+            }
+
+        }
+
+        out.write(b, start, end - start);
+
+    }
+
+} // End of class LineEndingOutputStream
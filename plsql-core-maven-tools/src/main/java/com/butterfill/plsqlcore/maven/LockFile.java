@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resolved module set of an includes file: the location and version of each module
+ * and the SHA-256 of each extracted file.
+ * <br/>
+ * A lock file is a UTF-8 text file with one record per line:
+ * <pre>
+ * format &lt;format&gt;
+ * includes &lt;sha256 of the includes file&gt;
+ * module &lt;version&gt; &lt;location&gt;
+ * depends &lt;location&gt; &lt;location of dependency&gt;
+ * file &lt;sha256&gt; &lt;location&gt; &lt;file name&gt;
+ * </pre>
+ * Lines that start with # are comments. The file name is the rest of the line so it can
+ * contain spaces.
+ * <br/>
+ * Lock files written before dependencies were recorded do not have a format record.
+ * These are format 1.
+ *
+ * @author peter
+ */
+final class LockFile {
+
+    /**
+     * The character set of lock files.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * The format of the lock files written by this class.
+     * Format 2 added the dependencies of each module.
+     */
+    static final int FORMAT = 2;
+
+    /**
+     * The format of this lock.
+     */
+    private int format = FORMAT;
+
+    /**
+     * The SHA-256 of the includes file that was resolved.
+     */
+    private String includesSha256;
+
+    /**
+     * The version of each module keyed by (formatted) location.
+     */
+    private final Map<String, String> versions = new LinkedHashMap<String, String>();
+
+    /**
+     * The dependencies of each module keyed by location.
+     */
+    private final Map<String, List<String>> dependencies =
+            new LinkedHashMap<String, List<String>>();
+
+    /**
+     * The SHA-256 of each file (keyed by file name) of each module (keyed by location).
+     */
+    private final Map<String, Map<String, String>> files =
+            new LinkedHashMap<String, Map<String, String>>();
+
+    /**
+     * Returns the format of this lock.
+     * A lock that has been read from a file has the format of the file.
+     *
+     * @return
+     *   The format of this lock.
+     */
+    synchronized int getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the SHA-256 of the includes file that was resolved.
+     *
+     * @return
+     *   The SHA-256 (in hex) of the includes file.
+     */
+    synchronized String getIncludesSha256() {
+        return includesSha256;
+    }
+
+    /**
+     * Sets the SHA-256 of the includes file that was resolved.
+     *
+     * @param includesSha256
+     *   The SHA-256 (in hex) of the includes file.
+     */
+    synchronized void setIncludesSha256(final String includesSha256) {
+        this.includesSha256 = includesSha256;
+    }
+
+    /**
+     * Adds a module to this lock.
+     *
+     * @param location
+     *   The (formatted) location of the module.
+     * @param version
+     *   The version of the module.
+     */
+    synchronized void addModule(final String location, final String version) {
+        versions.put(location, version);
+        if (!files.containsKey(location)) {
+            files.put(location, new LinkedHashMap<String, String>());
+            dependencies.put(location, new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Adds a dependency of a module. The module must have been added.
+     *
+     * @param location
+     *   The location of the module.
+     * @param dependency
+     *   The location of the module that it depends on.
+     */
+    synchronized void addDependency(final String location, final String dependency) {
+        dependencies.get(location).add(dependency);
+    }
+
+    /**
+     * Returns the dependencies of the specified module.
+     *
+     * @param location
+     *   The location of the module.
+     * @return
+     *   A copy of the locations of the modules that the module depends on.
+     */
+    synchronized List<String> getDependencies(final String location) {
+        return new ArrayList<String>(dependencies.get(location));
+    }
+
+    /**
+     * Returns the locations of the modules in this lock.
+     *
+     * @return
+     *   The locations of the modules in the order they were added.
+     */
+    synchronized List<String> getModules() {
+        return new ArrayList<String>(versions.keySet());
+    }
+
+    /**
+     * Returns the version of the specified module.
+     *
+     * @param location
+     *   The location of the module.
+     * @return
+     *   The version of the module or null if the module is not in this lock.
+     */
+    synchronized String getVersion(final String location) {
+        return versions.get(location);
+    }
+
+    /**
+     * Sets the SHA-256 of a file of a module. The module must have been added.
+     *
+     * @param location
+     *   The location of the module.
+     * @param fileName
+     *   The name of the file.
+     * @param sha256
+     *   The SHA-256 (in hex) of the file.
+     */
+    synchronized void putFile(final String location, final String fileName,
+            final String sha256) {
+        files.get(location).put(fileName, sha256);
+    }
+
+    /**
+     * Returns the SHA-256 of each file of the specified module keyed by file name.
+     *
+     * @param location
+     *   The location of the module.
+     * @return
+     *   A copy of the files of the module.
+     */
+    synchronized Map<String, String> getFiles(final String location) {
+        return new LinkedHashMap<String, String>(files.get(location));
+    }
+
+    /**
+     * Reads the specified lock file.
+     *
+     * @param file
+     *   The lock file to read.
+     * @return
+     *   The lock.
+     * @throws IOException
+     *   If we fail to read the file or it is not a valid lock file.
+     */
+    static LockFile read(final File file) throws IOException {
+        LockFile result = new LockFile();
+        result.format = 1;
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), CHARSET));
+
+        try {
+            int lineNumber = 0;
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+
+                if (line.trim().length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] bits = line.split(" ", 4);
+
+                if ("format".equals(bits[0]) && bits.length == 2 &&
+                        bits[1].matches("[0-9]+")) {
+                    result.format = Integer.parseInt(bits[1]);
+
+                } else if ("includes".equals(bits[0]) && bits.length == 2) {
+                    result.setIncludesSha256(bits[1]);
+
+                } else if ("module".equals(bits[0]) && bits.length == 3) {
+                    result.addModule(bits[2], bits[1]);
+
+                } else if ("depends".equals(bits[0]) && bits.length == 3 &&
+                        result.getVersion(bits[1]) != null) {
+                    result.addDependency(bits[1], bits[2]);
+
+                } else if ("file".equals(bits[0]) && bits.length == 4 &&
+                        result.getVersion(bits[2]) != null) {
+                    result.putFile(bits[2], bits[3], bits[1]);
+
+                } else {
+                    throw new IOException(
+                            "invalid line " + lineNumber + " in lock file " + file + ": " + line);
+
+                }
+
+            }
+
+        } finally {
+            reader.close();
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Writes this lock to the specified file.
+     * The lock is written to a temporary file which is then renamed.
+     *
+     * @param file
+     *   The file to write.
+     * @throws IOException
+     *   If we fail to write the file.
+     */
+    synchronized void write(final File file) throws IOException {
+        File temp = File.createTempFile(".lock", ".part", file.getAbsoluteFile().getParentFile());
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+
+            try {
+                writer.write("# plsql-core lock file. written by the Extract goal\n");
+                writer.write("format " + format + "\n");
+                writer.write("includes " + includesSha256 + "\n");
+
+                for (Map.Entry<String, String> module : versions.entrySet()) {
+                    writer.write("module " + module.getValue() + " " + module.getKey() + "\n");
+
+                    for (String dependency : dependencies.get(module.getKey())) {
+                        writer.write("depends " + module.getKey() + " " + dependency + "\n");
+                    }
+
+                    for (Map.Entry<String, String> entry
+                            : files.get(module.getKey()).entrySet()) {
+                        writer.write("file " + entry.getValue() + " " + module.getKey() +
+                                " " + entry.getKey() + "\n");
+                    }
+
+                }
+
+            } finally {
+                writer.close();
+
+            }
+
+            ModuleCache.rename(temp, file);
+
+        } finally {
+            temp.delete();
+
+        }
+
+    }
+
+} // End of class LockFile
@@ -0,0 +1,466 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of module files (plsql-core-module.xml and the files of each module) on the local
+ * file system.
+ * <br/>
+ * Each cache entry is stored as a data file and a properties file that records where the
+ * data came from, when it was fetched and the ETag and Last-Modified headers of the response.
+ * Entries that were fetched less than ttl milliseconds ago are used without going to the
+ * network. Older entries are revalidated using a conditional GET (If-None-Match and
+ * If-Modified-Since) so unchanged files are not downloaded again.
+ * <br/>
+ * The cache is kept under a maximum size by evict, which removes the least recently used
+ * entries first.
+ *
+ * @author peter
+ */
+public class ModuleCache {
+
+    /**
+     * The directory that holds the cache entries.
+     */
+    private final File directory;
+
+    /**
+     * The time (in milliseconds) for which a fetched entry is used without revalidation.
+     */
+    private final long ttl;
+
+    /**
+     * The maximum size (in bytes) of the data held by this cache.
+     */
+    private final long maxSize;
+
+    /**
+     * The number of entries returned without going to the network.
+     */
+    private final AtomicInteger hitCount = new AtomicInteger();
+
+    /**
+     * The number of entries that were revalidated (and had not changed).
+     */
+    private final AtomicInteger revalidatedCount = new AtomicInteger();
+
+    /**
+     * The number of entries that were downloaded.
+     */
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * The number of entries removed by evict.
+     */
+    private final AtomicInteger evictedCount = new AtomicInteger();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directory
+     *   The directory that holds the cache entries. This is created if it does not exist.
+     * @param ttl
+     *   The time (in milliseconds) for which a fetched entry is used without revalidation.
+     *   Pass 0 to revalidate every entry.
+     * @param maxSize
+     *   The maximum size (in bytes) of the data held by this cache.
+     * @throws IOException
+     *   If the directory does not exist and can't be created.
+     */
+    public ModuleCache(final File directory, final long ttl, final long maxSize)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("failed to create cache directory: " + directory);
+        }
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the file name used for the specified key.
+     *
+     * @param key
+     *   A cache key.
+     * @return
+     *   The SHA-1 of the key in hex.
+     */
+    private static String getFileName(final String key) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8")));
+
+        } catch (Exception ex) {
+            // SHA-1 and UTF-8 are always available
+            throw new RuntimeException(ex);
+
+        }
+
+    }
+
+    /**
+     * Returns the specified bytes in (lower case) hex.
+     *
+     * @param bytes
+     *   The bytes to convert (e.g. a digest).
+     * @return
+     *   The bytes in hex.
+     */
+    static String toHex(final byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Reads the properties file of a cache entry.
+     * Returns null if the entry does not exist.
+     */
+    private static Properties readProperties(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties result = new Properties();
+        InputStream in = new FileInputStream(file);
+
+        try {
+            result.load(in);
+
+        } finally {
+            in.close();
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Writes the properties file of a cache entry.
+     * The file is written to a temporary file first so it is never seen half written.
+     */
+    private void writeProperties(final File file, final Properties properties)
+            throws IOException {
+        File temp = File.createTempFile("properties", ".tmp", directory);
+        OutputStream out = new FileOutputStream(temp);
+
+        try {
+            properties.store(out, null);
+
+        } finally {
+            out.close();
+
+        }
+
+        rename(temp, file);
+
+    }
+
+    /**
+     * Reads the rest of the response of the specified connection and closes it.
+     * Unlike disconnect, this leaves the connection open to be reused (keep-alive).
+     */
+    private static void close(final HttpURLConnection connection) throws IOException {
+        InputStream in;
+
+        try {
+            in = connection.getInputStream();
+        } catch (IOException ex) {
+            in = connection.getErrorStream();
+        }
+
+        if (in == null) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+
+        } finally {
+            in.close();
+
+        }
+
+    }
+
+    /**
+     * Renames from to to, replacing to if it exists.
+     */
+    static void rename(final File from, final File to) throws IOException {
+        if (!from.renameTo(to)) {
+            to.delete();
+            if (!from.renameTo(to)) {
+                from.delete();
+                throw new IOException("failed to rename " + from + " to " + to);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached file for the specified key, no matter when it was fetched, or null
+     * if the cache does not hold an entry for the key. This never goes to the network.
+     *
+     * @param key
+     *   The key of the cache entry.
+     * @return
+     *   The cached file or null. This should not be modified.
+     */
+    public File get(final String key) {
+        File dataFile = new File(directory, getFileName(key) + ".data");
+
+        if (!dataFile.isFile()) {
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        dataFile.setLastModified(System.currentTimeMillis());
+        return dataFile;
+
+    }
+
+    /**
+     * Returns a file holding the data of the specified URL.
+     * <br/>
+     * If the cache holds an entry for the key that was fetched less than ttl milliseconds
+     * ago, the cached file is returned. Otherwise the URL is fetched (using a conditional GET
+     * if the cache has an entry for the key) and the cached file is updated if needed.
+     *
+     * @param key
+     *   The key of the cache entry (e.g. the URL and the version of the module).
+     * @param url
+     *   The URL to fetch.
+     * @return
+     *   The file holding the data of the URL. This should not be modified.
+     * @throws IOException
+     *   If we fail to fetch the URL or update the cache.
+     */
+    public File fetch(final String key, final URL url) throws IOException {
+        String fileName = getFileName(key);
+        File dataFile = new File(directory, fileName + ".data");
+        File propertiesFile = new File(directory, fileName + ".properties");
+        Properties properties = dataFile.isFile() ? readProperties(propertiesFile) : null;
+        long now = System.currentTimeMillis();
+
+        if (properties != null &&
+                now - Long.parseLong(properties.getProperty("fetched", "0")) < ttl) {
+            hitCount.incrementAndGet();
+            dataFile.setLastModified(now);
+            return dataFile;
+        }
+
+        URLConnection urlConnection = url.openConnection();
+        urlConnection.setUseCaches(false);
+
+        if (properties != null) {
+            if (properties.getProperty("etag") != null) {
+                urlConnection.setRequestProperty("If-None-Match", properties.getProperty("etag"));
+            }
+            if (properties.getProperty("lastModified") != null) {
+                urlConnection.setIfModifiedSince(
+                        Long.parseLong(properties.getProperty("lastModified")));
+            }
+        }
+
+        if (properties != null && urlConnection instanceof HttpURLConnection &&
+                ((HttpURLConnection) urlConnection).getResponseCode() ==
+                HttpURLConnection.HTTP_NOT_MODIFIED) {
+            close((HttpURLConnection) urlConnection);
+            revalidatedCount.incrementAndGet();
+            properties.setProperty("fetched", Long.toString(now));
+            writeProperties(propertiesFile, properties);
+            dataFile.setLastModified(now);
+            return dataFile;
+        }
+
+        File temp = File.createTempFile("data", ".tmp", directory);
+        InputStream in = urlConnection.getInputStream();
+
+        try {
+            OutputStream out = new FileOutputStream(temp);
+
+            try {
+                byte[] buffer = new byte[8 * 1024];
+                for (int i = in.read(buffer); i != -1; i = in.read(buffer)) {
+                    out.write(buffer, 0, i);
+                }
+
+            } finally {
+                out.close();
+
+            }
+
+        } catch (IOException ex) {
+            temp.delete();
+            throw ex;
+
+        } finally {
+            in.close();
+
+        }
+
+        rename(temp, dataFile);
+        missCount.incrementAndGet();
+
+        properties = new Properties();
+        properties.setProperty("key", key);
+        properties.setProperty("url", url.toString());
+        properties.setProperty("fetched", Long.toString(now));
+
+        if (urlConnection.getHeaderField("ETag") != null) {
+            properties.setProperty("etag", urlConnection.getHeaderField("ETag"));
+        }
+        if (urlConnection.getLastModified() != 0) {
+            properties.setProperty("lastModified",
+                    Long.toString(urlConnection.getLastModified()));
+        }
+
+        writeProperties(propertiesFile, properties);
+
+        return dataFile;
+
+    }
+
+    /**
+     * Removes the least recently used entries until the data held by this cache is no bigger
+     * than the maximum size.
+     *
+     * @return
+     *   The number of entries removed.
+     */
+    public int evict() {
+        File[] dataFiles = directory.listFiles();
+
+        if (dataFiles == null) {
+            return 0;
+        }
+
+        List<File> entries = new ArrayList<File>();
+        long size = 0;
+
+        for (File file : dataFiles) {
+            if (file.getName().endsWith(".data")) {
+                entries.add(file);
+                size += file.length();
+            }
+        }
+
+        // least recently used first
+        File[] sorted = entries.toArray(new File[entries.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(final File a, final File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+            }
+        });
+
+        int result = 0;
+
+        for (int i = 0; i < sorted.length && size > maxSize; i++) {
+            String name = sorted[i].getName();
+            long length = sorted[i].length();
+
+            if (sorted[i].delete()) {
+                new File(directory,
+                        name.substring(0, name.length() - ".data".length()) + ".properties")
+                        .delete();
+                size -= length;
+                result++;
+            }
+
+        }
+
+        evictedCount.addAndGet(result);
+        return result;
+
+    }
+
+    /**
+     * Returns the number of entries returned without going to the network.
+     *
+     * @return
+     *   The number of cache hits.
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of entries that were revalidated (and had not changed).
+     *
+     * @return
+     *   The number of revalidated entries.
+     */
+    public int getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    /**
+     * Returns the number of entries that were downloaded.
+     *
+     * @return
+     *   The number of cache misses.
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries removed by evict.
+     *
+     * @return
+     *   The number of entries removed by evict.
+     */
+    public int getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Returns a summary of the cache statistics.
+     *
+     * @return
+     *   A summary of the cache statistics.
+     */
+    @Override
+    public String toString() {
+        return "hits: " + hitCount + ", revalidated: " + revalidatedCount +
+                ", misses: " + missCount + ", evicted: " + evictedCount;
+    }
+
+} // End of class ModuleCache
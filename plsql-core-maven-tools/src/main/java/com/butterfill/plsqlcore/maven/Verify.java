@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import com.butterfill.plsqlcore.ManifestVerifier;
+import java.io.File;
+import java.util.List;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Checks the modules in the output directory of the Extract goal against the manifests
+ * written by the extract, so that a build can prove the extracted files have not changed
+ * without extracting them again.
+ * <br/>
+ * Every file that is modified, missing or unexpected is logged and the goal fails.
+ *
+ * @goal Verify
+ *
+ * @author peter
+ */
+public class Verify extends AbstractMojo {
+
+    /**
+     * The name of the output directory of the extract.
+     * setOutputDirectory(String) will not set this to null.
+     *
+     * @parameter expression="${outputDirectory}"
+     */
+    private String outputDirectory = "";
+
+    /**
+     * Flag to enable/disable execution of this task.
+     *
+     * @parameter expression="${execute}"
+     */
+    private boolean execute = true;
+
+    /**
+     * The number of threads used to hash files. 0 (the default) means one thread per
+     * processor.
+     *
+     * @parameter expression="${verifyThreads}" default-value="0"
+     */
+    private int verifyThreads = 0;
+
+    /**
+     * Checks the output directory against the manifests.
+     *
+     * @throws MojoExecutionException
+     *   If there are no manifests in the output directory or we fail to read a file.
+     * @throws MojoFailureException
+     *   If any file does not match its manifest.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (!execute) {
+            getLog().info("Execution has been disabled. Not verifying");
+            return;
+        }
+
+        ManifestVerifier verifier = (verifyThreads == 0)
+                ? new ManifestVerifier()
+                : new ManifestVerifier(verifyThreads);
+        List<String> drift;
+
+        try {
+            drift = verifier.verify(new File(outputDirectory.length() == 0
+                    ? "." : outputDirectory));
+
+        } catch (Exception ex) {
+            throw new MojoExecutionException("verify failed", ex);
+
+        }
+
+        for (String line : drift) {
+            getLog().warn(line);
+        }
+
+        getLog().info("verified " + verifier.getVerifiedCount() + " file(s) in " +
+                verifier.getManifestCount() + " module(s)");
+
+        if (!drift.isEmpty()) {
+            throw new MojoFailureException(drift.size() +
+                    " file(s) do not match their manifest. run the Extract goal again");
+        }
+
+    }
+
+    /**
+     * Returns the name of the output directory of the extract.
+     *
+     * @return
+     *   The name of the output directory.
+     */
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Sets the name of the output directory of the extract.
+     *
+     * @param name
+     *   The name of the output directory.
+     */
+    public void setOutputDirectory(final String name) {
+        this.outputDirectory = (name == null) ? "" : name;
+    }
+
+    /**
+     * Returns true if this goal should execute (the default), false otherwise.
+     *
+     * @return
+     *   true if this goal should execute.
+     */
+    public boolean isExecute() {
+        return execute;
+    }
+
+    /**
+     * Sets the flag that enables/disables execution of this goal.
+     *
+     * @param execute
+     *   Pass false to disable execution of this goal.
+     */
+    public void setExecute(final boolean execute) {
+        this.execute = execute;
+    }
+
+    /**
+     * Returns the number of threads used to hash files.
+     *
+     * @return
+     *   The number of threads. 0 means one thread per processor.
+     */
+    public int getVerifyThreads() {
+        return verifyThreads;
+    }
+
+    /**
+     * Sets the number of threads used to hash files.
+     *
+     * @param verifyThreads
+     *   The number of threads. 0 means one thread per processor.
+     * @throws IllegalArgumentException
+     *   If verifyThreads is less than 0.
+     */
+    public void setVerifyThreads(final int verifyThreads) throws IllegalArgumentException {
+        if (verifyThreads < 0) {
+            throw new IllegalArgumentException("verifyThreads must not be negative");
+        }
+        this.verifyThreads = verifyThreads;
+    }
+
+} // End of class Verify
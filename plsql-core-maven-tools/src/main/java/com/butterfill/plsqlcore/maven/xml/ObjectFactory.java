@@ -68,6 +68,14 @@ public class ObjectFactory {
         return new PlsqlCoreModule();
     }
 
+    /**
+     * Create an instance of {@link PlsqlCoreModule.Bundle }
+     * 
+     */
+    public PlsqlCoreModule.Bundle createPlsqlCoreModuleBundle() {
+        return new PlsqlCoreModule.Bundle();
+    }
+
     /**
      * Create an instance of {@link PlsqlCoreModule.FileSet }
      * 
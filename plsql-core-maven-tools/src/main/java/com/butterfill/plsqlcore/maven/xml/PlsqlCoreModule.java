@@ -12,9 +12,11 @@ import java.util.ArrayList;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlType;
+import javax.xml.bind.annotation.XmlValue;
 
 
 /**
@@ -61,6 +63,15 @@ import javax.xml.bind.annotation.XmlType;
  *             &lt;/complexContent>
  *           &lt;/complexType>
  *         &lt;/element>
+ *         &lt;element name="bundle" minOccurs="0">
+ *           &lt;complexType>
+ *             &lt;simpleContent>
+ *               &lt;extension base="&lt;http://www.w3.org/2001/XMLSchema>anyURI">
+ *                 &lt;attribute name="sha256" type="{http://plsql-core.butterfill.com/schema/plsql-core-module}sha256Type" />
+ *               &lt;/extension>
+ *             &lt;/simpleContent>
+ *           &lt;/complexType>
+ *         &lt;/element>
  *       &lt;/sequence>
  *     &lt;/restriction>
  *   &lt;/complexContent>
@@ -74,7 +85,8 @@ import javax.xml.bind.annotation.XmlType;
     "location",
     "version",
     "fileSet",
-    "dependencies"
+    "dependencies",
+    "bundle"
 })
 @XmlRootElement(name = "plsql-core-module", namespace = "http://plsql-core.butterfill.com/schema/plsql-core-module")
 public class PlsqlCoreModule {
@@ -87,6 +99,8 @@ public class PlsqlCoreModule {
     protected PlsqlCoreModule.FileSet fileSet;
     @XmlElement(namespace = "http://plsql-core.butterfill.com/schema/plsql-core-module")
     protected PlsqlCoreModule.Dependencies dependencies;
+    @XmlElement(namespace = "http://plsql-core.butterfill.com/schema/plsql-core-module")
+    protected PlsqlCoreModule.Bundle bundle;
 
     /**
      * Gets the value of the location property.
@@ -184,6 +198,109 @@ public class PlsqlCoreModule {
         this.dependencies = value;
     }
 
+    /**
+     * Gets the value of the bundle property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link PlsqlCoreModule.Bundle }
+     *     
+     */
+    public PlsqlCoreModule.Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Sets the value of the bundle property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link PlsqlCoreModule.Bundle }
+     *     
+     */
+    public void setBundle(PlsqlCoreModule.Bundle value) {
+        this.bundle = value;
+    }
+
+
+    /**
+     * <p>Java class for anonymous complex type.
+     * 
+     * <p>The following schema fragment specifies the expected content contained within this class.
+     * 
+     * <pre>
+     * &lt;complexType>
+     *   &lt;simpleContent>
+     *     &lt;extension base="&lt;http://www.w3.org/2001/XMLSchema>anyURI">
+     *       &lt;attribute name="sha256" type="{http://plsql-core.butterfill.com/schema/plsql-core-module}sha256Type" />
+     *     &lt;/extension>
+     *   &lt;/simpleContent>
+     * &lt;/complexType>
+     * </pre>
+     * 
+     * 
+     */
+    @XmlAccessorType(XmlAccessType.FIELD)
+    @XmlType(name = "", propOrder = {
+        "value"
+    })
+    public static class Bundle {
+
+        @XmlValue
+        protected String value;
+        @XmlAttribute
+        protected String sha256;
+
+        /**
+         * Gets the value of the value property.
+         * 
+         * @return
+         *     possible object is
+         *     {@link String }
+         *     
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Sets the value of the value property.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link String }
+         *     
+         */
+        public void setValue(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the value of the sha256 property.
+         * 
+         * @return
+         *     possible object is
+         *     {@link String }
+         *     
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * Sets the value of the sha256 property.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link String }
+         *     
+         */
+        public void setSha256(String value) {
+            this.sha256 = value;
+        }
+
+    }
+
 
     /**
      * <p>Java class for anonymous complex type.
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class BuildPlanTest extends TestCase {
+    
+    public BuildPlanTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(BuildPlanTest.class);
+        return suite;
+    }
+
+    /**
+     * Returns the lines of the specified file that are not comments.
+     */
+    private static List<String> readLines(final File file) throws Exception {
+        List<String> result = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("#")) {
+                    result.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Test of plan method, of class BuildPlan.
+     */
+    public void testPlan() throws Exception {
+        System.out.println("plan");
+        
+        List<String> none = Collections.emptyList();
+        
+        BuildPlan instance = new BuildPlan();
+        instance.addModule("app", "/out/app", 2, Arrays.asList("types", "logger"));
+        instance.addModule("types", "/out/types", 1, Arrays.asList("constants"));
+        instance.addModule("logger", "/out/logger", 20, Arrays.asList("constants"));
+        instance.addModule("constants", "/out/constants", 1, none);
+        instance.addModule("util", "/out/my util", 1, none);
+        instance.plan();
+        
+        assertEquals(Arrays.asList(
+                Arrays.asList("constants", "util"), 
+                Arrays.asList("types", "logger"), 
+                Arrays.asList("app")), 
+                instance.getWaves());
+        
+        // logger has the most files
+        assertEquals(Arrays.asList("constants", "logger", "app"), instance.getCriticalPath());
+        
+        File file = new File("target/build-plan-test/test.plan");
+        instance.write(file);
+        assertEquals(Arrays.asList(
+                "module 0 constants /out/constants", 
+                "module 0 util /out/my util", 
+                "module 1 types /out/types", 
+                "module 1 logger /out/logger", 
+                "module 2 app /out/app", 
+                "depends types constants", 
+                "depends logger constants", 
+                "depends app types", 
+                "depends app logger", 
+                "critical constants", 
+                "critical logger", 
+                "critical app"), 
+                readLines(file));
+        
+    }
+
+    /**
+     * Test of plan method, of class BuildPlan, with a cycle.
+     */
+    public void testPlan_cycle() throws Exception {
+        System.out.println("plan cycle");
+        
+        BuildPlan instance = new BuildPlan();
+        instance.addModule("a", "/out/a", 1, Arrays.asList("b"));
+        instance.addModule("b", "/out/b", 1, Arrays.asList("c"));
+        instance.addModule("c", "/out/c", 1, Arrays.asList("a"));
+        
+        try {
+            instance.plan();
+            fail();
+        } catch (BuildPlan.CycleException ex) {
+            assertEquals(Arrays.asList("a", "b", "c", "a"), ex.getCycle());
+            assertEquals("dependency cycle: a -> b -> c -> a", ex.getMessage());
+        }
+        
+        instance = new BuildPlan();
+        instance.addModule("a", "/out/a", 1, Arrays.asList("missing"));
+        
+        try {
+            instance.plan();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        
+    }
+    
+}
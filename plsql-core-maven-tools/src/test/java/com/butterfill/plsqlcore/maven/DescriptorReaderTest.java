@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import com.butterfill.plsqlcore.maven.xml.PlsqlCoreIncludes;
+import com.butterfill.plsqlcore.maven.xml.PlsqlCoreModule;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import javax.xml.stream.XMLStreamException;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class DescriptorReaderTest extends TestCase {
+    
+    private static final String MODULE = 
+            "<?xml version='1.0' encoding='windows-1252'?>\n" +
+            "<!-- a module -->\n" +
+            "<plsql-core-module " +
+            "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module' " +
+            "xmlns:x='urn:other'>\n" +
+            "    <location>http://example.com/sql/logger</location>\n" +
+            "    <version>1.0-beta</version>\n" +
+            "    <x:ignored><location>not this</location></x:ignored>\n" +
+            "    <file-set>\n" +
+            "        <file>build.sql</file>\n" +
+            "        <file><![CDATA[a&b.sql]]></file>\n" +
+            "        <file>c&amp;d.sql</file>\n" +
+            "    </file-set>\n" +
+            "    <dependencies>\n" +
+            "        <dependency><location>http://example.com/sql/a</location></dependency>\n" +
+            "        <dependency><!-- b --><location>http://example.com/sql/b</location>" +
+            "</dependency>\n" +
+            "    </dependencies>\n" +
+            "    <bundle sha256='0123456789abcdef0123456789abcdef" + 
+            "0123456789abcdef0123456789abcdef'>logger.zip</bundle>\n" +
+            "</plsql-core-module>\n";
+    
+    private static final String INCLUDES = 
+            "<plsql-core-includes " +
+            "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>\n" +
+            "    <plsql-core-module-location>\n" +
+            "        http://example.com/sql/a\n" +
+            "    </plsql-core-module-location>\n" +
+            "    <plsql-core-module-location>http://example.com/sql/b</plsql-core-module-location>\n" +
+            "</plsql-core-includes>\n";
+    
+    public DescriptorReaderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(DescriptorReaderTest.class);
+        return suite;
+    }
+    
+    private static InputStream stream(final String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    /**
+     * Test of readModule method, of class DescriptorReader.
+     */
+    public void testReadModule() throws Exception {
+        System.out.println("readModule");
+        
+        assertTrue(DescriptorReader.isAvailable());
+        
+        PlsqlCoreModule result = DescriptorReader.readModule(stream(MODULE));
+        // JAXB is the reference
+        PlsqlCoreModule expected = (PlsqlCoreModule) 
+                Extract.getJaxbContext().createUnmarshaller().unmarshal(stream(MODULE));
+        
+        assertEquals("http://example.com/sql/logger", result.getLocation());
+        assertEquals(expected.getLocation(), result.getLocation());
+        assertEquals(expected.getVersion(), result.getVersion());
+        assertEquals(expected.getFileSet().getFile(), result.getFileSet().getFile());
+        assertEquals(3, result.getFileSet().getFile().size());
+        assertEquals("a&b.sql", result.getFileSet().getFile().get(1));
+        assertEquals("c&d.sql", result.getFileSet().getFile().get(2));
+        assertEquals("logger.zip", result.getBundle().getValue());
+        assertEquals(expected.getBundle().getValue(), result.getBundle().getValue());
+        assertEquals(expected.getBundle().getSha256(), result.getBundle().getSha256());
+        assertEquals(2, result.getDependencies().getDependency().size());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(
+                    expected.getDependencies().getDependency().get(i).getLocation(),
+                    result.getDependencies().getDependency().get(i).getLocation());
+        }
+        
+        result = DescriptorReader.readModule(stream(
+                "<plsql-core-module " +
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'/>"));
+        assertNull(result.getLocation());
+        assertNull(result.getDependencies());
+        assertNull(result.getBundle());
+        
+        try {
+            DescriptorReader.readModule(stream(INCLUDES));
+            fail();
+        } catch (XMLStreamException ex) {
+        }
+        
+        try {
+            DescriptorReader.readModule(stream("<plsql-core-module><location>"));
+            fail();
+        } catch (XMLStreamException ex) {
+        }
+        
+    }
+
+    /**
+     * Test of readIncludes method, of class DescriptorReader.
+     */
+    public void testReadIncludes() throws Exception {
+        System.out.println("readIncludes");
+        
+        PlsqlCoreIncludes result = DescriptorReader.readIncludes(stream(INCLUDES));
+        PlsqlCoreIncludes expected = (PlsqlCoreIncludes) 
+                Extract.getJaxbContext().createUnmarshaller().unmarshal(stream(INCLUDES));
+        
+        assertEquals(expected.getPlsqlCoreModuleLocation(), 
+                result.getPlsqlCoreModuleLocation());
+        assertEquals("http://example.com/sql/b", result.getPlsqlCoreModuleLocation().get(1));
+        
+        try {
+            DescriptorReader.readIncludes(stream(MODULE));
+            fail();
+        } catch (XMLStreamException ex) {
+        }
+        
+    }
+    
+}
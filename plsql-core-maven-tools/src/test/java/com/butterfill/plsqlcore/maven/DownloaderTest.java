@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class DownloaderTest extends TestCase {
+    
+    public DownloaderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(DownloaderTest.class);
+        return suite;
+    }
+    
+    /**
+     * A transfer that records the maximum number of transfers in progress at the same time.
+     */
+    private static class CountingTransfer implements Callable<Object> {
+        
+        private final AtomicInteger inProgress;
+        
+        private final AtomicInteger maxInProgress;
+        
+        CountingTransfer(final AtomicInteger inProgress, final AtomicInteger maxInProgress) {
+            this.inProgress = inProgress;
+            this.maxInProgress = maxInProgress;
+        }
+        
+        public Object call() throws Exception {
+            int now = inProgress.incrementAndGet();
+            synchronized (maxInProgress) {
+                if (now > maxInProgress.get()) {
+                    maxInProgress.set(now);
+                }
+            }
+            try {
+                Thread.sleep(50);
+                return null;
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }
+        
+    }
+
+    /**
+     * Runs 8 transfers from each of the specified hosts using the specified downloader.
+     * Returns the maximum number of transfers that were in progress at the same time.
+     */
+    private static int getMaxInProgress(final Downloader instance, final String... hosts) 
+            throws Exception {
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger maxInProgress = new AtomicInteger();
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        
+        try {
+            for (int i = 0; i < 8; i++) {
+                for (String host : hosts) {
+                    futures.add(instance.submit(new URL(host + i), 
+                            new CountingTransfer(inProgress, maxInProgress)));
+                }
+            }
+            
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+            
+        } finally {
+            instance.shutdown();
+            
+        }
+        
+        return maxInProgress.get();
+        
+    }
+
+    /**
+     * Test of submit method, of class Downloader, checking the limits on transfers.
+     */
+    public void testSubmit() throws Exception {
+        System.out.println("submit");
+        
+        // limited by host
+        assertEquals(2, getMaxInProgress(new Downloader(3, 2, 0, 0), "http://a.example.com/"));
+        // limited across all hosts
+        assertEquals(3, getMaxInProgress(new Downloader(3, 5, 0, 0), 
+                "http://a.example.com/", "http://b.example.com/"));
+        
+        try {
+            new Downloader(0, 1, 0, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        
+    }
+
+    /**
+     * Test of submit method, of class Downloader, checking that a busy host does not hold up 
+     * transfers for other hosts.
+     */
+    public void testSubmit_hosts() throws Exception {
+        System.out.println("submit hosts");
+        
+        Downloader instance = new Downloader(2, 1, 0, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        try {
+            List<Future<Object>> busy = new ArrayList<Future<Object>>();
+            
+            // these hold the only slot of host a until they are released
+            for (int i = 0; i < 3; i++) {
+                busy.add(instance.submit(new URL("http://a.example.com/" + i), 
+                        new Callable<Object>() {
+                    public Object call() throws Exception {
+                        release.await();
+                        return null;
+                    }
+                }));
+            }
+            
+            Future<String> other = instance.submit(new URL("http://b.example.com/"), 
+                    new Callable<String>() {
+                public String call() throws Exception {
+                    return "b";
+                }
+            });
+            
+            assertEquals("b", other.get(5, TimeUnit.SECONDS));
+            
+            release.countDown();
+            for (Future<Object> future : busy) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            
+        } finally {
+            release.countDown();
+            instance.shutdown();
+            
+        }
+        
+    }
+    
+    /**
+     * Test of submit method, of class Downloader, checking that a transfer waiting to retry 
+     * does not hold the slot of it's host.
+     */
+    public void testSubmit_retryReleasesHost() throws Exception {
+        System.out.println("submit retryReleasesHost");
+        
+        // a long delay before the retry
+        Downloader instance = new Downloader(2, 1, 1, 60 * 1000);
+        
+        try {
+            instance.submit(new URL("http://a.example.com/1"), new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            
+            Future<String> next = instance.submit(new URL("http://a.example.com/2"), 
+                    new Callable<String>() {
+                public String call() throws Exception {
+                    return "ok";
+                }
+            });
+            
+            assertEquals("ok", next.get(5, TimeUnit.SECONDS));
+            assertEquals(1, instance.getRetryCount());
+            
+        } finally {
+            instance.shutdown();
+            
+        }
+        
+    }
+
+    /**
+     * Test of submit method, of class Downloader, checking retries.
+     */
+    public void testSubmit_retry() throws Exception {
+        System.out.println("submit retry");
+        
+        Downloader instance = new Downloader(2, 2, 2, 10);
+        
+        try {
+            final AtomicInteger attempts = new AtomicInteger();
+            
+            // fails twice then works
+            Future<String> result = instance.submit(new URL("http://a.example.com/"), 
+                    new Callable<String>() {
+                public String call() throws Exception {
+                    if (attempts.incrementAndGet() < 3) {
+                        throw new IOException("failed");
+                    }
+                    return "ok";
+                }
+            });
+            assertEquals("ok", result.get());
+            assertEquals(3, attempts.get());
+            assertEquals(2, instance.getRetryCount());
+            
+            // always fails
+            attempts.set(0);
+            result = instance.submit(new URL("http://a.example.com/"), new Callable<String>() {
+                public String call() throws Exception {
+                    attempts.incrementAndGet();
+                    throw new IOException("failed");
+                }
+            });
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+            }
+            assertEquals(3, attempts.get());
+            
+            // not found is not retried
+            attempts.set(0);
+            result = instance.submit(new URL("http://a.example.com/"), new Callable<String>() {
+                public String call() throws Exception {
+                    attempts.incrementAndGet();
+                    throw new FileNotFoundException("not found");
+                }
+            });
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof FileNotFoundException);
+            }
+            assertEquals(1, attempts.get());
+            
+        } finally {
+            instance.shutdown();
+            
+        }
+        
+    }
+    
+}
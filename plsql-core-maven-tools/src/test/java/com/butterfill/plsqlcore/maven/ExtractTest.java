@@ -5,9 +5,32 @@
 
 package com.butterfill.plsqlcore.maven;
 
+import com.butterfill.plsqlcore.ManifestVerifier;
+import com.butterfill.plsqlcore.maven.xml.PlsqlCoreModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
-import java.net.URLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -19,8 +42,6 @@ import org.apache.maven.plugin.MojoExecutionException;
  */
 public class ExtractTest extends TestCase {
     
-    private boolean networkOk;
-    
     final String EXTRACT_DIR_NAME = 
             System.getProperty("java.io.tmpdir") +
             File.separator + "ExtractTest";
@@ -61,17 +82,6 @@ public class ExtractTest extends TestCase {
     public ExtractTest(String testName) {
         super(testName);
         
-        try {
-            URLConnection urlConnection = new URL("http://www.sun.com").openConnection();
-            urlConnection.setUseCaches(false);
-            urlConnection.getInputStream();
-            networkOk = true;
-            
-        } catch (Exception ex) {
-            networkOk = false;
-
-        }
-        
         deleteDirectory(new File(EXTRACT_DIR_NAME));
         
     }
@@ -100,48 +110,856 @@ public class ExtractTest extends TestCase {
         
         System.out.println("setting output dir to " + EXTRACT_DIR_NAME);
         instance.setOutputDirectory(EXTRACT_DIR_NAME);
-        instance.setIncludesFile(new File("target/test-classes/plsq-core-includes-test.xml"));
-        instance.execute();
         instance.setIncludesFile(new File("target/test-classes/plsq-core-includes-test-empty.xml"));
         instance.execute();
         instance.setIncludesFile(null);
         try {
             instance.execute();
-            if (networkOk) {
-                fail();
-            }
+            fail();
         } catch (MojoExecutionException ex) {
-            if (!networkOk) {
-                fail();
-            }
         }
         instance.setIncludesFile(new File("does-not-exist"));
         try {
             instance.execute();
-            if (networkOk) {
+            fail();
+        } catch (MojoExecutionException ex) {
+        }
+        
+        instance.setExecute(false);
+        instance.execute();
+    }
+    
+    /**
+     * Starts an HTTP server that serves the files in the specified directory, 
+     * counting the requests it receives.
+     */
+    static HttpServer startServer(final File root, final AtomicInteger requests) 
+            throws Exception {
+        root.mkdirs();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                File file = new File(root, exchange.getRequestURI().getPath());
+                if (!file.isFile()) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, file.length());
+                OutputStream out = exchange.getResponseBody();
+                FileInputStream in = new FileInputStream(file);
+                byte[] buffer = new byte[1024];
+                for (int i = in.read(buffer); i != -1; i = in.read(buffer)) {
+                    out.write(buffer, 0, i);
+                }
+                in.close();
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+    
+    /**
+     * Writes a zip holding the specified entries (name followed by content) and returns the
+     * SHA-256 of the zip.
+     */
+    static String writeBundle(final File file, final String... entries) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ZipOutputStream zip = new ZipOutputStream(
+                new DigestOutputStream(new FileOutputStream(file), digest));
+        for (int i = 0; i < entries.length; i += 2) {
+            zip.putNextEntry(new ZipEntry(entries[i]));
+            zip.write(entries[i + 1].getBytes("ISO-8859-1"));
+            zip.closeEntry();
+        }
+        zip.close();
+        return ModuleCache.toHex(digest.digest());
+    }
+    
+    /**
+     * Test of execute method, of class Extract, using module bundles.
+     */
+    public void testExecute_bundle() throws Exception {
+        System.out.println("execute bundle");
+        
+        File root = new File("target/modules");
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = startServer(root, requests);
+        
+        try {
+            String location = 
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/bundled/";
+            File dir = new File(root, "bundled");
+            dir.mkdirs();
+            write(new File(dir, "1.sql"), "PROMPT 1 file\n");
+            write(new File(dir, "2.sql"), "PROMPT 2 file\n");
+            write(new File(dir, "3.sql"), "PROMPT 3 file\n");
+            // the bundle does not hold 3.sql and has an entry that is not in the file-set
+            String sha256 = writeBundle(new File(dir, "bundle.zip"), 
+                    "1.sql", "PROMPT 1 bundle\r\n", 
+                    "2.sql", "PROMPT 2 bundle\n", 
+                    "../escape.sql", "PROMPT escape\n");
+            
+            File includes = new File(root, "bundled-includes.xml");
+            write(includes, 
+                    "<plsql-core-includes " + 
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                    "<plsql-core-module-location>" + location + 
+                    "</plsql-core-module-location></plsql-core-includes>");
+            
+            File outputDir = new File("target/extract-bundle");
+            
+            Extract instance = new Extract();
+            instance.setOutputDirectory(outputDir.getPath());
+            instance.setIncludesFile(includes);
+            instance.setCacheDirectory(null);
+            instance.setExecuteIfNoNetwork(true);
+            
+            String[] bundles = {
+                "<bundle sha256='" + sha256 + "'>bundle.zip</bundle>",
+                "<bundle>" + location + "bundle.zip</bundle>",
+                "<bundle sha256='" + sha256.replace(sha256.charAt(0), 'x') + "'>bundle.zip</bundle>",
+                "<bundle>missing.zip</bundle>",
+                ""
+            };
+            
+            for (int i = 0; i < bundles.length; i++) {
+                write(new File(dir, "plsql-core-module.xml"), 
+                        "<plsql-core-module " +
+                        "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>" +
+                        "<location>" + location + "</location><version>0.1</version>" +
+                        "<file-set><file>1.sql</file><file>2.sql</file><file>3.sql</file>" +
+                        "</file-set>" + bundles[i] + "</plsql-core-module>");
+                
+                deleteDirectory(outputDir);
+                requests.set(0);
+                
+                if (i == 2) {
+                    // a bundle that does not match it's checksum fails the module, 
+                    // with and without the module file cache
+                    for (File cacheDirectory : new File[] {
+                            null, new File("target/extract-bundle-cache")}) {
+                        instance.setCacheDirectory(cacheDirectory);
+                        try {
+                            instance.execute();
+                            fail("the checksum of the bundle does not match");
+                        } catch (MojoExecutionException ex) {
+                            // expected
+                        }
+                        // the bundle is checked before anything is unpacked
+                        assertEquals(0, new File(outputDir, "bundled").list().length);
+                    }
+                    instance.setCacheDirectory(null);
+                    continue;
+                }
+                
+                instance.execute();
+                
+                String from = (i < 2) ? "bundle" : "file";
+                assertEquals("PROMPT 1 " + from, 
+                        readFirstLine(new File(outputDir, "bundled/1.sql")));
+                assertEquals("PROMPT 2 " + from, 
+                        readFirstLine(new File(outputDir, "bundled/2.sql")));
+                assertEquals("PROMPT 3 file", 
+                        readFirstLine(new File(outputDir, "bundled/3.sql")));
+                assertFalse(new File(outputDir, "escape.sql").exists());
+                // no temporary files are left behind (just the 3 files and the manifest)
+                assertEquals(4, new File(outputDir, "bundled").list().length);
+                
+                if (i < 2) {
+                    // the descriptor, the bundle and 3.sql
+                    assertEquals(3, requests.get());
+                    // the bundle is copied byte for byte
+                    assertEquals(17, new File(outputDir, "bundled/1.sql").length());
+                }
+                
+            }
+            
+        } finally {
+            server.stop(0);
+            
+        }
+        
+    }
+    
+    /**
+     * Test of execute method, of class Extract, writing a build plan.
+     */
+    public void testExecute_plan() throws Exception {
+        System.out.println("execute plan");
+        
+        File root = new File("target/modules");
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = startServer(root, requests);
+        
+        try {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/planned/";
+            // app depends on types and constants. types depends on constants
+            String[][] modules = {
+                {"app", "types", "constants"}, 
+                {"types", "constants"}, 
+                {"constants"}};
+            
+            for (String[] module : modules) {
+                File dir = new File(root, "planned/" + module[0]);
+                dir.mkdirs();
+                StringBuilder dependencies = new StringBuilder();
+                for (int i = 1; i < module.length; i++) {
+                    dependencies.append("<dependency><location>").append(base)
+                            .append(module[i]).append("/</location></dependency>");
+                }
+                write(new File(dir, "plsql-core-module.xml"), 
+                        "<plsql-core-module " +
+                        "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>" +
+                        "<location>" + base + module[0] + "/</location>" + 
+                        "<version>0.1</version>" +
+                        "<file-set><file>build.sql</file></file-set>" +
+                        "<dependencies>" + dependencies + "</dependencies>" +
+                        "</plsql-core-module>");
+                write(new File(dir, "build.sql"), "PROMPT " + module[0] + "\n");
+            }
+            
+            File includes = new File(root, "planned-includes.xml");
+            write(includes, 
+                    "<plsql-core-includes " + 
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                    "<plsql-core-module-location>" + base + "app/" + 
+                    "</plsql-core-module-location></plsql-core-includes>");
+            
+            File outputDir = new File("target/extract-plan");
+            File lockFile = new File("target/extract-plan.lock");
+            File planFile = new File("target/extract-plan.plan");
+            deleteDirectory(outputDir);
+            lockFile.delete();
+            planFile.delete();
+            
+            Extract instance = new Extract();
+            instance.setOutputDirectory(outputDir.getPath());
+            instance.setIncludesFile(includes);
+            instance.setCacheDirectory(null);
+            instance.setExecuteIfNoNetwork(true);
+            instance.setLockFile(lockFile);
+            instance.setPlanFile(planFile);
+            
+            String expected = 
+                    "module 0 " + base + "constants/ " + 
+                    new File(outputDir, "constants").getAbsolutePath() + "\n" +
+                    "module 1 " + base + "types/ " + 
+                    new File(outputDir, "types").getAbsolutePath() + "\n" +
+                    "module 2 " + base + "app/ " + 
+                    new File(outputDir, "app").getAbsolutePath() + "\n";
+            
+            instance.execute();
+            assertTrue(readString(planFile).contains(expected));
+            assertTrue(readString(planFile).contains("critical " + base + "app/\n"));
+            
+            // the plan is written again from the lock file
+            planFile.delete();
+            requests.set(0);
+            instance.execute();
+            assertEquals(0, requests.get());
+            assertTrue(readString(planFile).contains(expected));
+            
+            // a lock file written before dependencies were recorded is not used
+            LockFile lock = LockFile.read(lockFile);
+            write(lockFile, readString(lockFile).replaceAll("(?m)^(format|depends) .*\n", ""));
+            assertEquals(1, LockFile.read(lockFile).getFormat());
+            planFile.delete();
+            instance.execute();
+            // 3 descriptors and 3 files
+            assertEquals(6, requests.get());
+            assertTrue(readString(planFile).contains(expected));
+            assertEquals(lock.getDependencies(base + "app/"), 
+                    LockFile.read(lockFile).getDependencies(base + "app/"));
+            
+            // a cycle fails the extract before anything is downloaded
+            write(new File(root, "planned/constants/plsql-core-module.xml"), 
+                    "<plsql-core-module " +
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>" +
+                    "<location>" + base + "constants/</location><version>0.2</version>" +
+                    "<file-set><file>build.sql</file></file-set>" +
+                    "<dependencies><dependency><location>" + base + "app/" + 
+                    "</location></dependency></dependencies>" +
+                    "</plsql-core-module>");
+            lockFile.delete();
+            requests.set(0);
+            try {
+                instance.execute();
                 fail();
+            } catch (MojoExecutionException ex) {
+                assertTrue(ex.getCause().getMessage().startsWith("dependency cycle: "));
             }
-        } catch (MojoExecutionException ex) {
-            if (!networkOk) {
+            assertEquals(3, requests.get());
+            
+        } finally {
+            server.stop(0);
+            
+        }
+        
+    }
+    
+    /**
+     * Test of execute method, of class Extract, using a lock file.
+     */
+    public void testExecute_lock() throws Exception {
+        System.out.println("execute lock");
+        
+        File root = new File("target/modules");
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = startServer(root, requests);
+        
+        try {
+            String location = 
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/locked/";
+            File dir = new File(root, "locked");
+            dir.mkdirs();
+            write(new File(dir, "plsql-core-module.xml"), 
+                    "<plsql-core-module " +
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>" +
+                    "<location>" + location + "</location><version>0.1</version>" +
+                    "<file-set><file>1.sql</file><file>2.sql</file></file-set>" +
+                    "</plsql-core-module>");
+            write(new File(dir, "1.sql"), "PROMPT 1\n");
+            write(new File(dir, "2.sql"), "PROMPT 2\n");
+            
+            File includes = new File(root, "locked-includes.xml");
+            write(includes, 
+                    "<plsql-core-includes " + 
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                    "<plsql-core-module-location>" + location + 
+                    "</plsql-core-module-location></plsql-core-includes>");
+            
+            File outputDir = new File("target/extract-lock");
+            File lockFile = new File("target/extract-lock.lock");
+            deleteDirectory(outputDir);
+            lockFile.delete();
+            
+            Extract instance = new Extract();
+            instance.setOutputDirectory(outputDir.getPath());
+            instance.setIncludesFile(includes);
+            instance.setCacheDirectory(null);
+            instance.setExecuteIfNoNetwork(true);
+            instance.setLockFile(lockFile);
+            
+            // resolves and writes the lock
+            instance.execute();
+            assertEquals(3, requests.get());
+            LockFile lock = LockFile.read(lockFile);
+            assertEquals(Arrays.asList(location), lock.getModules());
+            assertEquals(ManifestVerifier.sha256(new File(outputDir, "locked/1.sql")), 
+                    lock.getFiles(location).get("1.sql"));
+            
+            // nothing to fetch
+            requests.set(0);
+            instance.execute();
+            assertEquals(0, requests.get());
+            
+            // only the missing file is fetched. no descriptors
+            new File(outputDir, "locked/2.sql").delete();
+            instance.execute();
+            assertEquals(1, requests.get());
+            assertEquals("PROMPT 2", readFirstLine(new File(outputDir, "locked/2.sql")));
+            
+            // the module changes on the server
+            write(new File(dir, "2.sql"), "PROMPT 2 changed\n");
+            write(new File(outputDir, "locked/2.sql"), "changed locally\n");
+            instance.setFailOnLockDrift(true);
+            try {
+                instance.execute();
                 fail();
+            } catch (MojoExecutionException ex) {
             }
+            // the drifted file is not written
+            assertEquals("changed locally", readFirstLine(new File(outputDir, "locked/2.sql")));
+            
+            instance.setFailOnLockDrift(false);
+            instance.execute();
+            assertEquals("PROMPT 2 changed", readFirstLine(new File(outputDir, "locked/2.sql")));
+            assertEquals(ManifestVerifier.sha256(new File(outputDir, "locked/2.sql")), 
+                    LockFile.read(lockFile).getFiles(location).get("2.sql"));
+            // the manifest is written from the updated lock
+            assertEquals(Collections.emptyList(), new ManifestVerifier().verify(outputDir));
+            
+            // a new includes file is resolved again
+            write(includes, 
+                    "<plsql-core-includes " + 
+                    "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                    "<plsql-core-module-location>" + location + 
+                    "</plsql-core-module-location>" +
+                    "<!-- changed --></plsql-core-includes>");
+            requests.set(0);
+            instance.execute();
+            assertEquals(3, requests.get());
+            
+        } finally {
+            server.stop(0);
+            
         }
         
-        instance.setExecute(false);
+    }
+    
+    /**
+     * Runs the specified extract and returns true if it was skipped because nothing had 
+     * changed (i.e. the fingerprint file was not written again).
+     */
+    private static boolean executeSkipped(final Extract instance, final File fingerprintFile) 
+            throws Exception {
+        long lastModified = 946684800000L;
+        if (fingerprintFile.isFile()) {
+            fingerprintFile.setLastModified(lastModified);
+        }
+        instance.execute();
+        return fingerprintFile.lastModified() == lastModified;
+    }
+    
+    /**
+     * Test of execute method, of class Extract, checking that nothing is done when nothing 
+     * has changed.
+     */
+    public void testExecute_upToDate() throws Exception {
+        System.out.println("execute upToDate");
+        
+        String location = createModule("fingerprinted");
+        File includes = new File("target/modules/fingerprinted-includes.xml");
+        write(includes, 
+                "<plsql-core-includes " + 
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + location + "</plsql-core-module-location>" +
+                "</plsql-core-includes>");
+        
+        File outputDir = new File("target/extract-fingerprint");
+        File fingerprintFile = new File("target/extract-fingerprint.fingerprint");
+        File lockFile = new File("target/extract-fingerprint.lock");
+        deleteDirectory(outputDir);
+        fingerprintFile.delete();
+        lockFile.delete();
+        
+        CountingExtract instance = new CountingExtract();
+        instance.setOutputDirectory(outputDir.getPath());
+        instance.setIncludesFile(includes);
+        instance.setCacheDirectory(null);
+        instance.setFingerprintFile(fingerprintFile);
+        
+        // without a lock file the modules are resolved every time (to find new versions)
+        instance.execute();
+        assertTrue(fingerprintFile.isFile());
+        assertEquals(1, instance.reads.get(location).get());
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertEquals(2, instance.reads.get(location).get());
+        
+        instance.setLockFile(lockFile);
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertEquals(3, instance.reads.get(location).get());
+        assertTrue(lockFile.isFile());
+        
+        // nothing has changed
+        assertTrue(executeSkipped(instance, fingerprintFile));
+        
+        // an extracted file changes
+        File extracted = new File(outputDir, "fingerprinted/build.sql");
+        write(extracted, "changed locally");
+        extracted.setLastModified(extracted.lastModified() - 10000);
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertEquals("PROMPT fingerprinted", readFirstLine(extracted));
+        assertTrue(executeSkipped(instance, fingerprintFile));
+        
+        // an extracted file is deleted
+        extracted.delete();
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertTrue(extracted.isFile());
+        
+        // the configuration changes
+        instance.setLineEnding("crlf");
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertTrue(executeSkipped(instance, fingerprintFile));
+        
+        // the includes file changes
+        write(includes, 
+                "<plsql-core-includes " + 
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + location + "</plsql-core-module-location>" +
+                "<!-- changed --></plsql-core-includes>");
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertEquals(4, instance.reads.get(location).get());
+        assertTrue(executeSkipped(instance, fingerprintFile));
+        
+        // the lock file is deleted (e.g. to pick up new module versions)
+        lockFile.delete();
+        assertFalse(executeSkipped(instance, fingerprintFile));
+        assertEquals(5, instance.reads.get(location).get());
+        assertTrue(executeSkipped(instance, fingerprintFile));
+        assertEquals(5, instance.reads.get(location).get());
+        
+    }
+    
+    /**
+     * Test of execute method, of class Extract, with and without a network connection.
+     */
+    public void testExecute_offlineFirst() throws Exception {
+        System.out.println("execute offlineFirst");
+        
+        File root = new File("target/modules");
+        HttpServer server = startServer(root, new AtomicInteger());
+        String location = 
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/offline/";
+        
+        new File(root, "offline").mkdirs();
+        write(new File(root, "offline/plsql-core-module.xml"), 
+                "<plsql-core-module " +
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>" +
+                "<location>" + location + "</location><version>0.1</version>" +
+                "<file-set><file>build.sql</file></file-set></plsql-core-module>");
+        write(new File(root, "offline/build.sql"), "PROMPT offline\n");
+        
+        File includes = new File(root, "offline-includes.xml");
+        write(includes, 
+                "<plsql-core-includes " + 
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + location + "</plsql-core-module-location>" +
+                "</plsql-core-includes>");
+        
+        File outputDir = new File("target/extract-offline");
+        File cacheDir = new File("target/extract-offline-cache");
+        deleteDirectory(outputDir);
+        deleteDirectory(cacheDir);
+        
+        Extract instance = new Extract();
+        instance.setOutputDirectory(outputDir.getPath());
+        instance.setIncludesFile(includes);
+        instance.setCacheDirectory(cacheDir);
+        instance.setOfflineFirst(true);
+        
+        try {
+            // nothing is cached yet so the modules are fetched
+            instance.execute();
+            assertEquals("PROMPT offline", readFirstLine(new File(outputDir, "offline/build.sql")));
+            
+        } finally {
+            server.stop(0);
+            
+        }
+        
+        // the server has gone. offline first uses the cache
+        deleteDirectory(outputDir);
+        long start = System.currentTimeMillis();
+        instance.execute();
+        System.out.println("offline extract took " + 
+                (System.currentTimeMillis() - start) + "ms");
+        assertEquals("PROMPT offline", readFirstLine(new File(outputDir, "offline/build.sql")));
+        
+        // without offline first, the cached files are revalidated which fails.
+        // this is a warning unless executeIfNoNetwork is set
+        deleteDirectory(outputDir);
+        instance.setOfflineFirst(false);
         instance.execute();
+        assertFalse(new File(outputDir, "offline/build.sql").exists());
         
-        instance.setExecute(true);
-        instance.setIncludesFile(new File("target/test-classes/plsq-core-includes-test.xml"));
         instance.setExecuteIfNoNetwork(true);
         try {
             instance.execute();
-            if (!networkOk) {
-                fail();
-            }
+            fail();
         } catch (MojoExecutionException ex) {
-            if (networkOk) {
-                fail();
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf(location) != -1);
+        }
+        
+        // a module that is not cached is fetched, even in offline first mode
+        instance.setOfflineFirst(true);
+        instance.setCacheDirectory(new File(cacheDir, "empty"));
+        try {
+            instance.execute();
+            fail();
+        } catch (MojoExecutionException ex) {
+            assertTrue(Extract.isNetworkFailure(ex));
+        }
+        
+    }
+
+    /**
+     * Creates a module (a directory holding plsql-core-module.xml and build.sql) in 
+     * target/modules that depends on the specified modules.
+     * Returns the (formatted) location of the module.
+     */
+    static String createModule(final String name, final String... dependencies) 
+            throws Exception {
+        File dir = new File("target/modules/" + name);
+        dir.mkdirs();
+        String location = dir.getCanonicalFile().toURI().toURL().toString();
+        
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<plsql-core-module ")
+                .append("xmlns='http://plsql-core.butterfill.com/schema/plsql-core-module'>\n")
+                .append("    <location>").append(location).append("</location>\n")
+                .append("    <version>0.1</version>\n")
+                .append("    <file-set><file>build.sql</file></file-set>\n");
+        if (dependencies.length != 0) {
+            xml.append("    <dependencies>\n");
+            for (String dependency : dependencies) {
+                xml.append("        <dependency><location>")
+                        .append(new File("target/modules/" + dependency)
+                                .getCanonicalFile().toURI().toURL())
+                        .append("</location></dependency>\n");
+            }
+            xml.append("    </dependencies>\n");
+        }
+        xml.append("</plsql-core-module>\n");
+        
+        write(new File(dir, "plsql-core-module.xml"), xml.toString());
+        write(new File(dir, "build.sql"), "PROMPT " + name + "\n");
+        
+        return location.endsWith("/") ? location : location + "/";
+        
+    }
+    
+    static void write(final File file, final String text) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+    
+    /**
+     * An Extract that counts the reads of each module location and the maximum number of 
+     * reads in progress at the same time.
+     */
+    static class CountingExtract extends Extract {
+        
+        final Map<String, AtomicInteger> reads = new ConcurrentHashMap<String, AtomicInteger>();
+        
+        final AtomicInteger inProgress = new AtomicInteger();
+        
+        final AtomicInteger maxInProgress = new AtomicInteger();
+        
+        CountingExtract() throws Exception {
+            super();
+        }
+        
+        @Override
+        PlsqlCoreModule readModule(final String moduleLocation) throws Exception {
+            AtomicInteger count = new AtomicInteger();
+            AtomicInteger existing = 
+                    ((ConcurrentHashMap<String, AtomicInteger>) reads).putIfAbsent(
+                    moduleLocation, count);
+            ((existing == null) ? count : existing).incrementAndGet();
+            
+            int now = inProgress.incrementAndGet();
+            synchronized (maxInProgress) {
+                if (now > maxInProgress.get()) {
+                    maxInProgress.set(now);
+                }
             }
+            try {
+                // make sure that reads of the same level overlap
+                Thread.sleep(200);
+                return super.readModule(moduleLocation);
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }
+        
+    }
+    
+    /**
+     * Test of resolveModules method, of class Extract, when modules can't be read.
+     */
+    public void testResolveModules_failures() throws Exception {
+        System.out.println("resolveModules failures");
+        
+        String c = createModule("c");
+        String missing = new File("target/modules/missing").getCanonicalFile()
+                .toURI().toURL().toString() + "/";
+        
+        try {
+            new Extract().resolveModules(Arrays.asList(missing, c, "http://127.0.0.1:1/x/"));
+            fail();
+        } catch (Extract.ModuleFailureException ex) {
+            // every failure is reported, not just the first
+            assertEquals(new HashSet<String>(Arrays.asList(missing, "http://127.0.0.1:1/x/")), 
+                    ex.getFailures().keySet());
+            assertFalse(ex.isNetworkFailure());
+            assertTrue(Extract.isNetworkFailure(ex.getFailures().get("http://127.0.0.1:1/x/")));
+        }
+        
+    }
+    
+    /**
+     * Test of resolveModules method, of class Extract.
+     */
+    public void testResolveModules() throws Exception {
+        System.out.println("resolveModules");
+        
+        // a -> b, c. b -> d. c -> d, b
+        String d = createModule("d");
+        String b = createModule("b", "d");
+        String c = createModule("c", "d", "b");
+        String a = createModule("a", "b", "c");
+        
+        for (int threads : new int[] {1, 4}) {
+            CountingExtract instance = new CountingExtract();
+            instance.setResolverThreads(threads);
+            
+            Map<String, PlsqlCoreModule> moduleMap = 
+                    instance.resolveModules(Arrays.asList(a, c, a));
+            
+            assertEquals(new HashSet<String>(Arrays.asList(a, b, c, d)), moduleMap.keySet());
+            for (Map.Entry<String, PlsqlCoreModule> entry : moduleMap.entrySet()) {
+                assertEquals(entry.getKey(), entry.getValue().getLocation().trim());
+                assertEquals(1, instance.reads.get(entry.getKey()).get());
+            }
+            // each level holds 2 modules
+            assertEquals(Math.min(threads, 2), instance.maxInProgress.get());
+            
+        }
+        
+        CountingExtract instance = new CountingExtract();
+        try {
+            instance.resolveModules(Arrays.asList(a, 
+                    new File("target/modules/does-not-exist/").toURI().toURL().toString()));
+            fail();
+        } catch (Extract.ModuleFailureException ex) {
+            assertTrue(ex.getCause() instanceof FileNotFoundException);
+        }
+        
+        try {
+            instance.setResolverThreads(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        assertEquals(4, new Extract().getResolverThreads());
+        
+    }
+    
+    /**
+     * Test of execute method, of class Extract, using modules on the local file system.
+     */
+    public void testExecute_local() throws Exception {
+        System.out.println("execute local");
+        
+        String b = createModule("b");
+        String a = createModule("a", "b");
+        File includes = new File("target/modules/includes.xml");
+        write(includes, 
+                "<plsql-core-includes " + 
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + a + "</plsql-core-module-location>" +
+                "</plsql-core-includes>");
+        
+        File outputDir = new File("target/extract-local");
+        deleteDirectory(outputDir);
+        
+        Extract instance = new Extract();
+        instance.setExecuteIfNoNetwork(true);
+        instance.setOutputDirectory(outputDir.getPath());
+        instance.setIncludesFile(includes);
+        instance.execute();
+        
+        assertTrue(new File(outputDir, "a/build.sql").isFile());
+        assertTrue(new File(outputDir, "b/build.sql").isFile());
+        
+        // again, using the module cache
+        File cacheDir = new File("target/extract-local-cache");
+        deleteDirectory(cacheDir);
+        deleteDirectory(outputDir);
+        instance.setCacheDirectory(cacheDir);
+        instance.setCacheTtl(60);
+        instance.execute();
+        assertTrue(new File(outputDir, "b/build.sql").isFile());
+        // 2 descriptors and 2 files
+        assertEquals(8, cacheDir.listFiles().length);
+        
+        // the cached files are used when the modules can't be read
+        write(new File("target/modules/b/build.sql"), "changed");
+        new File("target/modules/a/plsql-core-module.xml").renameTo(
+                new File("target/modules/a/moved.xml"));
+        try {
+            instance.execute();
+            assertEquals("PROMPT b", readFirstLine(new File(outputDir, "b/build.sql")));
+        } finally {
+            new File("target/modules/a/moved.xml").renameTo(
+                    new File("target/modules/a/plsql-core-module.xml"));
+        }
+        
+    }
+    
+    /**
+     * Test of execute method, of class Extract, checking that files are extracted byte for 
+     * byte (unless line endings are set).
+     */
+    public void testExecute_bytes() throws Exception {
+        System.out.println("execute bytes");
+        
+        String a = createModule("bytes");
+        byte[] data = "PROMPT \u00e9\r\nPROMPT b\n\r\n".getBytes("ISO-8859-1");
+        FileOutputStream out = new FileOutputStream("target/modules/bytes/build.sql");
+        out.write(data);
+        out.close();
+        
+        File includes = new File("target/modules/bytes-includes.xml");
+        write(includes, 
+                "<plsql-core-includes " + 
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + a + "</plsql-core-module-location>" +
+                "</plsql-core-includes>");
+        
+        File outputDir = new File("target/extract-bytes");
+        File cacheDir = new File("target/extract-bytes-cache");
+        deleteDirectory(cacheDir);
+        
+        Extract instance = new Extract();
+        instance.setExecuteIfNoNetwork(true);
+        instance.setOutputDirectory(outputDir.getPath());
+        instance.setIncludesFile(includes);
+        
+        for (File cache : new File[] {null, cacheDir}) {
+            instance.setCacheDirectory(cache);
+            
+            instance.setLineEnding(null);
+            instance.execute();
+            assertTrue(Arrays.equals(data, readBytes(new File(outputDir, "bytes/build.sql"))));
+            
+            instance.setLineEnding("lf");
+            instance.execute();
+            assertEquals("PROMPT \u00e9\nPROMPT b\n\n", 
+                    new String(readBytes(new File(outputDir, "bytes/build.sql")), "ISO-8859-1"));
+            
+            instance.setLineEnding("CRLF");
+            instance.execute();
+            assertEquals("PROMPT \u00e9\r\nPROMPT b\r\n\r\n", 
+                    new String(readBytes(new File(outputDir, "bytes/build.sql")), "ISO-8859-1"));
+            
+        }
+        
+        instance.setLineEnding("cr");
+        try {
+            instance.execute();
+            fail();
+        } catch (MojoExecutionException ex) {
+        }
+        
+    }
+    
+    static byte[] readBytes(final File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        for (int i = in.read(data); i > 0; i = in.read(data, offset, data.length - offset)) {
+            offset += i;
+        }
+        in.close();
+        return data;
+    }
+    
+    static String readString(final File file) throws Exception {
+        return new String(readBytes(file), "UTF-8");
+    }
+    
+    static String readFirstLine(final File file) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
         }
     }
 
@@ -209,4 +1027,26 @@ public class ExtractTest extends TestCase {
         assertFalse(new Extract().isExecuteIfNoNetwork());
     }
     
+    public void testGetDownloadThreads() throws Exception {
+        System.out.println("getDownloadThreads()");
+        Extract instance = new Extract();
+        assertEquals(4, instance.getDownloadThreads());
+        assertEquals(2, instance.getDownloadThreadsPerHost());
+        try {
+            instance.setDownloadThreads(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            instance.setDownloadThreadsPerHost(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+    
+    public void testIsOfflineFirst() throws Exception {
+        System.out.println("isOfflineFirst()");
+        assertFalse(new Extract().isOfflineFirst());
+    }
+    
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class FingerprintTest extends TestCase {
+    
+    public FingerprintTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(FingerprintTest.class);
+        return suite;
+    }
+
+    /**
+     * Test of isUpToDate method, of class Fingerprint.
+     */
+    public void testIsUpToDate() throws Exception {
+        System.out.println("isUpToDate");
+        
+        File a = new File("target/fingerprint-test/a.sql");
+        File b = new File("target/fingerprint-test/b.sql");
+        a.getParentFile().mkdirs();
+        ExtractTest.write(a, "a");
+        ExtractTest.write(b, "b");
+        
+        List<String> inputs = Arrays.asList("includes 123", "module 1.0 http://x/");
+        Fingerprint instance = new Fingerprint(inputs, Arrays.asList(a, b));
+        
+        assertTrue(instance.isUpToDate(inputs));
+        assertFalse(instance.isUpToDate(Arrays.asList("includes 456", "module 1.0 http://x/")));
+        
+        // read back from a file
+        File file = new File("target/fingerprint-test/sub/test.fingerprint");
+        instance.write(file);
+        Fingerprint result = Fingerprint.read(file);
+        assertEquals(instance.getValue(), result.getValue());
+        assertEquals(inputs, result.getInputs());
+        assertTrue(result.isUpToDate(inputs));
+        
+        b.setLastModified(b.lastModified() - 10000);
+        assertFalse(result.isUpToDate(inputs));
+        
+        b.delete();
+        assertFalse(result.isUpToDate(inputs));
+        
+        ExtractTest.write(file, "input x\n");
+        try {
+            Fingerprint.read(file);
+            fail();
+        } catch (IOException ex) {
+        }
+        
+    }
+    
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class LineEndingOutputStreamTest extends TestCase {
+    
+    public LineEndingOutputStreamTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(LineEndingOutputStreamTest.class);
+        return suite;
+    }
+    
+    /**
+     * Writes the specified text to a LineEndingOutputStream in chunks of the specified size.
+     */
+    private static String convert(final String text, final String lineSeparator, 
+            final int chunkSize) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        OutputStream out = new LineEndingOutputStream(result, lineSeparator);
+        byte[] bytes = text.getBytes("ISO-8859-1");
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            if (chunkSize == 1) {
+                out.write(bytes[i]);
+            } else {
+                out.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+            }
+        }
+        out.close();
+        return result.toString("ISO-8859-1");
+    }
+
+    /**
+     * Test of write method, of class LineEndingOutputStream.
+     */
+    public void testWrite() throws Exception {
+        System.out.println("write");
+        
+        String text = "a\r\nb\nc\rd\r\r\n\n\u00e9\r";
+        
+        for (int chunkSize : new int[] {1, 2, 3, 100}) {
+            assertEquals("a\nb\nc\nd\n\n\n\u00e9\n", convert(text, "\n", chunkSize));
+            assertEquals("a\r\nb\r\nc\r\nd\r\n\r\n\r\n\u00e9\r\n", 
+                    convert(text, "\r\n", chunkSize));
+            assertEquals("no line endings", convert("no line endings", "\r\n", chunkSize));
+        }
+        
+    }
+    
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class LockFileTest extends TestCase {
+    
+    public LockFileTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(LockFileTest.class);
+        return suite;
+    }
+
+    /**
+     * Test of read and write methods, of class LockFile.
+     */
+    public void testReadWrite() throws Exception {
+        System.out.println("read write");
+        
+        File file = new File("target/lock-file-test.lock");
+        
+        LockFile lock = new LockFile();
+        lock.setIncludesSha256("abc");
+        lock.addModule("http://example.com/sql/b/", "1.0");
+        lock.addModule("http://example.com/sql/a/", "2.0-beta");
+        lock.putFile("http://example.com/sql/b/", "build.sql", "111");
+        lock.putFile("http://example.com/sql/b/", "with space.sql", "222");
+        lock.putFile("http://example.com/sql/a/", "build.sql", "333");
+        lock.addDependency("http://example.com/sql/b/", "http://example.com/sql/a/");
+        lock.write(file);
+        
+        LockFile result = LockFile.read(file);
+        assertEquals("abc", result.getIncludesSha256());
+        assertEquals(Arrays.asList("http://example.com/sql/b/", "http://example.com/sql/a/"), 
+                result.getModules());
+        assertEquals("2.0-beta", result.getVersion("http://example.com/sql/a/"));
+        Map<String, String> files = result.getFiles("http://example.com/sql/b/");
+        assertEquals(Arrays.asList("build.sql", "with space.sql"), 
+                Arrays.asList(files.keySet().toArray()));
+        assertEquals("222", files.get("with space.sql"));
+        assertNull(result.getVersion("http://example.com/sql/c/"));
+        assertEquals(LockFile.FORMAT, result.getFormat());
+        assertEquals(Arrays.asList("http://example.com/sql/a/"), 
+                result.getDependencies("http://example.com/sql/b/"));
+        assertTrue(result.getDependencies("http://example.com/sql/a/").isEmpty());
+        
+        // written before dependencies were recorded
+        ExtractTest.write(file, "includes abc\nmodule 1.0 http://x/\n");
+        assertEquals(1, LockFile.read(file).getFormat());
+        
+        
+        ExtractTest.write(file, "# comment\nincludes abc\nfile 111 http://x/ build.sql\n");
+        try {
+            LockFile.read(file);
+            fail();
+        } catch (IOException ex) {
+        }
+        
+    }
+
+}
@@ -22,6 +22,14 @@ public class MavenSuite extends TestCase {
     public static Test suite() {
         TestSuite suite = new TestSuite("MavenSuite");
         suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.ExtractTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.ModuleCacheTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.LineEndingOutputStreamTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.DescriptorReaderTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.DownloaderTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.LockFileTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.FingerprintTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.BuildPlanTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.maven.VerifyTest.class));
         return suite;
     }
 
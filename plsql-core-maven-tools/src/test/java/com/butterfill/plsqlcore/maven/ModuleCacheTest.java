@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ModuleCacheTest extends TestCase {
+    
+    /**
+     * The content served for each path.
+     */
+    private final Map<String, String> content = new ConcurrentHashMap<String, String>();
+    
+    /**
+     * The number of requests received.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+    
+    /**
+     * The number of 304 responses sent.
+     */
+    private final AtomicInteger notModified = new AtomicInteger();
+    
+    private HttpServer server;
+    
+    private File cacheDir;
+    
+    public ModuleCacheTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ModuleCacheTest.class);
+        return suite;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String body = content.get(exchange.getRequestURI().getPath());
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                String etag = "\"" + body.hashCode() + "\"";
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        
+        cacheDir = new File("target/module-cache-test");
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        super.tearDown();
+    }
+    
+    private URL url(final String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+    
+    private static String read(final File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        int offset = 0;
+        for (int i = in.read(data); i > 0; i = in.read(data, offset, data.length - offset)) {
+            offset += i;
+        }
+        in.close();
+        return new String(data, "UTF-8");
+    }
+
+    /**
+     * Test of fetch method, of class ModuleCache.
+     */
+    public void testFetch() throws Exception {
+        System.out.println("fetch");
+        
+        content.put("/a/build.sql", "PROMPT a");
+        
+        ModuleCache cache = new ModuleCache(cacheDir, 0, 1000000);
+        assertEquals("PROMPT a", read(cache.fetch("a#1", url("/a/build.sql"))));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, requests.get());
+        
+        // revalidated using the ETag
+        assertEquals("PROMPT a", read(cache.fetch("a#1", url("/a/build.sql"))));
+        assertEquals(1, cache.getRevalidatedCount());
+        assertEquals(1, notModified.get());
+        assertEquals(2, requests.get());
+        
+        // changed on the server
+        content.put("/a/build.sql", "PROMPT a changed");
+        assertEquals("PROMPT a changed", read(cache.fetch("a#1", url("/a/build.sql"))));
+        assertEquals(2, cache.getMissCount());
+        
+        // a new version is a new entry
+        cache.fetch("a#2", url("/a/build.sql"));
+        assertEquals(3, cache.getMissCount());
+        
+        // a new cache with a ttl does not go to the network
+        ModuleCache ttlCache = new ModuleCache(cacheDir, 60000, 1000000);
+        int requestCount = requests.get();
+        assertEquals("PROMPT a changed", read(ttlCache.fetch("a#1", url("/a/build.sql"))));
+        assertEquals(requestCount, requests.get());
+        assertEquals(1, ttlCache.getHitCount());
+        assertEquals(0, ttlCache.getMissCount());
+        
+        // get never goes to the network
+        requestCount = requests.get();
+        assertEquals("PROMPT a changed", read(cache.get("a#1")));
+        assertNull(cache.get("b#1"));
+        assertEquals(requestCount, requests.get());
+        
+        try {
+            cache.fetch("b#1", url("/b/build.sql"));
+            fail();
+        } catch (IOException ex) {
+        }
+        
+    }
+    
+    /**
+     * Starts a server that answers every request with 304 Not Modified.
+     * (HttpServer closes the connection after a 304, so it can't be used to test keep-alive.)
+     * 
+     * @param connections
+     *   Incremented for each connection accepted.
+     * @return
+     *   The server socket. Close this to stop the server.
+     */
+    private static ServerSocket startNotModifiedServer(final AtomicInteger connections) 
+            throws Exception {
+        final ServerSocket serverSocket = 
+                new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        
+                        Thread handler = new Thread() {
+                            public void run() {
+                                try {
+                                    BufferedReader in = new BufferedReader(
+                                            new InputStreamReader(socket.getInputStream()));
+                                    OutputStream out = socket.getOutputStream();
+                                    for (String line = in.readLine(); line != null; 
+                                            line = in.readLine()) {
+                                        if (line.length() == 0) {
+                                            out.write("HTTP/1.1 304 Not Modified\r\n\r\n"
+                                                    .getBytes("US-ASCII"));
+                                            out.flush();
+                                        }
+                                    }
+                                    socket.close();
+                                } catch (IOException ex) {
+                                    // the connection has gone
+                                }
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException ex) {
+                    // the server socket has been closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        
+        return serverSocket;
+    }
+    
+    /**
+     * Test that fetch leaves the connection open to be reused after a 304 response.
+     */
+    public void testFetch_keepAlive() throws Exception {
+        System.out.println("fetch keepAlive");
+        
+        content.put("/a/build.sql", "PROMPT a");
+        
+        ModuleCache cache = new ModuleCache(cacheDir, 0, 1000000);
+        cache.fetch("a#1", url("/a/build.sql"));
+        
+        AtomicInteger connections = new AtomicInteger();
+        ServerSocket serverSocket = startNotModifiedServer(connections);
+        
+        try {
+            URL url = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/a");
+            for (int i = 0; i < 3; i++) {
+                assertEquals("PROMPT a", read(cache.fetch("a#1", url)));
+            }
+            
+        } finally {
+            serverSocket.close();
+            
+        }
+        
+        assertEquals(3, cache.getRevalidatedCount());
+        assertEquals(1, connections.get());
+        
+    }
+    
+    /**
+     * Test of evict method, of class ModuleCache.
+     */
+    public void testEvict() throws Exception {
+        System.out.println("evict");
+        
+        content.put("/1", "0123456789");
+        content.put("/2", "0123456789");
+        content.put("/3", "0123456789");
+        
+        ModuleCache cache = new ModuleCache(cacheDir, 60000, 25);
+        File one = cache.fetch("1", url("/1"));
+        File two = cache.fetch("2", url("/2"));
+        File three = cache.fetch("3", url("/3"));
+        one.setLastModified(System.currentTimeMillis() - 30000);
+        two.setLastModified(System.currentTimeMillis() - 20000);
+        three.setLastModified(System.currentTimeMillis() - 10000);
+        
+        // using 1 makes 2 the least recently used
+        cache.fetch("1", url("/1"));
+        
+        assertEquals(1, cache.evict());
+        assertTrue(one.isFile());
+        assertFalse(two.isFile());
+        assertTrue(three.isFile());
+        assertEquals(0, cache.evict());
+        assertEquals(1, cache.getEvictedCount());
+        
+        // 2 is downloaded again
+        cache.fetch("2", url("/2"));
+        assertEquals(4, cache.getMissCount());
+        assertEquals("hits: 1, revalidated: 0, misses: 4, evicted: 1", cache.toString());
+        
+    }
+    
+}
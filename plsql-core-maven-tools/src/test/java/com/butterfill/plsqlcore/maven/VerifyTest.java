@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.maven;
+
+import com.butterfill.plsqlcore.Manifest;
+import java.io.File;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ *
+ * @author peter
+ */
+public class VerifyTest extends TestCase {
+
+    public VerifyTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(VerifyTest.class);
+        return suite;
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Test of execute method, of class Verify.
+     */
+    public void testExecute() throws Exception {
+        System.out.println("execute");
+
+        ExtractTest.createModule("verify-b");
+        String a = ExtractTest.createModule("verify-a", "verify-b");
+        File includes = new File("target/modules/verify-includes.xml");
+        ExtractTest.write(includes,
+                "<plsql-core-includes " +
+                "xmlns='http://plsql-core.butterfill.com/schema/plsql-core-includes'>" +
+                "<plsql-core-module-location>" + a + "</plsql-core-module-location>" +
+                "</plsql-core-includes>");
+
+        File outputDir = new File("target/verify");
+        delete(outputDir);
+
+        Verify instance = new Verify();
+        instance.setOutputDirectory(outputDir.getPath());
+
+        try {
+            instance.execute();
+            fail("nothing has been extracted");
+        } catch (MojoExecutionException ex) {
+            // expected
+        }
+
+        Extract extract = new Extract();
+        extract.setExecuteIfNoNetwork(true);
+        extract.setOutputDirectory(outputDir.getPath());
+        extract.setIncludesFile(includes);
+        extract.execute();
+
+        assertTrue(new File(outputDir, "verify-a/" + Manifest.FILE_NAME).isFile());
+        assertEquals(ExtractTest.readString(new File(outputDir, "verify-b/build.sql")).length(),
+                Manifest.read(new File(outputDir, "verify-b/" + Manifest.FILE_NAME))
+                        .get("build.sql").getSize());
+
+        instance.execute();
+        instance.setVerifyThreads(1);
+        instance.execute();
+
+        ExtractTest.write(new File(outputDir, "verify-a/build.sql"), "PROMPT changed\n");
+
+        try {
+            instance.execute();
+            fail("verify-a/build.sql has changed");
+        } catch (MojoFailureException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("1 file(s)"));
+        }
+
+        instance.setExecute(false);
+        instance.execute();
+
+        try {
+            instance.setVerifyThreads(-1);
+            fail("verifyThreads must not be negative");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+    }
+
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of byte arrays used as IO buffers.
+ * <br/>
+ * Buffer sizes are powers of two between MIN_BUFFER_SIZE and the maximum buffer size of the
+ * pool. A buffer is sized from the number of bytes that will be copied through it, so small
+ * files get small buffers. Released buffers are kept (up to a maximum number of each size)
+ * and handed out again so that, once the pool has warmed up, extraction does not allocate
+ * new buffers.
+ * <br/>
+ * The shared pool is configured using the system properties plsql-core.maxBufferSize
+ * (default 64K) and plsql-core.pooledBuffers (the maximum number of buffers of each size
+ * that are kept, default 16).
+ *
+ * @author peter
+ */
+final class BufferPool {
+
+    /**
+     * The size of the smallest buffer handed out by a pool.
+     */
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * The pool used by extraction.
+     */
+    static final BufferPool SHARED = new BufferPool(
+            Integer.getInteger("plsql-core.maxBufferSize", 64 * 1024),
+            Integer.getInteger("plsql-core.pooledBuffers", 16));
+
+    /**
+     * The size of the largest buffer handed out by this pool.
+     */
+    private final int maxBufferSize;
+
+    /**
+     * The maximum number of buffers of each size that are kept.
+     */
+    private final int maxPooledBuffers;
+
+    /**
+     * The free buffers of each size. Index i holds buffers of size MIN_BUFFER_SIZE &lt;&lt; i.
+     */
+    private final List<ConcurrentLinkedQueue<byte[]>> free =
+            new ArrayList<ConcurrentLinkedQueue<byte[]>>();
+
+    /**
+     * The number of free buffers of each size.
+     */
+    private final List<AtomicInteger> freeCounts = new ArrayList<AtomicInteger>();
+
+    /**
+     * The number of buffers allocated by this pool.
+     */
+    private final AtomicInteger allocatedCount = new AtomicInteger();
+
+    /**
+     * Creates a new buffer pool.
+     *
+     * @param maxBufferSize
+     *   The size of the largest buffer that will be handed out. This is rounded up to a power
+     *   of two that is at least MIN_BUFFER_SIZE.
+     * @param maxPooledBuffers
+     *   The maximum number of buffers of each size that will be kept.
+     *   Pass 0 to disable pooling.
+     */
+    BufferPool(final int maxBufferSize, final int maxPooledBuffers) {
+        int size = MIN_BUFFER_SIZE;
+
+        while (true) {
+            free.add(new ConcurrentLinkedQueue<byte[]>());
+            freeCounts.add(new AtomicInteger());
+            if (size >= maxBufferSize || size >= (1 << 30)) {
+                break;
+            }
+            size <<= 1;
+        }
+
+        this.maxBufferSize = size;
+        this.maxPooledBuffers = Math.max(0, maxPooledBuffers);
+
+    }
+
+    /**
+     * Returns the size of the largest buffer that will be handed out by this pool.
+     *
+     * @return
+     *   The size of the largest buffer.
+     */
+    int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Returns the number of buffers that have been allocated by this pool.
+     * This stays the same when buffers are reused.
+     *
+     * @return
+     *   The number of buffers allocated.
+     */
+    int getAllocatedCount() {
+        return allocatedCount.get();
+    }
+
+    /**
+     * Returns the index of the size class for the specified number of bytes.
+     */
+    private int getIndex(final long size) {
+        int index = 0;
+
+        for (long bufferSize = MIN_BUFFER_SIZE;
+                bufferSize < size && bufferSize < maxBufferSize;
+                bufferSize <<= 1) {
+            index++;
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Returns a buffer that can be used to copy the specified number of bytes.
+     * The buffer should be passed to release when it is no longer needed.
+     *
+     * @param size
+     *   The number of bytes that will be copied or -1 if this is not known.
+     * @return
+     *   A buffer that is big enough to hold size bytes or, if size is not known or is bigger
+     *   than the maximum buffer size, a buffer of the maximum size.
+     */
+    byte[] acquire(final long size) {
+        int index = (size < 0) ? free.size() - 1 : getIndex(size);
+
+        byte[] result = free.get(index).poll();
+
+        if (result != null) {
+            freeCounts.get(index).decrementAndGet();
+            return result;
+        }
+
+        allocatedCount.incrementAndGet();
+        return new byte[MIN_BUFFER_SIZE << index];
+
+    }
+
+    /**
+     * Returns a buffer (that was handed out by acquire) to this pool.
+     * The buffer is dropped if the pool already holds enough buffers of the same size.
+     *
+     * @param buffer
+     *   The buffer to release. Can be null.
+     */
+    void release(final byte[] buffer) {
+        if (buffer == null || buffer.length > maxBufferSize) {
+            return;
+        }
+
+        int index = getIndex(buffer.length);
+
+        if (buffer.length != (MIN_BUFFER_SIZE << index)) {
+            return;
+        }
+
+        // the count may briefly over-count when threads race. this is ok
+        if (freeCounts.get(index).incrementAndGet() > maxPooledBuffers) {
+            freeCounts.get(index).decrementAndGet();
+            return;
+        }
+
+        free.get(index).offer(buffer);
+
+    }
+
+    /**
+     * Returns a stream that buffers the specified stream using a buffer from this pool.
+     * The buffer is released when the returned stream is closed.
+     *
+     * @param in
+     *   The stream to buffer.
+     * @param size
+     *   The number of bytes that will be read from the stream or -1 if this is not known.
+     * @return
+     *   A buffered stream.
+     */
+    InputStream buffer(final InputStream in, final long size) {
+        return new BufferedStream(in, acquire(size));
+    }
+
+    /**
+     * A buffered input stream that releases its buffer to the pool when it is closed.
+     */
+    private final class BufferedStream extends FilterInputStream {
+
+        /**
+         * The buffer. This is null once the stream has been closed.
+         */
+        private byte[] buffer;
+
+        /**
+         * The position of the next byte to return from the buffer.
+         */
+        private int position;
+
+        /**
+         * The number of valid bytes in the buffer.
+         */
+        private int count;
+
+        /**
+         * Creates a new stream that buffers the specified stream.
+         */
+        BufferedStream(final InputStream in, final byte[] buffer) {
+            super(in);
+            this.buffer = buffer;
+        }
+
+        /**
+         * Fills the buffer. Returns false at the end of the stream.
+         */
+        private boolean fill() throws IOException {
+            if (buffer == null) {
+                throw new IOException("stream closed");
+            }
+
+            position = 0;
+            count = Math.max(0, in.read(buffer, 0, buffer.length));
+            return count > 0;
+
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= count && !fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (position >= count) {
+                // large reads bypass the buffer
+                if (buffer != null && len >= buffer.length) {
+                    return in.read(b, off, len);
+                }
+                if (!fill()) {
+                    return -1;
+                }
+            }
+
+            int result = Math.min(len, count - position);
+            System.arraycopy(buffer, position, b, off, result);
+            position += result;
+            return result;
+
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (position < count) {
+                long result = Math.min(n, count - position);
+                position += (int) result;
+                return result;
+            }
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (count - position) + in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer != null) {
+                release(buffer);
+                buffer = null;
+                position = 0;
+                count = 0;
+            }
+            in.close();
+        }
+
+    } // End of class BufferedStream
+
+} // End of class BufferPool
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Specifies behaviour of classes that receive the entries selected by an extract.
+ * <br/>
+ * Writing files to the output directory is one implementation of this interface.
+ * Other implementations can consume the SQL directly (e.g. to run it against a database)
+ * without writing anything to disk.
+ * <br/>
+ * All directory entries are passed to the sink before any file entries when random access
+ * extraction is enabled. If more than one thread is used to extract, file entries are passed
+ * to the sink from several threads at the same time so the sink must be thread-safe.
+ *
+ * @author peter
+ * @see ExtractorMain#extract(ExtractSink)
+ * @see ExtractorMain#extract(java.util.List, ExtractSink)
+ */
+public interface ExtractSink {
+
+    /**
+     * Receives a directory entry.
+     *
+     * @param entry
+     *   The zip entry of the directory (e.g. plsql/logger/).
+     * @throws java.lang.Exception
+     *   If the sink fails to handle the directory. This fails the extract.
+     */
+    void directory(ZipEntry entry) throws Exception;
+
+    /**
+     * Receives a file entry and a stream of its (uncompressed) data.
+     * <br/>
+     * The size and CRC-32 of the entry will be -1 if they are not known.
+     * The stream is only valid until this method returns and is closed by the caller.
+     *
+     * @param entry
+     *   The zip entry of the file (e.g. plsql/logger/build.sql).
+     * @param data
+     *   A stream that reads the data of the file.
+     * @throws java.lang.Exception
+     *   If the sink fails to handle the file. This fails the extract.
+     */
+    void file(ZipEntry entry, InputStream data) throws Exception;
+
+} // End of interface ExtractSink
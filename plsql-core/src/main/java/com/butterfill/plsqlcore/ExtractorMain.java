@@ -16,18 +16,39 @@
 
 package com.butterfill.plsqlcore;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -45,21 +66,62 @@ public class ExtractorMain {
      */
     private final Class classFromJar;
     
+    /**
+     * The jar file that we will extract from. 
+     * This will be null if the jar file should be found using classFromJar.
+     */
+    private final File jarFile;
+    
     /**
      * The location in which files will be created.
      */
     private String outputDirectoryName = "";
 
     /**
-     * The size of buffer to use when doing buffered IO (reading zip entries in this case).
+     * Flag to enable/disable random access extraction.
+     * When true, entries are selected using the zip central directory and only the 
+     * selected entries are read. When false, every entry in the jar is read in turn.
+     */
+    private boolean randomAccess = true;
+    
+    /**
+     * The number of threads to use when writing files during random access extraction.
+     */
+    private int threadCount = 1;
+    
+    /**
+     * Flag to enable/disable incremental extraction.
+     * When true, files that already match the zip entry (by size and CRC-32) are not written
+     * and files that are not in the jar are removed from the extracted directories.
+     */
+    private boolean incremental = false;
+    
+    /**
+     * The number of files written by the last extract.
+     */
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    
+    /**
+     * The number of files skipped (because they were up to date) by the last extract.
+     */
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    
+    /**
+     * The number of files removed (because they are not in the jar) by the last extract.
      */
-    private static final int IO_BUFFER_SIZE = 1024;
+    private final AtomicInteger removedCount = new AtomicInteger();
     
+    /**
+     * The files written by the last extract.
+     */
+    private final Set<File> writtenFiles = Collections.synchronizedSet(new HashSet<File>());
+
     /**
      * Creates a new instance of ExtractorMain to extract the contents of this project.
      */
     public ExtractorMain() {
         this.classFromJar = ExtractorMain.class;
+        this.jarFile = null;
     }
     
     /**
@@ -76,6 +138,35 @@ public class ExtractorMain {
             throw new NullPointerException("classFromJar should not be null");
         }
         this.classFromJar = classFromJar;
+        this.jarFile = null;
+    }
+    
+    /**
+     * Creates a new instance of ExtractorMain to extract the contents of the specified jar.
+     * 
+     * @param jarFile 
+     *   The jar file that we will extract from.
+     */
+    private ExtractorMain(final File jarFile) {
+        this.classFromJar = null;
+        this.jarFile = jarFile;
+    }
+    
+    /**
+     * Returns a new instance of ExtractorMain to extract the contents of the specified jar.
+     * 
+     * @param jarFile 
+     *   The jar file that we will extract from.
+     * @return
+     *   A new instance of ExtractorMain.
+     * @throws NullPointerException
+     *   If jarFile is null.
+     */
+    public static ExtractorMain forJar(final File jarFile) throws NullPointerException {
+        if (jarFile == null) {
+            throw new NullPointerException("jarFile should not be null");
+        }
+        return new ExtractorMain(jarFile);
     }
     
     /**
@@ -103,6 +194,115 @@ public class ExtractorMain {
         }
     }
     
+    /**
+     * Returns true if entries will be selected using the zip central directory (the default), 
+     * false if every entry in the jar will be read in turn.
+     * 
+     * @return
+     *   true if random access extraction is enabled.
+     */
+    public boolean isRandomAccess() {
+        return randomAccess;
+    }
+
+    /**
+     * Set to false to read every entry in the jar in turn (rather than using the zip central
+     * directory to select entries and reading only the selected entries).
+     * 
+     * @param randomAccess
+     *   Pass false to disable random access extraction.
+     */
+    public void setRandomAccess(final boolean randomAccess) {
+        this.randomAccess = randomAccess;
+    }
+    
+    /**
+     * Returns the number of threads that will be used to write files during random access 
+     * extraction. The default is 1 (i.e. files are written by the calling thread).
+     * 
+     * @return
+     *   The number of threads that will be used to write files.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of threads that will be used to write files during random access 
+     * extraction. Directories are always created (in jar order) before any files are written.
+     * This setting is ignored if random access extraction is disabled.
+     * 
+     * @param threadCount
+     *   The number of threads that will be used to write files.
+     * @throws IllegalArgumentException
+     *   If threadCount is less than 1.
+     */
+    public void setThreadCount(final int threadCount) throws IllegalArgumentException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException(
+                    "threadCount should not be less than 1. found " + threadCount);
+        }
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * Returns true if incremental extraction is enabled, false (the default) otherwise.
+     * 
+     * @return
+     *   true if incremental extraction is enabled.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set to true to enable incremental extraction.
+     * <br/>
+     * When incremental extraction is enabled, files that already have the same size and 
+     * CRC-32 as the zip entry are not written and files in the extracted directories that 
+     * are not in the jar are removed.
+     * If random access extraction is disabled, only entries that have their size and CRC-32
+     * in the local file header can be skipped.
+     * 
+     * @param incremental
+     *   Pass true to enable incremental extraction.
+     */
+    public void setIncremental(final boolean incremental) {
+        this.incremental = incremental;
+    }
+    
+    /**
+     * Returns the number of files written by the last extract.
+     * 
+     * @return
+     *   The number of files written by the last extract.
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+    
+    /**
+     * Returns the number of files that were not written by the last extract because they 
+     * were already up to date. This will always be zero if incremental extraction is disabled.
+     * 
+     * @return
+     *   The number of files skipped by the last extract.
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+    
+    /**
+     * Returns the number of files removed by the last extract because they are not in the jar.
+     * This will always be zero if incremental extraction is disabled.
+     * 
+     * @return
+     *   The number of files removed by the last extract.
+     */
+    public int getRemovedCount() {
+        return removedCount.get();
+    }
+    
     /**
      * Creates a directory with the specified name.
      * <br/>
@@ -148,200 +348,1238 @@ public class ExtractorMain {
     }
     
     /**
-     * Creates a file for the specified zip entry.
+     * Returns the file that will be created for the specified zip entry.
      * 
-     * @param jar
-     *   The jar (as an input stream) to read the entry from.
      * @param entry
      *   The zip entry.
-     * @throws java.lang.Exception
-     *   If we fail to create a file for the specified zip entry.
+     * @return
+     *   The file that will be created for the specified zip entry.
      */
-    private void mkFile(final ZipInputStream jar, final ZipEntry entry) throws Exception {
-        System.out.println("extracting: " + entry.getName());
-
-        BufferedOutputStream out = new BufferedOutputStream(
-                new FileOutputStream(
-                outputDirectoryName + "plsql-core" + File.separator + entry.getName()));
-
-        byte[] data = new byte[IO_BUFFER_SIZE];
-
-        for (int i = jar.read(data, 0, data.length); i != -1; i = jar.read(data, 0, data.length)) {
-            out.write(data, 0, i);
-        }
-
-        out.flush();
-        out.close();
-
+    private File getFile(final ZipEntry entry) {
+        return new File(outputDirectoryName + "plsql-core" + File.separator + entry.getName());
     }
     
     /**
-     * Extracts the contents of this jar using the specified zip entry filter.
+     * Returns true if incremental extraction is enabled and the specified file has the same
+     * size and CRC-32 as the specified zip entry.
      * 
-     * @param filter
-     *   Only entries that are included by this filter will be extracted.
+     * @param file
+     *   The file to check.
+     * @param entry
+     *   The zip entry.
+     * @return
+     *   true if the file does not need to be written.
      * @throws java.lang.Exception
-     *   If the extract fails.
+     *   If we fail to read the file.
      */
-    private void extract(final ZipEntryFilter filter) throws Exception {
-        mkDir("plsql-core");
-
-        // get the URI for the jar that classFromJar is in
-        URI jarUri = classFromJar.getProtectionDomain().
-                    getCodeSource().
-                    getLocation().
-                    toURI();
+    private boolean isUpToDate(final File file, final ZipEntry entry) throws Exception {
+        if (!incremental || 
+                entry.getSize() == -1 || entry.getCrc() == -1 ||
+                !file.isFile() || file.length() != entry.getSize()) {
+            return false;
+        }
         
-        ZipInputStream jar = new ZipInputStream(
-                new BufferedInputStream(
-                new FileInputStream(
-                new File(jarUri))));
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        byte[] data = BufferPool.SHARED.acquire(entry.getSize());
         
-        for (ZipEntry entry = jar.getNextEntry(); entry != null; entry = jar.getNextEntry()) {
-            if (!filter.include(entry)) {
-                continue;
+        try {
+            for (int i = in.read(data, 0, data.length); 
+                    i != -1; 
+                    i = in.read(data, 0, data.length)) {
+                crc.update(data, 0, i);
             }
             
-            if (entry.isDirectory()) {
-                mkDir("plsql-core" + File.separator + entry.getName());
-                
-            } else {
-                mkFile(jar, entry);
-                
-            }
+        } finally {
+            in.close();
+            BufferPool.SHARED.release(data);
             
         }
         
-        jar.close();
+        return crc.getValue() == entry.getCrc();
         
     }
-
-    /**
-     * Extracts all SQL from this jar.
-     * 
-     * @throws java.lang.Exception
-     *   If the extract fails.
-     */
-    public void extract() throws Exception {
-        extract(DEFAULT_ZIP_ENTRY_FILTER);
-    }
     
     /**
-     * Extracts all SQL from this jar if the SQL project name can be found in the specified list.
+     * Writes a manifest (see Manifest) to each directory that files were extracted to. 
+     * Each manifest lists the files extracted to its directory.
+     * <br/>
+     * Only files written by this extract (and files missing from the existing manifest) are 
+     * hashed - entries for files that were up to date are kept from the existing manifest. 
+     * The manifest of a directory in which nothing changed is not written. 
+     * Files are hashed using threadCount threads.
      * 
-     * @param includes
-     *   A list of SQL project names to extract.
+     * @param files
+     *   The file entries that were extracted.
      * @throws java.lang.Exception
-     *   If the extract fails.
+     *   If we fail to read an extracted file or write a manifest.
      */
-    public void extract(final List<String> includes) throws Exception {
-        extract(new ZipEntryFilter() {
-            public boolean include(final ZipEntry entry) {
-                if (!DEFAULT_ZIP_ENTRY_FILTER.include(entry)) {
-                    return false;
+    private void writeManifests(final List<ZipEntry> files) throws Exception {
+        Map<File, List<String>> modules = new LinkedHashMap<File, List<String>>();
+        
+        for (ZipEntry entry : files) {
+            File dir = getFile(entry).getParentFile();
+            List<String> fileNames = modules.get(dir);
+            
+            if (fileNames == null) {
+                fileNames = new ArrayList<String>();
+                modules.put(dir, fileNames);
+            }
+            
+            fileNames.add(entry.getName().substring(entry.getName().lastIndexOf('/') + 1));
+            
+        }
+        
+        Map<File, Manifest> manifests = new HashMap<File, Manifest>();
+        Map<File, List<String>> changed = new LinkedHashMap<File, List<String>>();
+        
+        for (Map.Entry<File, List<String>> module : modules.entrySet()) {
+            Manifest manifest = readManifest(module.getKey());
+            List<String> toHash = new ArrayList<String>();
+            
+            for (String fileName : module.getValue()) {
+                File file = new File(module.getKey(), fileName);
+                Manifest.Entry entry = (manifest == null) ? null : manifest.get(fileName);
+                
+                if (entry == null || entry.getSize() != file.length() || 
+                        writtenFiles.contains(file)) {
+                    toHash.add(fileName);
                 }
-                String name = entry.getName();
-                // 6 = "plsql/".length()
-                int secondForwardSlash = name.indexOf("/", 6);
-                if (secondForwardSlash < 0) {
-                    return false;
+                
+            }
+            
+            if (manifest != null && toHash.isEmpty() && 
+                    manifest.getFileNames().equals(new HashSet<String>(module.getValue()))) {
+                continue;
+            }
+            
+            manifests.put(module.getKey(), (manifest == null) ? new Manifest() : manifest);
+            changed.put(module.getKey(), toHash);
+            
+        }
+        
+        Map<File, Manifest> hashed = new ManifestVerifier(threadCount).create(changed);
+        
+        for (File dir : changed.keySet()) {
+            Manifest manifest = manifests.get(dir);
+            Set<String> fileNames = new HashSet<String>(modules.get(dir));
+            
+            for (String fileName : manifest.getFileNames()) {
+                if (!fileNames.contains(fileName)) {
+                    manifest.remove(fileName);
                 }
-                return includes.contains(
-                        name.substring(6, name.indexOf("/", 6)));
             }
-        });
+            
+            Manifest update = hashed.get(dir);
+            
+            for (String fileName : update.getFileNames()) {
+                Manifest.Entry entry = update.get(fileName);
+                manifest.put(fileName, entry.getSha256(), entry.getSize());
+            }
+            
+            manifest.write(new File(dir, Manifest.FILE_NAME));
+            
+        }
+        
+        System.out.println("manifests written: " + changed.size() + 
+                ", unchanged: " + (modules.size() - changed.size()));
+        
     }
     
     /**
-     * Extracts all SQL from this jar if the SQL project name can be found in the specified array.
+     * Reads the manifest of the specified directory.
      * 
-     * @param includes
-     *   A list of SQL project names to extract.
-     * @throws java.lang.Exception
-     *   If the extract fails.
+     * @param dir
+     *   The directory to read the manifest from.
+     * @return
+     *   The manifest or null if the directory does not have a valid manifest.
      */
-    public void extract(final String[] includes) throws Exception {
-        extract(Arrays.asList(includes));
+    private static Manifest readManifest(final File dir) {
+        File file = new File(dir, Manifest.FILE_NAME);
+        
+        if (!file.isFile()) {
+            return null;
+        }
+        
+        try {
+            return Manifest.read(file);
+            
+        } catch (IOException ex) {
+            System.out.println("not using manifest: " + ex.getMessage());
+            return null;
+            
+        }
+        
     }
     
     /**
-     * Extracts all SQL from this jar if the SQL project name can be found in the specified file.
-     * The file can contain any number of lines with one SQL project name on each line.
+     * Passes the specified entry of a jar, and a stream of its data, to a sink.
+     * <br/>
+     * If we have a record for the entry, the entry data is read from the channel using 
+     * positional reads (so the data of stored entries can be transferred directly from the 
+     * jar to a file). Otherwise, the entry data is read using the zip file.
      * 
-     * @param includes
-     *   A file containing a list of SQL project names to extract.
+     * @param jar
+     *   The jar to read the entry from. 
+     *   Can be null if we have a record for the entry.
+     * @param channel
+     *   The channel to read the jar from.
+     * @param records
+     *   Records for the entries of the jar keyed by entry name. Can be null.
+     * @param entry
+     *   The zip entry.
+     * @param sink
+     *   The sink to pass the entry to.
      * @throws java.lang.Exception
-     *   If the extract fails.
+     *   If we fail to read the entry or the sink fails.
      */
-    public void extract(final File includes) throws Exception {
-        List<String> includeList = new ArrayList<String>();
-        BufferedReader reader = new BufferedReader(new FileReader(includes));
-        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
-            includeList.add(line);
+    private void extractFile(final ZipFile jar, final FileChannel channel, 
+            final Map<String, ZipDirectory.Record> records, final ZipEntry entry, 
+            final ExtractSink sink) throws Exception {
+        ZipDirectory.Record record = (records == null) ? null : records.get(entry.getName());
+        
+        InputStream in = (record != null && 
+                (jar == null || record.getMethod() == ZipEntry.STORED))
+                ? ZipDirectory.openStream(channel, record, BufferPool.SHARED)
+                : jar.getInputStream(entry);
+        
+        try {
+            sink.file(entry, in);
+            
+        } finally {
+            in.close();
+            
         }
-        reader.close();
-        extract(includeList);
+        
     }
     
     /**
-     * Extracts SQL from this jar to the location specified by the system property 
-     * plsql-core.baseDir. A null value for this property means the working directory.
-     * <br/>
-     * If command line arguments are specified, we call extract(String[]).
-     * i.e. We use includes specified on the command line.
-     * <br/>
-     * Otherwise, if plsql-core-include.txt can be found in the current directory, 
-     * we call extract(File).
-     * i.e. We use includes specified in plsql-core-include.txt.
-     * <br/>
-     * Otherwise, we call extract().
-     * i.e. We do not use includes and everything is extracted.
+     * Removes files from the extracted directories that are not in the jar.
+     * Sub-directories of the extracted directories are not removed.
      * 
-     * @param args 
-     *   A space separated set of SQL project names (optional).
+     * @param directories
+     *   The directory entries that were extracted.
+     * @param files
+     *   The file entries that were extracted.
      * @throws java.lang.Exception
-     *   If the extract fails.
+     *   If we fail to remove a file.
      */
-    public static void main(final String[] args) throws Exception {
+    private void removeStaleFiles(final List<ZipEntry> directories, final List<ZipEntry> files) 
+            throws Exception {
+        Set<File> extracted = new HashSet<File>();
         
-        if (System.getProperty("plsql-core.gui") != null) {
-            throw new RuntimeException("can't do GUI yet");
+        for (ZipEntry entry : files) {
+            extracted.add(getFile(entry).getCanonicalFile());
         }
         
-        ExtractorMain app = new ExtractorMain();
-        
-        if (System.getProperty("plsql-core.baseDir") != null) {
-            app.setOutputDirectoryName(System.getProperty("plsql-core.baseDir"));
+        for (ZipEntry entry : directories) {
+            File[] existing = getFile(entry).listFiles();
+            
+            if (existing == null) {
+                continue;
+            }
+            
+            for (File file : existing) {
+                if (!file.isFile() || extracted.contains(file.getCanonicalFile()) ||
+                        Manifest.FILE_NAME.equals(file.getName())) {
+                    continue;
+                }
+                
+                if (file.delete()) {
+                    System.out.println("removed: " + file.getCanonicalPath());
+                    removedCount.incrementAndGet();
+                    
+                } else {
+                    throw new RuntimeException(
+                            "failed to remove file: " + file.getCanonicalPath());
+                    
+                }
+                
+            }
+            
         }
         
-        if (args != null && args.length != 0) {
-            System.out.println("using includes specified on command line");
-            app.extract(args);
+    }
+    
+    /**
+     * Passes each of the specified entries of a jar to a sink using threadCount threads.
+     * <br/>
+     * All entries are attempted before this method returns. 
+     * If any entries could not be extracted, the exception for the first of these entries 
+     * (in the order specified) is thrown - regardless of the order in which the files were 
+     * written.
+     * 
+     * @param jar
+     *   The jar to read the entries from. 
+     *   Can be null if we have a record for every entry.
+     * @param channel
+     *   The channel to read the jar from.
+     * @param records
+     *   Records for the entries of the jar keyed by entry name. Can be null.
+     * @param entries
+     *   The zip entries.
+     * @param sink
+     *   The sink to pass the entries to.
+     * @throws java.lang.Exception
+     *   If we fail to extract any of the specified zip entries.
+     */
+    private void extractFiles(final ZipFile jar, final FileChannel channel, 
+            final Map<String, ZipDirectory.Record> records, final List<ZipEntry> entries, 
+            final ExtractSink sink) throws Exception {
+        ExecutorService executor = 
+                Executors.newFixedThreadPool(Math.min(threadCount, entries.size()));
+        
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
             
-        } else {
-            File includeFile = new File("plsql-core-include.txt");
-            if (includeFile.isFile()) {
-                System.out.println("using includes from " + includeFile.getCanonicalPath());
-                app.extract(includeFile);
+            for (final ZipEntry entry : entries) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        extractFile(jar, channel, records, entry, sink);
+                        return null;
+                    }
+                }));
                 
-            } else {
-                System.out.println("include all");
-                app.extract();
+            }
+            
+            // wait for every entry before reporting the first failure (in jar order)
+            Throwable failure = null;
+            
+            for (Future<Object> result : results) {
+                try {
+                    result.get();
+                    
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+                    
+                }
+                
+            }
+            
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+                
+            } else if (failure != null) {
+                throw (Error) failure;
                 
             }
             
+        } finally {
+            executor.shutdownNow();
+            
         }
         
     }
-
+    
     /**
-     * Specifies behaviour of classes that can filter zip entries.
+     * Returns the jar file that we will extract from.
+     * 
+     * @return
+     *   The jar file specified when this instance was created or 
+     *   the jar file that classFromJar is in.
+     * @throws java.lang.Exception
+     *   If we fail to find the jar file that classFromJar is in.
      */
-    private static interface ZipEntryFilter {
+    private File getJarFile() throws Exception {
+        if (jarFile != null) {
+            return jarFile;
+        }
         
-        /**
-         * Return true if the specified zip entry should be included, false otherwise.
-         * 
+        // get the URI for the jar that classFromJar is in
+        URI jarUri = classFromJar.getProtectionDomain().
+                    getCodeSource().
+                    getLocation().
+                    toURI();
+        
+        return new File(jarUri);
+        
+    }
+    
+    /**
+     * Extracts the contents of this jar using the specified zip entry filter.
+     * 
+     * @param filter
+     *   Only entries that are included by this filter will be extracted.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    private void extract(final ZipEntryFilter filter) throws Exception {
+        writtenCount.set(0);
+        skippedCount.set(0);
+        removedCount.set(0);
+        writtenFiles.clear();
+        
+        mkDir("plsql-core");
+        
+        List<ZipEntry> directories = new ArrayList<ZipEntry>();
+        List<ZipEntry> files = new ArrayList<ZipEntry>();
+        
+        extract(filter, new FileSystemSink(), directories, files);
+        
+        if (incremental) {
+            removeStaleFiles(directories, files);
+        }
+        
+        writeManifests(files);
+        
+        System.out.println("written: " + writtenCount + 
+                ", skipped: " + skippedCount + 
+                ", removed: " + removedCount);
+        
+    }
+    
+    /**
+     * Passes the contents of this jar to a sink using the specified zip entry filter.
+     * 
+     * @param filter
+     *   Only entries that are included by this filter will be extracted.
+     * @param sink
+     *   The sink to pass the entries to.
+     * @param directories
+     *   The list to which extracted directory entries will be added.
+     * @param files
+     *   The list to which extracted file entries will be added.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    private void extract(final ZipEntryFilter filter, final ExtractSink sink, 
+            final List<ZipEntry> directories, final List<ZipEntry> files) throws Exception {
+        if (randomAccess) {
+            extractRandomAccess(filter, sink, directories, files);
+            
+        } else {
+            extractSequential(filter, sink, directories, files);
+            
+        }
+        
+    }
+    
+    /**
+     * Passes the contents of this jar to a sink using the specified zip entry filter, 
+     * reading every entry in the jar in turn.
+     * 
+     * @param filter
+     *   Only entries that are included by this filter will be extracted.
+     * @param sink
+     *   The sink to pass the entries to.
+     * @param directories
+     *   The list to which extracted directory entries will be added.
+     * @param files
+     *   The list to which extracted file entries will be added.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    private void extractSequential(final ZipEntryFilter filter, final ExtractSink sink, 
+            final List<ZipEntry> directories, final List<ZipEntry> files) throws Exception {
+        File jarFile = getJarFile();
+        final ZipInputStream jar = new ZipInputStream(
+                BufferPool.SHARED.buffer(
+                new FileInputStream(jarFile), jarFile.length()));
+        
+        // the sink gets a stream for each entry. closing it must not close the jar
+        InputStream entryStream = new FilterInputStream(jar) {
+            @Override
+            public void close() throws IOException {
+                jar.closeEntry();
+            }
+        };
+        
+        try {
+            for (ZipEntry entry = jar.getNextEntry(); 
+                    entry != null; 
+                    entry = jar.getNextEntry()) {
+                if (!filter.include(entry)) {
+                    continue;
+                }
+                
+                if (entry.isDirectory()) {
+                    sink.directory(entry);
+                    directories.add(entry);
+                    
+                } else {
+                    sink.file(entry, entryStream);
+                    files.add(entry);
+                    
+                }
+                
+            }
+            
+        } finally {
+            jar.close();
+            
+        }
+        
+    }
+    
+    /**
+     * Passes the contents of this jar to a sink using the specified zip entry filter, 
+     * selecting entries up front so that only the selected entries are read.
+     * <br/>
+     * If the jar has a module index, entries are selected using the index and read using 
+     * the offsets recorded in the index. Otherwise, entries are selected using the zip 
+     * central directory.
+     * 
+     * @param filter
+     *   Only entries that are included by this filter will be extracted.
+     * @param sink
+     *   The sink to pass the entries to.
+     * @param directories
+     *   The list to which extracted directory entries will be added.
+     * @param files
+     *   The list to which extracted file entries will be added.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    private void extractRandomAccess(final ZipEntryFilter filter, final ExtractSink sink, 
+            final List<ZipEntry> directories, final List<ZipEntry> files) throws Exception {
+        FileChannel channel = new RandomAccessFile(getJarFile(), "r").getChannel();
+        ZipFile jar = null;
+        
+        try {
+            ModuleIndex index = readModuleIndex(channel);
+            
+            // records for the selected entries (if we have them) keyed by entry name
+            Map<String, ZipDirectory.Record> records = (index == null) 
+                    ? null 
+                    : selectRecords(channel, index, filter);
+            
+            // pick the entries to extract up front.
+            // directories are passed to the sink as we go so that files can be written in 
+            // any order
+            if (records != null) {
+                for (ZipDirectory.Record record : records.values()) {
+                    ZipEntry entry = record.toZipEntry();
+                    
+                    if (entry.isDirectory()) {
+                        sink.directory(entry);
+                        directories.add(entry);
+                        
+                    } else {
+                        files.add(entry);
+                        
+                    }
+                    
+                }
+                
+            } else {
+                // this reads the central directory only
+                jar = new ZipFile(getJarFile());
+                
+                for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+                    ZipEntry entry = e.nextElement();
+                    if (!filter.include(entry)) {
+                        continue;
+                    }
+                    
+                    if (entry.isDirectory()) {
+                        sink.directory(entry);
+                        directories.add(entry);
+                        
+                    } else {
+                        files.add(entry);
+                        
+                    }
+                    
+                }
+                
+                // stored entries are read straight from the jar (so they can be transferred 
+                // to a file), which needs the record from the central directory
+                for (ZipEntry entry : files) {
+                    if (entry.getMethod() == ZipEntry.STORED) {
+                        try {
+                            records = new ZipDirectory(channel).getRecordMap();
+                            
+                        } catch (ZipException ex) {
+                            System.out.println("not using zip directory: " + ex.getMessage());
+                            
+                        }
+                        break;
+                        
+                    }
+                    
+                }
+                
+            }
+            
+            if (threadCount == 1 || files.size() < 2) {
+                for (ZipEntry entry : files) {
+                    extractFile(jar, channel, records, entry, sink);
+                    
+                }
+                
+            } else {
+                extractFiles(jar, channel, records, files, sink);
+                
+            }
+            
+        } finally {
+            channel.close();
+            
+            if (jar != null) {
+                jar.close();
+            }
+            
+        }
+        
+    }
+    
+    /**
+     * Reads the module index of the jar that the specified channel is reading.
+     * 
+     * @param channel
+     *   The channel to read the jar from.
+     * @return
+     *   The module index or null if the jar does not have a (valid) module index.
+     * @throws java.lang.Exception
+     *   If we fail to read the jar.
+     */
+    private ModuleIndex readModuleIndex(final FileChannel channel) throws Exception {
+        try {
+            return ModuleIndex.read(channel);
+            
+        } catch (IOException ex) {
+            System.out.println("not using module index: " + ex.getMessage());
+            return null;
+            
+        } catch (RuntimeException ex) {
+            System.out.println("not using module index: " + ex);
+            return null;
+            
+        }
+        
+    }
+    
+    /**
+     * Returns the records of the module index that are included by the specified filter.
+     * The local file header of each selected file is read (and the position of the file data 
+     * kept by the record) so that a stale index is found before anything is extracted.
+     * 
+     * @param channel
+     *   The channel to read the jar from.
+     * @param index
+     *   The module index of the jar.
+     * @param filter
+     *   Only entries that are included by this filter will be selected.
+     * @return
+     *   The selected records (in index order) keyed by entry name or null if the index does 
+     *   not match the jar.
+     * @throws java.lang.Exception
+     *   If we fail to read the jar.
+     */
+    private Map<String, ZipDirectory.Record> selectRecords(final FileChannel channel, 
+            final ModuleIndex index, final ZipEntryFilter filter) throws Exception {
+        Map<String, ZipDirectory.Record> result = 
+                new LinkedHashMap<String, ZipDirectory.Record>();
+        
+        for (String module : index.getAllModules()) {
+            if (!filter.includeModule(module)) {
+                continue;
+            }
+            
+            for (ZipDirectory.Record record : index.getRecords(module)) {
+                if (!filter.include(record.toZipEntry())) {
+                    continue;
+                }
+                
+                if (!record.isDirectory()) {
+                    try {
+                        ZipDirectory.getDataOffset(channel, record);
+                        
+                    } catch (IOException ex) {
+                        System.out.println("not using module index: " + ex.getMessage());
+                        return null;
+                        
+                    }
+                    
+                }
+                
+                result.put(record.getName(), record);
+                
+            }
+            
+        }
+        
+        return result;
+        
+    }
+    
+    /**
+     * Returns the names of all SQL modules in this jar (in jar order).
+     * Sub-modules, such as properties/admin, are included.
+     * <br/>
+     * If the jar has a module index, only the index is read.
+     * 
+     * @return
+     *   The names of all SQL modules in this jar.
+     * @throws java.lang.Exception
+     *   If we fail to read the jar.
+     */
+    public List<String> getModules() throws Exception {
+        FileChannel channel = new RandomAccessFile(getJarFile(), "r").getChannel();
+        
+        try {
+            ModuleIndex index = readModuleIndex(channel);
+            if (index != null) {
+                return index.getModules();
+            }
+            
+        } finally {
+            channel.close();
+            
+        }
+        
+        Set<String> result = new LinkedHashSet<String>();
+        ZipFile jar = new ZipFile(getJarFile());
+        
+        try {
+            for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+                String module = ModuleIndex.getModuleName(e.nextElement().getName());
+                if (module != null && module.length() != 0) {
+                    result.add(module);
+                }
+                
+            }
+            
+        } finally {
+            jar.close();
+            
+        }
+        
+        return new ArrayList<String>(result);
+        
+    }
+
+    /**
+     * Extracts all SQL from this jar.
+     * 
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract() throws Exception {
+        extract(DEFAULT_ZIP_ENTRY_FILTER);
+    }
+    
+    /**
+     * Extracts all SQL from this jar if the SQL project name can be found in the specified list.
+     * <br/>
+     * Includes can be SQL project names (e.g. logger), sub-project names 
+     * (e.g. properties/admin) or glob patterns (e.g. logger*) where * matches any number of 
+     * characters and ? matches exactly one character (neither will match a forward slash).
+     * 
+     * @param includes
+     *   A list of SQL project names (or glob patterns) to extract.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract(final List<String> includes) throws Exception {
+        extract(new IncludeFilter(includes));
+    }
+    
+    /**
+     * Extracts all SQL from this jar if the SQL project name can be found in the specified array.
+     * 
+     * @param includes
+     *   A list of SQL project names to extract.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract(final String[] includes) throws Exception {
+        extract(Arrays.asList(includes));
+    }
+    
+    /**
+     * Extracts all SQL from this jar if the SQL project name can be found in the specified file.
+     * The file can contain any number of lines with one SQL project name on each line.
+     * 
+     * @param includes
+     *   A file containing a list of SQL project names to extract.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract(final File includes) throws Exception {
+        extract(readIncludes(includes));
+    }
+    
+    /**
+     * Returns the lines of the specified file. 
+     * 
+     * @param includes
+     *   A file containing a list of SQL project names.
+     * @return
+     *   The lines of the file.
+     * @throws java.lang.Exception
+     *   If we fail to read the file.
+     */
+    private static List<String> readIncludes(final File includes) throws Exception {
+        List<String> includeList = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(includes));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            includeList.add(line);
+        }
+        reader.close();
+        return includeList;
+    }
+    
+    /**
+     * Passes all SQL from this jar to the specified sink. Nothing is written to the output 
+     * directory and the counts of written, skipped and removed files are not changed.
+     * 
+     * @param sink
+     *   The sink to pass the SQL to.
+     * @throws NullPointerException
+     *   If sink is null.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract(final ExtractSink sink) throws NullPointerException, Exception {
+        if (sink == null) {
+            throw new NullPointerException("sink should not be null");
+        }
+        extract(DEFAULT_ZIP_ENTRY_FILTER, sink, 
+                new ArrayList<ZipEntry>(), new ArrayList<ZipEntry>());
+    }
+    
+    /**
+     * Passes all SQL from this jar to the specified sink if the SQL project name matches the 
+     * specified includes (see extract(List)). Nothing is written to the output directory and 
+     * the counts of written, skipped and removed files are not changed.
+     * 
+     * @param includes
+     *   A list of SQL project names (or glob patterns) to extract.
+     * @param sink
+     *   The sink to pass the SQL to.
+     * @throws NullPointerException
+     *   If sink is null.
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public void extract(final List<String> includes, final ExtractSink sink) 
+            throws NullPointerException, Exception {
+        if (sink == null) {
+            throw new NullPointerException("sink should not be null");
+        }
+        extract(new IncludeFilter(includes), sink, 
+                new ArrayList<ZipEntry>(), new ArrayList<ZipEntry>());
+    }
+    
+    /**
+     * Returns the names of the SQL modules that match the specified includes.
+     * Modules are returned in the order of the includes that they match (modules that match
+     * the same include are returned in jar order).
+     * 
+     * @param includes
+     *   A list of SQL project names (or glob patterns). 
+     *   Pass null to get all modules that are not sub-modules.
+     * @return
+     *   The names of the SQL modules that match the includes.
+     * @throws java.lang.Exception
+     *   If we fail to read the jar.
+     */
+    private List<String> getModules(final List<String> includes) throws Exception {
+        List<String> modules = getModules();
+        Set<String> result = new LinkedHashSet<String>();
+        
+        if (includes == null) {
+            for (String module : modules) {
+                if (DEFAULT_ZIP_ENTRY_FILTER.includeModule(module)) {
+                    result.add(module);
+                }
+            }
+            
+        } else {
+            for (String include : includes) {
+                IncludeMatcher matcher = new IncludeMatcher(Collections.singletonList(include));
+                
+                for (String module : modules) {
+                    if (matcher.matches(module)) {
+                        result.add(module);
+                    }
+                }
+                
+            }
+            
+        }
+        
+        return new ArrayList<String>(result);
+        
+    }
+    
+    /**
+     * Checks the SQL extracted to the output directory against the manifests written by 
+     * the extract (see ManifestVerifier). Files are hashed using threadCount threads.
+     * <br/>
+     * Each file that does not match is printed, followed by a summary.
+     * 
+     * @return
+     *   One line for each file that does not match (e.g. modified: plsql/logger/logger.spc).
+     *   An empty list if every extracted file matches its manifest.
+     * @throws java.lang.Exception
+     *   If nothing has been extracted to the output directory or we fail to read a file.
+     */
+    public List<String> verify() throws Exception {
+        ManifestVerifier verifier = new ManifestVerifier(threadCount);
+        List<String> drift = verifier.verify(new File(outputDirectoryName + "plsql-core"));
+        
+        for (String line : drift) {
+            System.out.println(line);
+        }
+        
+        System.out.println("verified: " + verifier.getVerifiedCount() + 
+                " file(s) in " + verifier.getManifestCount() + " module(s), " +
+                "not matching: " + drift.size());
+        
+        return drift;
+        
+    }
+    
+    /**
+     * Writes one flattened install script for each SQL module that matches the specified 
+     * includes. The script for a module is the build.sql of the module with every @@ 
+     * reference replaced by the script it references (see ScriptFlattener).
+     * <br/>
+     * The script for a module is written to plsql-core/install/[module name].sql in the 
+     * output directory. Modules that do not have a build.sql are skipped.
+     * 
+     * @param includes
+     *   A list of SQL project names (or glob patterns). 
+     *   Pass null to write scripts for all modules that are not sub-modules.
+     * @param defines
+     *   The values of substitution variables used in @@ references. Can be null.
+     * @throws java.lang.Exception
+     *   If we fail to write the scripts.
+     */
+    public void flatten(final List<String> includes, final Map<String, String> defines) 
+            throws Exception {
+        ZipFile jar = new ZipFile(getJarFile());
+        
+        try {
+            ScriptFlattener flattener = new ScriptFlattener(jar, defines);
+            
+            for (String module : getModules(includes)) {
+                String buildScript = "plsql/" + module + "/build.sql";
+                
+                if (jar.getEntry(buildScript) == null) {
+                    System.out.println("no build.sql: " + module);
+                    continue;
+                }
+                
+                String name = "plsql-core" + File.separator + "install" + File.separator + 
+                        module.replace('/', File.separatorChar) + ".sql";
+                mkDir(new File(name).getParent());
+                File file = new File(outputDirectoryName + name);
+                
+                System.out.println("flattening: " + buildScript);
+                
+                FileOutputStream out = new FileOutputStream(file);
+                
+                try {
+                    flattener.flatten(buildScript, out);
+                    
+                } finally {
+                    out.close();
+                    
+                }
+                
+            }
+            
+        } finally {
+            jar.close();
+            
+        }
+        
+    }
+    
+    /**
+     * Writes a single flattened install script for all of the SQL modules that match the
+     * specified includes to the specified stream. The stream is not closed.
+     * <br/>
+     * The build.sql of each module, with every @@ reference replaced by the script it 
+     * references (see ScriptFlattener), is written in the order returned by 
+     * getModules(List). Modules that do not have a build.sql are skipped.
+     * 
+     * @param includes
+     *   A list of SQL project names (or glob patterns). 
+     *   Pass null to include all modules that are not sub-modules.
+     * @param defines
+     *   The values of substitution variables used in @@ references. Can be null.
+     * @param out
+     *   The stream to write the script to.
+     * @throws java.lang.Exception
+     *   If we fail to write the script.
+     */
+    public void flatten(final List<String> includes, final Map<String, String> defines, 
+            final OutputStream out) throws Exception {
+        ZipFile jar = new ZipFile(getJarFile());
+        
+        try {
+            ScriptFlattener flattener = new ScriptFlattener(jar, defines);
+            
+            for (String module : getModules(includes)) {
+                String buildScript = "plsql/" + module + "/build.sql";
+                
+                if (jar.getEntry(buildScript) == null) {
+                    System.out.println("no build.sql: " + module);
+                    continue;
+                }
+                
+                System.out.println("flattening: " + buildScript);
+                flattener.flatten(buildScript, out);
+                
+            }
+            
+        } finally {
+            jar.close();
+            
+        }
+        
+    }
+    
+    /**
+     * Extracts SQL from this jar to the location specified by the system property 
+     * plsql-core.baseDir. A null value for this property means the working directory.
+     * <br/>
+     * Set the system property plsql-core.randomAccess to false to read every entry in
+     * the jar in turn (rather than using the zip central directory to select entries).
+     * <br/>
+     * Set the system property plsql-core.threads to the number of threads that should be used
+     * to write files (random access extraction only).
+     * <br/>
+     * Set the system property plsql-core.incremental to true to write only those files that
+     * have changed (and remove files that are no longer in the jar).
+     * <br/>
+     * Set the system properties plsql-core.maxBufferSize and plsql-core.pooledBuffers to limit
+     * the size and number of IO buffers that are kept for reuse (see BufferPool).
+     * <br/>
+     * If the only command line argument is --list, we print the names of all SQL modules in
+     * this jar. Nothing is extracted.
+     * <br/>
+     * If the only command line argument is --verify, we check the SQL extracted to the output 
+     * directory against the manifests written by the extract (see verify()) and fail if 
+     * any file does not match. Files are hashed using one thread per processor unless 
+     * plsql-core.threads is set. Nothing is extracted.
+     * <br/>
+     * Otherwise, if the system property plsql-core.watch is set to the name of a directory 
+     * that holds SQL modules (e.g. src/main/sql), changes to the modules are copied to the 
+     * output directory until the process is stopped 
+     * (see watch(ExtractorMain, String, String[])).
+     * <br/>
+     * Otherwise, if the system property plsql-core.flatten is set, flattened install scripts 
+     * are written instead of extracting SQL (see flatten(ExtractorMain, String, String[])).
+     * <br/>
+     * Otherwise, if command line arguments are specified, we call extract(String[]).
+     * i.e. We use includes specified on the command line.
+     * <br/>
+     * Otherwise, if plsql-core-include.txt can be found in the current directory, 
+     * we call extract(File).
+     * i.e. We use includes specified in plsql-core-include.txt.
+     * <br/>
+     * Otherwise, we call extract().
+     * i.e. We do not use includes and everything is extracted.
+     * 
+     * @param args 
+     *   A space separated set of SQL project names, --list or --verify (optional).
+     * @throws java.lang.Exception
+     *   If the extract fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        
+        if (System.getProperty("plsql-core.gui") != null) {
+            throw new RuntimeException("can't do GUI yet");
+        }
+        
+        ExtractorMain app = new ExtractorMain();
+        
+        if (System.getProperty("plsql-core.baseDir") != null) {
+            app.setOutputDirectoryName(System.getProperty("plsql-core.baseDir"));
+        }
+        
+        if (System.getProperty("plsql-core.threads") != null) {
+            app.setThreadCount(Integer.parseInt(System.getProperty("plsql-core.threads")));
+        }
+        
+        if (System.getProperty("plsql-core.incremental") != null) {
+            app.setIncremental(
+                    Boolean.parseBoolean(System.getProperty("plsql-core.incremental")));
+        }
+        
+        if (System.getProperty("plsql-core.randomAccess") != null) {
+            app.setRandomAccess(
+                    Boolean.parseBoolean(System.getProperty("plsql-core.randomAccess")));
+        }
+        
+        if (args != null && args.length == 1 && "--list".equals(args[0])) {
+            for (String module : app.getModules()) {
+                System.out.println(module);
+            }
+            
+        } else if (args != null && args.length == 1 && "--verify".equals(args[0])) {
+            if (System.getProperty("plsql-core.threads") == null) {
+                app.setThreadCount(Runtime.getRuntime().availableProcessors());
+            }
+            
+            List<String> drift = app.verify();
+            
+            if (!drift.isEmpty()) {
+                throw new RuntimeException(
+                        drift.size() + " file(s) do not match their manifest");
+            }
+            
+        } else if (System.getProperty("plsql-core.watch") != null) {
+            watch(app, System.getProperty("plsql-core.watch"), args);
+            
+        } else if (System.getProperty("plsql-core.flatten") != null) {
+            flatten(app, System.getProperty("plsql-core.flatten"), args);
+            
+        } else if (args != null && args.length != 0) {
+            System.out.println("using includes specified on command line");
+            app.extract(args);
+            
+        } else {
+            File includeFile = new File("plsql-core-include.txt");
+            if (includeFile.isFile()) {
+                System.out.println("using includes from " + includeFile.getCanonicalPath());
+                app.extract(includeFile);
+                
+            } else {
+                System.out.println("include all");
+                app.extract();
+                
+            }
+            
+        }
+        
+    }
+
+    /**
+     * Writes flattened install scripts to the output directory.
+     * <br/>
+     * If mode is module, one script is written for each module (see flatten(List, Map)).
+     * If mode is all, a single script is written to plsql-core/install.sql.
+     * <br/>
+     * Includes are taken from the command line or plsql-core-include.txt in the same way as 
+     * for an extract. Substitution variables used in @@ references are set using system 
+     * properties named plsql-core.define.[variable name]
+     * (e.g. -Dplsql-core.define.logger_error_body=logger_error_post_10.bdy).
+     * 
+     * @param app
+     *   The extractor to use.
+     * @param mode
+     *   module or all.
+     * @param args
+     *   The command line arguments.
+     * @throws IllegalArgumentException
+     *   If mode is not module or all.
+     * @throws java.lang.Exception
+     *   If we fail to write the scripts.
+     */
+    private static void flatten(final ExtractorMain app, final String mode, final String[] args) 
+            throws IllegalArgumentException, Exception {
+        List<String> includes = getIncludes(args);
+        
+        if ("module".equals(mode)) {
+            app.flatten(includes, ScriptFlattener.getDefines());
+            
+        } else if ("all".equals(mode)) {
+            app.mkDir("plsql-core");
+            OutputStream out = new FileOutputStream(
+                    app.outputDirectoryName + "plsql-core" + File.separator + "install.sql");
+            
+            try {
+                app.flatten(includes, ScriptFlattener.getDefines(), out);
+                
+            } finally {
+                out.close();
+                
+            }
+            
+        } else {
+            throw new IllegalArgumentException(
+                    "plsql-core.flatten should be module or all. found " + mode);
+            
+        }
+        
+    }
+
+    /**
+     * Returns the includes specified on the command line or in plsql-core-include.txt 
+     * (in the same way as for an extract).
+     * 
+     * @param args
+     *   The command line arguments.
+     * @return
+     *   The includes. null if no includes are specified.
+     * @throws java.lang.Exception
+     *   If we fail to read plsql-core-include.txt.
+     */
+    private static List<String> getIncludes(final String[] args) throws Exception {
+        File includeFile = new File("plsql-core-include.txt");
+        
+        if (args != null && args.length != 0) {
+            System.out.println("using includes specified on command line");
+            return Arrays.asList(args);
+            
+        } else if (includeFile.isFile()) {
+            System.out.println("using includes from " + includeFile.getCanonicalPath());
+            return readIncludes(includeFile);
+            
+        }
+        
+        return null;
+        
+    }
+    
+    /**
+     * Keeps the SQL extracted to the output directory in sync with a source directory 
+     * (e.g. src/main/sql) until the process is stopped (see ModuleWatcher).
+     * <br/>
+     * Includes are taken from the command line or plsql-core-include.txt in the same way as 
+     * for an extract. Substitution variables used in @@ references are set using system 
+     * properties named plsql-core.define.[variable name].
+     * <br/>
+     * Set the system properties plsql-core.watch.interval and plsql-core.watch.quietPeriod
+     * to the number of milliseconds between polls of the source directory and the number of
+     * milliseconds that the source directory must not change for before changes are copied.
+     * 
+     * @param app
+     *   The extractor that gives the output directory.
+     * @param sourceDirName
+     *   The name of the directory that holds the modules.
+     * @param args
+     *   The command line arguments.
+     * @throws java.lang.Exception
+     *   If we fail to read the source directory or copy a file.
+     */
+    private static void watch(final ExtractorMain app, final String sourceDirName, 
+            final String[] args) throws Exception {
+        ModuleWatcher watcher = new ModuleWatcher(new File(sourceDirName), 
+                new File(app.outputDirectoryName + "plsql-core" + File.separator + "plsql"),
+                getIncludes(args));
+        
+        if (System.getProperty("plsql-core.watch.interval") != null) {
+            watcher.setPollInterval(
+                    Long.parseLong(System.getProperty("plsql-core.watch.interval")));
+        }
+        
+        if (System.getProperty("plsql-core.watch.quietPeriod") != null) {
+            watcher.setQuietPeriod(
+                    Long.parseLong(System.getProperty("plsql-core.watch.quietPeriod")));
+        }
+        
+        watcher.setDefines(ScriptFlattener.getDefines());
+        watcher.watch();
+        
+    }
+    
+    /**
+     * Specifies behaviour of classes that can filter zip entries.
+     */
+    private static interface ZipEntryFilter {
+        
+        /**
+         * Return true if the specified zip entry should be included, false otherwise.
+         * 
          * @param entry
          *   A zip entry that may or may not be included.
          * @return
@@ -349,6 +1587,17 @@ public class ExtractorMain {
          */
         boolean include(ZipEntry entry);
         
+        /**
+         * Return false if no entries of the named module can be included, true otherwise.
+         * This is used to skip modules when a module index is available.
+         * 
+         * @param module
+         *   The name of a module (as recorded in the module index).
+         * @return
+         *   false if no entries of the named module can be included.
+         */
+        boolean includeModule(String module);
+        
     } // End of interface ZipEntryFilter
     
     /**
@@ -385,6 +1634,171 @@ public class ExtractorMain {
                     forwardSlashPosition == -1;
         }
         
+        /**
+         * Excludes sub-modules (i.e. modules with names that contain a forward slash).
+         * 
+         * @param module
+         *   The name of a module.
+         * @return
+         *   true if the module name does not contain a forward slash.
+         */
+        public boolean includeModule(final String module) {
+            return module.indexOf('/') == -1;
+        }
+        
     };
     
+    /**
+     * A zip entry filter that includes the SQL projects that match a set of includes.
+     * The includes are compiled (once) into an IncludeMatcher.
+     */
+    private static final class IncludeFilter implements ZipEntryFilter {
+        
+        /**
+         * The compiled includes.
+         */
+        private final IncludeMatcher matcher;
+        
+        /**
+         * Creates a new filter for the specified includes.
+         * 
+         * @param includes
+         *   The SQL project names (or glob patterns) to include.
+         */
+        IncludeFilter(final List<String> includes) {
+            this.matcher = new IncludeMatcher(includes);
+        }
+        
+        /**
+         * Includes entries with names that begin with plsql/ and do not end with .txt if the 
+         * SQL project name (the part of the entry name between plsql/ and the last forward
+         * slash) matches the includes.
+         * 
+         * @param entry 
+         *   A zip entry.
+         * @return 
+         *   true if the entry should be included.
+         */
+        public boolean include(final ZipEntry entry) {
+            String name = entry.getName();
+            
+            if (!name.startsWith("plsql/") || name.endsWith(".txt")) {
+                return false;
+            }
+            
+            int end = entry.isDirectory() ? name.length() - 1 : name.lastIndexOf('/');
+            
+            // 6 = "plsql/".length()
+            return end > 6 && matcher.matches(name, 6, end);
+        }
+        
+        /**
+         * Includes modules that match the includes.
+         * 
+         * @param module
+         *   The name of a module.
+         * @return
+         *   true if the module matches the includes.
+         */
+        public boolean includeModule(final String module) {
+            return matcher.matches(module);
+        }
+        
+    } // End of class IncludeFilter
+    
+    /**
+     * The sink that writes entries to the output directory.
+     * <br/>
+     * Files that are up to date (see isUpToDate) are not written. The data of stored entries 
+     * is transferred directly from the jar to the file when possible.
+     */
+    private final class FileSystemSink implements ExtractSink {
+        
+        /**
+         * Creates a directory for the specified entry.
+         * 
+         * @param entry
+         *   A directory entry.
+         * @throws java.lang.Exception
+         *   If we fail to create the directory.
+         */
+        public void directory(final ZipEntry entry) throws Exception {
+            mkDir("plsql-core" + File.separator + entry.getName());
+        }
+        
+        /**
+         * Writes a file for the specified entry.
+         * 
+         * @param entry
+         *   A file entry.
+         * @param data
+         *   A stream that reads the data of the file.
+         * @throws java.lang.Exception
+         *   If we fail to write the file.
+         */
+        public void file(final ZipEntry entry, final InputStream data) throws Exception {
+            File file = getFile(entry);
+            
+            if (isUpToDate(file, entry)) {
+                System.out.println("up to date: " + entry.getName());
+                skippedCount.incrementAndGet();
+                return;
+            }
+            
+            System.out.println("extracting: " + entry.getName());
+            
+            FileOutputStream out = new FileOutputStream(file);
+            
+            try {
+                if (data instanceof ZipDirectory.RegionInputStream) {
+                    ((ZipDirectory.RegionInputStream) data).transferTo(out.getChannel());
+                    
+                } else {
+                    copy(entry, data, out);
+                    
+                }
+                
+            } finally {
+                out.close();
+                
+            }
+            
+            writtenFiles.add(file);
+            writtenCount.incrementAndGet();
+            
+        }
+        
+        /**
+         * Copies the data of an entry to a file using a buffer from the shared buffer pool
+         * (sized from the size of the entry).
+         * 
+         * @param entry
+         *   A file entry.
+         * @param data
+         *   A stream that reads the data of the entry.
+         * @param out
+         *   The stream to write the file.
+         * @throws java.lang.Exception
+         *   If the copy fails.
+         */
+        private void copy(final ZipEntry entry, final InputStream data, 
+                final FileOutputStream out) throws Exception {
+            byte[] buffer = BufferPool.SHARED.acquire(entry.getSize());
+            
+            try {
+                for (int i = data.read(buffer, 0, buffer.length); 
+                        i != -1; 
+                        i = data.read(buffer, 0, buffer.length)) {
+                    out.write(buffer, 0, i);
+                }
+                
+            } finally {
+                BufferPool.SHARED.release(buffer);
+                
+            }
+            
+        }
+        
+    } // End of class FileSystemSink
+    
 } // End of class ExtractorMain
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Matches module names against a set of includes that is compiled once.
+ * <br/>
+ * An include is either a module name (e.g. logger or properties/admin) or a glob pattern
+ * where * matches any number of characters and ? matches exactly one character
+ * (e.g. logger* or properties/*). Neither * nor ? will match a forward slash.
+ * <br/>
+ * Module names are matched against a region of a string so that entry names can be matched
+ * without creating new strings. Module names are found using a hash table (that uses the
+ * same hash function as String) and glob patterns are checked in turn.
+ *
+ * @author peter
+ */
+final class IncludeMatcher {
+
+    /**
+     * The module names to include, hashed by String#hashCode.
+     */
+    private final String[][] table;
+
+    /**
+     * The mask used to turn a hash code into a table index.
+     */
+    private final int mask;
+
+    /**
+     * The glob patterns to include.
+     */
+    private final char[][] patterns;
+
+    /**
+     * Creates a new matcher for the specified includes.
+     * Leading and trailing white-space is removed from each include and empty includes are
+     * ignored.
+     *
+     * @param includes
+     *   The module names and glob patterns to include.
+     * @throws NullPointerException
+     *   If includes is null.
+     */
+    IncludeMatcher(final Collection<String> includes) throws NullPointerException {
+        List<String> names = new ArrayList<String>();
+        List<char[]> patternList = new ArrayList<char[]>();
+
+        for (String include : includes) {
+            if (include == null || include.trim().length() == 0) {
+                continue;
+            }
+
+            include = include.trim();
+
+            if (include.indexOf('*') == -1 && include.indexOf('?') == -1) {
+                names.add(include);
+
+            } else {
+                patternList.add(include.toCharArray());
+
+            }
+
+        }
+
+        // size the table so that it is never more than half full
+        int size = 2;
+        while (size < names.size() * 2) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.table = new String[size][];
+
+        for (String name : names) {
+            int index = name.hashCode() & mask;
+            String[] bucket = table[index];
+
+            if (bucket == null) {
+                table[index] = new String[] {name};
+
+            } else {
+                String[] newBucket = new String[bucket.length + 1];
+                System.arraycopy(bucket, 0, newBucket, 0, bucket.length);
+                newBucket[bucket.length] = name;
+                table[index] = newBucket;
+
+            }
+
+        }
+
+        this.patterns = patternList.toArray(new char[patternList.size()][]);
+
+    }
+
+    /**
+     * Returns true if the specified module name is included.
+     *
+     * @param module
+     *   The module name.
+     * @return
+     *   true if the module name is included.
+     */
+    boolean matches(final String module) {
+        return matches(module, 0, module.length());
+    }
+
+    /**
+     * Returns true if the module name held in the specified region of a string is included.
+     *
+     * @param s
+     *   The string that holds the module name.
+     * @param start
+     *   The index of the first character of the module name.
+     * @param end
+     *   The index after the last character of the module name.
+     * @return
+     *   true if the module name is included.
+     */
+    boolean matches(final String s, final int start, final int end) {
+        int length = end - start;
+
+        // same as String#hashCode
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+
+        String[] bucket = table[hash & mask];
+
+        if (bucket != null) {
+            for (String name : bucket) {
+                if (name.length() == length && s.regionMatches(start, name, 0, length)) {
+                    return true;
+                }
+
+            }
+
+        }
+
+        for (char[] pattern : patterns) {
+            if (matches(pattern, s, start, end)) {
+                return true;
+            }
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns true if the specified glob pattern matches the specified region of a string.
+     *
+     * @param pattern
+     *   The glob pattern.
+     * @param s
+     *   The string to match.
+     * @param start
+     *   The index of the first character to match.
+     * @param end
+     *   The index after the last character to match.
+     * @return
+     *   true if the pattern matches.
+     */
+    private static boolean matches(final char[] pattern, final String s,
+            final int start, final int end) {
+        int p = 0;
+        int i = start;
+        // the position of the last * in the pattern and the position in s that it matched up to
+        int starP = -1;
+        int starI = -1;
+
+        while (i < end) {
+            char c = s.charAt(i);
+
+            if (p < pattern.length && pattern[p] == '*') {
+                starP = p++;
+                starI = i;
+
+            } else if (p < pattern.length &&
+                    (pattern[p] == c || (pattern[p] == '?' && c != '/'))) {
+                p++;
+                i++;
+
+            } else if (starP != -1 && s.charAt(starI) != '/') {
+                // let the last * match one more character and try again
+                p = starP + 1;
+                i = ++starI;
+
+            } else {
+                return false;
+
+            }
+
+        }
+
+        while (p < pattern.length && pattern[p] == '*') {
+            p++;
+        }
+
+        return p == pattern.length;
+
+    }
+
+} // End of class IncludeMatcher
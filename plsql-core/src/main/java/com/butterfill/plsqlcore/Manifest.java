@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The SHA-256 and size of each file of an extracted module.
+ * <br/>
+ * A manifest is written to the directory of each module (as FILE_NAME) by an extract and
+ * read back by ManifestVerifier to check that the files of the module have not changed.
+ * <br/>
+ * A manifest is a UTF-8 text file with one line per file:
+ * <pre>
+ * &lt;sha256&gt; &lt;size&gt; &lt;file name&gt;
+ * </pre>
+ * Lines that start with # are comments. The file name is relative to the module directory
+ * (using forward slashes) and is the rest of the line so it can contain spaces.
+ *
+ * @author peter
+ */
+public final class Manifest {
+
+    /**
+     * The name of the manifest file in each module directory.
+     */
+    public static final String FILE_NAME = "plsql-core.sha256";
+
+    /**
+     * The character set of manifest files.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * The hex digits used to format hashes.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The SHA-256 and size of a file.
+     */
+    public static final class Entry {
+
+        /**
+         * The SHA-256 (in hex) of the file.
+         */
+        private final String sha256;
+
+        /**
+         * The size of the file in bytes.
+         */
+        private final long size;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param sha256
+         *   The SHA-256 (in hex) of the file.
+         * @param size
+         *   The size of the file in bytes.
+         */
+        Entry(final String sha256, final long size) {
+            this.sha256 = sha256;
+            this.size = size;
+        }
+
+        /**
+         * Returns the SHA-256 of the file.
+         *
+         * @return
+         *   The SHA-256 (in lower case hex) of the file.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * Returns the size of the file.
+         *
+         * @return
+         *   The size of the file in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+    } // End of class Entry
+
+    /**
+     * The entries of this manifest keyed by file name.
+     */
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * Adds a file to this manifest (replacing any entry for the same file).
+     *
+     * @param fileName
+     *   The name of the file relative to the module directory.
+     * @param sha256
+     *   The SHA-256 (in hex) of the file.
+     * @param size
+     *   The size of the file in bytes.
+     */
+    public synchronized void put(final String fileName, final String sha256, final long size) {
+        entries.put(fileName.replace('\\', '/'), new Entry(sha256.toLowerCase(), size));
+    }
+
+    /**
+     * Removes a file from this manifest.
+     *
+     * @param fileName
+     *   The name of the file relative to the module directory.
+     */
+    public synchronized void remove(final String fileName) {
+        entries.remove(fileName.replace('\\', '/'));
+    }
+
+    /**
+     * Returns the entry for the specified file.
+     *
+     * @param fileName
+     *   The name of the file relative to the module directory.
+     * @return
+     *   The entry or null if the file is not in this manifest.
+     */
+    public synchronized Entry get(final String fileName) {
+        return entries.get(fileName.replace('\\', '/'));
+    }
+
+    /**
+     * Returns the names of the files in this manifest (in name order).
+     *
+     * @return
+     *   The file names.
+     */
+    public synchronized Set<String> getFileNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(entries.keySet()));
+    }
+
+    /**
+     * Reads the specified manifest file.
+     *
+     * @param file
+     *   The manifest file to read.
+     * @return
+     *   The manifest.
+     * @throws IOException
+     *   If we fail to read the file or it is not a valid manifest.
+     */
+    public static Manifest read(final File file) throws IOException {
+        Manifest result = new Manifest();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), CHARSET));
+
+        try {
+            int lineNumber = 0;
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+
+                if (line.trim().length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] bits = line.split(" ", 3);
+
+                if (bits.length != 3 || !bits[0].matches("[0-9a-fA-F]{64}") ||
+                        !bits[1].matches("[0-9]{1,18}")) {
+                    throw new IOException(
+                            "invalid line " + lineNumber + " in manifest " + file + ": " + line);
+                }
+
+                result.put(bits[2], bits[0], Long.parseLong(bits[1]));
+
+            }
+
+        } finally {
+            reader.close();
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Writes this manifest to the specified file.
+     * The manifest is written to a temporary file which is then renamed.
+     *
+     * @param file
+     *   The file to write.
+     * @throws IOException
+     *   If we fail to write the file.
+     */
+    public synchronized void write(final File file) throws IOException {
+        File temp = File.createTempFile(".manifest", ".part",
+                file.getAbsoluteFile().getParentFile());
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+
+            try {
+                writer.write("# plsql-core manifest: <sha256> <size> <file name>\n");
+
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    writer.write(entry.getValue().getSha256() + " " +
+                            entry.getValue().getSize() + " " + entry.getKey() + "\n");
+                }
+
+            } finally {
+                writer.close();
+
+            }
+
+            // renameTo will not replace an existing file on some platforms
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("failed to write manifest " + file);
+            }
+
+        } finally {
+            temp.delete();
+
+        }
+
+    }
+
+    /**
+     * Returns the specified bytes in lower case hex.
+     *
+     * @param bytes
+     *   The bytes to format.
+     * @return
+     *   Two hex digits for each byte.
+     */
+    static String toHex(final byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(result);
+
+    }
+
+} // End of class Manifest
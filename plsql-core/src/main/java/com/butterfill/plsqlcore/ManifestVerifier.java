@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates manifests for extracted modules and checks extracted modules against their
+ * manifests.
+ * <br/>
+ * Files are hashed using threadCount threads. Files of at least MAP_THRESHOLD bytes are
+ * memory-mapped. Smaller files are read into a pooled buffer (see BufferPool) as mapping a
+ * file costs more than reading a few kilobytes. Files that do not have the size recorded in
+ * the manifest are reported without being hashed.
+ *
+ * @author peter
+ */
+public final class ManifestVerifier {
+
+    /**
+     * The size (in bytes) from which files are memory-mapped.
+     */
+    static final long MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * The maximum number of bytes mapped at a time.
+     */
+    private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The digest used by each thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+
+            } catch (NoSuchAlgorithmException ex) {
+                // SHA-256 is always available
+                throw new RuntimeException(ex);
+
+            }
+
+        }
+    };
+
+    /**
+     * The number of threads used to hash files.
+     */
+    private final int threadCount;
+
+    /**
+     * The number of files checked by the last verify.
+     */
+    private final AtomicInteger verifiedCount = new AtomicInteger();
+
+    /**
+     * The number of manifests read by the last verify.
+     */
+    private final AtomicInteger manifestCount = new AtomicInteger();
+
+    /**
+     * Creates a new verifier that uses one thread for each available processor.
+     */
+    public ManifestVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new verifier.
+     *
+     * @param threadCount
+     *   The number of threads used to hash files.
+     * @throws IllegalArgumentException
+     *   If threadCount is less than 1.
+     */
+    public ManifestVerifier(final int threadCount) throws IllegalArgumentException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Returns the number of files checked by the last verify.
+     *
+     * @return
+     *   The number of files checked by the last verify.
+     */
+    public int getVerifiedCount() {
+        return verifiedCount.get();
+    }
+
+    /**
+     * Returns the number of manifests read by the last verify.
+     *
+     * @return
+     *   The number of manifests read by the last verify.
+     */
+    public int getManifestCount() {
+        return manifestCount.get();
+    }
+
+    /**
+     * Returns the SHA-256 of the specified file.
+     *
+     * @param file
+     *   The file to read.
+     * @return
+     *   The SHA-256 of the file in lower case hex.
+     * @throws IOException
+     *   If we fail to read the file.
+     */
+    public static String sha256(final File file) throws IOException {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        FileChannel channel = new FileInputStream(file).getChannel();
+
+        try {
+            long size = channel.size();
+
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_SIZE) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_SIZE, size - position)));
+                }
+
+            } else {
+                byte[] buffer = BufferPool.SHARED.acquire(size);
+
+                try {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer);
+                    for (int i = channel.read(bytes); i != -1; i = channel.read(bytes)) {
+                        digest.update(buffer, 0, bytes.position());
+                        bytes.clear();
+                    }
+
+                } finally {
+                    BufferPool.SHARED.release(buffer);
+
+                }
+
+            }
+
+        } finally {
+            channel.close();
+
+        }
+
+        return Manifest.toHex(digest.digest());
+
+    }
+
+    /**
+     * Returns the SHA-256 of each of the specified files, hashing the files in parallel.
+     * <br/>
+     * All files are attempted before this method returns. If any file could not be read, the
+     * exception for the first of these files (in the order specified) is thrown.
+     *
+     * @param files
+     *   The files to hash.
+     * @return
+     *   The SHA-256 of each file (in the order specified).
+     * @throws IOException
+     *   If we fail to read any of the files.
+     */
+    private List<String> sha256(final List<File> files) throws IOException {
+        List<String> result = new ArrayList<String>();
+
+        if (threadCount == 1 || files.size() < 2) {
+            for (File file : files) {
+                result.add(sha256(file));
+            }
+            return result;
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(threadCount, files.size()));
+
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return sha256(file);
+                    }
+                }));
+            }
+
+            // wait for every file before reporting the first failure
+            Throwable failure = null;
+
+            for (Future<String> future : futures) {
+                try {
+                    result.add(future.get());
+
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    IOException ioe = new IOException("interrupted while hashing files");
+                    ioe.initCause(ex);
+                    throw ioe;
+
+                }
+
+            }
+
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+
+            } else if (failure != null) {
+                throw (Error) failure;
+
+            }
+
+        } finally {
+            executor.shutdownNow();
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Creates a manifest of the specified files of each of the specified modules.
+     * The files of all modules are hashed together.
+     *
+     * @param modules
+     *   The names of the files (relative to the module directory) keyed by module directory.
+     * @return
+     *   The manifest of each module keyed by module directory.
+     * @throws IOException
+     *   If we fail to read any of the files.
+     */
+    public Map<File, Manifest> create(final Map<File, ? extends Collection<String>> modules)
+            throws IOException {
+        List<File> files = new ArrayList<File>();
+
+        for (Map.Entry<File, ? extends Collection<String>> module : modules.entrySet()) {
+            for (String fileName : module.getValue()) {
+                files.add(new File(module.getKey(), fileName));
+            }
+        }
+
+        List<String> hashes = sha256(files);
+        Map<File, Manifest> result = new LinkedHashMap<File, Manifest>();
+        int i = 0;
+
+        for (Map.Entry<File, ? extends Collection<String>> module : modules.entrySet()) {
+            Manifest manifest = new Manifest();
+
+            for (String fileName : module.getValue()) {
+                manifest.put(fileName, hashes.get(i), files.get(i).length());
+                i++;
+            }
+
+            result.put(module.getKey(), manifest);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Creates a manifest of the specified files of each of the specified modules and writes it
+     * to the directory of the module (as Manifest.FILE_NAME).
+     *
+     * @param modules
+     *   The names of the files (relative to the module directory) keyed by module directory.
+     * @return
+     *   The manifest of each module keyed by module directory.
+     * @throws IOException
+     *   If we fail to read any of the files or write a manifest.
+     */
+    public Map<File, Manifest> write(final Map<File, ? extends Collection<String>> modules)
+            throws IOException {
+        Map<File, Manifest> result = create(modules);
+
+        for (Map.Entry<File, Manifest> entry : result.entrySet()) {
+            entry.getValue().write(new File(entry.getKey(), Manifest.FILE_NAME));
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Adds every manifest file in the specified directory (and its sub-directories) to the
+     * specified list.
+     */
+    private static void findManifests(final File dir, final List<File> result) {
+        File[] children = dir.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findManifests(child, result);
+
+            } else if (Manifest.FILE_NAME.equals(child.getName())) {
+                result.add(child);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the path of the specified file relative to the specified directory
+     * (using forward slashes).
+     */
+    private static String getPath(final File dir, final File file) {
+        String dirPath = dir.getPath();
+        String path = file.getPath();
+
+        if (path.startsWith(dirPath) && path.length() > dirPath.length()) {
+            path = path.substring(dirPath.length() + 1);
+        }
+
+        return path.replace(File.separatorChar, '/');
+
+    }
+
+    /**
+     * Checks every module in the specified directory (and its sub-directories) that has a
+     * manifest against its manifest.
+     * <br/>
+     * A file is reported as modified if its size or SHA-256 does not match the manifest, as
+     * missing if it is in the manifest but not the module directory, and as unexpected if it
+     * is in the module directory (but not a sub-directory) and not in the manifest.
+     *
+     * @param dir
+     *   The directory to check (e.g. the plsql-core directory of an extract).
+     * @return
+     *   One line for each file that does not match (e.g. modified: logger/logger.spc) in path
+     *   order. An empty list if every module matches its manifest.
+     * @throws IOException
+     *   If dir is not a directory, it has no manifests or we fail to read a file.
+     */
+    public List<String> verify(final File dir) throws IOException {
+        verifiedCount.set(0);
+        manifestCount.set(0);
+
+        if (!dir.isDirectory()) {
+            throw new IOException("not a directory: " + dir);
+        }
+
+        List<File> manifestFiles = new ArrayList<File>();
+        findManifests(dir, manifestFiles);
+
+        if (manifestFiles.isEmpty()) {
+            throw new IOException("no manifests found in " + dir);
+        }
+
+        Set<String> result = new TreeSet<String>();
+        List<File> files = new ArrayList<File>();
+        List<String> expected = new ArrayList<String>();
+
+        for (File manifestFile : manifestFiles) {
+            File moduleDir = manifestFile.getParentFile();
+            Manifest manifest = Manifest.read(manifestFile);
+            Set<File> listed = new HashSet<File>();
+            manifestCount.incrementAndGet();
+
+            for (String fileName : manifest.getFileNames()) {
+                File file = new File(moduleDir, fileName);
+                Manifest.Entry entry = manifest.get(fileName);
+                listed.add(file);
+                verifiedCount.incrementAndGet();
+
+                if (!file.isFile()) {
+                    result.add("missing: " + getPath(dir, file));
+
+                } else if (file.length() != entry.getSize()) {
+                    result.add("modified: " + getPath(dir, file));
+
+                } else {
+                    files.add(file);
+                    expected.add(entry.getSha256());
+
+                }
+
+            }
+
+            File[] children = moduleDir.listFiles();
+
+            for (File child : (children == null) ? new File[0] : children) {
+                if (child.isFile() && !listed.contains(child) &&
+                        !Manifest.FILE_NAME.equals(child.getName())) {
+                    result.add("unexpected: " + getPath(dir, child));
+                }
+            }
+
+        }
+
+        List<String> hashes = sha256(files);
+
+        for (int i = 0; i < files.size(); i++) {
+            if (!hashes.get(i).equals(expected.get(i))) {
+                result.add("modified: " + getPath(dir, files.get(i)));
+            }
+        }
+
+        return new ArrayList<String>(result);
+
+    }
+
+} // End of class ManifestVerifier
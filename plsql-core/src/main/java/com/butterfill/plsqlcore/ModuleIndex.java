@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Provides access to the module index of a jar.
+ * <br/>
+ * The module index lists every entry of every SQL module (i.e. every entry with a name that
+ * begins with plsql/) with it's compression method, local file header offset, sizes and
+ * CRC-32. It is appended to the jar (as an entry named META-INF/plsql-core/module-index.txt)
+ * by the build and it's position is recorded in the zip file comment, so it can be found
+ * without reading the central directory.
+ * <br/>
+ * Appending the index does not move any of the existing entries, so the offsets recorded in
+ * the index stay valid until the jar is re-packaged (e.g. by a tool that builds a jar with
+ * dependencies). Run this class against the re-packaged jar to re-build the index:
+ * <pre>
+ * java -cp plsql-core.jar com.butterfill.plsqlcore.ModuleIndex app.jar
+ * </pre>
+ *
+ * @author peter
+ */
+public final class ModuleIndex {
+
+    /**
+     * The name of the entry that holds the module index.
+     */
+    static final String ENTRY_NAME = "META-INF/plsql-core/module-index.txt";
+
+    /**
+     * The prefix of the zip file comment that gives the position of the module index.
+     */
+    static final String COMMENT_PREFIX = "plsql-core-module-index:";
+
+    /**
+     * The prefix of entries that belong to SQL modules.
+     */
+    private static final String MODULE_PREFIX = "plsql/";
+
+    /**
+     * The records of the index keyed by module name (in the order the modules were found).
+     */
+    private final Map<String, List<ZipDirectory.Record>> modules;
+
+    /**
+     * Creates a new module index.
+     *
+     * @param modules
+     *   The records of the index keyed by module name.
+     */
+    private ModuleIndex(final Map<String, List<ZipDirectory.Record>> modules) {
+        this.modules = modules;
+    }
+
+    /**
+     * Returns the name of the module that the named entry belongs to.
+     * This is the part of the entry name between plsql/ and the last forward slash.
+     * <br/>
+     * e.g.
+     * plsql/logger/build.sql and plsql/logger/ belong to the module logger and
+     * plsql/properties/admin/build.sql belongs to the module properties/admin.
+     *
+     * @param entryName
+     *   The name of a zip entry.
+     * @return
+     *   The name of the module or null if the entry does not belong to a module.
+     *   This will be an empty string for the entry plsql/.
+     */
+    static String getModuleName(final String entryName) {
+        if (!entryName.startsWith(MODULE_PREFIX)) {
+            return null;
+        }
+
+        int lastForwardSlash = entryName.endsWith("/")
+                ? entryName.length() - 1
+                : entryName.lastIndexOf('/');
+
+        return entryName.substring(MODULE_PREFIX.length(),
+                Math.max(MODULE_PREFIX.length(), lastForwardSlash));
+
+    }
+
+    /**
+     * Returns the names of all modules in this index (in the order they were found in the jar).
+     * The module named by an empty string (which holds the entry plsql/) is not included.
+     *
+     * @return
+     *   The names of all modules in this index.
+     */
+    List<String> getModules() {
+        List<String> result = new ArrayList<String>(modules.keySet());
+        result.remove("");
+        return result;
+    }
+
+    /**
+     * Returns the names of all modules in this index including the module named by an
+     * empty string.
+     *
+     * @return
+     *   The names of all modules in this index.
+     */
+    Iterable<String> getAllModules() {
+        return modules.keySet();
+    }
+
+    /**
+     * Returns the records of the named module (in jar order).
+     *
+     * @param module
+     *   The name of the module.
+     * @return
+     *   The records of the module (which will be empty if this index has no such module).
+     */
+    List<ZipDirectory.Record> getRecords(final String module) {
+        List<ZipDirectory.Record> result = modules.get(module);
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the module index of the jar that the specified channel is reading.
+     *
+     * @param channel
+     *   The channel to read the jar from.
+     * @return
+     *   The module index or null if the jar does not have a module index.
+     * @throws IOException
+     *   If we fail to read the module index or it does not match the jar.
+     */
+    static ModuleIndex read(final FileChannel channel) throws IOException {
+        ZipDirectory.End end = ZipDirectory.readEnd(channel);
+        String comment = end.getComment();
+
+        if (!comment.startsWith(COMMENT_PREFIX)) {
+            return null;
+        }
+
+        long indexOffset;
+
+        try {
+            indexOffset = Long.parseLong(comment.substring(COMMENT_PREFIX.length()).trim());
+
+        } catch (NumberFormatException ex) {
+            throw new ZipException("invalid module index offset: " + comment);
+
+        }
+
+        // the index is written after the last entry and before the central directory
+        if (indexOffset < 0 || indexOffset >= end.getCentralDirectoryOffset()) {
+            throw new ZipException("module index offset " + indexOffset + " is outside the jar");
+        }
+
+        ZipDirectory.Record indexRecord = ZipDirectory.readLocalHeader(channel, indexOffset);
+
+        if (!ENTRY_NAME.equals(indexRecord.getName())) {
+            throw new ZipException("module index not found");
+        }
+
+        Map<String, List<ZipDirectory.Record>> modules =
+                new LinkedHashMap<String, List<ZipDirectory.Record>>();
+
+        InputStream in = ZipDirectory.openStream(channel, indexRecord, BufferPool.SHARED);
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+
+                // module, name, method, offset, compressed size, size, crc
+                String[] fields = line.split("\t");
+                if (fields.length != 7) {
+                    throw new ZipException("invalid module index line: " + line);
+                }
+
+                List<ZipDirectory.Record> records = modules.get(fields[0]);
+                if (records == null) {
+                    records = new ArrayList<ZipDirectory.Record>();
+                    modules.put(fields[0], records);
+                }
+
+                ZipDirectory.Record record;
+
+                try {
+                    record = new ZipDirectory.Record(
+                            fields[1],
+                            Integer.parseInt(fields[2]),
+                            Long.parseLong(fields[6], 16),
+                            Long.parseLong(fields[4]),
+                            Long.parseLong(fields[5]),
+                            Long.parseLong(fields[3]));
+
+                } catch (NumberFormatException ex) {
+                    throw new ZipException("invalid module index line: " + line);
+
+                }
+
+                // every entry in the index precedes the index
+                if (record.getLocalHeaderOffset() < 0 ||
+                        record.getLocalHeaderOffset() + ZipDirectory.LOCAL_SIZE +
+                        record.getCompressedSize() > indexOffset) {
+                    throw new ZipException("module index entry " + record.getName() +
+                            " is outside the jar");
+                }
+
+                records.add(record);
+
+            }
+
+        } finally {
+            in.close();
+
+        }
+
+        return new ModuleIndex(modules);
+
+    }
+
+    /**
+     * Builds the content of a module index from the specified records.
+     *
+     * @param records
+     *   The records read from the central directory of a jar.
+     * @return
+     *   The content of the module index.
+     */
+    private static String format(final List<ZipDirectory.Record> records) {
+        StringBuilder result = new StringBuilder(
+                "# module\tname\tmethod\toffset\tcompressed size\tsize\tcrc\n");
+
+        for (ZipDirectory.Record record : records) {
+            String module = getModuleName(record.getName());
+            if (module == null) {
+                continue;
+            }
+
+            result.append(module).append('\t')
+                    .append(record.getName()).append('\t')
+                    .append(record.getMethod()).append('\t')
+                    .append(record.getLocalHeaderOffset()).append('\t')
+                    .append(record.getCompressedSize()).append('\t')
+                    .append(record.getSize()).append('\t')
+                    .append(Long.toHexString(record.getCrc())).append('\n');
+
+        }
+
+        return result.toString();
+
+    }
+
+    /**
+     * Appends a module index to the specified jar, replacing the module index if the jar
+     * already has one.
+     * <br/>
+     * The index is written (stored) after the last entry of the jar and is followed by a new
+     * central directory. The existing entries are not moved.
+     *
+     * @param jar
+     *   The jar to which the module index should be appended.
+     * @throws IOException
+     *   If we fail to append the module index.
+     */
+    static void append(final File jar) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(jar, "rw");
+
+        try {
+            FileChannel channel = file.getChannel();
+            ZipDirectory directory = new ZipDirectory(channel);
+            ZipDirectory.End end = directory.getEnd();
+
+            // the index is written where the old index was or where the central directory was
+            long indexOffset = end.getComment().startsWith(COMMENT_PREFIX)
+                    ? Long.parseLong(end.getComment().substring(COMMENT_PREFIX.length()).trim())
+                    : end.getCentralDirectoryOffset();
+
+            List<ZipDirectory.Record> records = new ArrayList<ZipDirectory.Record>();
+            for (ZipDirectory.Record record : directory.getRecords()) {
+                if (ENTRY_NAME.equals(record.getName())) {
+                    if (record.getLocalHeaderOffset() != indexOffset) {
+                        throw new ZipException("unexpected module index location");
+                    }
+                    continue;
+                }
+                if (record.getLocalHeaderOffset() >= indexOffset) {
+                    throw new ZipException(record.getName() + " follows the module index");
+                }
+                records.add(record);
+            }
+
+            if (records.size() + 1 >= 0xFFFF) {
+                throw new ZipException("zip64 archives are not supported");
+            }
+
+            byte[] name = ENTRY_NAME.getBytes("UTF-8");
+            byte[] data = format(records).getBytes("UTF-8");
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            int dosTime = getDosTime();
+
+            ByteBuffer local = ByteBuffer.allocate(ZipDirectory.LOCAL_SIZE + name.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            local.putInt(ZipDirectory.LOCAL_SIGNATURE)
+                    .putShort((short) 10)           // version needed to extract
+                    .putShort((short) 0)            // general purpose flags
+                    .putShort((short) ZipEntry.STORED)
+                    .putInt(dosTime)
+                    .putInt((int) crc.getValue())
+                    .putInt(data.length)            // compressed size
+                    .putInt(data.length)            // size
+                    .putShort((short) name.length)
+                    .putShort((short) 0)            // extra field length
+                    .put(name);
+
+            ByteBuffer central = ByteBuffer.allocate(ZipDirectory.CENTRAL_SIZE + name.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            central.putInt(ZipDirectory.CENTRAL_SIGNATURE)
+                    .putShort((short) 20)           // version made by
+                    .putShort((short) 10)           // version needed to extract
+                    .putShort((short) 0)            // general purpose flags
+                    .putShort((short) ZipEntry.STORED)
+                    .putInt(dosTime)
+                    .putInt((int) crc.getValue())
+                    .putInt(data.length)            // compressed size
+                    .putInt(data.length)            // size
+                    .putShort((short) name.length)
+                    .putShort((short) 0)            // extra field length
+                    .putShort((short) 0)            // comment length
+                    .putShort((short) 0)            // disk number start
+                    .putShort((short) 0)            // internal file attributes
+                    .putInt(0)                      // external file attributes
+                    .putInt((int) indexOffset)
+                    .put(name);
+
+            // read all central directory headers before we overwrite them
+            List<byte[]> centralHeaders = new ArrayList<byte[]>(records.size());
+            long centralDirectorySize = central.capacity();
+            for (ZipDirectory.Record record : records) {
+                byte[] header = directory.getCentralHeader(record);
+                centralHeaders.add(header);
+                centralDirectorySize += header.length;
+            }
+
+            long centralDirectoryOffset = indexOffset + local.capacity() + data.length;
+            byte[] comment = (COMMENT_PREFIX + indexOffset).getBytes("UTF-8");
+
+            ByteBuffer endRecord = ByteBuffer.allocate(ZipDirectory.END_SIZE + comment.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            endRecord.putInt(ZipDirectory.END_SIGNATURE)
+                    .putShort((short) 0)            // number of this disk
+                    .putShort((short) 0)            // disk where central directory starts
+                    .putShort((short) (records.size() + 1))
+                    .putShort((short) (records.size() + 1))
+                    .putInt((int) centralDirectorySize)
+                    .putInt((int) centralDirectoryOffset)
+                    .putShort((short) comment.length)
+                    .put(comment);
+
+            file.seek(indexOffset);
+            file.write(local.array());
+            file.write(data);
+            for (byte[] header : centralHeaders) {
+                file.write(header);
+            }
+            file.write(central.array());
+            file.write(endRecord.array());
+            file.setLength(file.getFilePointer());
+
+        } finally {
+            file.close();
+
+        }
+
+    }
+
+    /**
+     * Returns the current time in MS-DOS date and time format.
+     *
+     * @return
+     *   The current time in MS-DOS date and time format.
+     */
+    private static int getDosTime() {
+        Calendar now = Calendar.getInstance();
+        return ((now.get(Calendar.YEAR) - 1980) << 25) |
+                ((now.get(Calendar.MONTH) + 1) << 21) |
+                (now.get(Calendar.DAY_OF_MONTH) << 16) |
+                (now.get(Calendar.HOUR_OF_DAY) << 11) |
+                (now.get(Calendar.MINUTE) << 5) |
+                (now.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * Appends a module index to each of the specified jars.
+     * This is run by the build (in the package phase) for the plsql-core jar.
+     *
+     * @param args
+     *   The names of the jars to which a module index should be appended.
+     * @throws java.lang.Exception
+     *   If we fail to append a module index.
+     */
+    public static void main(final String[] args) throws Exception {
+        for (String arg : args) {
+            System.out.println("writing module index: " + arg);
+            append(new File(arg));
+        }
+    }
+
+} // End of class ModuleIndex
@@ -0,0 +1,665 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import com.butterfill.plsqlcore.deploy.Deployer;
+import com.butterfill.plsqlcore.deploy.ScriptToken;
+import com.butterfill.plsqlcore.deploy.ScriptTokenizer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Keeps a copy of the SQL modules in sync with their source directory (e.g. src/main/sql),
+ * so that edits can be deployed without running a full extract.
+ * <br/>
+ * The source directory is polled (java.nio.file.WatchService needs Java 7 and this project
+ * targets Java 5). Changes are copied once the source directory has not changed for the quiet
+ * period, so a burst of saves is copied in one go. Only files that have been added, changed or
+ * removed are copied (or removed). A file is considered changed if its size or last modified
+ * time changes.
+ * <br/>
+ * After each copy, the build script of each module that needs to be re-run is printed.
+ * A module needs to be re-run if its build script, or a script that it runs (directly or
+ * indirectly), has changed.
+ * <br/>
+ * The target directory has the same layout as the plsql directory of an extract: a file in
+ * module m of the source directory is copied to m in the target directory. Files ending .txt
+ * are not copied. If a module in the target directory has a manifest (see Manifest), the
+ * entries of the files that are copied or removed are updated so the module still verifies.
+ *
+ * @author peter
+ */
+public class ModuleWatcher {
+
+    /**
+     * The character set of the scripts.
+     */
+    private static final String CHARSET = "ISO-8859-1";
+
+    /**
+     * The directory that holds the modules to watch.
+     */
+    private final File sourceDir;
+
+    /**
+     * The directory to copy the modules to.
+     */
+    private final File targetDir;
+
+    /**
+     * The modules to watch. null means all modules that are not sub-modules.
+     */
+    private final IncludeMatcher matcher;
+
+    /**
+     * Substitution variables used in @ and @@ references.
+     */
+    private final Map<String, String> defines =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The number of milliseconds between polls of the source directory.
+     */
+    private long pollInterval = 250;
+
+    /**
+     * The number of milliseconds that the source directory must not change for before changes
+     * are copied.
+     */
+    private long quietPeriod = 500;
+
+    /**
+     * The stream to print progress to. null means print nothing.
+     */
+    private PrintStream output = System.out;
+
+    /**
+     * Set to stop watch.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The last modified time and size of each file seen by the last scan keyed by path
+     * (relative to the source directory, using forward slashes).
+     */
+    private Map<String, long[]> snapshot = new HashMap<String, long[]>();
+
+    /**
+     * Creates a new watcher.
+     *
+     * @param sourceDir
+     *   The directory that holds the modules (e.g. src/main/sql).
+     * @param targetDir
+     *   The directory to copy the modules to (e.g. plsql-core/plsql in the output directory
+     *   of an extract).
+     * @param includes
+     *   The SQL project names (or glob patterns) to watch.
+     *   Pass null to watch all modules that are not sub-modules.
+     * @throws NullPointerException
+     *   If sourceDir or targetDir is null.
+     */
+    public ModuleWatcher(final File sourceDir, final File targetDir,
+            final List<String> includes) throws NullPointerException {
+        if (sourceDir == null || targetDir == null) {
+            throw new NullPointerException();
+        }
+
+        this.sourceDir = sourceDir;
+        this.targetDir = targetDir;
+        this.matcher = (includes == null) ? null : new IncludeMatcher(includes);
+
+    }
+
+    /**
+     * Returns the number of milliseconds between polls of the source directory.
+     *
+     * @return
+     *   The poll interval in milliseconds.
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets the number of milliseconds between polls of the source directory.
+     *
+     * @param pollInterval
+     *   The poll interval in milliseconds.
+     * @throws IllegalArgumentException
+     *   If pollInterval is less than 1.
+     */
+    public void setPollInterval(final long pollInterval) throws IllegalArgumentException {
+        if (pollInterval < 1) {
+            throw new IllegalArgumentException("pollInterval must be at least 1");
+        }
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Returns the number of milliseconds that the source directory must not change for before
+     * changes are copied.
+     *
+     * @return
+     *   The quiet period in milliseconds.
+     */
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * Sets the number of milliseconds that the source directory must not change for before
+     * changes are copied.
+     *
+     * @param quietPeriod
+     *   The quiet period in milliseconds.
+     * @throws IllegalArgumentException
+     *   If quietPeriod is less than 0.
+     */
+    public void setQuietPeriod(final long quietPeriod) throws IllegalArgumentException {
+        if (quietPeriod < 0) {
+            throw new IllegalArgumentException("quietPeriod must not be negative");
+        }
+        this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Sets the substitution variables used in @ and @@ references.
+     *
+     * @param defines
+     *   The values of substitution variables keyed by variable name.
+     */
+    public void setDefines(final Map<String, String> defines) {
+        this.defines.clear();
+        this.defines.putAll(defines);
+    }
+
+    /**
+     * Sets the stream to print progress to.
+     *
+     * @param output
+     *   The stream to print progress to. Pass null to print nothing.
+     */
+    public void setOutput(final PrintStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Prints a line to the output stream (if we have one).
+     */
+    private void println(final String line) {
+        if (output != null) {
+            output.println(line);
+        }
+    }
+
+    /**
+     * Returns true if files in the specified module should be copied.
+     */
+    private boolean isWatched(final String module) {
+        if (module.length() == 0) {
+            return false;
+        }
+        return (matcher == null) ? module.indexOf('/') == -1 : matcher.matches(module);
+    }
+
+    /**
+     * Returns the module of the specified path (the part of the path before the last forward
+     * slash).
+     */
+    private static String getModule(final String path) {
+        int i = path.lastIndexOf('/');
+        return (i == -1) ? "" : path.substring(0, i);
+    }
+
+    /**
+     * Adds the last modified time and size of each file to watch in the specified directory
+     * (and its sub-directories) to the specified snapshot.
+     */
+    private void scan(final File dir, final String path, final Map<String, long[]> result) {
+        File[] children = dir.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            String childPath = path + child.getName();
+
+            if (child.isDirectory()) {
+                scan(child, childPath + "/", result);
+
+            } else if (!childPath.endsWith(".txt") && isWatched(getModule(childPath))) {
+                result.put(childPath, new long[] {child.lastModified(), child.length()});
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Scans the source directory and returns the paths of the files that have been added,
+     * changed or removed since the last scan.
+     *
+     * @return
+     *   The paths of the files that have changed (relative to the source directory).
+     * @throws IOException
+     *   If the source directory is not a directory.
+     */
+    private Set<String> scan() throws IOException {
+        if (!sourceDir.isDirectory()) {
+            throw new IOException("not a directory: " + sourceDir.getCanonicalPath());
+        }
+
+        Map<String, long[]> next = new HashMap<String, long[]>();
+        scan(sourceDir, "", next);
+
+        Set<String> result = new TreeSet<String>();
+
+        for (Map.Entry<String, long[]> entry : next.entrySet()) {
+            long[] previous = snapshot.get(entry.getKey());
+            if (previous == null ||
+                    previous[0] != entry.getValue()[0] || previous[1] != entry.getValue()[1]) {
+                result.add(entry.getKey());
+            }
+        }
+
+        for (String path : snapshot.keySet()) {
+            if (!next.containsKey(path)) {
+                result.add(path);
+            }
+        }
+
+        snapshot = next;
+        return result;
+
+    }
+
+    /**
+     * Returns true if the specified files have the same content.
+     */
+    private static boolean isSameContent(final File source, final File target)
+            throws IOException {
+        byte[] sourceData = BufferPool.SHARED.acquire(source.length());
+        byte[] targetData = BufferPool.SHARED.acquire(source.length());
+        InputStream sourceIn = new FileInputStream(source);
+
+        try {
+            InputStream targetIn = new FileInputStream(target);
+
+            try {
+                for (int i = sourceIn.read(sourceData); i != -1; i = sourceIn.read(sourceData)) {
+                    int j = 0;
+                    while (j < i) {
+                        int count = targetIn.read(targetData, j, i - j);
+                        if (count == -1) {
+                            return false;
+                        }
+                        j += count;
+                    }
+                    for (int k = 0; k < i; k++) {
+                        if (sourceData[k] != targetData[k]) {
+                            return false;
+                        }
+                    }
+                }
+                return targetIn.read() == -1;
+
+            } finally {
+                targetIn.close();
+
+            }
+
+        } finally {
+            sourceIn.close();
+            BufferPool.SHARED.release(sourceData);
+            BufferPool.SHARED.release(targetData);
+
+        }
+
+    }
+
+    /**
+     * Returns true if the target file has the same size, and the same last modified time or
+     * content, as the source file.
+     */
+    private static boolean isUpToDate(final File source, final File target) throws IOException {
+        return target.isFile() && target.length() == source.length() &&
+                (target.lastModified() == source.lastModified() || isSameContent(source, target));
+    }
+
+    /**
+     * Copies the source file to the target file and gives the target file the last modified
+     * time of the source file.
+     */
+    private static void copy(final File source, final File target) throws IOException {
+        File dir = target.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("failed to create directory: " + dir.getCanonicalPath());
+        }
+
+        byte[] buffer = BufferPool.SHARED.acquire(source.length());
+        InputStream in = new FileInputStream(source);
+
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+
+            try {
+                for (int i = in.read(buffer); i != -1; i = in.read(buffer)) {
+                    out.write(buffer, 0, i);
+                }
+
+            } finally {
+                out.close();
+
+            }
+
+        } finally {
+            in.close();
+            BufferPool.SHARED.release(buffer);
+
+        }
+
+        target.setLastModified(source.lastModified());
+
+    }
+
+    /**
+     * Adds the specified script, and the scripts it runs (directly or indirectly), to the
+     * specified set.
+     *
+     * @param script
+     *   The path of the script (relative to the source directory).
+     * @param result
+     *   The set to add scripts to.
+     * @return
+     *   false if a script runs a script we can't find the name of (because a substitution
+     *   variable is not defined).
+     * @throws IOException
+     *   If we fail to read a script.
+     */
+    private boolean addScripts(final String script, final Set<String> result)
+            throws IOException {
+        File file = new File(sourceDir, script);
+
+        if (!result.add(script) || !file.isFile()) {
+            return true;
+        }
+
+        ScriptTokenizer tokenizer = new ScriptTokenizer(
+                new InputStreamReader(new FileInputStream(file), CHARSET));
+        boolean known = true;
+
+        try {
+            for (ScriptToken t = tokenizer.next(); t != null; t = tokenizer.next()) {
+                if (t.getKind() != ScriptToken.Kind.INCLUDE) {
+                    continue;
+                }
+
+                String reference;
+
+                try {
+                    reference = ScriptFlattener.substitute(t.getText(), defines);
+
+                } catch (RuntimeException ex) {
+                    known = false;
+                    continue;
+
+                }
+
+                // @ is relative to the module directory as modules are always run from
+                // their own directory (ScriptReader makes the same assumption)
+                String from = "@".equals(t.getCommand())
+                        ? getModule(script) + "/" + Deployer.BUILD_SCRIPT
+                        : script;
+
+                try {
+                    known &= addScripts(ScriptFlattener.resolve(from, reference), result);
+
+                } catch (FileNotFoundException ex) {
+                    // the reference is outside of the source directory
+
+                }
+
+            }
+
+        } finally {
+            tokenizer.close();
+
+        }
+
+        return known;
+
+    }
+
+    /**
+     * Returns the modules that need to be re-run because of changes to the specified files.
+     *
+     * @param changed
+     *   The paths of the files that changed (relative to the source directory).
+     * @return
+     *   The names of the modules that need to be re-run.
+     * @throws IOException
+     *   If we fail to read a script.
+     */
+    private List<String> getModulesToRun(final Set<String> changed) throws IOException {
+        Set<String> modules = new TreeSet<String>();
+
+        for (String path : snapshot.keySet()) {
+            if (path.endsWith("/" + Deployer.BUILD_SCRIPT)) {
+                modules.add(getModule(path));
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+
+        for (String module : modules) {
+            Set<String> scripts = new HashSet<String>();
+            boolean known = addScripts(module + "/" + Deployer.BUILD_SCRIPT, scripts);
+
+            for (String path : changed) {
+                if (scripts.contains(path) || (!known && module.equals(getModule(path)))) {
+                    result.add(module);
+                    break;
+                }
+            }
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Copies the specified files from the source directory to the target directory.
+     * Files that are no longer in the source directory are removed from the target directory.
+     *
+     * @param paths
+     *   The paths of the files (relative to the source directory).
+     * @return
+     *   The names of the modules that need to be re-run.
+     * @throws IOException
+     *   If we fail to copy or remove a file.
+     */
+    private List<String> copy(final Collection<String> paths) throws IOException {
+        Set<String> changed = new HashSet<String>();
+
+        for (String path : paths) {
+            File source = new File(sourceDir, path);
+            File target = new File(targetDir, path);
+
+            if (source.isFile()) {
+                if (isUpToDate(source, target)) {
+                    continue;
+                }
+
+                copy(source, target);
+                println("copied: " + path);
+                changed.add(path);
+
+            } else if (target.isFile()) {
+                if (!target.delete()) {
+                    throw new IOException("failed to remove file: " + target.getCanonicalPath());
+                }
+
+                println("removed: " + path);
+                changed.add(path);
+
+            }
+
+        }
+
+        updateManifests(changed);
+
+        List<String> result = changed.isEmpty()
+                ? new ArrayList<String>()
+                : getModulesToRun(changed);
+
+        for (String module : result) {
+            println("re-run: " +
+                    new File(new File(targetDir, module), Deployer.BUILD_SCRIPT).getPath());
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Updates the manifest of each module (that has one in the target directory) with the
+     * SHA-256 and size of the specified files. Files that are no longer in the target
+     * directory are removed from the manifest.
+     *
+     * @param paths
+     *   The paths of the files that have been copied or removed (relative to the target
+     *   directory).
+     * @throws IOException
+     *   If we fail to read a file or to read or write a manifest.
+     */
+    private void updateManifests(final Set<String> paths) throws IOException {
+        Map<String, List<String>> modules = new TreeMap<String, List<String>>();
+
+        for (String path : paths) {
+            String module = getModule(path);
+            List<String> modulePaths = modules.get(module);
+            if (modulePaths == null) {
+                modulePaths = new ArrayList<String>();
+                modules.put(module, modulePaths);
+            }
+            modulePaths.add(path);
+        }
+
+        for (Map.Entry<String, List<String>> module : modules.entrySet()) {
+            File manifestFile = new File(new File(targetDir, module.getKey()), Manifest.FILE_NAME);
+
+            if (!manifestFile.isFile()) {
+                continue;
+            }
+
+            Manifest manifest = Manifest.read(manifestFile);
+
+            for (String path : module.getValue()) {
+                File target = new File(targetDir, path);
+                String fileName = path.substring(module.getKey().length() + 1);
+
+                if (target.isFile()) {
+                    manifest.put(fileName, ManifestVerifier.sha256(target), target.length());
+                } else {
+                    manifest.remove(fileName);
+                }
+
+            }
+
+            manifest.write(manifestFile);
+
+        }
+
+    }
+
+    /**
+     * Copies every file that has changed since the last sync (or every file that is not up to
+     * date in the target directory if this is the first sync) without waiting for the quiet
+     * period.
+     *
+     * @return
+     *   The names of the modules that need to be re-run.
+     * @throws IOException
+     *   If we fail to read the source directory or copy a file.
+     */
+    public List<String> sync() throws IOException {
+        return copy(scan());
+    }
+
+    /**
+     * Syncs the target directory and then keeps it in sync until stop is called.
+     * Changes are copied once the source directory has not changed for the quiet period.
+     *
+     * @throws IOException
+     *   If we fail to read the source directory or copy a file.
+     * @throws InterruptedException
+     *   If we are interrupted while waiting for the next poll.
+     */
+    public void watch() throws IOException, InterruptedException {
+        sync();
+        println("watching: " + sourceDir.getCanonicalPath());
+
+        Set<String> pending = new TreeSet<String>();
+        long lastChange = 0;
+
+        while (!stopped) {
+            Thread.sleep(pollInterval);
+
+            Set<String> changed = scan();
+            long now = System.currentTimeMillis();
+
+            if (!changed.isEmpty()) {
+                pending.addAll(changed);
+                lastChange = now;
+            }
+
+            if (!pending.isEmpty() && now - lastChange >= quietPeriod) {
+                copy(pending);
+                pending.clear();
+            }
+
+        }
+
+    }
+
+    /**
+     * Stops watch after the current poll.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+} // End of class ModuleWatcher
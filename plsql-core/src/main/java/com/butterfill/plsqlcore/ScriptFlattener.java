@@ -0,0 +1,374 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes SQL*Plus scripts from a jar with every @@ reference replaced by the script it
+ * references, so that a module can be installed by running a single script.
+ * <br/>
+ * Scripts are read and written a line at a time (whole scripts are never held in memory).
+ * Substitution variables in @@ references (e.g. @@&amp;logger_error_body.) are replaced
+ * using a map of defines. Variable names are not case sensitive.
+ * Substitution variables in other lines are left for SQL*Plus.
+ * <br/>
+ * As in SQL*Plus, a @@ reference is relative to the directory of the script that contains it
+ * and .sql is added to a reference that does not have an extension.
+ *
+ * @author peter
+ */
+public final class ScriptFlattener {
+
+    /**
+     * The character set used to read and write scripts.
+     * Every byte maps to one character so scripts are copied unchanged.
+     */
+    private static final String CHARSET = "ISO-8859-1";
+
+    /**
+     * The size of buffer to use when reading and writing scripts.
+     */
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The jar to read scripts from.
+     */
+    private final ZipFile jar;
+
+    /**
+     * The values of substitution variables keyed by (case insensitive) variable name.
+     */
+    private final Map<String, String> defines =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Creates a new flattener to read scripts from the specified jar.
+     *
+     * @param jar
+     *   The jar to read scripts from.
+     * @param defines
+     *   The values of substitution variables keyed by variable name. Can be null.
+     * @throws NullPointerException
+     *   If jar is null.
+     */
+    public ScriptFlattener(final ZipFile jar, final Map<String, String> defines)
+            throws NullPointerException {
+        if (jar == null) {
+            throw new NullPointerException("jar should not be null");
+        }
+        this.jar = jar;
+        if (defines != null) {
+            this.defines.putAll(defines);
+        }
+    }
+
+    /**
+     * Writes the specified script, with every @@ reference replaced by the script it
+     * references, to the specified stream. The stream is flushed but not closed.
+     *
+     * @param scriptName
+     *   The name of the script in the jar (e.g. plsql/logger/build.sql).
+     * @param out
+     *   The stream to write to.
+     * @throws FileNotFoundException
+     *   If the script (or a script it references) is not in the jar.
+     * @throws IOException
+     *   If we fail to read the jar or write to the stream.
+     * @throws RuntimeException
+     *   If a reference uses a substitution variable that is not defined or
+     *   a script references itself (directly or indirectly).
+     */
+    public void flatten(final String scriptName, final OutputStream out)
+            throws FileNotFoundException, IOException, RuntimeException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET), IO_BUFFER_SIZE);
+        flatten(scriptName, writer, new ArrayList<String>());
+        writer.flush();
+    }
+
+    /**
+     * Writes the specified script to the specified writer, replacing @@ references as we go.
+     *
+     * @param scriptName
+     *   The name of the script in the jar.
+     * @param out
+     *   The writer to write to.
+     * @param stack
+     *   The names of the scripts that are being written (outermost first).
+     * @throws IOException
+     *   If we fail to read the jar or write to the stream.
+     */
+    private void flatten(final String scriptName, final Writer out, final List<String> stack)
+            throws IOException {
+        if (stack.contains(scriptName)) {
+            throw new RuntimeException("recursive reference to " + scriptName +
+                    " from " + stack.get(stack.size() - 1));
+        }
+
+        ZipEntry entry = jar.getEntry(scriptName);
+
+        if (entry == null || entry.isDirectory()) {
+            throw new FileNotFoundException(scriptName + " not found" + (stack.isEmpty()
+                    ? "" : " (referenced by " + stack.get(stack.size() - 1) + ")"));
+        }
+
+        stack.add(scriptName);
+
+        InputStream in = jar.getInputStream(entry);
+
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, CHARSET), IO_BUFFER_SIZE);
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String trimmed = line.trim();
+
+                if (trimmed.startsWith("@@")) {
+                    String reference = substitute(getReference(trimmed));
+                    String referenced = resolve(scriptName, reference);
+
+                    // the original line may contain substitution variables, so we don't copy it
+                    out.write("-- @@" + reference + " (" + referenced + ")\n");
+                    flatten(referenced, out, stack);
+
+                } else {
+                    out.write(line);
+                    out.write('\n');
+
+                }
+
+            }
+
+        } finally {
+            in.close();
+
+        }
+
+        stack.remove(stack.size() - 1);
+
+    }
+
+    /**
+     * Returns the script reference of a @@ line. Any script arguments are ignored.
+     *
+     * @param line
+     *   A trimmed line that starts with @@.
+     * @return
+     *   The script reference (e.g. logger.spc).
+     */
+    private static String getReference(final String line) {
+        String reference = line.substring(2).trim();
+
+        for (int i = 0; i < reference.length(); i++) {
+            if (Character.isWhitespace(reference.charAt(i))) {
+                return reference.substring(0, i);
+            }
+        }
+
+        return reference;
+
+    }
+
+    /**
+     * Replaces the substitution variables in the specified text.
+     * <br/>
+     * A variable is &amp; (or &amp;&amp;) followed by a name.
+     * A full stop after the name ends the variable and is removed.
+     *
+     * @param text
+     *   The text that may contain substitution variables.
+     * @return
+     *   The text with substitution variables replaced.
+     * @throws RuntimeException
+     *   If a variable is not defined.
+     */
+    String substitute(final String text) throws RuntimeException {
+        return substitute(text, defines);
+    }
+
+    /**
+     * Replaces the substitution variables in the specified text using the specified defines.
+     * <br/>
+     * A variable is &amp; (or &amp;&amp;) followed by a name.
+     * A full stop after the name ends the variable and is removed.
+     *
+     * @param text
+     *   The text that may contain substitution variables.
+     * @param defines
+     *   The values of substitution variables keyed by variable name. Use a map that
+     *   ignores case (e.g. a TreeMap using String.CASE_INSENSITIVE_ORDER) to match SQL*Plus.
+     * @return
+     *   The text with substitution variables replaced.
+     * @throws RuntimeException
+     *   If a variable is not defined.
+     */
+    public static String substitute(final String text, final Map<String, String> defines)
+            throws RuntimeException {
+        if (text.indexOf('&') == -1) {
+            return text;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        int i = 0;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if (c != '&') {
+                result.append(c);
+                i++;
+                continue;
+            }
+
+            int start = (i + 1 < text.length() && text.charAt(i + 1) == '&') ? i + 2 : i + 1;
+            int end = start;
+
+            while (end < text.length() && isNameChar(text.charAt(end))) {
+                end++;
+            }
+
+            if (end == start) {
+                result.append(c);
+                i++;
+                continue;
+            }
+
+            String name = text.substring(start, end);
+            String value = defines.get(name);
+
+            if (value == null) {
+                throw new RuntimeException("substitution variable " + name + " is not defined");
+            }
+
+            result.append(value);
+            i = (end < text.length() && text.charAt(end) == '.') ? end + 1 : end;
+
+        }
+
+        return result.toString();
+
+    }
+
+    /**
+     * Returns the values of substitution variables specified by system properties named
+     * plsql-core.define.[variable name].
+     *
+     * @return
+     *   The values of substitution variables keyed by variable name.
+     */
+    public static Map<String, String> getDefines() {
+        Map<String, String> result = new HashMap<String, String>();
+        String prefix = "plsql-core.define.";
+
+        for (Enumeration<?> e = System.getProperties().propertyNames(); e.hasMoreElements();) {
+            String name = e.nextElement().toString();
+            if (name.startsWith(prefix)) {
+                result.put(name.substring(prefix.length()), System.getProperty(name));
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns true if the specified character can be part of a substitution variable name.
+     */
+    private static boolean isNameChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+
+    /**
+     * Returns the name of the script that a reference (from the specified script) refers to.
+     *
+     * @param scriptName
+     *   The name of the script that contains the reference (e.g. plsql/logger/build.sql).
+     * @param reference
+     *   The reference (e.g. logger.spc or ../logger.spc).
+     * @return
+     *   The name of the referenced script (e.g. plsql/logger/logger.spc).
+     * @throws FileNotFoundException
+     *   If the reference is outside of the jar.
+     */
+    static String resolve(final String scriptName, final String reference)
+            throws FileNotFoundException {
+        List<String> path = new ArrayList<String>();
+
+        String[] parts = scriptName.split("/");
+        for (int i = 0; i < parts.length - 1; i++) {
+            path.add(parts[i]);
+        }
+
+        for (String part : reference.replace('\\', '/').split("/")) {
+            if (part.length() == 0 || ".".equals(part)) {
+                continue;
+            }
+
+            if ("..".equals(part)) {
+                if (path.isEmpty()) {
+                    throw new FileNotFoundException(
+                            reference + " (referenced by " + scriptName + ") is not in the jar");
+                }
+                path.remove(path.size() - 1);
+
+            } else {
+                path.add(part);
+
+            }
+
+        }
+
+        if (path.isEmpty()) {
+            throw new FileNotFoundException(
+                    "empty reference " + reference + " in " + scriptName);
+        }
+
+        StringBuilder result = new StringBuilder();
+
+        for (String part : path) {
+            if (result.length() != 0) {
+                result.append('/');
+            }
+            result.append(part);
+        }
+
+        // SQL*Plus adds .sql if no extension is given
+        if (path.get(path.size() - 1).indexOf('.') == -1) {
+            result.append(".sql");
+        }
+
+        return result.toString();
+
+    }
+
+} // End of class ScriptFlattener
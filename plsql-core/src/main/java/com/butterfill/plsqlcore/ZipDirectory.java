@@ -0,0 +1,827 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Provides low level access to the central directory of a zip file.
+ * <br/>
+ * java.util.zip does not tell us where the data for an entry starts in the zip file.
+ * We need to know this to copy entries that are stored (not compressed) directly from
+ * the zip file using FileChannel#transferTo and to read entries using offsets recorded
+ * in the module index.
+ * <br/>
+ * Zip64 archives are not supported.
+ *
+ * @author peter
+ */
+final class ZipDirectory {
+
+    /**
+     * The signature of the end of central directory record.
+     */
+    static final int END_SIGNATURE = 0x06054b50;
+
+    /**
+     * The signature of a central directory file header.
+     */
+    static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /**
+     * The signature of a local file header.
+     */
+    static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /**
+     * The size of the end of central directory record (excluding the comment).
+     */
+    static final int END_SIZE = 22;
+
+    /**
+     * The size of a central directory file header (excluding name, extra field and comment).
+     */
+    static final int CENTRAL_SIZE = 46;
+
+    /**
+     * The size of a local file header (excluding name and extra field).
+     */
+    static final int LOCAL_SIZE = 30;
+
+    /**
+     * The maximum length of a zip file comment.
+     */
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /**
+     * The channel that we read the zip file from.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The end of central directory record of the zip file.
+     */
+    private final End end;
+
+    /**
+     * The central directory of the zip file.
+     */
+    private final ByteBuffer centralDirectory;
+
+    /**
+     * All records read from the central directory (in central directory order).
+     */
+    private final List<Record> records;
+
+    /**
+     * All records read from the central directory keyed by entry name.
+     */
+    private final Map<String, Record> recordMap;
+
+    /**
+     * Creates a new instance of ZipDirectory by reading the central directory of the zip file
+     * that the specified channel is reading.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     *   This channel will not be closed by this class.
+     * @throws IOException
+     *   If we fail to read the central directory.
+     */
+    ZipDirectory(final FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.end = readEnd(channel);
+
+        centralDirectory = read(channel,
+                end.getCentralDirectoryOffset(), (int) end.getCentralDirectorySize());
+
+        List<Record> recordList = new ArrayList<Record>(end.getEntryCount());
+        Map<String, Record> map = new HashMap<String, Record>(end.getEntryCount() * 2);
+
+        for (int position = 0; position < end.getCentralDirectorySize();) {
+            if (centralDirectory.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("invalid central directory file header at " + position);
+            }
+
+            int nameLength = centralDirectory.getShort(position + 28) & 0xFFFF;
+            int extraLength = centralDirectory.getShort(position + 30) & 0xFFFF;
+            int commentLength = centralDirectory.getShort(position + 32) & 0xFFFF;
+            int headerSize = CENTRAL_SIZE + nameLength + extraLength + commentLength;
+
+            byte[] name = new byte[nameLength];
+            centralDirectory.position(position + CENTRAL_SIZE);
+            centralDirectory.get(name);
+
+            Record record = new Record(
+                    new String(name, "UTF-8"),
+                    centralDirectory.getShort(position + 10) & 0xFFFF,
+                    centralDirectory.getInt(position + 16) & 0xFFFFFFFFL,
+                    centralDirectory.getInt(position + 20) & 0xFFFFFFFFL,
+                    centralDirectory.getInt(position + 24) & 0xFFFFFFFFL,
+                    centralDirectory.getInt(position + 42) & 0xFFFFFFFFL);
+
+            record.centralHeaderPosition = position;
+            record.centralHeaderSize = headerSize;
+
+            recordList.add(record);
+            map.put(record.getName(), record);
+
+            position += headerSize;
+
+        }
+
+        centralDirectory.clear();
+        this.records = Collections.unmodifiableList(recordList);
+        this.recordMap = Collections.unmodifiableMap(map);
+
+    }
+
+    /**
+     * Reads the specified region of a zip file.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @param position
+     *   The position at which to start reading.
+     * @param size
+     *   The number of bytes to read.
+     * @return
+     *   A little-endian buffer holding the bytes read.
+     * @throws IOException
+     *   If we fail to read the specified number of bytes.
+     */
+    private static ByteBuffer read(final FileChannel channel, final long position, final int size)
+            throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (result.hasRemaining()) {
+            if (channel.read(result, position + result.position()) == -1) {
+                throw new EOFException("unexpected end of zip file");
+            }
+
+        }
+
+        result.clear();
+        return result;
+
+    }
+
+    /**
+     * Reads the end of central directory record of a zip file.
+     * This record (and the zip file comment) is at the end of the zip file so this does not
+     * need to read the central directory.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @return
+     *   The end of central directory record.
+     * @throws IOException
+     *   If we fail to read the end of central directory record.
+     */
+    static End readEnd(final FileChannel channel) throws IOException {
+        // the end of central directory record will be followed by a comment (which
+        // will normally be empty) so we search backwards from the end of the file
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) != END_SIGNATURE) {
+                continue;
+            }
+
+            int commentLength = tail.getShort(i + 20) & 0xFFFF;
+            if (i + END_SIZE + commentLength > tailSize) {
+                continue;
+            }
+
+            byte[] comment = new byte[commentLength];
+            tail.position(i + END_SIZE);
+            tail.get(comment);
+
+            End result = new End(
+                    fileSize - tailSize + i,
+                    tail.getShort(i + 10) & 0xFFFF,
+                    tail.getInt(i + 12) & 0xFFFFFFFFL,
+                    tail.getInt(i + 16) & 0xFFFFFFFFL,
+                    new String(comment, "UTF-8"));
+
+            if (result.getEntryCount() == 0xFFFF ||
+                    result.getCentralDirectorySize() == 0xFFFFFFFFL ||
+                    result.getCentralDirectoryOffset() == 0xFFFFFFFFL) {
+                throw new ZipException("zip64 archives are not supported");
+            }
+
+            return result;
+
+        }
+
+        throw new ZipException("end of central directory record not found");
+
+    }
+
+    /**
+     * Reads the local file header at the specified position in a zip file.
+     * This can only be used for entries that have their sizes and CRC-32 in the local file
+     * header (i.e. entries that were not written with a data descriptor).
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @param localHeaderOffset
+     *   The position of the local file header.
+     * @return
+     *   A record for the entry.
+     * @throws IOException
+     *   If we fail to read the local file header.
+     */
+    static Record readLocalHeader(final FileChannel channel, final long localHeaderOffset)
+            throws IOException {
+        ByteBuffer header = read(channel, localHeaderOffset, LOCAL_SIZE);
+
+        if (header.getInt(0) != LOCAL_SIGNATURE) {
+            throw new ZipException("invalid local file header at " + localHeaderOffset);
+        }
+
+        if ((header.getShort(6) & 0x08) != 0) {
+            throw new ZipException("local file header at " + localHeaderOffset +
+                    " does not have sizes and CRC-32");
+        }
+
+        ByteBuffer name = read(channel, localHeaderOffset + LOCAL_SIZE,
+                header.getShort(26) & 0xFFFF);
+
+        return new Record(
+                new String(name.array(), "UTF-8"),
+                header.getShort(8) & 0xFFFF,
+                header.getInt(14) & 0xFFFFFFFFL,
+                header.getInt(18) & 0xFFFFFFFFL,
+                header.getInt(22) & 0xFFFFFFFFL,
+                localHeaderOffset);
+
+    }
+
+    /**
+     * Returns all records read from the central directory (in central directory order).
+     *
+     * @return
+     *   An unmodifiable list of all records read from the central directory.
+     */
+    List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns all records read from the central directory keyed by entry name.
+     *
+     * @return
+     *   An unmodifiable map of all records read from the central directory.
+     */
+    Map<String, Record> getRecordMap() {
+        return recordMap;
+    }
+
+    /**
+     * Returns the record for the named entry.
+     *
+     * @param name
+     *   The name of the entry.
+     * @return
+     *   The record for the named entry or null if the zip file has no such entry.
+     */
+    Record getRecord(final String name) {
+        return recordMap.get(name);
+    }
+
+    /**
+     * Returns the end of central directory record of the zip file.
+     *
+     * @return
+     *   The end of central directory record.
+     */
+    End getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns a copy of the central directory file header for the specified record.
+     *
+     * @param record
+     *   A record read from the central directory of this zip file.
+     * @return
+     *   The central directory file header for the record.
+     */
+    byte[] getCentralHeader(final Record record) {
+        byte[] result = new byte[record.centralHeaderSize];
+
+        synchronized (centralDirectory) {
+            centralDirectory.position(record.centralHeaderPosition);
+            centralDirectory.get(result);
+            centralDirectory.clear();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the position in the zip file at which the data for the specified record starts.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @param record
+     *   A record for an entry of the zip file.
+     * @return
+     *   The position at which the data for the specified record starts.
+     * @throws IOException
+     *   If the local file header for the record can't be read or is not for the record.
+     */
+    static long getDataOffset(final FileChannel channel, final Record record)
+            throws IOException {
+        if (record.dataOffset != -1) {
+            return record.dataOffset;
+        }
+
+        byte[] expectedName = record.getName().getBytes("UTF-8");
+        ByteBuffer header = read(channel,
+                record.getLocalHeaderOffset(), LOCAL_SIZE + expectedName.length);
+
+        int nameLength = header.getShort(26) & 0xFFFF;
+        byte[] name = new byte[expectedName.length];
+        header.position(LOCAL_SIZE);
+        header.get(name);
+
+        if (header.getInt(0) != LOCAL_SIGNATURE ||
+                nameLength != expectedName.length ||
+                !Arrays.equals(name, expectedName)) {
+            throw new ZipException("invalid local file header for " + record.getName());
+        }
+
+        record.dataOffset = record.getLocalHeaderOffset() + LOCAL_SIZE + nameLength +
+                (header.getShort(28) & 0xFFFF);
+
+        return record.dataOffset;
+
+    }
+
+    /**
+     * Copies the data of a stored (not compressed) entry to the specified channel without
+     * copying it into the java heap.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @param record
+     *   A record for a stored entry of the zip file.
+     * @param target
+     *   The channel to copy to.
+     * @throws IOException
+     *   If the record is not for a stored entry or the copy fails.
+     */
+    static void transferTo(final FileChannel channel, final Record record,
+            final WritableByteChannel target) throws IOException {
+        if (record.getMethod() != ZipEntry.STORED) {
+            throw new ZipException(record.getName() + " is not stored");
+        }
+
+        new RegionInputStream(channel, getDataOffset(channel, record), record.getSize(), false)
+                .transferTo(target);
+
+    }
+
+    /**
+     * Copies the data of a stored (not compressed) entry of this zip file to the specified
+     * channel without copying it into the java heap.
+     *
+     * @param record
+     *   A record, for a stored entry, read from the central directory of this zip file.
+     * @param target
+     *   The channel to copy to.
+     * @throws IOException
+     *   If the record is not for a stored entry or the copy fails.
+     */
+    void transferTo(final Record record, final WritableByteChannel target) throws IOException {
+        transferTo(channel, record, target);
+    }
+
+    /**
+     * Returns an input stream that reads the (uncompressed) data of the specified entry.
+     * Stored and deflated entries are supported.
+     * <br/>
+     * The buffer used to inflate a deflated entry is taken from the specified pool (and sized
+     * from the compressed size of the entry). It is released when the stream is closed.
+     *
+     * @param channel
+     *   The channel to read the zip file from.
+     * @param record
+     *   A record for an entry of the zip file.
+     * @param pool
+     *   The pool to take the buffer used to inflate the entry from.
+     * @return
+     *   An input stream that reads the data of the entry.
+     * @throws IOException
+     *   If the compression method of the entry is not supported or we fail to open the stream.
+     */
+    static InputStream openStream(final FileChannel channel, final Record record,
+            final BufferPool pool) throws IOException {
+        long dataOffset = getDataOffset(channel, record);
+
+        if (record.getMethod() == ZipEntry.STORED) {
+            return new RegionInputStream(channel, dataOffset, record.getCompressedSize(), false);
+        }
+
+        if (record.getMethod() != ZipEntry.DEFLATED) {
+            throw new ZipException("unsupported compression method " + record.getMethod() +
+                    " for " + record.getName());
+        }
+
+        // zip entries are raw deflate data (no zlib header or checksum)
+        final Inflater inflater = new Inflater(true);
+        // + 1 for the extra zero byte
+        final byte[] buffer = pool.acquire(record.getCompressedSize() + 1);
+
+        // the stream allocates a one byte buffer that we replace with the pooled buffer
+        return new InflaterInputStream(
+                new RegionInputStream(channel, dataOffset, record.getCompressedSize(), true),
+                inflater, 1) {
+            {
+                buf = buffer;
+            }
+
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                inflater.end();
+                super.close();
+                pool.release(buffer);
+            }
+        };
+
+    }
+
+    /**
+     * Reads a region of a file using positional reads (so many streams can read the same
+     * channel at the same time).
+     * <br/>
+     * An extra zero byte can be returned at the end of the region.
+     * This is needed by an Inflater created with nowrap = true.
+     * <br/>
+     * The rest of the region can be copied to a channel without copying it into the java heap
+     * using transferTo.
+     */
+    static final class RegionInputStream extends InputStream {
+
+        /**
+         * The channel to read from.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The position of the next byte to read.
+         */
+        private long position;
+
+        /**
+         * The number of bytes (of the region) still to be read.
+         */
+        private long remaining;
+
+        /**
+         * Flag to indicate that the extra zero byte has been returned (or is not needed).
+         */
+        private boolean eof;
+
+        /**
+         * Creates a new stream to read the specified region.
+         */
+        RegionInputStream(final FileChannel channel, final long position, final long size,
+                final boolean extraZeroByte) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = size;
+            this.eof = !extraZeroByte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (remaining == 0) {
+                if (eof) {
+                    return -1;
+                }
+                eof = true;
+                b[off] = 0;
+                return 1;
+            }
+
+            int i = channel.read(
+                    ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+
+            if (i == -1) {
+                throw new EOFException("unexpected end of zip file");
+            }
+
+            position += i;
+            remaining -= i;
+            return i;
+
+        }
+
+        /**
+         * Copies the rest of the region to the specified channel without copying it into the
+         * java heap. The extra zero byte (if any) is not copied.
+         *
+         * @param target
+         *   The channel to copy to.
+         * @return
+         *   The number of bytes copied.
+         * @throws IOException
+         *   If the copy fails.
+         */
+        long transferTo(final WritableByteChannel target) throws IOException {
+            long count = 0;
+
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    throw new EOFException("unexpected end of zip file");
+                }
+                position += transferred;
+                remaining -= transferred;
+                count += transferred;
+
+            }
+
+            return count;
+
+        }
+
+    } // End of class RegionInputStream
+
+    /**
+     * Holds the details of the end of central directory record.
+     */
+    static final class End {
+
+        /**
+         * The position of the end of central directory record in the zip file.
+         */
+        private final long position;
+
+        /**
+         * The number of entries in the central directory.
+         */
+        private final int entryCount;
+
+        /**
+         * The size (in bytes) of the central directory.
+         */
+        private final long centralDirectorySize;
+
+        /**
+         * The offset of the central directory in the zip file.
+         */
+        private final long centralDirectoryOffset;
+
+        /**
+         * The zip file comment.
+         */
+        private final String comment;
+
+        /**
+         * Creates a new end of central directory record.
+         */
+        End(final long position, final int entryCount, final long centralDirectorySize,
+                final long centralDirectoryOffset, final String comment) {
+            this.position = position;
+            this.entryCount = entryCount;
+            this.centralDirectorySize = centralDirectorySize;
+            this.centralDirectoryOffset = centralDirectoryOffset;
+            this.comment = comment;
+        }
+
+        /**
+         * Returns the position of the end of central directory record in the zip file.
+         * @return The position of the end of central directory record.
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the number of entries in the central directory.
+         * @return The number of entries in the central directory.
+         */
+        int getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Returns the size (in bytes) of the central directory.
+         * @return The size of the central directory.
+         */
+        long getCentralDirectorySize() {
+            return centralDirectorySize;
+        }
+
+        /**
+         * Returns the offset of the central directory in the zip file.
+         * @return The offset of the central directory.
+         */
+        long getCentralDirectoryOffset() {
+            return centralDirectoryOffset;
+        }
+
+        /**
+         * Returns the zip file comment.
+         * @return The zip file comment (which will be empty if the zip file has no comment).
+         */
+        String getComment() {
+            return comment;
+        }
+
+    } // End of class End
+
+    /**
+     * Holds the details of one entry of a zip file.
+     */
+    static final class Record {
+
+        /**
+         * The name of the entry.
+         */
+        private final String name;
+
+        /**
+         * The compression method of the entry.
+         */
+        private final int method;
+
+        /**
+         * The CRC-32 of the (uncompressed) entry data.
+         */
+        private final long crc;
+
+        /**
+         * The compressed size of the entry data.
+         */
+        private final long compressedSize;
+
+        /**
+         * The uncompressed size of the entry data.
+         */
+        private final long size;
+
+        /**
+         * The offset of the local file header of the entry.
+         */
+        private final long localHeaderOffset;
+
+        /**
+         * The position of the central directory file header (if read from the central
+         * directory).
+         */
+        private int centralHeaderPosition = -1;
+
+        /**
+         * The size of the central directory file header (if read from the central
+         * directory).
+         */
+        private int centralHeaderSize = -1;
+
+        /**
+         * The position at which the entry data starts (once getDataOffset has read the local
+         * file header).
+         */
+        private volatile long dataOffset = -1;
+
+        /**
+         * Creates a new record.
+         */
+        Record(final String name, final int method, final long crc,
+                final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Returns the name of the entry.
+         * @return The name of the entry.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the compression method of the entry.
+         * @return The compression method of the entry.
+         */
+        int getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns the CRC-32 of the (uncompressed) entry data.
+         * @return The CRC-32 of the entry data.
+         */
+        long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Returns the compressed size of the entry data.
+         * @return The compressed size of the entry data.
+         */
+        long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Returns the uncompressed size of the entry data.
+         * @return The uncompressed size of the entry data.
+         */
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the offset of the local file header of the entry.
+         * @return The offset of the local file header of the entry.
+         */
+        long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * Returns true if this record is for a directory.
+         * @return true if this record is for a directory.
+         */
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Returns a zip entry with the name, compression method, CRC-32 and sizes of this
+         * record.
+         * @return A zip entry for this record.
+         */
+        ZipEntry toZipEntry() {
+            ZipEntry result = new ZipEntry(name);
+            if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+                result.setMethod(method);
+            }
+            result.setCrc(crc);
+            result.setSize(size);
+            result.setCompressedSize(compressedSize);
+            return result;
+        }
+
+    } // End of class Record
+
+} // End of class ZipDirectory
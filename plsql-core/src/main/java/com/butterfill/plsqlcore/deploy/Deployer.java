@@ -0,0 +1,502 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import com.butterfill.plsqlcore.ScriptFlattener;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Installs extracted modules by running the build.sql script of each module.
+ * <br/>
+ * Modules are installed in waves (see the build plan written by the Extract goal of
+ * plsql-core-maven-tools). The modules in a wave do not depend on each other so they are
+ * installed at the same time, using a fixed number of threads. Each thread opens one session
+ * and uses it for every module it installs. A wave starts once every module of the previous
+ * wave has been installed.
+ * <br/>
+ * Each module is installed in its own transaction, which is committed when build.sql
+ * completes and rolled back if a statement fails. (DDL commits as it goes in Oracle, so a
+ * roll back only undoes the data changes made since the last DDL statement.)
+ * If a module fails, the rest of its wave is installed but later waves are not
+ * (unless continueOnError is set).
+ *
+ * @author peter
+ */
+public final class Deployer {
+
+    /**
+     * The name of the script that installs a module.
+     */
+    public static final String BUILD_SCRIPT = "build.sql";
+
+    /**
+     * The character set of plan files.
+     */
+    private static final String PLAN_CHARSET = "UTF-8";
+
+    /**
+     * Thrown when one or more modules fail to install.
+     */
+    public static final class DeployException extends Exception {
+
+        /**
+         * Version of this class for serialization.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The failures keyed by module directory.
+         */
+        private final Map<File, Exception> failures;
+
+        /**
+         * Creates a new DeployException.
+         *
+         * @param failures
+         *   The failures keyed by module directory.
+         */
+        DeployException(final Map<File, Exception> failures) {
+            super(getMessage(failures));
+            this.failures = new LinkedHashMap<File, Exception>(failures);
+            initCause(failures.values().iterator().next());
+        }
+
+        /**
+         * Returns the message for the specified failures.
+         */
+        private static String getMessage(final Map<File, Exception> failures) {
+            StringBuilder result = new StringBuilder();
+            result.append(failures.size()).append(" module(s) failed");
+
+            for (Map.Entry<File, Exception> entry : failures.entrySet()) {
+                result.append("\n  ").append(entry.getKey()).append(": ")
+                        .append(entry.getValue().getMessage());
+            }
+
+            return result.toString();
+
+        }
+
+        /**
+         * Returns the modules that failed and why.
+         *
+         * @return
+         *   The failures keyed by module directory, in the order the modules were planned.
+         */
+        public Map<File, Exception> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+    } // End of class DeployException
+
+    /**
+     * Runs the statements.
+     */
+    private final StatementExecutor executor;
+
+    /**
+     * The number of modules to install at the same time.
+     */
+    private final int threadCount;
+
+    /**
+     * The values of substitution variables keyed by variable name.
+     */
+    private Map<String, String> defines = new HashMap<String, String>();
+
+    /**
+     * If true, later waves are installed even if a module fails.
+     */
+    private boolean continueOnError;
+
+    /**
+     * If true, statements are not really run (see setDryRun).
+     */
+    private boolean dryRun;
+
+    /**
+     * Where prompts are written. Can be null.
+     */
+    private PrintStream out = System.out;
+
+    /**
+     * Creates a new Deployer.
+     *
+     * @param executor
+     *   Runs the statements.
+     * @param threadCount
+     *   The number of modules to install at the same time.
+     */
+    public Deployer(final StatementExecutor executor, final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        this.executor = executor;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets the values of substitution variables used by build scripts.
+     *
+     * @param defines
+     *   The values of substitution variables keyed by variable name.
+     */
+    public void setDefines(final Map<String, String> defines) {
+        this.defines = new HashMap<String, String>(defines);
+    }
+
+    /**
+     * Sets whether later waves are installed when a module fails.
+     * Modules that depend on a failed module will usually fail too.
+     *
+     * @param continueOnError
+     *   true to install every wave.
+     */
+    public void setContinueOnError(final boolean continueOnError) {
+        this.continueOnError = continueOnError;
+    }
+
+    /**
+     * Sets whether this is a dry run, in which the executor does not really run statements.
+     * Queries return nothing in a dry run, so substitution variables set from query columns
+     * are given placeholders (see ScriptReader#setPlaceholders).
+     *
+     * @param dryRun
+     *   true for a dry run.
+     */
+    public void setDryRun(final boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Sets where prompts are written. Each prompt is preceded by the name of the module.
+     *
+     * @param out
+     *   Where prompts are written. null to discard prompts.
+     */
+    public void setOutput(final PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Installs the specified waves of modules.
+     *
+     * @param waves
+     *   The directories of the modules in each wave.
+     * @throws DeployException
+     *   If any module fails to install.
+     * @throws InterruptedException
+     *   If we are interrupted while waiting for a wave.
+     */
+    public void deploy(final List<List<File>> waves)
+            throws DeployException, InterruptedException {
+        int maxWaveSize = 1;
+        for (List<File> wave : waves) {
+            maxWaveSize = Math.max(maxWaveSize, wave.size());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, maxWaveSize));
+        final List<StatementExecutor.Session> sessions =
+                Collections.synchronizedList(new ArrayList<StatementExecutor.Session>());
+        final ThreadLocal<StatementExecutor.Session> session =
+                new ThreadLocal<StatementExecutor.Session>();
+        Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+
+        try {
+            for (List<File> wave : waves) {
+                Map<File, Future<Object>> results = new LinkedHashMap<File, Future<Object>>();
+
+                for (final File dir : wave) {
+                    results.put(dir, pool.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            if (session.get() == null) {
+                                session.set(executor.openSession());
+                                sessions.add(session.get());
+                            }
+                            deployModule(dir, session.get());
+                            return null;
+                        }
+                    }));
+
+                }
+
+                // wait for the whole wave so no module is left part installed
+                for (Map.Entry<File, Future<Object>> entry : results.entrySet()) {
+                    try {
+                        entry.getValue().get();
+
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        failures.put(entry.getKey(), (Exception) cause);
+
+                    }
+
+                }
+
+                if (!failures.isEmpty() && !continueOnError) {
+                    break;
+                }
+
+            }
+
+        } finally {
+            pool.shutdownNow();
+
+            synchronized (sessions) {
+                for (StatementExecutor.Session s : sessions) {
+                    try {
+                        s.close();
+                    } catch (SQLException ex) {
+                        // ignore. the install has finished (or failed for another reason)
+                    }
+                }
+            }
+
+        }
+
+        if (!failures.isEmpty()) {
+            throw new DeployException(failures);
+        }
+
+    }
+
+    /**
+     * Installs the module in the specified directory by running its build script.
+     *
+     * @param dir
+     *   The directory of the module.
+     * @param session
+     *   The session to use.
+     * @throws Exception
+     *   If the module fails to install.
+     */
+    void deployModule(final File dir, final StatementExecutor.Session session)
+            throws Exception {
+        ScriptReader reader = new ScriptReader(new File(dir, BUILD_SCRIPT), defines);
+        reader.setPlaceholders(dryRun);
+        Map<String, String> binds = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+        try {
+            for (Statement statement = reader.next(); statement != null;
+                    statement = reader.next()) {
+                if (statement.getType() == Statement.Type.PROMPT) {
+                    if (out != null) {
+                        out.println("[" + dir.getName() + "] " + statement.getText());
+                    }
+                    continue;
+                }
+
+                Map<String, String> row;
+
+                try {
+                    row = session.execute(statement, binds);
+
+                } catch (SQLException ex) {
+                    SQLException located = new SQLException(
+                            statement.getLocation() + ": " + ex.getMessage(),
+                            ex.getSQLState(), ex.getErrorCode());
+                    located.initCause(ex);
+                    throw located;
+
+                }
+
+                if (row != null) {
+                    for (Map.Entry<String, String> entry : reader.getNewValues().entrySet()) {
+                        String value = row.get(entry.getKey().toUpperCase());
+                        if (value != null) {
+                            reader.define(entry.getValue(), value);
+                        }
+                    }
+                }
+
+            }
+
+            session.commit();
+
+        } catch (Exception ex) {
+            try {
+                session.rollback();
+            } catch (SQLException rollbackEx) {
+                // ignore. we want to report the original failure
+            }
+            throw ex;
+
+        } finally {
+            reader.close();
+
+        }
+
+    }
+
+    /**
+     * Reads the waves of modules from a build plan written by the Extract goal of
+     * plsql-core-maven-tools.
+     *
+     * @param file
+     *   The plan file.
+     * @return
+     *   The directories of the modules in each wave.
+     * @throws IOException
+     *   If we fail to read the plan or it is not valid.
+     */
+    public static List<List<File>> readPlan(final File file) throws IOException {
+        List<List<File>> result = new ArrayList<List<File>>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), PLAN_CHARSET));
+
+        try {
+            int lineNumber = 0;
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+
+                if (!line.startsWith("module ")) {
+                    continue;
+                }
+
+                // module <wave> <location> <directory>. the directory can contain spaces
+                String[] fields = line.split(" ", 4);
+
+                if (fields.length != 4) {
+                    throw new IOException(file + " line " + lineNumber + ": invalid module");
+                }
+
+                int wave;
+
+                try {
+                    wave = Integer.parseInt(fields[1]);
+                } catch (NumberFormatException ex) {
+                    throw new IOException(file + " line " + lineNumber + ": invalid wave");
+                }
+
+                while (result.size() <= wave) {
+                    result.add(new ArrayList<File>());
+                }
+
+                result.get(wave).add(new File(fields[3]));
+
+            }
+
+        } finally {
+            reader.close();
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Installs modules.
+     * <br/>
+     * If a single argument naming a file is given, it is read as a build plan.
+     * Otherwise each argument is the directory of a module and the modules are installed one
+     * at a time in the order given.
+     * <br/>
+     * The following system properties are used:
+     * <ul>
+     * <li>plsql-core.jdbc.url, plsql-core.jdbc.user and plsql-core.jdbc.password -
+     * the database to install to. The JDBC driver must be on the class path.</li>
+     * <li>plsql-core.deploy.threads - the number of modules to install at the same time.
+     * Defaults to 4.</li>
+     * <li>plsql-core.deploy.dryRun - if true, statements are printed rather than run
+     * (see setDryRun).</li>
+     * <li>plsql-core.deploy.continueOnError - if true, every wave is installed even if a
+     * module fails.</li>
+     * <li>plsql-core.define.&lt;name&gt; - the value of substitution variable name.
+     * _USER defaults to the upper case JDBC user.</li>
+     * </ul>
+     *
+     * @param args
+     *   A plan file or module directories.
+     * @throws Exception
+     *   If any module fails to install.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args == null || args.length == 0) {
+            throw new IllegalArgumentException(
+                    "usage: Deployer <plan file> | <module directory>...");
+        }
+
+        List<List<File>> waves;
+
+        if (args.length == 1 && new File(args[0]).isFile()) {
+            waves = readPlan(new File(args[0]));
+
+        } else {
+            waves = new ArrayList<List<File>>();
+            for (String arg : args) {
+                waves.add(Collections.singletonList(new File(arg)));
+            }
+
+        }
+
+        String user = System.getProperty("plsql-core.jdbc.user");
+        boolean dryRun = Boolean.getBoolean("plsql-core.deploy.dryRun");
+        StatementExecutor executor;
+
+        if (dryRun) {
+            executor = new RecordingStatementExecutor(System.out);
+
+        } else {
+            String url = System.getProperty("plsql-core.jdbc.url");
+            if (url == null) {
+                throw new IllegalArgumentException("plsql-core.jdbc.url must be set");
+            }
+            executor = new JdbcStatementExecutor(
+                    url, user, System.getProperty("plsql-core.jdbc.password"));
+
+        }
+
+        Deployer deployer = new Deployer(executor,
+                Integer.parseInt(System.getProperty("plsql-core.deploy.threads", "4")));
+        deployer.setContinueOnError(Boolean.getBoolean("plsql-core.deploy.continueOnError"));
+        deployer.setDryRun(dryRun);
+
+        Map<String, String> defines = new HashMap<String, String>();
+        if (user != null) {
+            defines.put("_USER", user.toUpperCase());
+        }
+        defines.putAll(ScriptFlattener.getDefines());
+        deployer.setDefines(defines);
+
+        deployer.deploy(waves);
+
+    }
+
+} // End of class Deployer
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs statements using JDBC. The JDBC driver must be on the class path.
+ * <br/>
+ * Each session is a connection with auto-commit off. Statements that do not use bind
+ * variables are run using a single java.sql.Statement per session.
+ * <br/>
+ * Oracle reports a PL/SQL unit that compiles with errors as a warning (as SQL*Plus does) so
+ * a warning on a PL/SQL statement is thrown as an SQLException.
+ *
+ * @author peter
+ */
+public final class JdbcStatementExecutor implements StatementExecutor {
+
+    /**
+     * The JDBC URL of the database.
+     */
+    private final String url;
+
+    /**
+     * The user to connect as.
+     */
+    private final String user;
+
+    /**
+     * The password of the user.
+     */
+    private final String password;
+
+    /**
+     * A JDBC connection.
+     */
+    private static final class JdbcSession implements Session {
+
+        /**
+         * The connection.
+         */
+        private final Connection connection;
+
+        /**
+         * Used to run statements that do not use bind variables.
+         */
+        private final java.sql.Statement statement;
+
+        /**
+         * Creates a session using the specified connection.
+         */
+        private JdbcSession(final Connection connection) throws SQLException {
+            this.connection = connection;
+            this.connection.setAutoCommit(false);
+            this.statement = connection.createStatement();
+        }
+
+        public Map<String, String> execute(final Statement statement,
+                final Map<String, String> binds) throws SQLException {
+            List<String> names = statement.getBinds();
+
+            if (names.isEmpty()) {
+                if (statement.isQuery()) {
+                    return getLastRow(this.statement.executeQuery(statement.getText()));
+                }
+
+                this.statement.execute(statement.getText());
+                checkWarnings(statement, this.statement.getWarnings());
+                this.statement.clearWarnings();
+                return null;
+            }
+
+            if (statement.getType() == Statement.Type.PLSQL) {
+                CallableStatement call = connection.prepareCall(statement.getText());
+
+                try {
+                    for (int i = 0; i < names.size(); i++) {
+                        call.setString(i + 1, binds.get(names.get(i)));
+                        call.registerOutParameter(i + 1, Types.VARCHAR);
+                    }
+
+                    call.execute();
+                    checkWarnings(statement, call.getWarnings());
+
+                    for (int i = 0; i < names.size(); i++) {
+                        binds.put(names.get(i), call.getString(i + 1));
+                    }
+
+                    return null;
+
+                } finally {
+                    call.close();
+
+                }
+
+            }
+
+            PreparedStatement prepared = connection.prepareStatement(statement.getText());
+
+            try {
+                for (int i = 0; i < names.size(); i++) {
+                    prepared.setString(i + 1, binds.get(names.get(i)));
+                }
+
+                if (statement.isQuery()) {
+                    return getLastRow(prepared.executeQuery());
+                }
+
+                prepared.execute();
+                return null;
+
+            } finally {
+                prepared.close();
+
+            }
+
+        }
+
+        public void commit() throws SQLException {
+            connection.commit();
+        }
+
+        public void rollback() throws SQLException {
+            connection.rollback();
+        }
+
+        public void close() throws SQLException {
+            try {
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+
+    } // End of class JdbcSession
+
+    /**
+     * Creates a new JdbcStatementExecutor.
+     *
+     * @param url
+     *   The JDBC URL of the database.
+     * @param user
+     *   The user to connect as.
+     * @param password
+     *   The password of the user.
+     */
+    public JdbcStatementExecutor(final String url, final String user, final String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * Opens a new connection to the database.
+     *
+     * @return
+     *   A new session.
+     * @throws SQLException
+     *   If we fail to connect.
+     */
+    public Session openSession() throws SQLException {
+        return new JdbcSession(DriverManager.getConnection(url, user, password));
+    }
+
+    /**
+     * Throws an SQLException if there are warnings for a PL/SQL statement.
+     */
+    private static void checkWarnings(final Statement statement, final SQLWarning warning)
+            throws SQLException {
+        if (warning != null && statement.getType() == Statement.Type.PLSQL) {
+            throw new SQLException("compiled with errors: " + warning.getMessage(),
+                    warning.getSQLState(), warning.getErrorCode());
+        }
+    }
+
+    /**
+     * Returns the last row of the specified result set and closes it.
+     */
+    private static Map<String, String> getLastRow(final ResultSet resultSet)
+            throws SQLException {
+        try {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            Map<String, String> result = null;
+
+            while (resultSet.next()) {
+                result = new HashMap<String, String>();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    result.put(metaData.getColumnLabel(i).toUpperCase(),
+                            resultSet.getString(i));
+                }
+            }
+
+            return result;
+
+        } finally {
+            resultSet.close();
+
+        }
+
+    }
+
+} // End of class JdbcStatementExecutor
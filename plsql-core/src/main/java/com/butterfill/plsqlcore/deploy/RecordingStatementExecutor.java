@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A StatementExecutor that records statements rather than running them.
+ * <br/>
+ * This is used for dry runs (to show what would be run, and in which session) and in tests.
+ * Queries can be given results (see addResult) and statements can be made to fail
+ * (see addFailure).
+ *
+ * @author peter
+ */
+public final class RecordingStatementExecutor implements StatementExecutor {
+
+    /**
+     * A statement run in a session.
+     */
+    public static final class Execution {
+
+        /**
+         * The number of the session in which the statement was run (the first session is 1).
+         */
+        private final int session;
+
+        /**
+         * The statement.
+         */
+        private final Statement statement;
+
+        /**
+         * Creates a new Execution.
+         */
+        private Execution(final int session, final Statement statement) {
+            this.session = session;
+            this.statement = statement;
+        }
+
+        /**
+         * Returns the number of the session in which the statement was run.
+         *
+         * @return
+         *   The session number. The first session is 1.
+         */
+        public int getSession() {
+            return session;
+        }
+
+        /**
+         * Returns the statement.
+         *
+         * @return
+         *   The statement.
+         */
+        public Statement getStatement() {
+            return statement;
+        }
+
+    } // End of class Execution
+
+    /**
+     * The statements that have been run in the order they were run.
+     */
+    private final List<Execution> executions =
+            Collections.synchronizedList(new ArrayList<Execution>());
+
+    /**
+     * The number of sessions that have been opened.
+     */
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * The rows returned by queries keyed by a fragment of the query text.
+     */
+    private final Map<String, Map<String, String>> results =
+            new LinkedHashMap<String, Map<String, String>>();
+
+    /**
+     * Fragments of the text of statements that should fail.
+     */
+    private final List<String> failures = new ArrayList<String>();
+
+    /**
+     * Where statements are printed. Can be null.
+     */
+    private final PrintStream out;
+
+    /**
+     * Creates a RecordingStatementExecutor that does not print statements.
+     */
+    public RecordingStatementExecutor() {
+        this(null);
+    }
+
+    /**
+     * Creates a RecordingStatementExecutor that prints each statement it runs.
+     *
+     * @param out
+     *   Where statements are printed. Can be null.
+     */
+    public RecordingStatementExecutor(final PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Sets the row returned by queries that contain the specified text.
+     * This should be called before any sessions are opened.
+     *
+     * @param fragment
+     *   Text of the query.
+     * @param row
+     *   The row to return keyed by upper case column label.
+     */
+    public void addResult(final String fragment, final Map<String, String> row) {
+        results.put(fragment, new HashMap<String, String>(row));
+    }
+
+    /**
+     * Makes statements that contain the specified text fail.
+     * This should be called before any sessions are opened.
+     *
+     * @param fragment
+     *   Text of the statements that should fail.
+     */
+    public void addFailure(final String fragment) {
+        failures.add(fragment);
+    }
+
+    /**
+     * Returns the statements that have been run, in the order they were run.
+     *
+     * @return
+     *   A copy of the statements that have been run.
+     */
+    public List<Execution> getExecutions() {
+        synchronized (executions) {
+            return new ArrayList<Execution>(executions);
+        }
+    }
+
+    /**
+     * Returns the number of sessions that have been opened.
+     *
+     * @return
+     *   The number of sessions.
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Opens a new session.
+     *
+     * @return
+     *   A new session.
+     */
+    public Session openSession() {
+        final int session = sessionCount.incrementAndGet();
+
+        return new Session() {
+
+            public Map<String, String> execute(final Statement statement,
+                    final Map<String, String> binds) throws SQLException {
+                executions.add(new Execution(session, statement));
+
+                if (out != null) {
+                    synchronized (out) {
+                        out.println("-- session " + session + ": " + statement.getLocation());
+                        out.println(statement.getText());
+                        out.println(statement.getType() == Statement.Type.PLSQL ? "/" : ";");
+                    }
+                }
+
+                for (String fragment : failures) {
+                    if (statement.getText().indexOf(fragment) != -1) {
+                        throw new SQLException("failure added for: " + fragment);
+                    }
+                }
+
+                if (statement.isQuery()) {
+                    for (Map.Entry<String, Map<String, String>> entry : results.entrySet()) {
+                        if (statement.getText().indexOf(entry.getKey()) != -1) {
+                            return new HashMap<String, String>(entry.getValue());
+                        }
+                    }
+                }
+
+                return null;
+
+            }
+
+            public void commit() {
+            }
+
+            public void rollback() {
+            }
+
+            public void close() {
+            }
+
+        };
+
+    }
+
+} // End of class RecordingStatementExecutor
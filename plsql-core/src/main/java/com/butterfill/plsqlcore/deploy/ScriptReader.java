@@ -0,0 +1,509 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import com.butterfill.plsqlcore.ScriptFlattener;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the statements of a SQL*Plus script (and the scripts it runs using @@), handling
+ * the SQL*Plus commands that affect the statements that are run.
+ * <br/>
+ * Statements are read one at a time (see next) so substitution variables that are set by
+ * one statement (using COLUMN ... NEW_VALUE) can be used by the next, as they are in
+ * SQL*Plus. Scripts are split using ScriptTokenizer.
+ * <br/>
+ * The following SQL*Plus commands are handled:
+ * <ul>
+ * <li>PROMPT is returned as a statement so the caller can display it.</li>
+ * <li>@@script runs a script in the directory of the current script (.sql is added if the
+ * script name has no extension). @script runs a script relative to the directory of the
+ * first script, as modules are always run from their own directory (ModuleWatcher makes
+ * the same assumption).</li>
+ * <li>DEFINE, UNDEFINE and SET DEFINE ON|OFF control substitution variables.
+ * VARIABLE declares a bind variable. COLUMN ... NEW_VALUE links a query column to a
+ * substitution variable (see getNewValues). EXEC[UTE] is wrapped in BEGIN ... END;.</li>
+ * <li>EXIT and QUIT end the script. Other SQL*Plus commands (e.g. SET, SHOW, SPOOL) are
+ * skipped.</li>
+ * </ul>
+ * A statement must end in the script in which it starts.
+ * Substitution variables are replaced in each statement once it has been read, so a
+ * variable can not be used to add a terminator or command to a script.
+ * Scripts are read as ISO-8859-1 so that every byte is passed through unchanged.
+ *
+ * @author peter
+ */
+public final class ScriptReader {
+
+    /**
+     * The character set used to read scripts.
+     */
+    private static final String CHARSET = "ISO-8859-1";
+
+    /**
+     * Matches the arguments of COLUMN name ... NEW_VALUE variable.
+     */
+    private static final Pattern COLUMN_NEW_VALUE = Pattern.compile(
+            "^(\\S+)\\s(.*\\s)?NEW_V[A-Z]*\\s+([^\\s;]+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Matches the arguments of SET DEFINE ON|OFF.
+     */
+    private static final Pattern SET_DEFINE = Pattern.compile(
+            "^DEF(INE)?\\s+(ON|OFF)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A script that is being read.
+     */
+    private static final class Source {
+
+        /**
+         * The script.
+         */
+        private final File file;
+
+        /**
+         * Splits the script.
+         */
+        private final ScriptTokenizer tokenizer;
+
+        /**
+         * Opens the specified script.
+         */
+        private Source(final File file) throws IOException {
+            this.file = file;
+            this.tokenizer = new ScriptTokenizer(
+                    new InputStreamReader(new FileInputStream(file), CHARSET));
+        }
+
+    } // End of class Source
+
+    /**
+     * The scripts being read. The script that is being read now is last.
+     */
+    private final LinkedList<Source> sources = new LinkedList<Source>();
+
+    /**
+     * The directory that @ references are relative to (the directory of the first script).
+     */
+    private final File dir;
+
+    /**
+     * The values of substitution variables keyed by (case insensitive) variable name.
+     */
+    private final Map<String, String> defines =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The substitution variables set from query columns keyed by (case insensitive)
+     * column name.
+     */
+    private final Map<String, String> newValues =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The names of the declared bind variables.
+     */
+    private final Set<String> variables = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * False when substitution has been turned off using SET DEFINE OFF.
+     */
+    private boolean substitution = true;
+
+    /**
+     * If true, variables set from query columns that have no value are replaced by
+     * placeholders (see setPlaceholders).
+     */
+    private boolean placeholders;
+
+    /**
+     * Creates a reader of the specified script.
+     *
+     * @param script
+     *   The script to read.
+     * @param defines
+     *   The values of substitution variables keyed by variable name. Can be null.
+     * @throws IOException
+     *   If we fail to open the script.
+     */
+    public ScriptReader(final File script, final Map<String, String> defines)
+            throws IOException {
+        if (defines != null) {
+            this.defines.putAll(defines);
+        }
+        sources.add(new Source(script));
+        dir = script.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Sets whether substitution variables that are set from query columns
+     * (COLUMN ... NEW_VALUE) but have not been given a value are replaced by a placeholder
+     * (&amp;name.) rather than failing.
+     * A script run using @ or @@ whose name uses a placeholder is not read - a PROMPT saying
+     * so is returned instead.
+     * <br/>
+     * This is used for dry runs, where queries are not run.
+     *
+     * @param placeholders
+     *   true to use placeholders.
+     */
+    public void setPlaceholders(final boolean placeholders) {
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Reads the next statement.
+     *
+     * @return
+     *   The next statement or null if there are no more statements.
+     * @throws FileNotFoundException
+     *   If a script run using @@ does not exist.
+     * @throws IOException
+     *   If we fail to read a script or a statement is not terminated.
+     * @throws RuntimeException
+     *   If a substitution variable is not defined or a script runs itself (directly or
+     *   indirectly).
+     */
+    public Statement next() throws FileNotFoundException, IOException, RuntimeException {
+        while (!sources.isEmpty()) {
+            Source source = sources.getLast();
+
+            ScriptToken token = source.tokenizer.next();
+
+            if (token == null) {
+                closeLast();
+                continue;
+            }
+
+            if (!token.isTerminated()) {
+                throw new IOException(source.file + ": statement starting on line " +
+                        token.getLine() + " is not terminated");
+            }
+
+            String text = substitute(source, token);
+
+            switch (token.getKind()) {
+                case SQL:
+                    return new Statement(Statement.Type.SQL, text, source.file,
+                            token.getLine(), getBinds(text, false));
+
+                case PLSQL:
+                    return new Statement(Statement.Type.PLSQL, text, source.file,
+                            token.getLine(), getBinds(text, true));
+
+                case PROMPT:
+                    return new Statement(Statement.Type.PROMPT, text, source.file,
+                            token.getLine(), new ArrayList<String>());
+
+                case INCLUDE:
+                    Statement skipped = run(source, token, text);
+                    if (skipped != null) {
+                        return skipped;
+                    }
+                    break;
+
+                case DEFINE:
+                    defines.put(token.getName(), text);
+                    break;
+
+                default:
+                    Statement statement = runCommand(source, token, text);
+                    if (statement != null) {
+                        return statement;
+                    }
+                    break;
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Handles a SQL*Plus command (other than PROMPT, DEFINE and @).
+     *
+     * @return
+     *   The statement to run for the command. null if no statement should be run.
+     */
+    private Statement runCommand(final Source source, final ScriptToken token,
+            final String text) throws IOException {
+        String command = token.getCommand();
+
+        if ("UNDEFINE".equals(command)) {
+            for (String name : text.split("\\s+")) {
+                defines.remove(name);
+            }
+
+        } else if ("VARIABLE".equals(command)) {
+            if (text.length() != 0) {
+                variables.add(text.split("\\s+")[0]);
+            }
+
+        } else if ("COLUMN".equals(command)) {
+            Matcher matcher = COLUMN_NEW_VALUE.matcher(text);
+            if (matcher.find()) {
+                newValues.put(matcher.group(1), matcher.group(3));
+            }
+
+        } else if ("EXECUTE".equals(command)) {
+            String call = text.endsWith(";") ? text.substring(0, text.length() - 1) : text;
+            String block = "BEGIN " + call + "; END;";
+            return new Statement(Statement.Type.PLSQL, block, source.file, token.getLine(),
+                    getBinds(block, true));
+
+        } else if ("EXIT".equals(command) || "QUIT".equals(command)) {
+            close();
+
+        } else if ("SET".equals(command)) {
+            Matcher matcher = SET_DEFINE.matcher(text);
+            if (matcher.find()) {
+                substitution = "ON".equalsIgnoreCase(matcher.group(2));
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the text of the specified token with substitution variables replaced
+     * (if substitution is on).
+     */
+    private String substitute(final Source source, final ScriptToken token) {
+        if (!substitution) {
+            return token.getText();
+        }
+
+        Map<String, String> values = defines;
+
+        if (placeholders) {
+            values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : newValues.values()) {
+                values.put(name, "&" + name + ".");
+            }
+            values.putAll(defines);
+        }
+
+        try {
+            return ScriptFlattener.substitute(token.getText(), values);
+
+        } catch (RuntimeException ex) {
+            throw new RuntimeException(
+                    source.file + " line " + token.getLine() + ": " + ex.getMessage(), ex);
+
+        }
+
+    }
+
+    /**
+     * Starts reading the script referenced by the specified @ or @@ command.
+     *
+     * @return
+     *   A PROMPT if the script is not read because its name uses a placeholder.
+     *   null otherwise.
+     */
+    private Statement run(final Source source, final ScriptToken token, final String text)
+            throws IOException {
+        boolean relative = "@@".equals(token.getCommand());
+        String reference = text.trim();
+
+        if (reference.length() == 0) {
+            throw new FileNotFoundException(
+                    "empty reference in " + source.file + " line " + token.getLine());
+        }
+
+        // SQL*Plus adds .sql if no extension is given
+        if (new File(reference).getName().indexOf('.') == -1) {
+            reference += ".sql";
+        }
+
+        File file = new File(reference);
+
+        if (!file.isAbsolute()) {
+            file = new File(
+                    relative ? source.file.getAbsoluteFile().getParentFile() : dir, reference);
+        }
+
+        for (Source open : sources) {
+            if (open.file.getCanonicalFile().equals(file.getCanonicalFile())) {
+                throw new RuntimeException("recursive reference to " + file +
+                        " from " + source.file + " line " + token.getLine());
+            }
+        }
+
+        if (!file.isFile() && placeholders && reference.indexOf('&') != -1) {
+            return new Statement(Statement.Type.PROMPT,
+                    "not run (the name is set by a query): " + token.getCommand() + reference,
+                    source.file, token.getLine(), new ArrayList<String>());
+        }
+
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file + " not found (referenced by " +
+                    source.file + " line " + token.getLine() + ")");
+        }
+
+        sources.add(new Source(file));
+        return null;
+
+    }
+
+    /**
+     * Returns the names of the declared bind variables used in the specified text, skipping
+     * quoted strings (including q'[...]' literals), quoted identifiers and comments.
+     *
+     * @param text
+     *   The text of a statement.
+     * @param plsql
+     *   true if the text is a PL/SQL block. Each variable is bound once in a block.
+     * @return
+     *   The names of the bind variables in bind order.
+     */
+    List<String> getBinds(final String text, final boolean plsql) {
+        List<String> result = new ArrayList<String>();
+
+        if (variables.isEmpty() || text.indexOf(':') == -1) {
+            return result;
+        }
+
+        int i = 0;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if ((c == 'q' || c == 'Q') && i + 2 < text.length() && text.charAt(i + 1) == '\'' &&
+                    (i == 0 || !ScriptTokenizer.isNameChar(text.charAt(i - 1)))) {
+                // q'[...]' ends with the closing delimiter followed by a quote
+                char close = ScriptTokenizer.getQuoteEnd(text.charAt(i + 2));
+                int end = text.indexOf(close + "'", i + 3);
+                i = (end == -1) ? text.length() : end + 2;
+
+            } else if (c == '\'' || c == '"') {
+                int end = text.indexOf(c, i + 1);
+                i = (end == -1) ? text.length() : end + 1;
+
+            } else if (c == '-' && text.startsWith("--", i)) {
+                int end = text.indexOf('\n', i);
+                i = (end == -1) ? text.length() : end + 1;
+
+            } else if (c == '/' && text.startsWith("/*", i)) {
+                int end = text.indexOf("*/", i + 2);
+                i = (end == -1) ? text.length() : end + 2;
+
+            } else if (c == ':') {
+                int end = i + 1;
+                while (end < text.length() && ScriptTokenizer.isNameChar(text.charAt(end))) {
+                    end++;
+                }
+
+                String name = text.substring(i + 1, end);
+
+                if (variables.contains(name) && !(plsql && containsIgnoreCase(result, name))) {
+                    result.add(name);
+                }
+
+                i = Math.max(end, i + 1);
+
+            } else {
+                i++;
+
+            }
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns true if the specified list contains the specified name (ignoring case).
+     */
+    private static boolean containsIgnoreCase(final List<String> names, final String name) {
+        for (String s : names) {
+            if (s.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets a substitution variable. This is used to set variables from query columns
+     * (see getNewValues).
+     *
+     * @param name
+     *   The name of the variable.
+     * @param value
+     *   The value of the variable.
+     */
+    public void define(final String name, final String value) {
+        defines.put(name, value);
+    }
+
+    /**
+     * Returns the substitution variables that are set from query columns by
+     * COLUMN ... NEW_VALUE commands.
+     * <br/>
+     * When a query is run, the value of each of these columns in the last row returned should
+     * be passed to define.
+     *
+     * @return
+     *   The names of the variables keyed by (case insensitive) column name.
+     */
+    public Map<String, String> getNewValues() {
+        Map<String, String> result =
+                new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        result.putAll(newValues);
+        return result;
+    }
+
+    /**
+     * Closes the script that is being read now.
+     */
+    private void closeLast() throws IOException {
+        sources.removeLast().tokenizer.close();
+    }
+
+    /**
+     * Closes every script that is open. next returns null after this has been called.
+     *
+     * @throws IOException
+     *   If we fail to close a script.
+     */
+    public void close() throws IOException {
+        while (!sources.isEmpty()) {
+            closeLast();
+        }
+    }
+
+} // End of class ScriptReader
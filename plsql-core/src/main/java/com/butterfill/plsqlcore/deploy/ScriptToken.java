@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A statement or SQL*Plus command read from a script by ScriptTokenizer.
+ * <br/>
+ * Positions are those of the first character of the token in the script. Substitution
+ * variables are not replaced.
+ *
+ * @author peter
+ */
+public final class ScriptToken {
+
+    /**
+     * The kinds of token.
+     */
+    public static enum Kind {
+
+        /**
+         * A SQL statement (terminated by ; or /). The text is the statement without the
+         * terminator.
+         */
+        SQL,
+
+        /**
+         * A PL/SQL block or a CREATE statement for a PL/SQL unit (terminated by /).
+         * The text is the block without the terminator.
+         */
+        PLSQL,
+
+        /**
+         * A PROMPT command. The text is the text to display.
+         */
+        PROMPT,
+
+        /**
+         * A command that runs another script. The command is @ or @@.
+         * The text is the reference to the script (without any arguments).
+         */
+        INCLUDE,
+
+        /**
+         * A command that sets a substitution variable (DEFINE name = value).
+         * The name is the name of the variable. The text is the value without quotes.
+         */
+        DEFINE,
+
+        /**
+         * Any other SQL*Plus command (e.g. SET, VARIABLE or COLUMN).
+         * The command is the full name of the command in upper case (e.g. COLUMN for COL).
+         * The text is the rest of the line (the arguments of the command).
+         */
+        COMMAND
+
+    } // End of enum Kind
+
+    /**
+     * The kind of this token.
+     */
+    private final Kind kind;
+
+    /**
+     * The command of this token. null for SQL and PL/SQL.
+     */
+    private final String command;
+
+    /**
+     * The name of the variable set by a DEFINE. null for other kinds.
+     */
+    private final String name;
+
+    /**
+     * The text of this token.
+     */
+    private final String text;
+
+    /**
+     * False if this is a statement that is not terminated.
+     */
+    private final boolean terminated;
+
+    /**
+     * The line on which this token starts (the first line is 1).
+     */
+    private final int line;
+
+    /**
+     * The column at which this token starts (the first column is 1).
+     */
+    private final int column;
+
+    /**
+     * The offset (in characters from the start of the script) of the first character of
+     * this token.
+     */
+    private final long offset;
+
+    /**
+     * The offset of the character after the last character of this token (including any
+     * terminator).
+     */
+    private final long endOffset;
+
+    /**
+     * Creates a new token.
+     *
+     * @param kind
+     *   The kind of token.
+     * @param command
+     *   The command. null for SQL and PL/SQL.
+     * @param name
+     *   The name of the variable set by a DEFINE. null for other kinds.
+     * @param text
+     *   The text of the token.
+     * @param terminated
+     *   False if the token is a statement that is not terminated.
+     * @param line
+     *   The line on which the token starts.
+     * @param column
+     *   The column at which the token starts.
+     * @param offset
+     *   The offset of the first character of the token.
+     * @param endOffset
+     *   The offset of the character after the token.
+     */
+    ScriptToken(final Kind kind, final String command, final String name, final String text,
+            final boolean terminated, final int line, final int column, final long offset,
+            final long endOffset) {
+        this.kind = kind;
+        this.command = command;
+        this.name = name;
+        this.text = text;
+        this.terminated = terminated;
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * Returns the kind of this token.
+     *
+     * @return
+     *   The kind of this token.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the command of this token (e.g. @@, PROMPT or COLUMN).
+     *
+     * @return
+     *   The command in upper case. null for SQL and PL/SQL.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the name of the variable set by a DEFINE.
+     *
+     * @return
+     *   The name of the variable. null if this is not a DEFINE.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the text of this token (see Kind).
+     *
+     * @return
+     *   The text of this token.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns false if this is a statement that is not terminated. Only the last token of a
+     * script can be a statement that is not terminated.
+     *
+     * @return
+     *   false if this is a statement that is not terminated.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Returns the line on which this token starts.
+     *
+     * @return
+     *   The line number. The first line is 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the column at which this token starts.
+     *
+     * @return
+     *   The column number. The first column is 1.
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns the offset of the first character of this token.
+     *
+     * @return
+     *   The offset in characters from the start of the script.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the offset of the character after this token, including any terminator.
+     *
+     * @return
+     *   The offset in characters from the start of the script.
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Returns the positions of the substitution variables (&amp;name or &amp;&amp;name) in
+     * the text of this token.
+     * <br/>
+     * As in SQL*Plus, variables in quoted strings and comments are included.
+     *
+     * @return
+     *   The index in the text of the first &amp; of each variable.
+     */
+    public List<Integer> getSubstitutions() {
+        List<Integer> result = new ArrayList<Integer>();
+        int i = text.indexOf('&');
+
+        while (i != -1) {
+            int start = i;
+            if (i + 1 < text.length() && text.charAt(i + 1) == '&') {
+                i++;
+            }
+            if (i + 1 < text.length() && ScriptTokenizer.isNameChar(text.charAt(i + 1))) {
+                result.add(start);
+            }
+            i = text.indexOf('&', i + 1);
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the kind, position and text of this token.
+     *
+     * @return
+     *   A description of this token.
+     */
+    @Override
+    public String toString() {
+        return kind + (command == null ? "" : " " + command) +
+                (name == null ? "" : " " + name) + " line " + line + " column " + column +
+                ": " + text;
+    }
+
+} // End of class ScriptToken
@@ -0,0 +1,672 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits a SQL*Plus script into statements and SQL*Plus commands (see ScriptToken).
+ * <br/>
+ * The script is read incrementally. Only the line being read and the statement it belongs
+ * to are held in memory, so scripts of any size (e.g. large package bodies) can be read.
+ * <br/>
+ * The following SQL*Plus rules are followed:
+ * <ul>
+ * <li>A PL/SQL block (DECLARE or BEGIN) or a CREATE statement for a PL/SQL unit
+ * (package, procedure, function, trigger, type, library or java) ends with a line holding
+ * only /.</li>
+ * <li>Any other SQL statement ends with ; at the end of a line (optionally followed by a
+ * -- comment) or a line holding only /.</li>
+ * <li>Terminators in quoted strings (including q'[...]' literals), quoted identifiers and
+ * comments are ignored.</li>
+ * <li>A SQL*Plus command (which may be abbreviated, e.g. PRO for PROMPT) takes one line.
+ * </li>
+ * <li>Comments, blank lines and lines holding only / between statements are skipped, as
+ * are REMARK commands.</li>
+ * </ul>
+ * A statement that is not terminated at the end of the script is returned (SQL*Plus would
+ * leave it in the buffer without running it) but is not marked as terminated.
+ * Substitution variables are not replaced (see ScriptToken.getSubstitutions).
+ *
+ * @author peter
+ */
+public final class ScriptTokenizer {
+
+    /**
+     * The number of characters read from the reader at a time.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The SQL*Plus commands that can appear in scripts. The optional part of each command is
+     * in square brackets.
+     */
+    private static final String[] COMMANDS = {
+        "ACC[EPT]", "ATTRIBUTE", "BRE[AK]", "BTI[TLE]", "CL[EAR]", "COL[UMN]", "COMP[UTE]",
+        "CONN[ECT]", "DEF[INE]", "DESC[RIBE]", "DISC[ONNECT]", "EXEC[UTE]", "EXIT", "HO[ST]",
+        "PASSW[ORD]", "PAU[SE]", "PRI[NT]", "PRO[MPT]", "QUIT", "REM[ARK]", "REPF[OOTER]",
+        "REPH[EADER]", "SET", "SHO[W]", "SPO[OL]", "STA[RT]", "STORE", "TIMI[NG]", "TTI[TLE]",
+        "UNDEF[INE]", "VAR[IABLE]", "WHENEVER"
+    };
+
+    /**
+     * The full name of each SQL*Plus command keyed by every abbreviation of the command.
+     */
+    private static final Map<String, String> COMMAND_NAMES = new HashMap<String, String>();
+
+    static {
+        for (String command : COMMANDS) {
+            int open = command.indexOf('[');
+
+            if (open == -1) {
+                COMMAND_NAMES.put(command, command);
+                continue;
+            }
+
+            String name = command.substring(0, open) +
+                    command.substring(open + 1, command.length() - 1);
+
+            for (int i = open; i <= name.length(); i++) {
+                COMMAND_NAMES.put(name.substring(0, i), name);
+            }
+
+        }
+    }
+
+    /**
+     * SQL statements that start with SET (the other SET commands are SQL*Plus commands).
+     */
+    private static final Set<String> SQL_SET_STATEMENTS = new HashSet<String>(Arrays.asList(
+            "CONSTRAINT", "CONSTRAINTS", "ROLE", "TRANSACTION"));
+
+    /**
+     * The types of PL/SQL unit that are created by statements that end with /.
+     */
+    private static final Set<String> PLSQL_UNITS = new HashSet<String>(Arrays.asList(
+            "FUNCTION", "JAVA", "LIBRARY", "PACKAGE", "PROCEDURE", "TRIGGER", "TYPE"));
+
+    /**
+     * The maximum number of words needed to decide if a statement is PL/SQL
+     * (CREATE OR REPLACE NONEDITIONABLE PACKAGE).
+     */
+    private static final int PLSQL_WORDS = 5;
+
+    /**
+     * Lexical state: not in a string or comment.
+     */
+    private static final int NORMAL = 0;
+
+    /**
+     * Lexical state: in a string ('...').
+     */
+    private static final int QUOTE = 1;
+
+    /**
+     * Lexical state: in a q-quoted string (e.g. q'[...]').
+     */
+    private static final int Q_QUOTE = 2;
+
+    /**
+     * Lexical state: in a quoted identifier ("...").
+     */
+    private static final int DOUBLE_QUOTE = 3;
+
+    /**
+     * Lexical state: in a comment (/* ... *&#47;).
+     */
+    private static final int BLOCK_COMMENT = 4;
+
+    /**
+     * The script.
+     */
+    private final Reader reader;
+
+    /**
+     * Characters read from the reader.
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * The index in buffer of the next character to read.
+     */
+    private int position;
+
+    /**
+     * The number of characters in buffer.
+     */
+    private int limit;
+
+    /**
+     * Holds the line being read.
+     */
+    private final StringBuilder lineBuilder = new StringBuilder();
+
+    /**
+     * Holds the statement being read.
+     */
+    private final StringBuilder statement = new StringBuilder();
+
+    /**
+     * The line that has just been read.
+     */
+    private String line;
+
+    /**
+     * The number of the line that has just been read.
+     */
+    private int lineNumber;
+
+    /**
+     * The offset of the line that has just been read.
+     */
+    private long lineOffset;
+
+    /**
+     * The offset of the next character to read.
+     */
+    private long nextOffset;
+
+    /**
+     * True while skipping a comment (between statements) that started on an earlier line.
+     */
+    private boolean inComment;
+
+    /**
+     * The first words of the statement being read (not counting words in strings and
+     * comments).
+     */
+    private final String[] words = new String[PLSQL_WORDS];
+
+    /**
+     * The number of words in words.
+     */
+    private int wordCount;
+
+    /**
+     * Creates a tokenizer of the specified script.
+     * The reader does not need to be buffered.
+     *
+     * @param reader
+     *   Reads the script.
+     */
+    public ScriptTokenizer(final Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return
+     *   The next token or null if there are no more tokens.
+     * @throws IOException
+     *   If we fail to read the script.
+     */
+    public ScriptToken next() throws IOException {
+        while (readLine()) {
+            String text = line;
+            int from = 0;
+
+            if (inComment) {
+                int end = text.indexOf("*/");
+
+                if (end == -1) {
+                    continue;
+                }
+
+                // carry on with whatever follows the comment on this line
+                inComment = false;
+                from = end + 2;
+
+            }
+
+            int start = skipWhitespace(text, from);
+
+            // skip blank lines, comments and / (which would run the last statement again)
+            if (start == text.length() || text.startsWith("--", start) ||
+                    "/".equals(text.substring(start).trim())) {
+                continue;
+            }
+
+            if (text.startsWith("/*", start)) {
+                int end = text.indexOf("*/", start + 2);
+
+                if (end == -1) {
+                    inComment = true;
+                    continue;
+                }
+
+                if (skipWhitespace(text, end + 2) == text.length()) {
+                    continue;
+                }
+
+                return readStatement(start);
+
+            }
+
+            if (text.charAt(start) == '@') {
+                return readInclude(start);
+            }
+
+            int wordEnd = skipWord(text, start);
+            String command = COMMAND_NAMES.get(text.substring(start, wordEnd).toUpperCase());
+
+            if ("SET".equals(command)) {
+                int next = skipWhitespace(text, wordEnd);
+                if (SQL_SET_STATEMENTS.contains(
+                        text.substring(next, skipWord(text, next)).toUpperCase())) {
+                    command = null;
+                }
+            }
+
+            if (command == null) {
+                return readStatement(start);
+            }
+
+            String rest = text.substring(wordEnd).trim();
+
+            if ("REMARK".equals(command)) {
+                continue;
+
+            } else if ("PROMPT".equals(command)) {
+                return createToken(ScriptToken.Kind.PROMPT, command, null, rest, start);
+
+            } else if ("DEFINE".equals(command)) {
+                int equals = rest.indexOf('=');
+                String name = (equals == -1) ? "" : rest.substring(0, equals).trim();
+
+                if (name.length() != 0 && skipWord(name, 0) == name.length()) {
+                    return createToken(ScriptToken.Kind.DEFINE, command, name,
+                            unquote(rest.substring(equals + 1).trim()), start);
+                }
+
+            }
+
+            return createToken(ScriptToken.Kind.COMMAND, command, null, rest, start);
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns an @ or @@ command that starts at the specified index of the current line.
+     */
+    private ScriptToken readInclude(final int start) {
+        String command = line.startsWith("@@", start) ? "@@" : "@";
+        int referenceStart = skipWhitespace(line, start + command.length());
+        String reference = line.substring(referenceStart, skipWord(line, referenceStart));
+        return createToken(ScriptToken.Kind.INCLUDE, command, null, reference, start);
+    }
+
+    /**
+     * Returns a one line token that starts at the specified index of the current line.
+     */
+    private ScriptToken createToken(final ScriptToken.Kind kind, final String command,
+            final String name, final String text, final int start) {
+        return new ScriptToken(kind, command, name, text, true, lineNumber, start + 1,
+                lineOffset + start, nextOffset);
+    }
+
+    /**
+     * Reads a SQL statement or PL/SQL block that starts at the specified index of the
+     * current line.
+     */
+    private ScriptToken readStatement(final int start) throws IOException {
+        int startLine = lineNumber;
+        long startOffset = lineOffset + start;
+        int state = NORMAL;
+        char quoteEnd = 0;
+        Boolean plsql = null;
+        boolean terminated = true;
+        String text = line;
+        int from = start;
+
+        statement.setLength(0);
+        wordCount = 0;
+
+        while (true) {
+            int lineStart = statement.length();
+            int semicolon = -1;
+
+            statement.append(text, from, text.length()).append('\n');
+
+            for (int i = from; i < text.length(); i++) {
+                char c = text.charAt(i);
+
+                if (state == NORMAL) {
+                    if (isNameChar(c)) {
+                        int end = i + 1;
+                        while (end < text.length() && isNameChar(text.charAt(end))) {
+                            end++;
+                        }
+
+                        if (end + 1 < text.length() && text.charAt(end) == '\'' &&
+                                isQuotePrefix(text, i, end)) {
+                            state = Q_QUOTE;
+                            quoteEnd = getQuoteEnd(text.charAt(end + 1));
+                            i = end + 1;
+
+                        } else {
+                            if (plsql == null && wordCount < PLSQL_WORDS) {
+                                words[wordCount++] = text.substring(i, end).toUpperCase();
+                                plsql = isPlsql(false);
+                            }
+                            i = end - 1;
+
+                        }
+
+                        semicolon = -1;
+
+                    } else if (c == '\'') {
+                        state = QUOTE;
+                        semicolon = -1;
+
+                    } else if (c == '"') {
+                        state = DOUBLE_QUOTE;
+                        semicolon = -1;
+
+                    } else if (c == '-' && text.startsWith("--", i)) {
+                        break;
+
+                    } else if (c == '/' && text.startsWith("/*", i)) {
+                        state = BLOCK_COMMENT;
+                        i++;
+
+                    } else if (c == ';') {
+                        semicolon = i;
+
+                    } else if (!Character.isWhitespace(c)) {
+                        semicolon = -1;
+
+                    }
+
+                } else if (state == QUOTE) {
+                    // '' (an escaped quote) ends the string and starts another
+                    if (c == '\'') {
+                        state = NORMAL;
+                    }
+
+                } else if (state == Q_QUOTE) {
+                    if (c == quoteEnd && i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+                        state = NORMAL;
+                        i++;
+                    }
+
+                } else if (state == DOUBLE_QUOTE) {
+                    if (c == '"') {
+                        state = NORMAL;
+                    }
+
+                } else if (c == '*' && i + 1 < text.length() && text.charAt(i + 1) == '/') {
+                    state = NORMAL;
+                    i++;
+
+                }
+
+            }
+
+            // the type of a CREATE statement can be on a later line, so the statement is only
+            // taken to be SQL when there are not enough words if it ends here
+            if (state == NORMAL && semicolon != -1 &&
+                    !(plsql == null ? isPlsql(true) : plsql)) {
+                statement.setLength(lineStart + semicolon - from);
+                break;
+            }
+
+            if (!readLine()) {
+                terminated = false;
+                break;
+            }
+
+            text = line;
+            from = 0;
+
+            if (state == NORMAL && text.trim().equals("/")) {
+                break;
+            }
+
+        }
+
+        int end = statement.length();
+        while (end > 0 && Character.isWhitespace(statement.charAt(end - 1))) {
+            end--;
+        }
+
+        if (plsql == null) {
+            plsql = isPlsql(true);
+        }
+
+        return new ScriptToken(plsql ? ScriptToken.Kind.PLSQL : ScriptToken.Kind.SQL, null,
+                null, statement.substring(0, end), terminated, startLine, start + 1,
+                startOffset, nextOffset);
+
+    }
+
+    /**
+     * Returns true if the words read so far start a PL/SQL block, false if they do not
+     * or null if more words are needed to decide.
+     *
+     * @param complete
+     *   true if no more words will be read (so null is not returned).
+     */
+    private Boolean isPlsql(final boolean complete) {
+        if (wordCount == 0) {
+            return complete ? Boolean.FALSE : null;
+        }
+
+        if ("DECLARE".equals(words[0]) || "BEGIN".equals(words[0])) {
+            return Boolean.TRUE;
+        }
+
+        if (!"CREATE".equals(words[0])) {
+            return Boolean.FALSE;
+        }
+
+        int i = 1;
+
+        if (i < wordCount && "OR".equals(words[i])) {
+            i += 2;
+        }
+
+        if (i < wordCount && ("EDITIONABLE".equals(words[i]) ||
+                "NONEDITIONABLE".equals(words[i]))) {
+            i++;
+        }
+
+        if (i >= wordCount) {
+            return (complete || wordCount == PLSQL_WORDS) ? Boolean.FALSE : null;
+        }
+
+        return PLSQL_UNITS.contains(words[i]);
+
+    }
+
+    /**
+     * Returns true if the word from start to end (the index of a quote) is the prefix of a
+     * q-quoted string (q or nq).
+     */
+    private static boolean isQuotePrefix(final String text, final int start, final int end) {
+        char q = text.charAt(end - 1);
+
+        if (q != 'q' && q != 'Q') {
+            return false;
+        }
+
+        return end - start == 1 ||
+                (end - start == 2 && (text.charAt(start) == 'n' || text.charAt(start) == 'N'));
+
+    }
+
+    /**
+     * Returns the character that ends a q-quoted string that starts with the specified
+     * delimiter.
+     *
+     * @param delimiter
+     *   The character after q'.
+     * @return
+     *   The closing bracket for [, {, ( and &lt;. Otherwise the delimiter.
+     */
+    static char getQuoteEnd(final char delimiter) {
+        switch (delimiter) {
+            case '[':
+                return ']';
+            case '{':
+                return '}';
+            case '(':
+                return ')';
+            case '<':
+                return '>';
+            default:
+                return delimiter;
+        }
+    }
+
+    /**
+     * Returns the specified value without enclosing quotes.
+     */
+    private static String unquote(final String value) {
+        if (value.length() > 1 && (value.charAt(0) == '"' || value.charAt(0) == '\'') &&
+                value.charAt(value.length() - 1) == value.charAt(0)) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the specified character can be part of a name.
+     *
+     * @param c
+     *   The character.
+     * @return
+     *   true if the character is a letter, digit, _, $ or #.
+     */
+    static boolean isNameChar(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+
+    /**
+     * Returns the index of the first character at or after from that is not white space.
+     */
+    private static int skipWhitespace(final String text, final int from) {
+        int i = from;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the first white space character at or after from.
+     */
+    private static int skipWord(final String text, final int from) {
+        int i = from;
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads the next line into line. A line ends with \n, \r or \r\n.
+     *
+     * @return
+     *   false if there are no more lines.
+     */
+    private boolean readLine() throws IOException {
+        lineBuilder.setLength(0);
+        lineOffset = nextOffset;
+
+        boolean read = false;
+
+        while (true) {
+            if (position == limit && !fill()) {
+                if (!read) {
+                    return false;
+                }
+                break;
+            }
+
+            read = true;
+            int start = position;
+
+            while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+                position++;
+            }
+
+            lineBuilder.append(buffer, start, position - start);
+            nextOffset += position - start;
+
+            if (position < limit) {
+                char c = buffer[position++];
+                nextOffset++;
+
+                if (c == '\r' && (position < limit || fill()) && buffer[position] == '\n') {
+                    position++;
+                    nextOffset++;
+                }
+
+                break;
+
+            }
+
+        }
+
+        line = lineBuilder.toString();
+        lineNumber++;
+
+        return true;
+
+    }
+
+    /**
+     * Reads more characters into buffer.
+     *
+     * @return
+     *   false if there are no more characters.
+     */
+    private boolean fill() throws IOException {
+        int count = 0;
+
+        while (count == 0) {
+            count = reader.read(buffer, 0, buffer.length);
+        }
+
+        position = 0;
+        limit = Math.max(0, count);
+
+        return count > 0;
+
+    }
+
+    /**
+     * Closes the reader of the script.
+     *
+     * @throws IOException
+     *   If we fail to close the reader.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+} // End of class ScriptTokenizer
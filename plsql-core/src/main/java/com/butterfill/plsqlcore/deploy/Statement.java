@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A statement read from a SQL*Plus script by ScriptReader.
+ *
+ * @author peter
+ */
+public final class Statement {
+
+    /**
+     * The types of statement.
+     */
+    public static enum Type {
+
+        /**
+         * A SQL statement (terminated by ; or /). The terminator is not part of the text.
+         */
+        SQL,
+
+        /**
+         * A PL/SQL block or a CREATE statement for a PL/SQL unit (e.g. a package body)
+         * (terminated by /). The terminator is not part of the text.
+         */
+        PLSQL,
+
+        /**
+         * A SQL*Plus PROMPT command. The text is the text to display.
+         */
+        PROMPT
+
+    } // End of enum Type
+
+    /**
+     * The type of this statement.
+     */
+    private final Type type;
+
+    /**
+     * The text of this statement with substitution variables replaced.
+     */
+    private final String text;
+
+    /**
+     * The script that holds this statement.
+     */
+    private final File file;
+
+    /**
+     * The line of the script on which this statement starts (the first line is 1).
+     */
+    private final int line;
+
+    /**
+     * The names of the bind variables used by this statement in bind order.
+     */
+    private final List<String> binds;
+
+    /**
+     * Creates a new statement.
+     *
+     * @param type
+     *   The type of the statement.
+     * @param text
+     *   The text of the statement.
+     * @param file
+     *   The script that holds the statement.
+     * @param line
+     *   The line of the script on which the statement starts.
+     * @param binds
+     *   The names of the bind variables used by the statement in bind order.
+     */
+    public Statement(final Type type, final String text, final File file, final int line,
+            final List<String> binds) {
+        this.type = type;
+        this.text = text;
+        this.file = file;
+        this.line = line;
+        this.binds = Collections.unmodifiableList(new ArrayList<String>(binds));
+    }
+
+    /**
+     * Returns the type of this statement.
+     *
+     * @return
+     *   The type of this statement.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the text of this statement, with substitution variables replaced and without
+     * a terminator.
+     *
+     * @return
+     *   The text of this statement.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the script that holds this statement.
+     *
+     * @return
+     *   The script that holds this statement.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the line of the script on which this statement starts.
+     *
+     * @return
+     *   The line number. The first line is 1.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the names of the bind variables (declared by SQL*Plus VARIABLE commands) used
+     * by this statement in bind order.
+     * <br/>
+     * As with Oracle, each use of a variable in a SQL statement is a separate bind.
+     * In a PL/SQL block, each variable is bound once (in order of first use).
+     *
+     * @return
+     *   The names of the bind variables.
+     */
+    public List<String> getBinds() {
+        return binds;
+    }
+
+    /**
+     * Returns true if this is a query (a SQL statement that starts with SELECT or WITH).
+     *
+     * @return
+     *   true if this is a query.
+     */
+    public boolean isQuery() {
+        if (type != Type.SQL) {
+            return false;
+        }
+        String start = text.substring(0, Math.min(text.length(), 7)).toUpperCase();
+        return start.startsWith("SELECT") || start.startsWith("WITH");
+    }
+
+    /**
+     * Returns the location of this statement (e.g. /sql/logger/build.sql line 12).
+     *
+     * @return
+     *   The location of this statement.
+     */
+    public String getLocation() {
+        return file.getPath() + " line " + line;
+    }
+
+    /**
+     * Returns the type, location and text of this statement.
+     *
+     * @return
+     *   A description of this statement.
+     */
+    @Override
+    public String toString() {
+        return type + " " + getLocation() + ": " + text;
+    }
+
+} // End of class Statement
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Runs statements read from SQL*Plus scripts against a database.
+ * <br/>
+ * The Deployer opens one session per thread and uses it for every module that thread
+ * installs. Implementations must allow sessions to be opened and used by different threads
+ * at the same time.
+ *
+ * @author peter
+ */
+public interface StatementExecutor {
+
+    /**
+     * A connection to the database used by one thread at a time.
+     */
+    interface Session {
+
+        /**
+         * Runs the specified SQL or PL/SQL statement.
+         *
+         * @param statement
+         *   The statement to run. This will not be a PROMPT.
+         * @param binds
+         *   The values of the bind variables keyed by (case insensitive) variable name.
+         *   Values set by a PL/SQL statement are put back in this map.
+         * @return
+         *   For a query, the last row returned keyed by upper case column label.
+         *   null if the statement is not a query or no rows were returned.
+         * @throws SQLException
+         *   If the statement fails.
+         */
+        Map<String, String> execute(Statement statement, Map<String, String> binds)
+                throws SQLException;
+
+        /**
+         * Commits the current transaction.
+         *
+         * @throws SQLException
+         *   If the commit fails.
+         */
+        void commit() throws SQLException;
+
+        /**
+         * Rolls back the current transaction.
+         *
+         * @throws SQLException
+         *   If the roll back fails.
+         */
+        void rollback() throws SQLException;
+
+        /**
+         * Closes this session.
+         *
+         * @throws SQLException
+         *   If we fail to close the session.
+         */
+        void close() throws SQLException;
+
+    } // End of interface Session
+
+    /**
+     * Opens a new session.
+     *
+     * @return
+     *   A new session.
+     * @throws SQLException
+     *   If we fail to open a session.
+     */
+    Session openSession() throws SQLException;
+
+} // End of interface StatementExecutor
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class BufferPoolTest extends TestCase {
+    
+    public BufferPoolTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(BufferPoolTest.class);
+        return suite;
+    }
+
+    /**
+     * Test of acquire and release methods, of class BufferPool.
+     */
+    public void testAcquire() {
+        System.out.println("acquire");
+        
+        BufferPool pool = new BufferPool(20000, 2);
+        assertEquals(32 * 1024, pool.getMaxBufferSize());
+        
+        assertEquals(4 * 1024, pool.acquire(0).length);
+        assertEquals(4 * 1024, pool.acquire(4096).length);
+        assertEquals(8 * 1024, pool.acquire(4097).length);
+        assertEquals(32 * 1024, pool.acquire(20000).length);
+        assertEquals(32 * 1024, pool.acquire(1000000).length);
+        assertEquals(32 * 1024, pool.acquire(-1).length);
+        assertEquals(6, pool.getAllocatedCount());
+        
+        byte[] a = pool.acquire(100);
+        byte[] b = pool.acquire(100);
+        byte[] c = pool.acquire(100);
+        assertEquals(9, pool.getAllocatedCount());
+        pool.release(a);
+        pool.release(b);
+        // the pool only keeps 2 buffers of each size
+        pool.release(c);
+        // buffers that did not come from the pool are ignored
+        pool.release(new byte[100]);
+        pool.release(new byte[64 * 1024]);
+        pool.release(null);
+        
+        assertNotSame(pool.acquire(100), pool.acquire(100));
+        assertEquals(9, pool.getAllocatedCount());
+        assertEquals(4 * 1024, pool.acquire(100).length);
+        assertEquals(10, pool.getAllocatedCount());
+        
+        BufferPool noPool = new BufferPool(0, 0);
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, noPool.getMaxBufferSize());
+        noPool.release(noPool.acquire(10));
+        noPool.acquire(10);
+        assertEquals(2, noPool.getAllocatedCount());
+        
+    }
+    
+    /**
+     * Test of buffer method, of class BufferPool.
+     */
+    public void testBuffer() throws Exception {
+        System.out.println("buffer");
+        
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        
+        BufferPool pool = new BufferPool(8 * 1024, 1);
+        
+        for (int round = 0; round < 3; round++) {
+            InputStream in = pool.buffer(new ByteArrayInputStream(data), data.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(in.read());
+            byte[] b = new byte[3000 * (round + 1)];
+            for (int i = in.read(b); i != -1; i = in.read(b)) {
+                out.write(b, 0, i);
+            }
+            in.close();
+            in.close();
+            assertTrue(Arrays.equals(data, out.toByteArray()));
+        }
+        
+        assertEquals(1, pool.getAllocatedCount());
+        
+    }
+    
+    /**
+     * Checks that extraction reuses buffers from the shared pool.
+     */
+    public void testSharedPool() throws Exception {
+        System.out.println("shared pool");
+        
+        File jar = ExtractorMainTest.createTestJar("buffer-pool-test.jar", ZipEntry.DEFLATED);
+        ExtractorMain extractor = ExtractorMain.forJar(jar);
+        extractor.setOutputDirectoryName("target/buffer-pool");
+        
+        extractor.extract();
+        extractor.setRandomAccess(false);
+        extractor.extract();
+        extractor.setRandomAccess(true);
+        
+        int allocated = BufferPool.SHARED.getAllocatedCount();
+        
+        for (int i = 0; i < 10; i++) {
+            extractor.extract();
+            extractor.setRandomAccess(false);
+            extractor.extract();
+            extractor.setRandomAccess(true);
+        }
+        
+        assertEquals(allocated, BufferPool.SHARED.getAllocatedCount());
+        
+    }
+    
+}
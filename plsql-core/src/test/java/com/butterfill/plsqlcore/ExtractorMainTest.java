@@ -16,9 +16,27 @@
 
 package com.butterfill.plsqlcore;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -31,6 +49,96 @@ public class ExtractorMainTest extends TestCase {
     
     private ExtractorMain instance;
     
+    /**
+     * Creates a jar containing a few modules (and some entries that should never be extracted).
+     */
+    static File createTestJar(final String name) throws Exception {
+        return createTestJar(name, ZipEntry.DEFLATED);
+    }
+    
+    /**
+     * Creates a jar containing a few modules using the specified compression method.
+     */
+    static File createTestJar(final String name, final int method) throws Exception {
+        File jar = new File("target" + File.separator + name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        String[] names = {
+            "com/", "com/x.class",
+            "plsql/", 
+            "plsql/logger/", "plsql/logger/build.sql", "plsql/logger/logger.bdy", 
+            "plsql/logger/todo.txt",
+            "plsql/properties/", "plsql/properties/build.sql", 
+            "plsql/properties/admin/", "plsql/properties/admin/build.sql",
+            "plsql/audit/", "plsql/audit/build.sql"
+        };
+        for (String entryName : names) {
+            StringBuilder data = new StringBuilder();
+            for (int i = 0; !entryName.endsWith("/") && i < 500; i++) {
+                data.append("-- ").append(entryName).append(" line ").append(i).append("\n");
+            }
+            byte[] bytes = data.toString().getBytes("ISO-8859-1");
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setMethod(method);
+            if (method == ZipEntry.STORED) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setCrc(crc.getValue());
+                entry.setSize(bytes.length);
+                entry.setCompressedSize(bytes.length);
+            }
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+        out.close();
+        return jar;
+    }
+    
+    /**
+     * Returns the relative path and content of every file under the specified directory.
+     */
+    static TreeMap<String, String> readTree(final File dir) throws Exception {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        readTree(dir, "", result);
+        return result;
+    }
+    
+    private static void readTree(final File dir, final String path, 
+            final TreeMap<String, String> result) throws Exception {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                result.put(path + file.getName() + "/", "");
+                readTree(file, path + file.getName() + "/", result);
+            } else {
+                byte[] data = new byte[(int) file.length()];
+                FileInputStream in = new FileInputStream(file);
+                int offset = 0;
+                for (int i = in.read(data); i > 0; i = in.read(data, offset, data.length - offset)) {
+                    offset += i;
+                }
+                in.close();
+                result.put(path + file.getName(), new String(data, "ISO-8859-1"));
+            }
+        }
+    }
+    
+    /**
+     * Deletes the specified file or directory (and anything in it).
+     */
+    static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
     public ExtractorMainTest(String testName) {
         super(testName);
     }
@@ -61,6 +169,525 @@ public class ExtractorMainTest extends TestCase {
         new ExtractorMain(String.class);
     }
             
+    /**
+     * Test of forJar method, of class ExtractorMain.
+     */
+    public void testForJar() throws Exception {
+        System.out.println("forJar");
+        try {
+            ExtractorMain.forJar(null);
+            fail();
+        } catch (NullPointerException ex) {
+        }
+        ExtractorMain.forJar(new File("x.jar"));
+    }
+    
+    /**
+     * Test that random access and sequential extraction produce the same output.
+     */
+    public void testExtract_randomAccess() throws Exception {
+        System.out.println("extract randomAccess");
+        File jar = createTestJar("random-access-test.jar");
+        
+        ExtractorMain randomAccess = ExtractorMain.forJar(jar);
+        assertTrue(randomAccess.isRandomAccess());
+        randomAccess.setOutputDirectoryName("target/random-access");
+        delete(new File("target/random-access"));
+        randomAccess.extract(Arrays.asList("logger", "properties"));
+        
+        ExtractorMain sequential = ExtractorMain.forJar(jar);
+        sequential.setRandomAccess(false);
+        sequential.setOutputDirectoryName("target/sequential");
+        delete(new File("target/sequential"));
+        sequential.extract(Arrays.asList("logger", "properties"));
+        
+        TreeMap<String, String> result = readTree(new File("target/random-access"));
+        assertEquals(readTree(new File("target/sequential")), result);
+        assertTrue(result.containsKey("plsql-core/plsql/logger/build.sql"));
+        assertTrue(result.containsKey("plsql-core/plsql/logger/logger.bdy"));
+        assertTrue(result.containsKey("plsql-core/plsql/properties/build.sql"));
+        assertFalse(result.containsKey("plsql-core/plsql/logger/todo.txt"));
+        assertFalse(result.containsKey("plsql-core/plsql/properties/admin/"));
+        assertFalse(result.containsKey("plsql-core/plsql/audit/"));
+        
+    }
+            
+    
+    /**
+     * Test that parallel and serial extraction produce the same output.
+     */
+    public void testExtract_threadCount() throws Exception {
+        System.out.println("extract threadCount");
+        File jar = createTestJar("thread-count-test.jar");
+        
+        ExtractorMain serial = ExtractorMain.forJar(jar);
+        assertEquals(1, serial.getThreadCount());
+        serial.setOutputDirectoryName("target/serial");
+        delete(new File("target/serial"));
+        serial.extract();
+        
+        ExtractorMain parallel = ExtractorMain.forJar(jar);
+        try {
+            parallel.setThreadCount(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        parallel.setThreadCount(4);
+        assertEquals(4, parallel.getThreadCount());
+        parallel.setOutputDirectoryName("target/parallel");
+        delete(new File("target/parallel"));
+        parallel.extract();
+        
+        assertEquals(readTree(new File("target/serial")), readTree(new File("target/parallel")));
+        
+        // make one of the files un-writable by putting a directory in it's place
+        delete(new File("target/parallel/plsql-core/plsql/logger/build.sql"));
+        new File("target/parallel/plsql-core/plsql/logger/build.sql").mkdirs();
+        try {
+            parallel.extract();
+            fail();
+        } catch (FileNotFoundException ex) {
+            assertTrue(ex.getMessage().indexOf("build.sql") != -1);
+        }
+        
+    }
+    
+    /**
+     * Test that stored entries (copied straight from the jar) are extracted correctly.
+     */
+    public void testExtract_stored() throws Exception {
+        System.out.println("extract stored");
+        
+        ExtractorMain stored =
+                ExtractorMain.forJar(createTestJar("stored-test.jar", ZipEntry.STORED));
+        stored.setOutputDirectoryName("target/stored");
+        delete(new File("target/stored"));
+        stored.setThreadCount(2);
+        stored.extract();
+        
+        ExtractorMain deflated = ExtractorMain.forJar(createTestJar("deflated-test.jar"));
+        deflated.setOutputDirectoryName("target/deflated");
+        delete(new File("target/deflated"));
+        deflated.extract();
+        
+        TreeMap<String, String> result = readTree(new File("target/stored"));
+        assertEquals(readTree(new File("target/deflated")), result);
+        assertTrue(result.get("plsql-core/plsql/logger/logger.bdy").endsWith(
+                "-- plsql/logger/logger.bdy line 499\n"));
+        
+    }
+    
+    /**
+     * Test that incremental extraction only writes files that have changed.
+     */
+    public void testExtract_incremental() throws Exception {
+        System.out.println("extract incremental");
+        
+        for (int method : new int[] {ZipEntry.DEFLATED, ZipEntry.STORED}) {
+            ExtractorMain incremental = ExtractorMain.forJar(
+                    createTestJar("incremental-test.jar", method));
+            assertFalse(incremental.isIncremental());
+            incremental.setIncremental(true);
+            assertTrue(incremental.isIncremental());
+            incremental.setOutputDirectoryName("target/incremental");
+            delete(new File("target/incremental"));
+            
+            incremental.extract();
+            assertEquals(4, incremental.getWrittenCount());
+            assertEquals(0, incremental.getSkippedCount());
+            assertEquals(0, incremental.getRemovedCount());
+            TreeMap<String, String> expected = readTree(new File("target/incremental"));
+            File loggerManifest = new File(
+                    "target/incremental/plsql-core/plsql/logger/" + Manifest.FILE_NAME);
+            File auditManifest = new File(
+                    "target/incremental/plsql-core/plsql/audit/" + Manifest.FILE_NAME);
+            assertTrue(loggerManifest.setLastModified(946684800000L));
+            assertTrue(auditManifest.setLastModified(946684800000L));
+            
+            // manifests are not written when nothing has changed
+            incremental.extract();
+            assertEquals(0, incremental.getWrittenCount());
+            assertEquals(4, incremental.getSkippedCount());
+            assertEquals(0, incremental.getRemovedCount());
+            assertEquals(946684800000L, loggerManifest.lastModified());
+            assertEquals(946684800000L, auditManifest.lastModified());
+            
+            // change one file (keeping it's size) and add a file that is not in the jar
+            RandomAccessFile file = new RandomAccessFile(
+                    "target/incremental/plsql-core/plsql/logger/build.sql", "rw");
+            file.write('X');
+            file.close();
+            new FileOutputStream("target/incremental/plsql-core/plsql/logger/old.sql").close();
+            
+            // stored entries always have their size and CRC-32 in the local header
+            incremental.setRandomAccess(method == ZipEntry.DEFLATED);
+            incremental.extract();
+            assertEquals(1, incremental.getWrittenCount());
+            assertEquals(3, incremental.getSkippedCount());
+            assertEquals(1, incremental.getRemovedCount());
+            assertEquals(expected, readTree(new File("target/incremental")));
+            assertFalse(946684800000L == loggerManifest.lastModified());
+            assertEquals(946684800000L, auditManifest.lastModified());
+            assertEquals(Collections.emptyList(), incremental.verify());
+            
+        }
+        
+    }
+    
+    /**
+     * Test of verify method, of class ExtractorMain.
+     */
+    public void testVerify() throws Exception {
+        System.out.println("verify");
+        
+        ExtractorMain extractor = ExtractorMain.forJar(createTestJar("verify-test.jar"));
+        extractor.setOutputDirectoryName("target/verify");
+        delete(new File("target/verify"));
+        
+        try {
+            extractor.verify();
+            fail("nothing has been extracted");
+        } catch (IOException ex) {
+            // expected
+        }
+        
+        extractor.extract();
+        extractor.setThreadCount(3);
+        assertEquals(Collections.emptyList(), extractor.verify());
+        
+        // change one file (keeping it's size), remove one and add one that is not in the jar
+        RandomAccessFile file = new RandomAccessFile(
+                "target/verify/plsql-core/plsql/logger/build.sql", "rw");
+        file.write('X');
+        file.close();
+        new File("target/verify/plsql-core/plsql/audit/build.sql").delete();
+        new FileOutputStream("target/verify/plsql-core/plsql/logger/old.sql").close();
+        
+        assertEquals(Arrays.asList(
+                "missing: plsql/audit/build.sql",
+                "modified: plsql/logger/build.sql",
+                "unexpected: plsql/logger/old.sql"), 
+                extractor.verify());
+        
+        // an incremental extract puts things right
+        extractor.setIncremental(true);
+        extractor.extract();
+        assertEquals(Collections.emptyList(), extractor.verify());
+        
+    }
+    
+    /**
+     * Test that extraction using the module index produces the same output as extraction 
+     * using the central directory.
+     */
+    public void testExtract_moduleIndex() throws Exception {
+        System.out.println("extract moduleIndex");
+        
+        for (int method : new int[] {ZipEntry.DEFLATED, ZipEntry.STORED}) {
+            File jar = createTestJar("no-index-test.jar", method);
+            ExtractorMain noIndex = ExtractorMain.forJar(jar);
+            noIndex.setOutputDirectoryName("target/no-index");
+            delete(new File("target/no-index"));
+            noIndex.extract(Arrays.asList("logger", "audit"));
+            
+            File indexedJar = createTestJar("index-test.jar", method);
+            ModuleIndex.append(indexedJar);
+            ExtractorMain indexed = ExtractorMain.forJar(indexedJar);
+            indexed.setOutputDirectoryName("target/index");
+            indexed.setThreadCount(2);
+            delete(new File("target/index"));
+            indexed.extract(Arrays.asList("logger", "audit"));
+            
+            assertEquals(readTree(new File("target/no-index")), readTree(new File("target/index")));
+            
+            delete(new File("target/no-index"));
+            noIndex.extract();
+            delete(new File("target/index"));
+            indexed.extract();
+            
+            assertEquals(readTree(new File("target/no-index")), readTree(new File("target/index")));
+            
+            assertEquals(Arrays.asList("logger", "properties", "properties/admin", "audit"), 
+                    noIndex.getModules());
+            assertEquals(noIndex.getModules(), indexed.getModules());
+            
+        }
+        
+    }
+    
+    /**
+     * Replaces the zip file comment of the specified jar (which must already have a comment).
+     */
+    private static void setComment(final File jar, final String comment) throws Exception {
+        RandomAccessFile out = new RandomAccessFile(jar, "rw");
+        byte[] data = new byte[(int) out.length()];
+        out.readFully(data);
+        int position = new String(data, "ISO-8859-1").lastIndexOf(ModuleIndex.COMMENT_PREFIX);
+        assertTrue(position != -1);
+        // the comment length (little-endian) is just before the comment
+        out.seek(position - 2);
+        out.write(comment.length() & 0xFF);
+        out.write(comment.length() >> 8);
+        out.write(comment.getBytes("ISO-8859-1"));
+        out.setLength(position + comment.length());
+        out.close();
+    }
+    
+    /**
+     * Replaces the first occurrence of find in the specified file with replace (which must 
+     * be the same length).
+     */
+    private static void patch(final File file, final String find, final String replace) 
+            throws Exception {
+        assertEquals(find.length(), replace.length());
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        byte[] data = new byte[(int) out.length()];
+        out.readFully(data);
+        int position = new String(data, "ISO-8859-1").indexOf(find);
+        assertTrue(find, position != -1);
+        out.seek(position);
+        out.write(replace.getBytes("ISO-8859-1"));
+        out.close();
+    }
+    
+    /**
+     * Test that extraction falls back to the central directory when the module index does not
+     * match the jar.
+     */
+    public void testExtract_invalidModuleIndex() throws Exception {
+        System.out.println("extract invalidModuleIndex");
+        
+        ExtractorMain noIndex = ExtractorMain.forJar(createTestJar("no-index-test.jar"));
+        noIndex.setOutputDirectoryName("target/no-index");
+        delete(new File("target/no-index"));
+        noIndex.extract();
+        
+        for (int i = 0; i < 3; i++) {
+            File jar = createTestJar("invalid-index-test.jar");
+            ModuleIndex.append(jar);
+            
+            ZipFile zipFile = new ZipFile(jar);
+            String comment = zipFile.getComment();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    zipFile.getInputStream(zipFile.getEntry(ModuleIndex.ENTRY_NAME)), "UTF-8"));
+            String line = reader.readLine();
+            while (!line.startsWith("logger\tplsql/logger/build.sql\t")) {
+                line = reader.readLine();
+            }
+            zipFile.close();
+            
+            String offset = comment.substring(ModuleIndex.COMMENT_PREFIX.length());
+            
+            if (i == 0) {
+                // not a number
+                setComment(jar, ModuleIndex.COMMENT_PREFIX + "x" + offset);
+                
+            } else if (i == 1) {
+                // past the end of the jar
+                setComment(jar, ModuleIndex.COMMENT_PREFIX + jar.length() + offset);
+                
+            } else {
+                // an entry that has moved
+                String[] fields = line.split("\t");
+                String moved = String.valueOf(Long.parseLong(fields[3]) - 1);
+                assertEquals(fields[3].length(), moved.length());
+                fields[3] = moved;
+                StringBuilder movedLine = new StringBuilder(fields[0]);
+                for (int j = 1; j < fields.length; j++) {
+                    movedLine.append('\t').append(fields[j]);
+                }
+                patch(jar, line, movedLine.toString());
+                
+            }
+            
+            ExtractorMain invalid = ExtractorMain.forJar(jar);
+            invalid.setOutputDirectoryName("target/invalid-index");
+            delete(new File("target/invalid-index"));
+            invalid.extract();
+            
+            assertEquals("case " + i, readTree(new File("target/no-index")), 
+                    readTree(new File("target/invalid-index")));
+            assertEquals(noIndex.getModules(), invalid.getModules());
+            
+        }
+        
+    }
+    
+    /**
+     * Test of extract method using glob patterns and sub-project names.
+     */
+    public void testExtract_patterns() throws Exception {
+        System.out.println("extract patterns");
+        
+        for (boolean index : new boolean[] {false, true}) {
+            File jar = createTestJar("patterns-test.jar");
+            if (index) {
+                ModuleIndex.append(jar);
+            }
+            ExtractorMain patterns = ExtractorMain.forJar(jar);
+            patterns.setOutputDirectoryName("target/patterns");
+            delete(new File("target/patterns"));
+            patterns.extract(Arrays.asList("log*", "properties/admin"));
+            
+            TreeMap<String, String> result = readTree(new File("target/patterns"));
+            assertEquals(Arrays.asList(
+                    "plsql-core/", 
+                    "plsql-core/plsql/",
+                    "plsql-core/plsql/logger/",
+                    "plsql-core/plsql/logger/build.sql",
+                    "plsql-core/plsql/logger/logger.bdy",
+                    "plsql-core/plsql/logger/" + Manifest.FILE_NAME,
+                    "plsql-core/plsql/properties/",
+                    "plsql-core/plsql/properties/admin/",
+                    "plsql-core/plsql/properties/admin/build.sql",
+                    "plsql-core/plsql/properties/admin/" + Manifest.FILE_NAME), 
+                    new ArrayList<String>(result.keySet()));
+        }
+        
+    }
+    
+    /**
+     * An extract sink that records the name and content of every entry it receives.
+     */
+    private static final class RecordingSink implements ExtractSink {
+        
+        final TreeMap<String, String> files = new TreeMap<String, String>();
+        
+        final List<String> directories = new ArrayList<String>();
+        
+        public synchronized void directory(final ZipEntry entry) {
+            directories.add(entry.getName());
+        }
+        
+        public void file(final ZipEntry entry, final InputStream data) throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            for (int i = data.read(buffer); i != -1; i = data.read(buffer)) {
+                out.write(buffer, 0, i);
+            }
+            synchronized (this) {
+                files.put("plsql-core/" + entry.getName(), out.toString("ISO-8859-1"));
+            }
+        }
+        
+    }
+    
+    /**
+     * Returns the files (not directories or manifests) of the specified tree.
+     */
+    private static TreeMap<String, String> filesOf(final TreeMap<String, String> tree) {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : tree.entrySet()) {
+            if (!entry.getKey().endsWith("/") && !entry.getKey().endsWith(Manifest.FILE_NAME)) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+    
+    public void testExtract_sink() throws Exception {
+        System.out.println("extract sink");
+        
+        for (int method : new int[] {ZipEntry.DEFLATED, ZipEntry.STORED}) {
+            for (boolean index : new boolean[] {false, true}) {
+                File jar = createTestJar("sink-test.jar", method);
+                if (index) {
+                    ModuleIndex.append(jar);
+                }
+                ExtractorMain extractor = ExtractorMain.forJar(jar);
+                extractor.setOutputDirectoryName("target/sink");
+                delete(new File("target/sink"));
+                extractor.extract();
+                TreeMap<String, String> expected = filesOf(readTree(new File("target/sink")));
+                assertEquals(4, expected.size());
+                
+                delete(new File("target/sink"));
+                extractor.extract(Arrays.asList("log*", "properties/admin"));
+                TreeMap<String, String> expectedIncludes = 
+                        filesOf(readTree(new File("target/sink")));
+                assertEquals(3, expectedIncludes.size());
+                delete(new File("target/sink"));
+                
+                for (int threads : new int[] {1, 3}) {
+                    for (boolean randomAccess : new boolean[] {true, false}) {
+                        extractor.setThreadCount(threads);
+                        extractor.setRandomAccess(randomAccess);
+                        
+                        RecordingSink sink = new RecordingSink();
+                        extractor.extract(sink);
+                        assertEquals(expected, sink.files);
+                        assertTrue(sink.directories.contains("plsql/logger/"));
+                        
+                        sink = new RecordingSink();
+                        extractor.extract(Arrays.asList("log*", "properties/admin"), sink);
+                        assertEquals(expectedIncludes, sink.files);
+                        assertEquals(Arrays.asList("plsql/logger/", "plsql/properties/admin/"), 
+                                sink.directories);
+                        
+                    }
+                    
+                }
+                
+                // nothing is written by a sink extract
+                assertFalse(new File("target/sink").exists());
+                
+            }
+            
+        }
+        
+        try {
+            ExtractorMain.forJar(createTestJar("sink-test.jar")).extract((ExtractSink) null);
+            fail("expected NPE");
+        } catch (NullPointerException ex) {
+            assertEquals("sink should not be null", ex.getMessage());
+        }
+        
+    }
+    
+    /**
+     * Test of flatten methods, of class ExtractorMain.
+     */
+    public void testFlatten() throws Exception {
+        System.out.println("flatten");
+        
+        File jar = ScriptFlattenerTest.createScriptJar("flatten-main-test.jar", 
+                "plsql/logger/build.sql", "-- logger\n@@&body.\n",
+                "plsql/logger/a.bdy", "-- a.bdy\n",
+                "plsql/properties/build.sql", "-- properties\n@@x\n",
+                "plsql/properties/x.sql", "-- x.sql\n",
+                "plsql/properties/admin/build.sql", "-- admin\n",
+                "plsql/utilities/util/x.sql", "-- no build.sql\n");
+        Map<String, String> defines = new HashMap<String, String>();
+        defines.put("body", "a.bdy");
+        
+        ExtractorMain extractor = ExtractorMain.forJar(jar);
+        extractor.setOutputDirectoryName("target/flatten");
+        delete(new File("target/flatten"));
+        extractor.flatten(null, defines);
+        
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        expected.put("plsql-core/", "");
+        expected.put("plsql-core/install/", "");
+        expected.put("plsql-core/install/logger.sql", 
+                "-- logger\n-- @@a.bdy (plsql/logger/a.bdy)\n-- a.bdy\n");
+        expected.put("plsql-core/install/properties.sql", 
+                "-- properties\n-- @@x (plsql/properties/x.sql)\n-- x.sql\n");
+        assertEquals(expected, readTree(new File("target/flatten")));
+        
+        extractor.flatten(Arrays.asList("properties/*"), defines);
+        expected.put("plsql-core/install/properties/", "");
+        expected.put("plsql-core/install/properties/admin.sql", "-- admin\n");
+        assertEquals(expected, readTree(new File("target/flatten")));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extractor.flatten(Arrays.asList("prop*", "utilities/*", "*", "properties/admin"), 
+                defines, out);
+        assertEquals(expected.get("plsql-core/install/properties.sql") + 
+                expected.get("plsql-core/install/logger.sql") + 
+                expected.get("plsql-core/install/properties/admin.sql"), 
+                out.toString("ISO-8859-1"));
+        
+    }
     
     /**
      * Test of extract method, of class ExtractorMain.
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class IncludeMatcherTest extends TestCase {
+    
+    public IncludeMatcherTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(IncludeMatcherTest.class);
+        return suite;
+    }
+
+    /**
+     * Test of matches method, of class IncludeMatcher, using module names.
+     */
+    public void testMatches_names() {
+        System.out.println("matches names");
+        
+        try {
+            new IncludeMatcher(null);
+            fail();
+        } catch (NullPointerException ex) {
+        }
+        
+        assertFalse(new IncludeMatcher(new ArrayList<String>()).matches("logger"));
+        assertFalse(new IncludeMatcher(Arrays.asList("", " ")).matches(""));
+        
+        List<String> includes = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            includes.add("module_" + i);
+        }
+        includes.add(" logger ");
+        includes.add("properties/admin");
+        IncludeMatcher matcher = new IncludeMatcher(includes);
+        
+        assertTrue(matcher.matches("logger"));
+        assertTrue(matcher.matches("module_0"));
+        assertTrue(matcher.matches("module_999"));
+        assertTrue(matcher.matches("properties/admin"));
+        assertFalse(matcher.matches("module_1000"));
+        assertFalse(matcher.matches("log"));
+        assertFalse(matcher.matches("loggers"));
+        assertFalse(matcher.matches("properties"));
+        
+        assertTrue(matcher.matches("plsql/logger/build.sql", 6, 12));
+        assertTrue(matcher.matches("plsql/properties/admin/build.sql", 6, 22));
+        assertFalse(matcher.matches("plsql/logger/build.sql", 6, 11));
+        
+    }
+    
+    /**
+     * Test of matches method, of class IncludeMatcher, using glob patterns.
+     */
+    public void testMatches_patterns() {
+        System.out.println("matches patterns");
+        IncludeMatcher matcher = new IncludeMatcher(
+                Arrays.asList("logger*", "properties/*", "?ypes", "*_helper"));
+        
+        assertTrue(matcher.matches("logger"));
+        assertTrue(matcher.matches("logger_admin"));
+        assertTrue(matcher.matches("properties/admin"));
+        assertTrue(matcher.matches("properties/utilities"));
+        assertTrue(matcher.matches("types"));
+        assertTrue(matcher.matches("xml_helper"));
+        assertFalse(matcher.matches("logger/sub"));
+        assertFalse(matcher.matches("properties"));
+        assertFalse(matcher.matches("properties/admin/x"));
+        assertFalse(matcher.matches("ypes"));
+        assertFalse(matcher.matches("a/types"));
+        assertFalse(matcher.matches("a/b_helper"));
+        assertFalse(matcher.matches("audit"));
+        
+        assertTrue(new IncludeMatcher(Arrays.asList("*")).matches("audit"));
+        assertFalse(new IncludeMatcher(Arrays.asList("*")).matches("properties/admin"));
+        assertTrue(new IncludeMatcher(Arrays.asList("*/*")).matches("properties/admin"));
+        assertTrue(new IncludeMatcher(Arrays.asList("l*g*r")).matches("logger"));
+        assertFalse(new IncludeMatcher(Arrays.asList("l*g*r")).matches("loggers"));
+        
+    }
+    
+}
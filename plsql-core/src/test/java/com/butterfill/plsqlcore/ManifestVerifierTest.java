@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ManifestVerifierTest extends TestCase {
+
+    public ManifestVerifierTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ManifestVerifierTest.class);
+        return suite;
+    }
+
+    private static byte[] write(final File file, final int size) throws Exception {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + size);
+        }
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return data;
+    }
+
+    /**
+     * Test of sha256 method, of class ManifestVerifier.
+     */
+    public void testSha256() throws Exception {
+        System.out.println("sha256");
+
+        int[] sizes = {
+            0, 1, 5000, (int) ManifestVerifier.MAP_THRESHOLD - 1,
+            (int) ManifestVerifier.MAP_THRESHOLD, 1000 * 1000
+        };
+
+        for (int size : sizes) {
+            File file = new File("target/manifest-sha256/" + size + ".bin");
+            byte[] data = write(file, size);
+            String expected = Manifest.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+            assertEquals("size " + size, expected, ManifestVerifier.sha256(file));
+        }
+
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ManifestVerifier.sha256(new File("target/manifest-sha256/0.bin")));
+
+    }
+
+    /**
+     * Test of write and verify methods, of class ManifestVerifier.
+     */
+    public void testVerify() throws Exception {
+        System.out.println("verify");
+
+        File dir = new File("target/manifest-verify");
+        ExtractorMainTest.delete(dir);
+
+        Map<File, List<String>> modules = new LinkedHashMap<File, List<String>>();
+        modules.put(new File(dir, "logger"), Arrays.asList("build.sql", "sub/part.sql"));
+        modules.put(new File(dir, "types"), Arrays.asList("build.sql", "big file.bin"));
+
+        write(new File(dir, "logger/build.sql"), 100);
+        write(new File(dir, "logger/sub/part.sql"), 200);
+        write(new File(dir, "types/build.sql"), 100);
+        write(new File(dir, "types/big file.bin"), 300 * 1000);
+        // not in a module
+        write(new File(dir, "other/x.sql"), 10);
+
+        for (int threads : new int[] {1, 4}) {
+            ManifestVerifier verifier = new ManifestVerifier(threads);
+            Map<File, Manifest> manifests = verifier.write(modules);
+
+            Manifest.Entry entry = manifests.get(new File(dir, "types")).get("big file.bin");
+            assertEquals(300 * 1000, entry.getSize());
+            assertEquals(ManifestVerifier.sha256(new File(dir, "types/big file.bin")),
+                    entry.getSha256());
+
+            assertEquals(Collections.emptyList(), verifier.verify(dir));
+            assertEquals(4, verifier.getVerifiedCount());
+            assertEquals(2, verifier.getManifestCount());
+        }
+
+        new File(dir, "logger/sub/part.sql").delete();
+        // same size, different content
+        byte[] data = write(new File(dir, "types/big file.bin"), 300 * 1000);
+        data[150 * 1000]++;
+        OutputStream out = new FileOutputStream(new File(dir, "types/big file.bin"));
+        out.write(data);
+        out.close();
+        write(new File(dir, "types/build.sql"), 101);
+        write(new File(dir, "types/extra.sql"), 1);
+
+        assertEquals(Arrays.asList(
+                "missing: logger/sub/part.sql",
+                "modified: types/big file.bin",
+                "modified: types/build.sql",
+                "unexpected: types/extra.sql"),
+                new ManifestVerifier(2).verify(dir));
+
+        try {
+            new ManifestVerifier().verify(new File(dir, "other"));
+            fail("there are no manifests in other");
+        } catch (IOException ex) {
+            // expected
+        }
+
+    }
+
+    /**
+     * Test that create keeps the interrupt status of the calling thread.
+     */
+    public void testCreate_interrupted() throws Exception {
+        System.out.println("create interrupted");
+
+        File dir = new File("target/manifest-interrupted");
+        // big enough that hashing it is still going on when create waits for it
+        write(new File(dir, "a.sql"), 32 * 1000 * 1000);
+        write(new File(dir, "b.sql"), 200);
+
+        Map<File, List<String>> modules = new LinkedHashMap<File, List<String>>();
+        modules.put(dir, Arrays.asList("a.sql", "b.sql"));
+
+        Thread.currentThread().interrupt();
+
+        try {
+            new ManifestVerifier(2).create(modules);
+            fail("the thread was interrupted");
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof InterruptedException);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+    }
+
+    /**
+     * Test of read and write methods, of class Manifest.
+     */
+    public void testManifest() throws Exception {
+        System.out.println("manifest");
+
+        File file = new File("target/manifest-test/" + Manifest.FILE_NAME);
+        file.getParentFile().mkdirs();
+
+        Manifest manifest = new Manifest();
+        manifest.put("b.sql",
+                "E3B0C44298FC1C149AFBF4C8996FB92427AE41E4649B934CA495991B7852B855", 0);
+        manifest.put("sub\\a file.sql",
+                "ca978112ca1bbdcafac231b39a23dc4da786eff8147c4e72b9807785afee48bb", 1);
+        manifest.write(file);
+        // writing again replaces the file
+        manifest.write(file);
+
+        Manifest read = Manifest.read(file);
+        assertEquals(Arrays.asList("b.sql", "sub/a file.sql"),
+                Arrays.asList(read.getFileNames().toArray()));
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                read.get("b.sql").getSha256());
+        assertEquals(1, read.get("sub/a file.sql").getSize());
+        assertNull(read.get("c.sql"));
+        read.remove("sub\\a file.sql");
+        assertEquals(Arrays.asList("b.sql"), Arrays.asList(read.getFileNames().toArray()));
+
+        OutputStream out = new FileOutputStream(file);
+        out.write("# comment\n\nnot a manifest\n".getBytes("UTF-8"));
+        out.close();
+
+        try {
+            Manifest.read(file);
+            fail("line 3 is not valid");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("invalid line 3"));
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ModuleIndexTest extends TestCase {
+    
+    public ModuleIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ModuleIndexTest.class);
+        return suite;
+    }
+
+    /**
+     * Test of getModuleName method, of class ModuleIndex.
+     */
+    public void testGetModuleName() {
+        System.out.println("getModuleName");
+        assertNull(ModuleIndex.getModuleName("com/x.class"));
+        assertEquals("", ModuleIndex.getModuleName("plsql/"));
+        assertEquals("", ModuleIndex.getModuleName("plsql/x.sql"));
+        assertEquals("logger", ModuleIndex.getModuleName("plsql/logger/"));
+        assertEquals("logger", ModuleIndex.getModuleName("plsql/logger/build.sql"));
+        assertEquals("properties/admin", ModuleIndex.getModuleName("plsql/properties/admin/"));
+        assertEquals("properties/admin", 
+                ModuleIndex.getModuleName("plsql/properties/admin/build.sql"));
+    }
+    
+    /**
+     * Test of append and read methods, of class ModuleIndex.
+     */
+    public void testAppend() throws Exception {
+        System.out.println("append");
+        
+        for (int method : new int[] {ZipEntry.DEFLATED, ZipEntry.STORED}) {
+            File jar = ExtractorMainTest.createTestJar("module-index-test.jar", method);
+            
+            FileChannel channel = new RandomAccessFile(jar, "r").getChannel();
+            try {
+                assertNull(ModuleIndex.read(channel));
+            } finally {
+                channel.close();
+            }
+            
+            // appending twice should replace the first index
+            ModuleIndex.main(new String[] {jar.getPath()});
+            long length = jar.length();
+            ModuleIndex.append(jar);
+            assertEquals(length, jar.length());
+            
+            ZipFile zipFile = new ZipFile(jar);
+            channel = new RandomAccessFile(jar, "r").getChannel();
+            try {
+                assertNotNull(zipFile.getEntry(ModuleIndex.ENTRY_NAME));
+                assertEquals(14, zipFile.size());
+                
+                ModuleIndex index = ModuleIndex.read(channel);
+                assertEquals(Arrays.asList("logger", "properties", "properties/admin", "audit"), 
+                        index.getModules());
+                assertEquals(0, index.getRecords("does-not-exist").size());
+                assertEquals(4, index.getRecords("logger").size());
+                
+                ZipDirectory directory = new ZipDirectory(channel);
+                for (String module : index.getAllModules()) {
+                    for (ZipDirectory.Record record : index.getRecords(module)) {
+                        ZipDirectory.Record expected = directory.getRecord(record.getName());
+                        assertEquals(module, ModuleIndex.getModuleName(record.getName()));
+                        assertEquals(expected.getMethod(), record.getMethod());
+                        assertEquals(expected.getCrc(), record.getCrc());
+                        assertEquals(expected.getSize(), record.getSize());
+                        assertEquals(expected.getCompressedSize(), record.getCompressedSize());
+                        assertEquals(expected.getLocalHeaderOffset(), 
+                                record.getLocalHeaderOffset());
+                    }
+                }
+                
+            } finally {
+                channel.close();
+                zipFile.close();
+            }
+            
+        }
+        
+    }
+    
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ModuleWatcherTest extends TestCase {
+
+    public ModuleWatcherTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ModuleWatcherTest.class);
+        return suite;
+    }
+
+    /**
+     * Writes a file and moves its last modified time on (so that the change is seen on file
+     * systems that only keep the time to the nearest second).
+     */
+    private static void write(final File dir, final String name, final String content)
+            throws Exception {
+        File file = new File(dir, name);
+        long lastModified = file.lastModified();
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("ISO-8859-1"));
+        out.close();
+        if (lastModified != 0) {
+            file.setLastModified(lastModified + 2000);
+        }
+    }
+
+    private static File createSource(final String name) throws Exception {
+        File dir = new File("target/" + name);
+        ExtractorMainTest.delete(dir);
+        write(dir, "logger/build.sql", "@@logger.spc\n@@&body_file.\n@@sub/part\n");
+        write(dir, "logger/logger.spc", "create package logger\n/\n");
+        write(dir, "logger/logger_10.bdy", "create package body logger\n/\n");
+        write(dir, "logger/sub/part.sql", "@@../logger.spc\n");
+        write(dir, "logger/index.html", "<html/>");
+        write(dir, "logger/todo.txt", "todo");
+        write(dir, "types/build.sql", "@types.spc\n");
+        write(dir, "types/types.spc", "create type t as object (x integer)\n/\n");
+        write(dir, "types/admin/build.sql", "@@grant.sql\n");
+        return dir;
+    }
+
+    private static Map<String, String> getDefines() {
+        return Collections.singletonMap("body_file", "logger_10.bdy");
+    }
+
+    /**
+     * Test of sync method, of class ModuleWatcher.
+     */
+    public void testSync() throws Exception {
+        System.out.println("sync");
+
+        File source = createSource("watch-sync-src");
+        File target = new File("target/watch-sync-target");
+        ExtractorMainTest.delete(target);
+
+        ModuleWatcher watcher = new ModuleWatcher(source, target, null);
+        watcher.setDefines(getDefines());
+
+        assertEquals(Arrays.asList("logger", "types"), watcher.sync());
+
+        TreeMap<String, String> tree = ExtractorMainTest.readTree(target);
+        assertEquals("@@logger.spc\n@@&body_file.\n@@sub/part\n", tree.get("logger/build.sql"));
+        assertEquals("<html/>", tree.get("logger/index.html"));
+        assertFalse(tree.containsKey("logger/todo.txt"));
+        // sub-modules are not watched by default
+        assertFalse(tree.containsKey("logger/sub/"));
+        assertFalse(tree.containsKey("types/admin/"));
+
+        assertEquals(Collections.emptyList(), watcher.sync());
+
+        // as written by an extract
+        Map<File, List<String>> modules = new TreeMap<File, List<String>>();
+        modules.put(new File(target, "logger"),
+                Arrays.asList("build.sql", "index.html", "logger.spc", "logger_10.bdy"));
+        modules.put(new File(target, "types"), Arrays.asList("build.sql", "types.spc"));
+        new ManifestVerifier(1).write(modules);
+
+        // not part of the build
+        write(source, "logger/index.html", "<html></html>");
+        assertEquals(Collections.emptyList(), watcher.sync());
+        assertEquals("<html></html>",
+                ExtractorMainTest.readTree(target).get("logger/index.html"));
+
+        // run using a substitution variable
+        write(source, "logger/logger_10.bdy", "create package body logger is\n/\n");
+        assertEquals(Arrays.asList("logger"), watcher.sync());
+
+        // run by a script that is run by build.sql
+        write(source, "logger/logger.spc", "create package logger is\n/\n");
+        write(source, "types/types.spc", "create type t as object (y integer)\n/\n");
+        assertEquals(Arrays.asList("logger", "types"), watcher.sync());
+
+        new File(source, "logger/logger_10.bdy").delete();
+        assertEquals(Arrays.asList("logger"), watcher.sync());
+        assertFalse(new File(target, "logger/logger_10.bdy").exists());
+
+        // a new watcher does not copy files that are up to date
+        watcher = new ModuleWatcher(source, target, Arrays.asList("logger", "types/admin"));
+        watcher.setOutput(null);
+        assertEquals(Arrays.asList("types/admin"), watcher.sync());
+        assertTrue(new File(target, "types/admin/build.sql").isFile());
+
+        // we can't tell which scripts are run without the substitution variable
+        write(source, "logger/index.html", "<html><body/></html>");
+        assertEquals(Arrays.asList("logger"), watcher.sync());
+
+        // the manifests have been kept up to date
+        assertEquals(Collections.emptyList(), new ManifestVerifier(1).verify(target));
+        assertNull(Manifest.read(new File(target, "logger/" + Manifest.FILE_NAME))
+                .get("logger_10.bdy"));
+
+    }
+
+    /**
+     * Test of watch method, of class ModuleWatcher.
+     */
+    public void testWatch() throws Exception {
+        System.out.println("watch");
+
+        File source = createSource("watch-src");
+        File target = new File("target/watch-target");
+        ExtractorMainTest.delete(target);
+
+        final ModuleWatcher watcher = new ModuleWatcher(source, target, null);
+        watcher.setPollInterval(10);
+        watcher.setQuietPeriod(200);
+        watcher.setDefines(getDefines());
+
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    watcher.watch();
+                } catch (Exception ex) {
+                    failure[0] = ex;
+                }
+            }
+        };
+        thread.start();
+
+        try {
+            File file = new File(target, "types/types.spc");
+            long end = System.currentTimeMillis() + 10000;
+
+            while (!file.isFile() && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(file.isFile());
+
+            write(source, "types/types.spc", "create type t as object (y integer)\n/\n");
+            long written = System.currentTimeMillis();
+
+            while (!ExtractorMainTest.readTree(target).get("types/types.spc")
+                    .contains("y integer") && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+
+            // the change is copied once the quiet period has passed
+            assertTrue(System.currentTimeMillis() - written >= 200);
+            assertTrue(System.currentTimeMillis() < end);
+
+        } finally {
+            watcher.stop();
+            thread.join();
+
+        }
+
+        assertNull(failure[0]);
+
+    }
+
+    /**
+     * Test of setPollInterval and setQuietPeriod methods, of class ModuleWatcher.
+     */
+    public void testSetters() throws Exception {
+        System.out.println("setters");
+
+        ModuleWatcher watcher = new ModuleWatcher(new File("."), new File("."), null);
+
+        try {
+            watcher.setPollInterval(0);
+            fail("pollInterval must be at least 1");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            watcher.setQuietPeriod(-1);
+            fail("quietPeriod must not be negative");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        watcher.setQuietPeriod(0);
+        assertEquals(0, watcher.getQuietPeriod());
+
+        try {
+            new ModuleWatcher(null, new File("."), null);
+            fail("sourceDir is required");
+        } catch (NullPointerException ex) {
+            // expected
+        }
+
+    }
+
+}
@@ -33,6 +33,16 @@ public class PlsqlcoreSuite extends TestCase {
     public static Test suite() {
         TestSuite suite = new TestSuite("PlsqlcoreSuite");
         suite.addTest(new TestSuite(com.butterfill.plsqlcore.ExtractorMainTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.ZipDirectoryTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.ModuleIndexTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.IncludeMatcherTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.ScriptFlattenerTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.BufferPoolTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.ModuleWatcherTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.ManifestVerifierTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.deploy.ScriptTokenizerTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.deploy.ScriptReaderTest.class));
+        suite.addTest(new TestSuite(com.butterfill.plsqlcore.deploy.DeployerTest.class));
         return suite;
     }
 
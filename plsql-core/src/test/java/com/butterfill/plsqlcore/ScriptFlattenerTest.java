@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ScriptFlattenerTest extends TestCase {
+    
+    public ScriptFlattenerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ScriptFlattenerTest.class);
+        return suite;
+    }
+    
+    /**
+     * Creates a jar in target that holds the specified scripts (name, content, name, ...).
+     */
+    static File createScriptJar(final String name, final String... scripts) throws Exception {
+        File jar = new File("target/" + name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        for (int i = 0; i < scripts.length; i += 2) {
+            out.putNextEntry(new ZipEntry(scripts[i]));
+            out.write(scripts[i + 1].getBytes("ISO-8859-1"));
+            out.closeEntry();
+        }
+        out.close();
+        return jar;
+    }
+    
+    private static String flatten(final File jarFile, final Map<String, String> defines, 
+            final String scriptName) throws Exception {
+        ZipFile jar = new ZipFile(jarFile);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new ScriptFlattener(jar, defines).flatten(scriptName, out);
+            return out.toString("ISO-8859-1");
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * Test of flatten method, of class ScriptFlattener.
+     */
+    public void testFlatten() throws Exception {
+        System.out.println("flatten");
+        
+        File jar = createScriptJar("flatten-test.jar", 
+                "plsql/logger/build.sql", 
+                "PROMPT start &logger_error_body.\r\n" +
+                "@@logger.spc\n" +
+                "  @@&Logger_Error_Body. arg1\n" +
+                "@@sub/part\n" +
+                "PROMPT end",
+                "plsql/logger/logger.spc", "create package logger\n/\n",
+                "plsql/logger/error_post.bdy", "create package body \u00e9rror\n/\n",
+                "plsql/logger/sub/part.sql", "@@../logger.spc\n",
+                "plsql/loop/build.sql", "@@a.sql\n",
+                "plsql/loop/a.sql", "@@build.sql\n",
+                "plsql/missing/build.sql", "@@missing.sql\n");
+        
+        Map<String, String> defines = new HashMap<String, String>();
+        defines.put("logger_error_body", "error_post.bdy");
+        
+        assertEquals(
+                "PROMPT start &logger_error_body.\n" +
+                "-- @@logger.spc (plsql/logger/logger.spc)\n" +
+                "create package logger\n/\n" +
+                "-- @@error_post.bdy (plsql/logger/error_post.bdy)\n" +
+                "create package body \u00e9rror\n/\n" +
+                "-- @@sub/part (plsql/logger/sub/part.sql)\n" +
+                "-- @@../logger.spc (plsql/logger/logger.spc)\n" +
+                "create package logger\n/\n" +
+                "PROMPT end\n",
+                flatten(jar, defines, "plsql/logger/build.sql"));
+        
+        try {
+            flatten(jar, null, "plsql/logger/build.sql");
+            fail();
+        } catch (RuntimeException ex) {
+            assertEquals("substitution variable Logger_Error_Body is not defined", 
+                    ex.getMessage());
+        }
+        
+        try {
+            flatten(jar, null, "plsql/loop/build.sql");
+            fail();
+        } catch (RuntimeException ex) {
+            assertEquals("recursive reference to plsql/loop/build.sql from plsql/loop/a.sql", 
+                    ex.getMessage());
+        }
+        
+        try {
+            flatten(jar, null, "plsql/missing/build.sql");
+            fail();
+        } catch (FileNotFoundException ex) {
+            assertEquals("plsql/missing/missing.sql not found " + 
+                    "(referenced by plsql/missing/build.sql)", ex.getMessage());
+        }
+        
+    }
+    
+    /**
+     * Test of resolve method, of class ScriptFlattener.
+     */
+    public void testResolve() throws Exception {
+        System.out.println("resolve");
+        
+        assertEquals("plsql/logger/logger.spc", 
+                ScriptFlattener.resolve("plsql/logger/build.sql", "logger.spc"));
+        assertEquals("plsql/logger/logger.spc", 
+                ScriptFlattener.resolve("plsql/logger_pipe/build.sql", "../logger/./logger.spc"));
+        assertEquals("plsql/logger/util.sql", 
+                ScriptFlattener.resolve("plsql/logger/build.sql", "util"));
+        assertEquals("plsql/logger/sub/util.sql", 
+                ScriptFlattener.resolve("plsql/logger/build.sql", "sub\\util"));
+        
+        try {
+            ScriptFlattener.resolve("build.sql", "../x.sql");
+            fail();
+        } catch (FileNotFoundException ex) {
+        }
+        
+    }
+    
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ZipDirectoryTest extends TestCase {
+    
+    public ZipDirectoryTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ZipDirectoryTest.class);
+        return suite;
+    }
+
+    /**
+     * Test that the records match the entries read by java.util.zip.
+     */
+    public void testGetRecords() throws Exception {
+        System.out.println("getRecords");
+        File jar = ExtractorMainTest.createTestJar("zip-directory-test.jar", ZipEntry.STORED);
+        ZipFile zipFile = new ZipFile(jar);
+        FileChannel channel = new RandomAccessFile(jar, "r").getChannel();
+        
+        try {
+            ZipDirectory directory = new ZipDirectory(channel);
+            assertEquals(zipFile.size(), directory.getRecords().size());
+            assertNull(directory.getRecord("does-not-exist"));
+            
+            for (ZipDirectory.Record record : directory.getRecords()) {
+                ZipEntry entry = zipFile.getEntry(record.getName());
+                assertNotNull(entry);
+                assertSame(record, directory.getRecord(record.getName()));
+                assertEquals(entry.getMethod(), record.getMethod());
+                assertEquals(entry.getCrc(), record.getCrc());
+                assertEquals(entry.getSize(), record.getSize());
+                assertEquals(entry.getCompressedSize(), record.getCompressedSize());
+            }
+            
+            ZipDirectory.Record record = directory.getRecord("plsql/logger/build.sql");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            directory.transferTo(record, Channels.newChannel(out));
+            assertEquals(record.getSize(), out.size());
+            assertTrue(out.toString("ISO-8859-1").startsWith("-- plsql/logger/build.sql line 0\n"));
+            
+        } finally {
+            channel.close();
+            zipFile.close();
+        }
+        
+    }
+    
+    /**
+     * Test that compressed entries can't be transferred.
+     */
+    public void testTransferTo() throws Exception {
+        System.out.println("transferTo");
+        File jar = ExtractorMainTest.createTestJar("zip-directory-test-deflated.jar");
+        FileChannel channel = new RandomAccessFile(jar, "r").getChannel();
+        
+        try {
+            ZipDirectory directory = new ZipDirectory(channel);
+            try {
+                directory.transferTo(directory.getRecord("plsql/logger/build.sql"), 
+                        Channels.newChannel(new ByteArrayOutputStream()));
+                fail();
+            } catch (ZipException ex) {
+            }
+            
+        } finally {
+            channel.close();
+        }
+        
+    }
+    
+    /**
+     * Test that a file that is not a zip file is rejected.
+     */
+    public void testNotAZipFile() throws Exception {
+        System.out.println("not a zip file");
+        File file = new File("target/not-a-zip-file.txt");
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(0);
+        out.write("not a zip file".getBytes("ISO-8859-1"));
+        out.close();
+        
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            new ZipDirectory(channel);
+            fail();
+        } catch (ZipException ex) {
+        } finally {
+            channel.close();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class DeployerTest extends TestCase {
+
+    public DeployerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(DeployerTest.class);
+        return suite;
+    }
+
+    /**
+     * Returns the indexes of the executions of statements that contain the specified text.
+     */
+    private static List<Integer> indexesOf(final List<RecordingStatementExecutor.Execution>
+            executions, final String fragment) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = 0; i < executions.size(); i++) {
+            if (executions.get(i).getStatement().getText().indexOf(fragment) != -1) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Test of deploy method, of class Deployer.
+     */
+    public void testDeploy() throws Exception {
+        System.out.println("deploy");
+
+        String[] scripts = new String[8];
+        String[] names = {"a", "b", "c", "d"};
+        for (int i = 0; i < names.length; i++) {
+            scripts[i * 2] = names[i] + "/build.sql";
+            scripts[i * 2 + 1] =
+                    "PROMPT installing &&name.\n" +
+                    "CREATE TABLE " + names[i] + "_1(x INTEGER);\n" +
+                    "CREATE TABLE " + names[i] + "_2(x INTEGER);\n";
+        }
+        File dir = ScriptReaderTest.createScripts("deployer-deploy", scripts);
+
+        List<List<File>> waves = new ArrayList<List<File>>();
+        waves.add(Arrays.asList(new File(dir, "a"), new File(dir, "b"), new File(dir, "c")));
+        waves.add(Collections.singletonList(new File(dir, "d")));
+
+        RecordingStatementExecutor executor = new RecordingStatementExecutor();
+        Deployer deployer = new Deployer(executor, 2);
+        deployer.setOutput(null);
+        deployer.setDefines(Collections.singletonMap("name", "test"));
+        deployer.deploy(waves);
+
+        List<RecordingStatementExecutor.Execution> executions = executor.getExecutions();
+        assertEquals(8, executions.size());
+        assertEquals(2, executor.getSessionCount());
+
+        // every statement of wave 0 runs before wave 1
+        int d = indexesOf(executions, "d_1").get(0);
+        for (String name : Arrays.asList("a", "b", "c")) {
+            List<Integer> indexes = indexesOf(executions, name + "_");
+            assertEquals(2, indexes.size());
+            assertTrue(indexes.get(1) < d);
+            // a module runs in one session in order
+            assertEquals(executions.get(indexes.get(0)).getSession(),
+                    executions.get(indexes.get(1)).getSession());
+            assertTrue(executions.get(indexes.get(0)).getStatement().getText()
+                    .endsWith("_1(x INTEGER)"));
+        }
+
+    }
+
+    /**
+     * Test of deploy method, of class Deployer, when a module fails.
+     */
+    public void testDeploy_failure() throws Exception {
+        System.out.println("deploy_failure");
+
+        File dir = ScriptReaderTest.createScripts("deployer-failure",
+                "a/build.sql", "CREATE TABLE a_1(x INTEGER);\nCREATE TABLE a_2(x INTEGER);\n",
+                "b/build.sql", "CREATE TABLE b_1(x INTEGER);\n",
+                "c/build.sql", "CREATE TABLE c_1(x INTEGER);\n");
+
+        List<List<File>> waves = new ArrayList<List<File>>();
+        waves.add(Arrays.asList(new File(dir, "a"), new File(dir, "b")));
+        waves.add(Collections.singletonList(new File(dir, "c")));
+
+        RecordingStatementExecutor executor = new RecordingStatementExecutor();
+        executor.addFailure("a_1");
+        Deployer deployer = new Deployer(executor, 1);
+        deployer.setOutput(null);
+
+        try {
+            deployer.deploy(waves);
+            fail();
+        } catch (Deployer.DeployException ex) {
+            assertEquals(Collections.singleton(new File(dir, "a")),
+                    ex.getFailures().keySet());
+            assertTrue(ex.getMessage(),
+                    ex.getMessage().indexOf("build.sql line 1: failure added for: a_1") != -1);
+        }
+
+        // the rest of the wave runs, the next wave does not
+        List<RecordingStatementExecutor.Execution> executions = executor.getExecutions();
+        assertEquals(2, executions.size());
+        assertEquals(1, indexesOf(executions, "b_1").size());
+
+        executor = new RecordingStatementExecutor();
+        executor.addFailure("a_1");
+        deployer = new Deployer(executor, 1);
+        deployer.setOutput(null);
+        deployer.setContinueOnError(true);
+
+        try {
+            deployer.deploy(waves);
+            fail();
+        } catch (Deployer.DeployException ex) {
+            assertEquals(1, ex.getFailures().size());
+        }
+
+        assertEquals(3, executor.getExecutions().size());
+
+    }
+
+    /**
+     * Test of deploy method, of class Deployer, using COLUMN NEW_VALUE.
+     */
+    public void testDeploy_newValue() throws Exception {
+        System.out.println("deploy_newValue");
+
+        File dir = ScriptReaderTest.createScripts("deployer-new-value",
+                "a/build.sql",
+                "COLUMN body NEW_VALUE body_file NOPRINT\n" +
+                "SELECT 'post.bdy' AS body FROM dual;\n" +
+                "@@&body_file.\n",
+                "a/post.bdy", "CREATE PACKAGE BODY post IS\nEND;\n/\n");
+
+        RecordingStatementExecutor executor = new RecordingStatementExecutor();
+        Map<String, String> row = new HashMap<String, String>();
+        row.put("BODY", "post.bdy");
+        executor.addResult("AS body", row);
+
+        Deployer deployer = new Deployer(executor, 4);
+        deployer.setOutput(null);
+        deployer.deploy(Collections.singletonList(Collections.singletonList(new File(dir, "a"))));
+
+        List<RecordingStatementExecutor.Execution> executions = executor.getExecutions();
+        assertEquals(2, executions.size());
+        assertEquals("CREATE PACKAGE BODY post IS\nEND;",
+                executions.get(1).getStatement().getText());
+
+    }
+
+    /**
+     * Test of deploy method, of class Deployer, doing a dry run of the logger and audit
+     * modules. Their build scripts use COLUMN NEW_VALUE variables that are set by queries.
+     */
+    public void testDeploy_dryRun() throws Exception {
+        System.out.println("deploy_dryRun");
+
+        RecordingStatementExecutor executor = new RecordingStatementExecutor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deployer deployer = new Deployer(executor, 2);
+        deployer.setOutput(new PrintStream(out, true));
+        deployer.setDefines(Collections.singletonMap("drop_existing", "NO"));
+        deployer.setDryRun(true);
+        deployer.deploy(Collections.singletonList(Arrays.asList(
+                new File("src/main/sql/logger"), new File("src/main/sql/audit"))));
+
+        List<RecordingStatementExecutor.Execution> executions = executor.getExecutions();
+        assertFalse(indexesOf(executions, "PACKAGE BODY logger_utils").isEmpty());
+        assertFalse(indexesOf(executions, "VARCHAR2(&max_varchar_col_length.)").isEmpty());
+
+        String output = out.toString();
+        assertTrue(output, output.indexOf(
+                "[logger] not run (the name is set by a query): @@&logger_error_body.") != -1);
+
+        // without placeholders the variables are not defined
+        deployer.setDryRun(false);
+        try {
+            deployer.deploy(Collections.singletonList(
+                    Collections.singletonList(new File("src/main/sql/audit"))));
+            fail();
+        } catch (Deployer.DeployException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf(
+                    "max_varchar_col_length is not defined") != -1);
+        }
+
+    }
+
+    /**
+     * Test of readPlan method, of class Deployer.
+     */
+    public void testReadPlan() throws Exception {
+        System.out.println("readPlan");
+
+        File dir = ScriptReaderTest.createScripts("deployer-plan");
+        dir.mkdirs();
+        File plan = new File(dir, "plsql-core.plan");
+        OutputStream out = new FileOutputStream(plan);
+        out.write((
+                "# comment\n" +
+                "module 0 g:a:1 /tmp/a\n" +
+                "module 0 g:b:1 /tmp/with space/b\n" +
+                "module 1 g:c:1 /tmp/c\n" +
+                "depends g:c:1 g:a:1\n" +
+                "critical g:a:1\n").getBytes("UTF-8"));
+        out.close();
+
+        List<List<File>> waves = Deployer.readPlan(plan);
+        assertEquals(2, waves.size());
+        assertEquals(Arrays.asList(new File("/tmp/a"), new File("/tmp/with space/b")),
+                waves.get(0));
+        assertEquals(Arrays.asList(new File("/tmp/c")), waves.get(1));
+
+    }
+
+}
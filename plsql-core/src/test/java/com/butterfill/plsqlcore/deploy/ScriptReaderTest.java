@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ScriptReaderTest extends TestCase {
+
+    public ScriptReaderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ScriptReaderTest.class);
+        return suite;
+    }
+
+    /**
+     * Writes the specified scripts (name, content, name, ...) to the specified directory
+     * (which is deleted first) in target.
+     */
+    static File createScripts(final String name, final String... scripts) throws Exception {
+        File dir = new File("target/" + name);
+        delete(dir);
+        for (int i = 0; i < scripts.length; i += 2) {
+            File file = new File(dir, scripts[i]);
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            out.write(scripts[i + 1].getBytes("ISO-8859-1"));
+            out.close();
+        }
+        return dir;
+    }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<Statement> readAll(final ScriptReader reader) throws Exception {
+        List<Statement> result = new ArrayList<Statement>();
+        try {
+            for (Statement s = reader.next(); s != null; s = reader.next()) {
+                result.add(s);
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Test of next method, of class ScriptReader.
+     */
+    public void testNext() throws Exception {
+        System.out.println("next");
+
+        File dir = createScripts("script-reader-next",
+                "build.sql",
+                "/**\n * header\n */\n" +
+                "-- a comment\n" +
+                "REM a remark\n" +
+                "SET SERVEROUTPUT ON\n" +
+                "PROMPT ___ Start of &name. ___\n" +
+                "\n" +
+                "CREATE TABLE t(\n  c VARCHAR2(&len.)\n);\n" +
+                "DELETE FROM t\n/\n" +
+                "DECLARE\n  x INTEGER;\nBEGIN\n  x := 1;\nEND;\n/\n" +
+                "CREATE OR REPLACE\nPACKAGE p\nIS\n  c CONSTANT INTEGER := 1;\nEND p;\n/\n" +
+                "@@sub/part\n" +
+                "EXEC dbms_output.put_line('x');\n" +
+                "SET DEFINE OFF\n" +
+                "INSERT INTO t VALUES ('&amp;');\n" +
+                "EXIT\n" +
+                "PROMPT not read\n",
+                "sub/part.sql",
+                "CREATE TRIGGER tr BEFORE INSERT ON t FOR EACH ROW\nBEGIN\n  NULL;\nEND;\n/\n");
+
+        Map<String, String> defines = new HashMap<String, String>();
+        defines.put("NAME", "test");
+        defines.put("len", "10");
+
+        List<Statement> statements =
+                readAll(new ScriptReader(new File(dir, "build.sql"), defines));
+
+        assertEquals(8, statements.size());
+
+        assertEquals(Statement.Type.PROMPT, statements.get(0).getType());
+        assertEquals("___ Start of test ___", statements.get(0).getText());
+        assertEquals(7, statements.get(0).getLine());
+
+        assertEquals(Statement.Type.SQL, statements.get(1).getType());
+        assertEquals("CREATE TABLE t(\n  c VARCHAR2(10)\n)", statements.get(1).getText());
+        assertEquals(9, statements.get(1).getLine());
+
+        assertEquals(Statement.Type.SQL, statements.get(2).getType());
+        assertEquals("DELETE FROM t", statements.get(2).getText());
+
+        assertEquals(Statement.Type.PLSQL, statements.get(3).getType());
+        assertEquals("DECLARE\n  x INTEGER;\nBEGIN\n  x := 1;\nEND;",
+                statements.get(3).getText());
+
+        assertEquals(Statement.Type.PLSQL, statements.get(4).getType());
+        assertEquals("CREATE OR REPLACE\nPACKAGE p\nIS\n  c CONSTANT INTEGER := 1;\nEND p;",
+                statements.get(4).getText());
+
+        assertEquals(Statement.Type.PLSQL, statements.get(5).getType());
+        assertEquals(new File(dir, "sub/part.sql").getAbsoluteFile(),
+                statements.get(5).getFile());
+        assertEquals(1, statements.get(5).getLine());
+
+        assertEquals(Statement.Type.PLSQL, statements.get(6).getType());
+        assertEquals("BEGIN dbms_output.put_line('x'); END;", statements.get(6).getText());
+
+        assertEquals("INSERT INTO t VALUES ('&amp;')", statements.get(7).getText());
+
+    }
+
+    /**
+     * Test of next method, of class ScriptReader, using bind variables and NEW_VALUE.
+     */
+    public void testNext_variables() throws Exception {
+        System.out.println("next_variables");
+
+        File dir = createScripts("script-reader-variables",
+                "build.sql",
+                "VARIABLE v VARCHAR2(100);\n" +
+                "BEGIN\n  :v := '1';\n  x(:V, ':v', :other);\nEND;\n/\n" +
+                "COLUMN body NEW_VALUE body_file NOPRINT\n" +
+                "SELECT :v AS body FROM dual -- :v\n" +
+                " WHERE :v IS NOT NULL;\n" +
+                "@@&body_file.\n",
+                "b.sql",
+                "DEFINE x = 'y z'\n" +
+                "PROMPT &x\n");
+
+        ScriptReader reader = new ScriptReader(new File(dir, "build.sql"), null);
+
+        try {
+            Statement block = reader.next();
+            assertEquals(Arrays.asList("v"), block.getBinds());
+
+            Statement query = reader.next();
+            assertTrue(query.isQuery());
+            assertEquals(Arrays.asList("v", "v"), query.getBinds());
+
+            assertEquals("body_file", reader.getNewValues().get("BODY"));
+
+            // the variable is used by the next line, so it must be defined before next
+            reader.define("body_file", "b.sql");
+
+            Statement prompt = reader.next();
+            assertEquals("y z", prompt.getText());
+
+            assertNull(reader.next());
+
+        } finally {
+            reader.close();
+
+        }
+
+    }
+
+    /**
+     * Test of next method, of class ScriptReader, using @ and @@.
+     */
+    public void testNext_include() throws Exception {
+        System.out.println("next_include");
+
+        File dir = createScripts("script-reader-include",
+                "build.sql", "@@sub/a\n",
+                "sub/a.sql", "@b\n@@b\n",
+                "b.sql", "CREATE TABLE module_b(x INTEGER);\n",
+                "sub/b.sql", "CREATE TABLE sub_b(x INTEGER);\n");
+
+        List<Statement> statements =
+                readAll(new ScriptReader(new File(dir, "build.sql"), null));
+
+        // @ is relative to the module directory, @@ to the directory of the current script
+        assertEquals(2, statements.size());
+        assertEquals("CREATE TABLE module_b(x INTEGER)", statements.get(0).getText());
+        assertEquals("CREATE TABLE sub_b(x INTEGER)", statements.get(1).getText());
+
+    }
+
+    /**
+     * Test of next method, of class ScriptReader, with invalid scripts.
+     */
+    public void testNext_invalid() throws Exception {
+        System.out.println("next_invalid");
+
+        File dir = createScripts("script-reader-invalid",
+                "undefined.sql", "PROMPT ok\nPROMPT &missing.\n",
+                "unterminated.sql", "BEGIN\n  NULL;\nEND;\n",
+                "loop.sql", "@@loop\n",
+                "missing.sql", "@@not_there.sql\n");
+
+        ScriptReader reader = new ScriptReader(new File(dir, "undefined.sql"), null);
+        assertEquals("ok", reader.next().getText());
+        try {
+            reader.next();
+            fail();
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("undefined.sql line 2") != -1);
+        }
+        reader.close();
+
+        try {
+            readAll(new ScriptReader(new File(dir, "unterminated.sql"), null));
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("is not terminated") != -1);
+        }
+
+        try {
+            readAll(new ScriptReader(new File(dir, "loop.sql"), null));
+            fail();
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("recursive reference"));
+        }
+
+        try {
+            readAll(new ScriptReader(new File(dir, "missing.sql"), null));
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf("not_there.sql") != -1);
+        }
+
+    }
+
+    /**
+     * Test of next method, of class ScriptReader, using the build scripts of this project.
+     */
+    public void testNext_buildScripts() throws Exception {
+        System.out.println("next_buildScripts");
+
+        File[] modules = new File("src/main/sql").listFiles();
+        assertNotNull(modules);
+        int count = 0;
+
+        for (File module : modules) {
+            File build = new File(module, Deployer.BUILD_SCRIPT);
+            if (!build.isFile()) {
+                continue;
+            }
+
+            Map<String, String> defines = new HashMap<String, String>();
+            defines.put("drop_existing", "no");
+            defines.put("_USER", "TEST");
+            defines.put("max_varchar_col_length", "4000");
+
+            ScriptReader reader = new ScriptReader(build, defines);
+
+            try {
+                for (Statement s = reader.next(); s != null; s = reader.next()) {
+                    assertTrue(s.toString(), s.getText().trim().length() > 0);
+                    assertFalse(s.toString(), s.getText().endsWith(";") &&
+                            s.getType() == Statement.Type.SQL);
+                    if (reader.getNewValues().containsKey("logger_error_body")) {
+                        reader.define("logger_error_body", "logger_error_post_10.bdy");
+                    }
+                    count++;
+                }
+            } finally {
+                reader.close();
+            }
+
+        }
+
+        assertTrue(count > 100);
+
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2008 Peter Butterfill.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.butterfill.plsqlcore.deploy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ *
+ * @author peter
+ */
+public class ScriptTokenizerTest extends TestCase {
+
+    public ScriptTokenizerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ScriptTokenizerTest.class);
+        return suite;
+    }
+
+    /**
+     * A reader that returns one character at a time.
+     */
+    private static final class SlowReader extends Reader {
+
+        private final Reader reader;
+
+        SlowReader(final String text) {
+            reader = new StringReader(text);
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            return reader.read(cbuf, off, Math.min(1, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+    private static List<ScriptToken> tokenize(final Reader reader) throws Exception {
+        ScriptTokenizer tokenizer = new ScriptTokenizer(reader);
+        List<ScriptToken> result = new ArrayList<ScriptToken>();
+        try {
+            for (ScriptToken t = tokenizer.next(); t != null; t = tokenizer.next()) {
+                result.add(t);
+            }
+        } finally {
+            tokenizer.close();
+        }
+        return result;
+    }
+
+    /**
+     * Test of next method, of class ScriptTokenizer.
+     */
+    public void testNext() throws Exception {
+        System.out.println("next");
+
+        String script =
+                "/* header\r\n */\r\n" +
+                "pro Start &&name.\r\n" +
+                "SELECT q'[a;\n/\n]' x, 'b'';' y -- c;\n" +
+                "  FROM dual; -- done\n" +
+                "  /* comment ; */ INSERT INTO t\n" +
+                "VALUES (\"a;\n\")\n" +
+                "/\n" +
+                "CREATE OR REPLACE\n  EDITIONABLE\nPACKAGE p IS\n  x CONSTANT CHAR := ';';\n" +
+                "END p;\n" +
+                "/\n" +
+                "SET TRANSACTION READ ONLY;\n" +
+                "set define off\n" +
+                "def x = 'a b'\n" +
+                "DEFINE\n" +
+                "@@sub/part.sql arg\n" +
+                "begin null; end;\n" +
+                "/";
+
+        for (Reader reader : Arrays.asList(new StringReader(script), new SlowReader(script))) {
+            List<ScriptToken> tokens = tokenize(reader);
+
+            assertEquals(tokens.toString(), 10, tokens.size());
+
+            ScriptToken prompt = tokens.get(0);
+            assertEquals(ScriptToken.Kind.PROMPT, prompt.getKind());
+            assertEquals("PROMPT", prompt.getCommand());
+            assertEquals("Start &&name.", prompt.getText());
+            assertEquals(Arrays.asList(6), prompt.getSubstitutions());
+            assertEquals(3, prompt.getLine());
+            assertEquals(1, prompt.getColumn());
+            assertEquals(16, prompt.getOffset());
+            assertEquals(35, prompt.getEndOffset());
+
+            ScriptToken select = tokens.get(1);
+            assertEquals(ScriptToken.Kind.SQL, select.getKind());
+            assertEquals("SELECT q'[a;\n/\n]' x, 'b'';' y -- c;\n  FROM dual",
+                    select.getText());
+            assertEquals(4, select.getLine());
+
+            ScriptToken insert = tokens.get(2);
+            assertEquals(ScriptToken.Kind.SQL, insert.getKind());
+            assertEquals("/* comment ; */ INSERT INTO t\nVALUES (\"a;\n\")", insert.getText());
+            assertEquals(8, insert.getLine());
+            assertEquals(3, insert.getColumn());
+
+            ScriptToken create = tokens.get(3);
+            assertEquals(ScriptToken.Kind.PLSQL, create.getKind());
+            assertEquals("CREATE OR REPLACE\n  EDITIONABLE\nPACKAGE p IS\n" +
+                    "  x CONSTANT CHAR := ';';\nEND p;", create.getText());
+
+            assertEquals(ScriptToken.Kind.SQL, tokens.get(4).getKind());
+            assertEquals("SET TRANSACTION READ ONLY", tokens.get(4).getText());
+
+            assertEquals(ScriptToken.Kind.COMMAND, tokens.get(5).getKind());
+            assertEquals("SET", tokens.get(5).getCommand());
+            assertEquals("define off", tokens.get(5).getText());
+
+            assertEquals(ScriptToken.Kind.DEFINE, tokens.get(6).getKind());
+            assertEquals("x", tokens.get(6).getName());
+            assertEquals("a b", tokens.get(6).getText());
+
+            assertEquals(ScriptToken.Kind.COMMAND, tokens.get(7).getKind());
+            assertEquals("DEFINE", tokens.get(7).getCommand());
+
+            assertEquals(ScriptToken.Kind.INCLUDE, tokens.get(8).getKind());
+            assertEquals("@@", tokens.get(8).getCommand());
+            assertEquals("sub/part.sql", tokens.get(8).getText());
+
+            ScriptToken block = tokens.get(9);
+            assertEquals(ScriptToken.Kind.PLSQL, block.getKind());
+            assertEquals("begin null; end;", block.getText());
+            assertEquals(script.length(), block.getEndOffset());
+            assertTrue(block.isTerminated());
+        }
+
+    }
+
+    /**
+     * Test of next method, of class ScriptTokenizer, with tokens that follow the end of a
+     * comment that started on an earlier line.
+     */
+    public void testNext_afterComment() throws Exception {
+        System.out.println("next_afterComment");
+
+        String script =
+                "/* grants\n */ grant select on t to x;\n" +
+                "/*\n*/ @@part.sql\n" +
+                "/* a\n */ PROMPT done\n" +
+                "/*\n*/ /\n" +
+                "/*\n*/ -- nothing\n";
+
+        List<ScriptToken> tokens = tokenize(new StringReader(script));
+        assertEquals(tokens.toString(), 3, tokens.size());
+
+        ScriptToken grant = tokens.get(0);
+        assertEquals(ScriptToken.Kind.SQL, grant.getKind());
+        assertEquals("grant select on t to x", grant.getText());
+        assertEquals(2, grant.getLine());
+        assertEquals(5, grant.getColumn());
+
+        assertEquals(ScriptToken.Kind.INCLUDE, tokens.get(1).getKind());
+        assertEquals("part.sql", tokens.get(1).getText());
+
+        assertEquals(ScriptToken.Kind.PROMPT, tokens.get(2).getKind());
+        assertEquals("done", tokens.get(2).getText());
+
+    }
+
+    /**
+     * Test of next method, of class ScriptTokenizer, with statements that are not
+     * terminated.
+     */
+    public void testNext_unterminated() throws Exception {
+        System.out.println("next_unterminated");
+
+        String[] scripts = {
+            "SELECT 1 FROM dual",
+            "SELECT 'a;\n/\n' FROM dual",
+            "SELECT q'{a}}'';\n' FROM dual",
+            "SELECT 1 /* ;\n*/\nFROM dual /*;\n/\n*/",
+            "BEGIN\n  NULL;\nEND;\n"
+        };
+
+        for (String script : scripts) {
+            List<ScriptToken> tokens = tokenize(new StringReader(script));
+            assertEquals(script, 1, tokens.size());
+            assertFalse(script, tokens.get(0).isTerminated());
+            assertEquals(script.trim(), tokens.get(0).getText());
+            assertEquals(script.length(), tokens.get(0).getEndOffset());
+        }
+
+    }
+
+}